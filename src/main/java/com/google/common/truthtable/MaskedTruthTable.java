@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable;
+
+import com.google.common.truthtable.impl.FixedCoordinates;
+import com.google.common.truthtable.impl.MaskBuffer;
+import com.google.common.truthtable.impl.MaskLayout;
+
+import java.util.EnumSet;
+
+/**
+ * A low-level view of a {@link TruthTable}, for callers that query it in tight
+ * loops. Axes are identified by their index in the {@link #getMaskLayout()
+ * layout}, and sets of coordinates by masks of their ordinals, so that a query
+ * does not need to build a {@link FixedCoordinates} or allocate its result.
+ *
+ * <p>These queries are equivalent to {@link TruthTable#getAll(Class,
+ * FixedCoordinates)}: a mask with all coordinates of an axis leaves that axis
+ * unconstrained, and clearing the bit of a coordinate excludes it (see
+ * {@link FixedCoordinates#excluding(Enum...)}).
+ *
+ * @author zorzella@google.com
+ */
+public interface MaskedTruthTable {
+
+  /**
+   * The layout of the masks this table takes and returns.
+   */
+  MaskLayout getMaskLayout();
+
+  /**
+   * Returns the mask of all coordinates of the given axis that are still
+   * valid, given a mask of fixed coordinates for each axis (in order of axis
+   * index). A mask of {@code -1L} (or any mask with all coordinates of its
+   * axis) leaves that axis unconstrained. {@code fixedMasks} is not modified.
+   *
+   * @throws IllegalStateException if some axis has more than 64 coordinates
+   *   (see {@link MaskLayout#hasSingleWordAxes()}); use
+   *   {@link #getAll(int, MaskBuffer, long[])} instead
+   * @throws IllegalArgumentException if there is not exactly one mask per axis
+   */
+  long getAll(int axisIndex, long[] fixedMasks);
+
+  /**
+   * Writes the mask of all coordinates of the given axis that are still
+   * valid, given the fixed coordinates in {@code fixedMasks}, into
+   * {@code result}, which must have at least
+   * {@link MaskLayout#getWordCount(int)} words.
+   *
+   * @throws IllegalArgumentException if {@code fixedMasks} has a different
+   *   layout, or {@code result} is too small
+   */
+  void getAll(int axisIndex, MaskBuffer fixedMasks, long[] result);
+
+  /**
+   * Find all coordinates in a given {@code axis} that are still valid, given
+   * the fixed coordinates in {@code fixedMasks}.
+   *
+   * @throws IllegalArgumentException if {@code fixedMasks} has a different
+   *   layout, or {@code axis} was not registered
+   */
+  <E extends Enum<E>> EnumSet<E> getAll(Class<E> axis, MaskBuffer fixedMasks);
+}
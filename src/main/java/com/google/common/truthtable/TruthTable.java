@@ -15,8 +15,14 @@
  */
 package com.google.common.truthtable;
 
+import com.google.common.truthtable.impl.Cell;
+import com.google.common.truthtable.impl.CoordinateWeights;
 import com.google.common.truthtable.impl.FixedCoordinates;
+import com.google.common.truthtable.impl.ProjectedTuples;
+import com.google.common.truthtable.impl.ScoredCell;
 
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -44,4 +50,70 @@ public interface TruthTable {
    * {@link #getAll(Class, FixedCoordinates)}, for an empty {@link FixedCoordinates}.
    */
   <E extends Enum<E>> Set<E> getAll(Class<E> axis);
+
+  /**
+   * Find all the tuples of coordinates over the given {@code axes} (one 
+   * coordinate per axis) that are still part of a valid path, given a set of
+   * fixed coordinates. This is the multi-axis equivalent of 
+   * {@link #getAll(Class, FixedCoordinates)}, but is computed in a single
+   * search, instead of one search per coordinate of all but one axis.
+   * 
+   * @throws IllegalArgumentException if {@code axes} is empty or contains an
+   *   axis that was not registered
+   */
+  @SuppressWarnings("rawtypes")
+  ProjectedTuples project(
+      Set<? extends Class<? extends Enum>> axes, 
+      FixedCoordinates fixedCoordinates);
+
+  /**
+   * Find all the tuples of coordinates over the given {@code axes} that are
+   * part of a valid path. This is equivalent to calling
+   * {@link #project(Set, FixedCoordinates)}, for an empty 
+   * {@link FixedCoordinates}.
+   */
+  @SuppressWarnings("rawtypes")
+  ProjectedTuples project(Set<? extends Class<? extends Enum>> axes);
+
+  /**
+   * Find the (up to) {@code k} true cells with the highest score according to
+   * the given {@code weights}, given a set of fixed coordinates. The result is 
+   * sorted from the highest to the lowest score.
+   * 
+   * <p>This does not enumerate all true cells: partial paths whose best 
+   * possible score cannot beat the {@code k}-th best cell found so far are
+   * pruned.
+   * 
+   * @throws IllegalArgumentException if {@code k} is not positive
+   */
+  List<ScoredCell> getTopCells(int k, CoordinateWeights weights, 
+      FixedCoordinates fixedCoordinates);
+
+  /**
+   * Find the (up to) {@code k} true cells with the highest score. This is 
+   * equivalent to calling 
+   * {@link #getTopCells(int, CoordinateWeights, FixedCoordinates)}, for an 
+   * empty {@link FixedCoordinates}.
+   */
+  List<ScoredCell> getTopCells(int k, CoordinateWeights weights);
+
+  /**
+   * Draws {@code n} true cells, given a set of fixed coordinates, uniformly at
+   * random and independently of each other (i.e. with replacement). Returns an
+   * empty list if there are no such cells.
+   * 
+   * <p>This does not enumerate the true cells: it picks one coordinate per 
+   * axis, each with a probability proportional to the number of true cells 
+   * that are still reachable with it.
+   * 
+   * @throws IllegalArgumentException if {@code n} is negative
+   */
+  List<Cell> sample(FixedCoordinates fixedCoordinates, Random random, int n);
+
+  /**
+   * Draws {@code n} true cells uniformly at random. This is equivalent to
+   * calling {@link #sample(FixedCoordinates, Random, int)}, for an empty 
+   * {@link FixedCoordinates}.
+   */
+  List<Cell> sample(Random random, int n);
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Merges {@link AffinityGroup}s that touch the same axes and the same 
+ * coordinates on all of them but one, into a single group that touches the
+ * union of their coordinates on that axis, until no more groups can be 
+ * merged, so that {@link TruthTableBuilder} builds a table with fewer groups
+ * (see {@link TruthTableBuilder#withFactoring()}).
+ *
+ * <p>Merging changes no answer: the cells of a merged group are the union of
+ * the cells of the groups it replaces, so the cells of a path through it are
+ * the union of the cells of the same path through each of those groups. And 
+ * two of those can not be part of the same path, as the later one would add
+ * no axis.
+ *
+ * <p>Each pass looks at each axis in turn, and merges the groups that have
+ * the same masks (see {@link GroupMasks#maskOf}) but on that axis, found 
+ * through a hash map. Passes are repeated while they merge something. 
+ * Which groups are merged first can matter, so the result is not always the
+ * fewest groups possible.
+ *
+ * @author zorzella@google.com
+ */
+final class AffinityGroupFactorer {
+
+  private AffinityGroupFactorer() {}
+
+  /**
+   * A group being factored: its masks, and the given groups it replaces.
+   */
+  private static final class Factor {
+    final long[] masks;
+    final long axes;
+    final List<AffinityGroup> originals = Lists.newArrayList();
+
+    Factor(MaskLayout layout, AffinityGroup group) {
+      this.masks = GroupMasks.maskOf(layout, group);
+      this.axes = GroupMasks.axesOf(layout, group);
+      originals.add(group);
+    }
+  }
+
+  /**
+   * The axes of a {@link Factor}, and its masks but on a given axis.
+   */
+  private static final class Rest {
+    final long axes;
+    final long[] masks;
+
+    Rest(MaskLayout layout, Factor factor, int axisIndex) {
+      this.axes = factor.axes;
+      this.masks = factor.masks.clone();
+      int offset = layout.getOffset(axisIndex);
+      Arrays.fill(masks, offset, offset + layout.getWordCount(axisIndex), 0L);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Rest)) {
+        return false;
+      }
+      Rest that = (Rest) obj;
+      return axes == that.axes && Arrays.equals(masks, that.masks);
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (axes ^ (axes >>> 32)) * 31 + Arrays.hashCode(masks);
+    }
+  }
+
+  /**
+   * Returns the factored groups of {@code groups}, in the order of 
+   * {@code coordinatesBundleComparator}, and the groups each replaces.
+   */
+  static FactoringReport factor(MaskLayout layout, 
+      Collection<AffinityGroup> groups,
+      Comparator<SingleAxisCoordinateSet> sacsComparator,
+      Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    List<Factor> factors = Lists.newArrayList();
+    for (AffinityGroup group: groups) {
+      factors.add(new Factor(layout, group));
+    }
+
+    boolean merged = true;
+    while (merged) {
+      merged = false;
+      for (int axisIndex = 0; axisIndex < layout.getAxisCount(); 
+          axisIndex++) {
+        Map<Rest, Factor> byRest = Maps.newHashMap();
+        List<Factor> next = Lists.newArrayListWithCapacity(factors.size());
+        int offset = layout.getOffset(axisIndex);
+        for (Factor factor: factors) {
+          if ((factor.axes & (1L << axisIndex)) == 0) {
+            next.add(factor);
+            continue;
+          }
+          Rest rest = new Rest(layout, factor, axisIndex);
+          Factor same = byRest.get(rest);
+          if (same == null) {
+            byRest.put(rest, factor);
+            next.add(factor);
+            continue;
+          }
+          for (int word = offset; 
+              word < offset + layout.getWordCount(axisIndex); word++) {
+            same.masks[word] |= factor.masks[word];
+          }
+          same.originals.addAll(factor.originals);
+          merged = true;
+        }
+        factors = next;
+      }
+    }
+
+    Set<AffinityGroup> result = 
+      new TreeSet<AffinityGroup>(coordinatesBundleComparator);
+    Map<AffinityGroup, ImmutableSet<AffinityGroup>> replaced = 
+      Maps.newLinkedHashMap();
+    for (Factor factor: factors) {
+      if (factor.originals.size() == 1) {
+        result.add(factor.originals.get(0));
+        continue;
+      }
+      AffinityGroup group = toGroup(layout, factor, sacsComparator);
+      result.add(group);
+      replaced.put(group, ImmutableSet.copyOf(factor.originals));
+    }
+    return new FactoringReport(groups.size(), result, replaced);
+  }
+
+  private static AffinityGroup toGroup(MaskLayout layout, Factor factor,
+      Comparator<SingleAxisCoordinateSet> sacsComparator) {
+    List<SingleAxisCoordinateSet> sets = Lists.newArrayList();
+    for (long axes = factor.axes; axes != 0; axes &= axes - 1) {
+      int axisIndex = Long.numberOfTrailingZeros(axes);
+      sets.add(new SingleAxisCoordinateSet(layout.toEnumSet(axisIndex,
+          factor.masks, layout.getOffset(axisIndex))));
+    }
+    return AffinityGroup.forCoordinates(sacsComparator, sets);
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the queries of a {@link TruthTable} asynchronously, on a given 
+ * {@link Executor}, so that callers can overlap them with other work.
+ * 
+ * <p>At most a given number of queries of an {@link AsyncTruthTable} run at
+ * the same time; the others wait, in the order they were made, for a running
+ * one to finish. This keeps a burst of expensive queries on a table from 
+ * taking up all threads of a shared executor.
+ * 
+ * <p>Cancelling the future of a query that is still waiting keeps it from 
+ * ever running. Cancelling it with {@code mayInterruptIfRunning} while it 
+ * runs interrupts its thread, which makes the search of a 
+ * {@link RealTruthTable} give up at once. Queries the executor rejects are
+ * cancelled.
+ * 
+ * <p>What each query cost, in time spent waiting and running, is reported
+ * to a {@link QueryListener}, if one is given.
+ * 
+ * <p>This class is thread-safe.
+ * 
+ * @author zorzella@google.com
+ */
+public final class AsyncTruthTable {
+
+  /**
+   * Told what each query of an {@link AsyncTruthTable} cost, e.g. to keep
+   * track of the slow ones. It is called on the thread that ran the query,
+   * once it finished (successfully or not), and before its future completes,
+   * so it should be quick, and must not throw.
+   */
+  public interface QueryListener {
+
+    /**
+     * Called when the query of the valid coordinates of {@code axis}, given
+     * {@code fixedCoordinates}, finished, after waiting {@code waitingNanos}
+     * for a running query to finish and running for {@code runningNanos}.
+     */
+    void queryFinished(Class<?> axis, FixedCoordinates fixedCoordinates, 
+        long waitingNanos, long runningNanos);
+  }
+
+  private static final QueryListener NO_LISTENER = new QueryListener() {
+    @Override
+    public void queryFinished(Class<?> axis, 
+        FixedCoordinates fixedCoordinates, long waitingNanos, 
+        long runningNanos) {
+    }
+  };
+
+  private final TruthTable truthTable;
+  private final Executor executor;
+  private final int maxConcurrentQueries;
+  private final QueryListener listener;
+
+  /**
+   * The queries that are waiting for a running one to finish.
+   */
+  private final Queue<ListenableFutureTask<?>> waiting = 
+    new LinkedList<ListenableFutureTask<?>>();
+
+  /**
+   * The number of queries that were given to the executor and did not finish.
+   * Guarded by {@link #waiting}.
+   */
+  private int running;
+
+  /**
+   * @throws IllegalArgumentException if {@code maxConcurrentQueries} is not
+   *   positive
+   */
+  public AsyncTruthTable(TruthTable truthTable, Executor executor, 
+      int maxConcurrentQueries) {
+    this(truthTable, executor, maxConcurrentQueries, NO_LISTENER);
+  }
+
+  /**
+   * Same as {@link #AsyncTruthTable(TruthTable, Executor, int)}, reporting 
+   * what each query cost to {@code listener}.
+   */
+  public AsyncTruthTable(TruthTable truthTable, Executor executor, 
+      int maxConcurrentQueries, QueryListener listener) {
+    Preconditions.checkArgument(maxConcurrentQueries > 0, 
+        "maxConcurrentQueries must be positive, but was %s.", 
+        maxConcurrentQueries);
+    this.truthTable = Preconditions.checkNotNull(truthTable);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.maxConcurrentQueries = maxConcurrentQueries;
+    this.listener = Preconditions.checkNotNull(listener);
+  }
+
+  public TruthTable getTruthTable() {
+    return truthTable;
+  }
+
+  /**
+   * Asynchronously finds all coordinates in a given {@code axis} that are 
+   * still valid, given a set of fixed coordinates (see 
+   * {@link TruthTable#getAll(Class, FixedCoordinates)}).
+   */
+  public <E extends Enum<E>> ListenableFuture<Set<E>> getAllAsync(
+      final Class<E> axis, final FixedCoordinates fixedCoordinates) {
+    final long made = System.nanoTime();
+    ListenableFutureTask<Set<E>> result = ListenableFutureTask.create(
+        new Callable<Set<E>>() {
+          @Override
+          public Set<E> call() {
+            long started = System.nanoTime();
+            boolean wereInterruptible = InterruptibleQueries.begin();
+            try {
+              return truthTable.getAll(axis, fixedCoordinates);
+            } finally {
+              InterruptibleQueries.end(wereInterruptible);
+              listener.queryFinished(axis, fixedCoordinates, started - made,
+                  System.nanoTime() - started);
+            }
+          }
+        });
+    submit(result);
+    return result;
+  }
+
+  /**
+   * Asynchronously runs {@link #getAllAsync(Class, FixedCoordinates)} for 
+   * each of the given {@code fixedCoordinates}. The result has the sets of 
+   * valid coordinates in the same order. If any query fails, so does the
+   * result; cancelling the result cancels all queries.
+   */
+  public <E extends Enum<E>> ListenableFuture<List<Set<E>>> getAllAsync(
+      Class<E> axis, List<FixedCoordinates> fixedCoordinates) {
+    final List<ListenableFuture<Set<E>>> queries = Lists.newArrayList();
+    for (FixedCoordinates each : fixedCoordinates) {
+      queries.add(getAllAsync(axis, each));
+    }
+    final ListenableFuture<List<Set<E>>> result = Futures.allAsList(queries);
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          for (ListenableFuture<Set<E>> query : queries) {
+            query.cancel(true);
+          }
+        }
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return result;
+  }
+
+  /**
+   * The number of queries that were made but did not start running yet.
+   */
+  int getWaitingCount() {
+    synchronized (waiting) {
+      return waiting.size();
+    }
+  }
+
+  private void submit(ListenableFutureTask<?> query) {
+    synchronized (waiting) {
+      if (running == maxConcurrentQueries) {
+        waiting.add(query);
+        return;
+      }
+      running++;
+    }
+    execute(query);
+  }
+
+  private void execute(final ListenableFutureTask<?> query) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            query.run();
+          } finally {
+            finished();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Completes the query, so that no one waits for it forever
+      query.cancel(false);
+      finished();
+    }
+  }
+
+  /**
+   * Called when a query that was given to the executor finishes, to start 
+   * the next one that is waiting, if any.
+   */
+  private void finished() {
+    ListenableFutureTask<?> next;
+    synchronized (waiting) {
+      next = waiting.poll();
+      if (next == null) {
+        running--;
+        return;
+      }
+    }
+    execute(next);
+  }
+}
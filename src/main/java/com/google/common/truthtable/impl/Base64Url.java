@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+
+/**
+ * The URL- and filename-safe base64 encoding of RFC 4648 (i.e. with '-' and
+ * '_' instead of '+' and '/'), without padding, so that encoded bytes can be
+ * used as is in URLs and cookies.
+ *
+ * @author zorzella@google.com
+ */
+final class Base64Url {
+
+  private static final char[] ALPHABET =
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+        .toCharArray();
+
+  private static final int[] VALUES = new int[128];
+  static {
+    Arrays.fill(VALUES, -1);
+    for (int i = 0; i < ALPHABET.length; i++) {
+      VALUES[ALPHABET[i]] = i;
+    }
+  }
+
+  private Base64Url() {}
+
+  static String encode(byte[] bytes) {
+    StringBuilder result = new StringBuilder((bytes.length * 4 + 2) / 3);
+    int i = 0;
+    for (; i + 2 < bytes.length; i += 3) {
+      int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8
+          | (bytes[i + 2] & 0xFF);
+      result.append(ALPHABET[bits >>> 18])
+          .append(ALPHABET[(bits >>> 12) & 0x3F])
+          .append(ALPHABET[(bits >>> 6) & 0x3F])
+          .append(ALPHABET[bits & 0x3F]);
+    }
+    int left = bytes.length - i;
+    if (left == 1) {
+      int bits = (bytes[i] & 0xFF) << 16;
+      result.append(ALPHABET[bits >>> 18])
+          .append(ALPHABET[(bits >>> 12) & 0x3F]);
+    } else if (left == 2) {
+      int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+      result.append(ALPHABET[bits >>> 18])
+          .append(ALPHABET[(bits >>> 12) & 0x3F])
+          .append(ALPHABET[(bits >>> 6) & 0x3F]);
+    }
+    return result.toString();
+  }
+
+  /**
+   * @throws IllegalArgumentException if {@code encoded} is not valid
+   *   unpadded base64url
+   */
+  static byte[] decode(String encoded) {
+    if (encoded.length() % 4 == 1) {
+      throw new IllegalArgumentException(
+        "Invalid base64url length: " + encoded.length());
+    }
+    byte[] result = new byte[encoded.length() * 3 / 4];
+    int bits = 0;
+    int bitCount = 0;
+    int j = 0;
+    for (int i = 0; i < encoded.length(); i++) {
+      char c = encoded.charAt(i);
+      int value = c < VALUES.length ? VALUES[c] : -1;
+      if (value == -1) {
+        throw new IllegalArgumentException(String.format(
+          "Invalid base64url character '%s' at %s.", c, i));
+      }
+      bits = (bits << 6) | value;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        result[j++] = (byte) (bits >>> bitCount);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Runs many {@link MaskSearch} queries for the same axis at once, sharing 
+ * the work their fixed coordinates have in common.
+ *
+ * <p>The queries are sorted by their fixed masks, one axis after the other
+ * (in order of axis index), which lays them out as the leaves of a trie: 
+ * queries that fix the first axes the same way are next to each other. The
+ * trie is walked depth-first, and at each node the groups that are not 
+ * compatible with the fixed coordinates of its axis are removed from the 
+ * live groups (see {@link GroupMasks#supports}), once for all queries 
+ * below it. If that leaves some axis with no live group, no query below the
+ * node has any valid coordinate, and none of them is searched. Identical 
+ * queries end up at the same leaf, and are searched once.
+ *
+ * <p>The search of each leaf only goes through its live groups, so the more
+ * queries share the coordinates of the first axes, the more of the work of
+ * pruning the groups that cannot be part of their paths is shared. 
+ *
+ * @author zorzella@google.com
+ */
+final class BatchSearch {
+
+  private final GroupMasks groups;
+  private final MaskLayout layout;
+  private final MaskSearch search;
+  private final int groupWords;
+
+  /**
+   * For each axis, the groups that touch it, as a bit per group.
+   */
+  private final long[][] groupsTouchingAxis;
+
+  /**
+   * For each depth of the trie (i.e. each axis, plus one), the live groups.
+   */
+  private final long[][] liveGroups;
+
+  private int axisIndex;
+  private long[][] fixedMasks;
+  private Integer[] order;
+  private long[][] results;
+
+  BatchSearch(GroupMasks groups, MaskSearch search) {
+    this.groups = groups;
+    this.layout = groups.layout;
+    this.search = search;
+    this.groupWords = (groups.size() + 63) >>> 6;
+    this.groupsTouchingAxis = new long[layout.getAxisCount()][groupWords];
+    for (int axis = 0; axis < layout.getAxisCount(); axis++) {
+      for (int group: groups.groupsTouchingAxis[axis]) {
+        groupsTouchingAxis[axis][group >>> 6] |= 1L << group;
+      }
+    }
+    this.liveGroups = new long[layout.getAxisCount() + 1][groupWords];
+  }
+
+  /**
+   * Returns, for each of the given masks of fixed coordinates (see
+   * {@link MaskSearch#getAll(int, long[], long[])}), the mask of the valid
+   * coordinates of the given axis. Identical queries may share the same 
+   * result array.
+   */
+  long[][] getAll(int axisIndex, final long[][] fixedMasks) {
+    this.axisIndex = axisIndex;
+    this.fixedMasks = fixedMasks;
+    this.results = new long[fixedMasks.length][];
+    this.order = new Integer[fixedMasks.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer x, Integer y) {
+        return compareMasks(fixedMasks[x], fixedMasks[y], 0, 
+            layout.getTotalWordCount());
+      }
+    });
+
+    Arrays.fill(liveGroups[0], -1L);
+    if (groups.size() % 64 != 0) {
+      liveGroups[0][groupWords - 1] = (1L << groups.size()) - 1;
+    }
+    walk(0, order.length, 0);
+    return results;
+  }
+
+  /**
+   * Walks the node of the trie at the given depth (i.e. axis index) that has
+   * the queries from {@code from} (inclusive) to {@code to} (exclusive) of
+   * {@link #order} below it.
+   */
+  private void walk(int from, int to, int depth) {
+    if (depth == layout.getAxisCount()) {
+      long[] result = new long[layout.getWordCount(axisIndex)];
+      search.getAll(axisIndex, fixedMasks[order[from]], result, 
+          liveGroups[depth]);
+      for (int i = from; i < to; i++) {
+        results[order[i]] = result;
+      }
+      return;
+    }
+    int offset = layout.getOffset(depth);
+    int words = layout.getWordCount(depth);
+    while (from < to) {
+      long[] masks = fixedMasks[order[from]];
+      int end = from + 1;
+      while (end < to && compareMasks(
+          masks, fixedMasks[order[end]], offset, offset + words) == 0) {
+        end++;
+      }
+      if (restrict(depth, masks)) {
+        walk(from, end, depth + 1);
+      } else {
+        long[] empty = new long[layout.getWordCount(axisIndex)];
+        for (int i = from; i < end; i++) {
+          results[order[i]] = empty;
+        }
+      }
+      from = end;
+    }
+  }
+
+  /**
+   * Writes the live groups of the given depth, narrowed down to those that 
+   * are compatible with the fixed coordinates of its axis, into the live 
+   * groups of the next depth. Returns false if that leaves some axis with no
+   * live group touching it.
+   */
+  private boolean restrict(int depth, long[] masks) {
+    long[] live = liveGroups[depth];
+    long[] next = liveGroups[depth + 1];
+    int offset = layout.getOffset(depth);
+    boolean unconstrained = true;
+    for (int word = 0; word < layout.getWordCount(depth); word++) {
+      unconstrained &= 
+        (masks[offset + word] & layout.universe[offset + word]) 
+            == layout.universe[offset + word];
+    }
+    if (unconstrained) {
+      System.arraycopy(live, 0, next, 0, groupWords);
+      return true;
+    }
+    Arrays.fill(next, 0L);
+    long[][] supports = groups.supports[depth];
+    for (int word = 0; word < layout.getWordCount(depth); word++) {
+      long bits = masks[offset + word] & layout.universe[offset + word];
+      for (; bits != 0; bits &= bits - 1) {
+        long[] support = 
+          supports[(word << 6) + Long.numberOfTrailingZeros(bits)];
+        for (int i = 0; i < groupWords; i++) {
+          next[i] |= support[i];
+        }
+      }
+    }
+    for (int i = 0; i < groupWords; i++) {
+      next[i] &= live[i];
+    }
+    for (int axis = 0; axis < layout.getAxisCount(); axis++) {
+      if (!intersects(next, groupsTouchingAxis[axis])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean intersects(long[] x, long[] y) {
+    for (int i = 0; i < groupWords; i++) {
+      if ((x[i] & y[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int compareMasks(long[] x, long[] y, int from, int to) {
+    for (int word = from; word < to; word++) {
+      if (x[word] != y[word]) {
+        return x[word] < y[word] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file with results of {@code getAll} queries of a table, by their
+ * {@link QueryKey}, so that a {@link CachingTruthTable} does not start cold
+ * after a restart. The file is tagged with the fingerprint of the table (see 
+ * {@link RealTruthTable#getFingerprint()}), and is not used for other 
+ * tables.
+ *
+ * <p>The file is laid out as a hash table, and is memory-mapped, so that
+ * opening it reads nothing but its header, and looking up a result reads
+ * only the pages it is on. It is:
+ *
+ * <ul>
+ * <li>a header: {@link #MAGIC}, {@link #VERSION}, the fingerprint of the 
+ *   table, the number of words of its masks, the number of slots and the 
+ *   number of results</li>
+ * <li>the slots, a power of two of them: the position of a result in the
+ *   file, or 0 for empty slots. A result is in the slot of the hash code of 
+ *   its key, or in the first empty one after it</li>
+ * <li>the results: the axis index and the fixed masks of the key, and the
+ *   mask of the valid coordinates of the axis</li>
+ * </ul>
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+final class CacheSnapshot {
+
+  private static final int MAGIC = 0x54544353;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+
+  private final MaskLayout layout;
+  private final long fingerprint;
+  private final int totalWords;
+  private final int slotMask;
+  private final int resultCount;
+
+  /**
+   * Only ever read with absolute gets, which are safe to share among 
+   * threads.
+   */
+  private final MappedByteBuffer buffer;
+
+  private CacheSnapshot(MaskLayout layout, long fingerprint, int slotCount, 
+      int resultCount, MappedByteBuffer buffer) {
+    this.layout = layout;
+    this.fingerprint = fingerprint;
+    this.totalWords = layout.getTotalWordCount();
+    this.slotMask = slotCount - 1;
+    this.resultCount = resultCount;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Writes the given {@code results} of a table with the given 
+   * {@code fingerprint} and {@code layout} to {@code file}, replacing it. 
+   * The results are written to a new file that then replaces 
+   * {@code file}, so that a crash never leaves a partial file behind, and
+   * concurrent writes each write their own file.
+   *
+   * <p>{@code results} may be a live view of a cache: a single copy of it is
+   * taken first, and written.
+   */
+  static void write(File file, long fingerprint, MaskLayout layout, 
+      Map<QueryKey, long[]> results) throws IOException {
+    int totalWords = layout.getTotalWordCount();
+    ImmutableMap<QueryKey, long[]> copy = ImmutableMap.copyOf(results);
+    List<QueryKey> keys = copy.keySet().asList();
+    int slotCount = Integer.highestOneBit(Math.max(1, keys.size()) * 2);
+    int[] slots = new int[slotCount];
+    long position = HEADER_BYTES + 4L * slotCount;
+    for (QueryKey key : keys) {
+      if (position > Integer.MAX_VALUE) {
+        throw new IOException("Too many results for a single snapshot.");
+      }
+      int slot = key.hashCode() & (slotCount - 1);
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & (slotCount - 1);
+      }
+      slots[slot] = (int) position;
+      position += 4 + 8L * (totalWords + layout.getWordCount(key.axisIndex));
+    }
+
+    File temp = File.createTempFile(
+        file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    boolean written = false;
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fingerprint);
+      out.writeInt(totalWords);
+      out.writeInt(slotCount);
+      out.writeInt(keys.size());
+      for (int slot : slots) {
+        out.writeInt(slot);
+      }
+      for (QueryKey key : keys) {
+        out.writeInt(key.axisIndex);
+        for (long word : key.fixedMasks) {
+          out.writeLong(word);
+        }
+        long[] result = copy.get(key);
+        for (int word = 0; word < layout.getWordCount(key.axisIndex); 
+            word++) {
+          out.writeLong(result[word]);
+        }
+      }
+      out.close();
+      // Not atomic on all platforms, but the header is checked when opened
+      if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+        throw new IOException(String.format(
+          "Could not rename '%s' to '%s'.", temp, file));
+      }
+      written = true;
+    } finally {
+      out.close();
+      if (!written) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Maps the snapshot in {@code file}, if it exists and is for a table with
+   * the given {@code fingerprint} and {@code layout}. Returns null 
+   * otherwise, including if it is not a snapshot at all.
+   */
+  static CacheSnapshot open(File file, long fingerprint, MaskLayout layout)
+      throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer buffer;
+    try {
+      if (raf.length() < HEADER_BYTES || raf.length() > Integer.MAX_VALUE) {
+        return null;
+      }
+      // The mapping stays valid after the file is closed
+      buffer = raf.getChannel().map(
+          FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+    int slotCount = buffer.getInt(20);
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION 
+        || buffer.getLong(8) != fingerprint
+        || buffer.getInt(16) != layout.getTotalWordCount()
+        || slotCount <= 0 || Integer.bitCount(slotCount) != 1
+        || HEADER_BYTES + 4L * slotCount > buffer.capacity()) {
+      return null;
+    }
+    return new CacheSnapshot(layout, fingerprint, slotCount, 
+        buffer.getInt(24), buffer);
+  }
+
+  long getFingerprint() {
+    return fingerprint;
+  }
+
+  int getResultCount() {
+    return resultCount;
+  }
+
+  /**
+   * Returns the result for {@code key}, or null if there is none (or the 
+   * file turns out to be corrupt).
+   */
+  long[] get(QueryKey key) {
+    for (int slot = key.hashCode() & slotMask, probes = 0; 
+        probes <= slotMask; slot = (slot + 1) & slotMask, probes++) {
+      int position = buffer.getInt(HEADER_BYTES + 4 * slot);
+      if (position == 0) {
+        return null;
+      }
+      int axisIndex = position < HEADER_BYTES 
+          || position + 4L + 8L * totalWords > buffer.capacity() 
+          ? -1 : buffer.getInt(position);
+      if (axisIndex < 0 || axisIndex >= layout.getAxisCount()) {
+        return null;
+      }
+      if (axisIndex != key.axisIndex || !fixedMasksEqual(position + 4, key)) {
+        continue;
+      }
+      int resultPosition = position + 4 + 8 * totalWords;
+      long[] result = new long[layout.getWordCount(axisIndex)];
+      if (resultPosition + 8L * result.length > buffer.capacity()) {
+        return null;
+      }
+      for (int word = 0; word < result.length; word++) {
+        result[word] = buffer.getLong(resultPosition + 8 * word);
+      }
+      return result;
+    }
+    return null;
+  }
+
+  private boolean fixedMasksEqual(int position, QueryKey key) {
+    for (int word = 0; word < totalWords; word++) {
+      if (buffer.getLong(position + 8 * word) != key.fixedMasks[word]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
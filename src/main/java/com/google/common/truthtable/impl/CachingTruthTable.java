@@ -0,0 +1,342 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link TruthTable} that caches the results of the {@code getAll} queries
+ * of the {@link RealTruthTable} it wraps, for query mixes where a few 
+ * queries make up most of the traffic.
+ *
+ * <p>Results are cached by a {@link QueryKey}, so queries whose
+ * {@link FixedCoordinates} leave the same coordinates of each axis share an
+ * entry, and looking one up never hashes the {@link FixedCoordinates}. Each
+ * result is kept as the mask of the coordinates of its axis, and each caller
+ * gets its own set.
+ *
+ * <p>The cache holds up to a given number of results, and evicts the least
+ * recently used ones beyond that. It is split into segments, each with its
+ * own lock and its own LRU order, so that queries that hit different
+ * segments never contend. A result that is being computed is only computed
+ * once, however many threads ask for it.
+ *
+ * <p>The wrapped table can be replaced by a rebuilt one with 
+ * {@link #setTruthTable(RealTruthTable)}, which drops all cached results at
+ * once: no query made after it returns can get a result of the old table.
+ *
+ * <p>The cached results can be saved to a file, and loaded after a restart
+ * (see {@link #saveTo(File)} and {@link #loadFrom(File)}), so that the 
+ * cache does not start cold.
+ *
+ * <p>Other queries are not cached, and simply go to the wrapped table.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+public final class CachingTruthTable implements TruthTable {
+
+  /**
+   * A table, and the cache of its results. Replacing the table replaces the 
+   * whole generation, so that a result of the old table that is still being
+   * computed can't make it into the new cache.
+   */
+  private final class Generation {
+    final RealTruthTable truthTable;
+    final MaskLayout layout;
+    final Cache<QueryKey, long[]> results;
+
+    /**
+     * Results of an earlier run, to be loaded before searching, or null.
+     */
+    final CacheSnapshot snapshot;
+
+    Generation(final RealTruthTable truthTable, 
+        final CacheSnapshot snapshot) {
+      this.truthTable = truthTable;
+      this.layout = truthTable.getMaskLayout();
+      this.snapshot = snapshot;
+      this.results = CacheBuilder.newBuilder()
+          .maximumSize(maxCachedResults)
+          .concurrencyLevel(concurrencyLevel)
+          .removalListener(new RemovalListener<QueryKey, long[]>() {
+            @Override
+            public void onRemoval(
+                RemovalNotification<QueryKey, long[]> notification) {
+              if (notification.wasEvicted()) {
+                evictionCount.incrementAndGet();
+              }
+            }
+          })
+          .build(new CacheLoader<QueryKey, long[]>() {
+            @Override
+            public long[] load(QueryKey key) {
+              missCount.incrementAndGet();
+              long[] restored = snapshot == null ? null : snapshot.get(key);
+              if (restored != null) {
+                restoredCount.incrementAndGet();
+                return restored;
+              }
+              MaskBuffer fixedMasks = new MaskBuffer(layout);
+              System.arraycopy(key.fixedMasks, 0, fixedMasks.words, 0, 
+                  fixedMasks.words.length);
+              long[] result = new long[layout.getWordCount(key.axisIndex)];
+              truthTable.getAll(key.axisIndex, fixedMasks, result);
+              return result;
+            }
+          });
+    }
+  }
+
+  private static final Logger logger = 
+    Logger.getLogger(CachingTruthTable.class.getName());
+
+  private final int maxCachedResults;
+  private final int concurrencyLevel;
+  private volatile Generation generation;
+
+  private final AtomicLong queryCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong restoredCount = new AtomicLong();
+
+  /**
+   * Caches up to {@code maxCachedResults} results of {@code truthTable}, in
+   * as many segments as suit {@code concurrencyLevel} concurrent queries.
+   */
+  public CachingTruthTable(RealTruthTable truthTable, int maxCachedResults,
+      int concurrencyLevel) {
+    Preconditions.checkArgument(maxCachedResults >= 0, 
+        "maxCachedResults must not be negative, but was %s.", 
+        maxCachedResults);
+    Preconditions.checkArgument(concurrencyLevel > 0, 
+        "concurrencyLevel must be positive, but was %s.", concurrencyLevel);
+    this.maxCachedResults = maxCachedResults;
+    this.concurrencyLevel = concurrencyLevel;
+    this.generation = new Generation(truthTable, null);
+  }
+
+  public CachingTruthTable(RealTruthTable truthTable, int maxCachedResults) {
+    this(truthTable, maxCachedResults, 4);
+  }
+
+  /**
+   * Replaces the wrapped table with {@code truthTable} (e.g., after the table
+   * was rebuilt), dropping all cached results. The snapshot loaded by
+   * {@link #loadFrom(File)}, if any, is kept only if the new table has the
+   * same contents.
+   */
+  public synchronized void setTruthTable(RealTruthTable truthTable) {
+    CacheSnapshot snapshot = generation.snapshot;
+    if (snapshot != null 
+        && snapshot.getFingerprint() != truthTable.getFingerprint()) {
+      snapshot = null;
+    }
+    generation = new Generation(truthTable, snapshot);
+  }
+
+  /**
+   * Writes the cached results to {@code file}, tagged with the fingerprint 
+   * of the table (see {@link RealTruthTable#getFingerprint()}), so that 
+   * they can be loaded after a restart (see {@link #loadFrom(File)}). E.g., 
+   * on shutdown, or periodically (see 
+   * {@link #startSaving(File, ScheduledExecutorService, long, TimeUnit)}).
+   */
+  public void saveTo(File file) throws IOException {
+    Generation generation = this.generation;
+    CacheSnapshot.write(file, generation.truthTable.getFingerprint(), 
+        generation.layout, generation.results.asMap());
+  }
+
+  /**
+   * Uses the results saved by {@link #saveTo(File)} in {@code file}, if it 
+   * exists and was saved for a table with the same contents. Returns whether
+   * it did.
+   *
+   * <p>The file is memory-mapped, and nothing but its header is read here: 
+   * each saved result is read when it is first asked for, instead of 
+   * searching. All results cached so far are dropped.
+   */
+  public synchronized boolean loadFrom(File file) throws IOException {
+    RealTruthTable truthTable = generation.truthTable;
+    CacheSnapshot snapshot = CacheSnapshot.open(
+        file, truthTable.getFingerprint(), truthTable.getMaskLayout());
+    if (snapshot == null) {
+      return false;
+    }
+    generation = new Generation(truthTable, snapshot);
+    return true;
+  }
+
+  /**
+   * Runs {@link #saveTo(File)} every {@code period} on {@code executor}, 
+   * until the returned future is cancelled. A failed save does not stop
+   * the next ones.
+   */
+  public ScheduledFuture<?> startSaving(final File file, 
+      ScheduledExecutorService executor, long period, TimeUnit unit) {
+    return executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          saveTo(file);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Could not save the cache to " + file, e);
+        } catch (RuntimeException e) {
+          // Thrown out of run(), it would cancel all later saves
+          logger.log(Level.WARNING, "Could not save the cache to " + file, e);
+        }
+      }
+    }, period, period, unit);
+  }
+
+  public RealTruthTable getTruthTable() {
+    return generation.truthTable;
+  }
+
+  /**
+   * Drops all cached results.
+   */
+  public void invalidateAll() {
+    generation.results.invalidateAll();
+  }
+
+  @Override
+  public <E extends Enum<E>> Set<E> getAll(
+      Class<E> axis, FixedCoordinates fixedCoordinates) {
+    Generation generation = this.generation;
+    MaskLayout layout = generation.layout;
+    MaskBuffer fixedMasks = new MaskBuffer(layout).setAll(fixedCoordinates);
+    int axisIndex = layout.indexOf(axis);
+    queryCount.incrementAndGet();
+    long[] result;
+    try {
+      result = generation.results.getUnchecked(
+          new QueryKey(axisIndex, fixedMasks.words));
+    } catch (UncheckedExecutionException e) {
+      throw (RuntimeException) e.getCause();
+    }
+    return layout.toEnumSet(axis, result);
+  }
+
+  @Override
+  public <E extends Enum<E>> Set<E> getAll(Class<E> axis) {
+    return getAll(axis, new FixedCoordinates());
+  }
+
+  /**
+   * The number of {@code getAll} queries made so far.
+   */
+  public long getQueryCount() {
+    return queryCount.get();
+  }
+
+  /**
+   * The number of {@code getAll} queries answered from the cache.
+   */
+  public long getHitCount() {
+    return queryCount.get() - missCount.get();
+  }
+
+  /**
+   * The number of {@code getAll} queries that missed the cache.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * The number of {@code getAll} queries that missed the cache, but were
+   * answered from the results loaded by {@link #loadFrom(File)}.
+   */
+  public long getRestoredCount() {
+    return restoredCount.get();
+  }
+
+  /**
+   * The number of results evicted to make room for others (but not those
+   * dropped by {@link #invalidateAll()} or 
+   * {@link #setTruthTable(RealTruthTable)}).
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * The number of results cached right now.
+   */
+  public long getCachedCount() {
+    return generation.results.size();
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes,
+      FixedCoordinates fixedCoordinates) {
+    return generation.truthTable.project(axes, fixedCoordinates);
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes) {
+    return generation.truthTable.project(axes);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights,
+      FixedCoordinates fixedCoordinates) {
+    return generation.truthTable.getTopCells(k, weights, fixedCoordinates);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights) {
+    return generation.truthTable.getTopCells(k, weights);
+  }
+
+  @Override
+  public List<Cell> sample(FixedCoordinates fixedCoordinates, Random random,
+      int n) {
+    return generation.truthTable.sample(fixedCoordinates, random, n);
+  }
+
+  @Override
+  public List<Cell> sample(Random random, int n) {
+    return generation.truthTable.sample(random, n);
+  }
+
+  @Override
+  public String toString() {
+    return generation.truthTable.toString();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A single cell of a truth table, i.e. a complete, singular set of 
+ * coordinates.
+ *
+ * @author zorzella@google.com
+ */
+public final class Cell {
+
+  private final ImmutableList<Enum<?>> coordinates;
+
+  Cell(ImmutableList<Enum<?>> coordinates) {
+    this.coordinates = coordinates;
+  }
+
+  /**
+   * The coordinates of this cell, one per axis, ordered by axis name (see
+   * {@link TruthTableComparators#FOR_AXIS}).
+   */
+  public ImmutableList<Enum<?>> getCoordinates() {
+    return coordinates;
+  }
+
+  /**
+   * Returns the coordinate of this cell in the given {@code axis}.
+   *
+   * @throws IllegalArgumentException if {@code axis} is not an axis of this
+   *   cell
+   */
+  public <E extends Enum<E>> E get(Class<E> axis) {
+    for (Enum<?> coordinate : coordinates) {
+      if (coordinate.getDeclaringClass() == axis) {
+        return axis.cast(coordinate);
+      }
+    }
+    throw new IllegalArgumentException(String.format(
+      "Axis '%s' is not touched by '%s'.", axis, coordinates));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Cell)) {
+      return false;
+    }
+    return coordinates.equals(((Cell) obj).coordinates);
+  }
+
+  @Override
+  public int hashCode() {
+    return coordinates.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return coordinates.toString();
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.impl.RealTruthTable.PathTrack;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Draws true cells of a {@link RealTruthTable} uniformly at random.
+ *
+ * <p>The true cells (given some fixed coordinates) are the union of the
+ * cartesian products of the coordinates of all complete valid paths. We call
+ * each of those products a box. Boxes normally overlap, so the number of
+ * true cells is not simply the sum of their sizes. It is, however, easy to
+ * count recursively, one axis at a time: two coordinates of the first axis
+ * that are in exactly the same boxes lead to the same number of cells over
+ * the remaining axes, so we only need to count once per distinct set of boxes
+ * (which we memoize).
+ *
+ * <p>A cell is then drawn one axis at a time, picking each coordinate with a
+ * probability proportional to the number of cells that contain it (and the
+ * coordinates already picked). This makes every cell exactly equally likely,
+ * without ever enumerating them.
+ *
+ * @author zorzella@google.com
+ */
+class CellSampler {
+
+  /**
+   * For each axis, all its coordinates, in ordinal order.
+   */
+  private final Enum<?>[][] coordinates;
+
+  /**
+   * All distinct boxes. For each box, and each axis, the coordinates in that
+   * box.
+   */
+  private final EnumSet<?>[][] boxes;
+
+  /**
+   * For each axis, the memoized number of cells, over that and all following
+   * axes, within the union of a given set of boxes.
+   */
+  private final Map<BitSet, Long>[] counts;
+
+  CellSampler(RealTruthTable truthTable, FixedCoordinates fixedCoordinates) {
+    ImmutableList<Class<? extends Enum>> axes = truthTable.axesInNameOrder;
+    this.coordinates = new Enum<?>[axes.size()][];
+    // There are no arrays of a generic type, only of raw ones
+    @SuppressWarnings("unchecked")
+    Map<BitSet, Long>[] counts = new Map[axes.size()];
+    this.counts = counts;
+    for (int i = 0; i < coordinates.length; i++) {
+      coordinates[i] = axes.get(i).getEnumConstants();
+      counts[i] = new HashMap<BitSet, Long>();
+    }
+    Set<List<EnumSet<?>>> distinctBoxes = new LinkedHashSet<List<EnumSet<?>>>();
+    for (PathTrack validPath:
+        truthTable.getAllCompleteValidPaths(fixedCoordinates)) {
+      EnumSet<?>[] box = new EnumSet<?>[axes.size()];
+      for (int i = 0; i < box.length; i++) {
+        box[i] = validPath.getAxesToCoordinates().get(axes.get(i));
+      }
+      distinctBoxes.add(Arrays.asList(box));
+    }
+    this.boxes = new EnumSet<?>[distinctBoxes.size()][];
+    int i = 0;
+    for (List<EnumSet<?>> box: distinctBoxes) {
+      boxes[i++] = box.toArray(new EnumSet<?>[box.size()]);
+    }
+  }
+
+  /**
+   * Returns the number of true cells.
+   */
+  long count() {
+    return count(allBoxes(), 0);
+  }
+
+  List<Cell> sample(Random random, int n) {
+    BitSet allBoxes = allBoxes();
+    long total = count(allBoxes, 0);
+    if (total == 0) {
+      return Collections.emptyList();
+    }
+    List<Cell> result = Lists.newArrayListWithCapacity(n);
+    for (int i = 0; i < n; i++) {
+      result.add(sample(random, allBoxes));
+    }
+    return result;
+  }
+
+  private Cell sample(Random random, BitSet allBoxes) {
+    Enum<?>[] cell = new Enum<?>[coordinates.length];
+    BitSet boxesLeft = allBoxes;
+    for (int axis = 0; axis < coordinates.length; axis++) {
+      long pick = nextLong(random, count(boxesLeft, axis));
+      for (Enum<?> coordinate: coordinates[axis]) {
+        BitSet boxesWithCoordinate = getBoxesWith(boxesLeft, axis, coordinate);
+        if (boxesWithCoordinate.isEmpty()) {
+          continue;
+        }
+        pick -= count(boxesWithCoordinate, axis + 1);
+        if (pick < 0) {
+          cell[axis] = coordinate;
+          boxesLeft = boxesWithCoordinate;
+          break;
+        }
+      }
+    }
+    return new Cell(ImmutableList.copyOf(cell));
+  }
+
+  private BitSet allBoxes() {
+    BitSet result = new BitSet(boxes.length);
+    result.set(0, boxes.length);
+    return result;
+  }
+
+  /**
+   * Returns the number of distinct cells, over {@code axis} and all following
+   * axes, within the union of the given {@code boxesToCount}.
+   */
+  private long count(BitSet boxesToCount, int axis) {
+    if (boxesToCount.isEmpty()) {
+      return 0;
+    }
+    if (axis == coordinates.length) {
+      return 1;
+    }
+    Long memoized = counts[axis].get(boxesToCount);
+    if (memoized != null) {
+      return memoized;
+    }
+    // Coordinates that are in exactly the same boxes lead to the same count
+    Map<BitSet, Integer> coordinatesPerBoxes = new HashMap<BitSet, Integer>();
+    for (Enum<?> coordinate: coordinates[axis]) {
+      BitSet boxesWithCoordinate = getBoxesWith(boxesToCount, axis, coordinate);
+      if (boxesWithCoordinate.isEmpty()) {
+        continue;
+      }
+      Integer sameBoxes = coordinatesPerBoxes.get(boxesWithCoordinate);
+      coordinatesPerBoxes.put(boxesWithCoordinate,
+          sameBoxes == null ? 1 : sameBoxes + 1);
+    }
+    long result = 0;
+    for (Map.Entry<BitSet, Integer> entry: coordinatesPerBoxes.entrySet()) {
+      try {
+        result = checkedAdd(result, 
+            checkedMultiply(entry.getValue(), count(entry.getKey(), axis + 1)));
+      } catch (ArithmeticException e) {
+        throw new IllegalStateException(
+          "There are too many true cells to sample from.", e);
+      }
+    }
+    counts[axis].put(boxesToCount, result);
+    return result;
+  }
+
+  private BitSet getBoxesWith(BitSet candidates, int axis, Enum<?> coordinate) {
+    BitSet result = new BitSet(boxes.length);
+    for (int box = candidates.nextSetBit(0); box >= 0;
+        box = candidates.nextSetBit(box + 1)) {
+      if (boxes[box][axis].contains(coordinate)) {
+        result.set(box);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns {@code a + b}, throwing an {@link ArithmeticException} if it 
+   * overflows.
+   */
+  @VisibleForTesting
+  static long checkedAdd(long a, long b) {
+    long result = a + b;
+    // Overflowing makes the sign of the result differ from both of theirs
+    if (((a ^ result) & (b ^ result)) < 0) {
+      throw new ArithmeticException(String.format(
+        "%s + %s overflows.", a, b));
+    }
+    return result;
+  }
+
+  /**
+   * Returns {@code a * b}, throwing an {@link ArithmeticException} if it 
+   * overflows.
+   */
+  @VisibleForTesting
+  static long checkedMultiply(long a, long b) {
+    long result = a * b;
+    // Wrapped products can have any sign, but can not be divided back
+    if (a != 0 && (result / a != b || (a == -1 && b == Long.MIN_VALUE))) {
+      throw new ArithmeticException(String.format(
+        "%s * %s overflows.", a, b));
+    }
+    return result;
+  }
+
+  /**
+   * Returns a uniformly distributed value between 0 (inclusive) and
+   * {@code bound} (exclusive).
+   */
+  private static long nextLong(Random random, long bound) {
+    if (bound <= Integer.MAX_VALUE) {
+      return random.nextInt((int) bound);
+    }
+    while (true) {
+      long candidate = random.nextLong() >>> 1;
+      long result = candidate % bound;
+      // Rejects the last, incomplete, run of [0, bound), which would
+      // otherwise make its values more likely
+      if (candidate - result + (bound - 1) >= 0) {
+        return result;
+      }
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Throwables;
+import com.google.common.truthtable.MaskedTruthTable;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TruthTable} that coalesces identical {@code getAll} queries that
+ * are made while one of them is still running: the first one runs the search
+ * of the {@link RealTruthTable} it wraps, and the others wait for its result
+ * instead of all running the same search.
+ * 
+ * <p>Queries are identical if they ask for the same axis, and their 
+ * {@link FixedCoordinates} leave the same coordinates of each axis (see
+ * {@link MaskBuffer#setAll(FixedCoordinates)}), even if they were built
+ * differently. Queries that are not coalesced take no locks.
+ * 
+ * <p>Each caller gets its own copy of the result. If the query that runs the
+ * search fails, so do those waiting for it, with the same exception, but for
+ * it being interrupted: the queries that were waiting then run the search 
+ * themselves.
+ * 
+ * <p>Other queries are not coalesced, and simply go to the wrapped table.
+ * 
+ * <p>This class is thread-safe.
+ * 
+ * @author zorzella@google.com
+ */
+public final class CoalescingTruthTable implements TruthTable {
+
+  private final TruthTable truthTable;
+  private final MaskedTruthTable maskedTruthTable;
+  private final MaskLayout layout;
+
+  private final ConcurrentMap<QueryKey, SettableFuture<EnumSet<?>>> inFlight =
+    new ConcurrentHashMap<QueryKey, SettableFuture<EnumSet<?>>>();
+
+  private final AtomicLong queryCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  public CoalescingTruthTable(RealTruthTable truthTable) {
+    this(truthTable, truthTable);
+  }
+
+  /**
+   * Runs the {@code getAll} queries on {@code maskedTruthTable}, and all 
+   * others on {@code truthTable}, which must be views of the same table.
+   */
+  CoalescingTruthTable(TruthTable truthTable, 
+      MaskedTruthTable maskedTruthTable) {
+    this.truthTable = truthTable;
+    this.maskedTruthTable = maskedTruthTable;
+    this.layout = maskedTruthTable.getMaskLayout();
+  }
+
+  @Override
+  public <E extends Enum<E>> Set<E> getAll(
+      Class<E> axis, FixedCoordinates fixedCoordinates) {
+    MaskBuffer fixedMasks = new MaskBuffer(layout).setAll(fixedCoordinates);
+    QueryKey key = new QueryKey(layout.indexOf(axis), fixedMasks.words);
+    queryCount.incrementAndGet();
+    while (true) {
+      SettableFuture<EnumSet<?>> future = SettableFuture.create();
+      SettableFuture<EnumSet<?>> running = inFlight.putIfAbsent(key, future);
+      if (running == null) {
+        return search(axis, fixedMasks, key, future);
+      }
+      coalescedCount.incrementAndGet();
+      try {
+        // Waits like the search would, interruptibly or not
+        return copyOf(axis, InterruptibleQueries.areOn() 
+            ? running.get() : Uninterruptibles.getUninterruptibly(running));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException("The query was interrupted.");
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof CancellationException)) {
+          throw Throwables.propagate(e.getCause());
+        }
+        // The thread that was running the search was interrupted, which is
+        // no reason for this one to fail: try again
+        coalescedCount.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Runs the search of a query that is not in flight, and gives its result
+   * to those that are waiting for it.
+   */
+  private <E extends Enum<E>> Set<E> search(Class<E> axis, 
+      MaskBuffer fixedMasks, QueryKey key, SettableFuture<EnumSet<?>> future) {
+    EnumSet<E> result;
+    try {
+      result = maskedTruthTable.getAll(axis, fixedMasks);
+    } catch (RuntimeException e) {
+      inFlight.remove(key, future);
+      future.setException(e);
+      throw e;
+    } catch (Error e) {
+      inFlight.remove(key, future);
+      future.setException(e);
+      throw e;
+    }
+    // Removing it first, so that a query that gets it is sure to find it done
+    inFlight.remove(key, future);
+    future.set(EnumSet.copyOf(result));
+    return result;
+  }
+
+  /**
+   * Returns a copy of the result of a query of {@code axis}, which is of that
+   * axis, as its key is.
+   */
+  @SuppressWarnings("unchecked")
+  private static <E extends Enum<E>> EnumSet<E> copyOf(Class<E> axis,
+      EnumSet<?> result) {
+    return ((EnumSet<E>) result).clone();
+  }
+
+  @Override
+  public <E extends Enum<E>> Set<E> getAll(Class<E> axis) {
+    return getAll(axis, new FixedCoordinates());
+  }
+
+  /**
+   * The number of {@code getAll} queries made so far.
+   */
+  public long getQueryCount() {
+    return queryCount.get();
+  }
+
+  /**
+   * The number of {@code getAll} queries that did not run a search, but got
+   * the result of an identical query that was running.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * The number of searches running right now.
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes,
+      FixedCoordinates fixedCoordinates) {
+    return truthTable.project(axes, fixedCoordinates);
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes) {
+    return truthTable.project(axes);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights,
+      FixedCoordinates fixedCoordinates) {
+    return truthTable.getTopCells(k, weights, fixedCoordinates);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights) {
+    return truthTable.getTopCells(k, weights);
+  }
+
+  @Override
+  public List<Cell> sample(FixedCoordinates fixedCoordinates, Random random,
+      int n) {
+    return truthTable.sample(fixedCoordinates, random, n);
+  }
+
+  @Override
+  public List<Cell> sample(Random random, int n) {
+    return truthTable.sample(random, n);
+  }
+
+  @Override
+  public String toString() {
+    return truthTable.toString();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.truthtable.TruthTable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Numeric weights to score cells with, used by
+ * {@link TruthTable#getTopCells(int, CoordinateWeights, FixedCoordinates)}.
+ *
+ * <p>The score of a cell is the sum of the weights of its coordinates, plus
+ * the sum of the weights of all weighted {@link AffinityGroup}s that contain
+ * it (i.e. that, for each axis they touch, touch the cell's coordinate).
+ * Coordinates and groups that are not given a weight weigh zero. E.g.:
+ *
+ * <pre>
+ *     CoordinateWeights weights = new CoordinateWeights()
+ *       .weighing(Wine.PORT, 2.5)
+ *       .weighing(Entree.STEAK, 1)
+ *       .weighing(Entree.SUSHI, -1);
+ * </pre>
+ *
+ * @author zorzella@google.com
+ */
+public class CoordinateWeights {
+
+  private final Map<Enum<?>, Double> coordinateWeights =
+    new HashMap<Enum<?>, Double>();
+
+  private final Map<AffinityGroup, Double> affinityGroupWeights =
+    new LinkedHashMap<AffinityGroup, Double>();
+
+  /**
+   * Sets the weight of a {@code coordinate}.
+   */
+  public CoordinateWeights weighing(Enum<?> coordinate, double weight) {
+    Preconditions.checkNotNull(coordinate);
+    checkWeight(weight);
+    coordinateWeights.put(coordinate, weight);
+    return this;
+  }
+
+  /**
+   * Sets the weight of an {@code affinityGroup}, which is added to the score
+   * of every cell the group contains.
+   */
+  public CoordinateWeights weighing(AffinityGroup affinityGroup, double weight) {
+    Preconditions.checkNotNull(affinityGroup);
+    checkWeight(weight);
+    affinityGroupWeights.put(affinityGroup, weight);
+    return this;
+  }
+
+  private static void checkWeight(double weight) {
+    if (Double.isNaN(weight) || Double.isInfinite(weight)) {
+      throw new IllegalArgumentException(String.format(
+        "Weight must be a finite number, got '%s'.", weight));
+    }
+  }
+
+  /**
+   * Returns the weight of a {@code coordinate}.
+   */
+  public double getWeight(Enum<?> coordinate) {
+    Double result = coordinateWeights.get(coordinate);
+    if (result == null) {
+      return 0;
+    }
+    return result;
+  }
+
+  /**
+   * All {@link AffinityGroup}s that were given a weight, and their weights.
+   */
+  Map<AffinityGroup, Double> getAffinityGroupWeights() {
+    return Collections.unmodifiableMap(affinityGroupWeights);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("coordinates: %s, groups: %s",
+        coordinateWeights, affinityGroupWeights);
+  }
+}
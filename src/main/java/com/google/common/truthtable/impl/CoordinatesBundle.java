@@ -16,6 +16,7 @@
 package com.google.common.truthtable.impl;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,7 +26,6 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-//TODO(zorzella): make this immutable
 /**
  * A {@link CoordinatesBundle} class holds 1 or more coordinates in multiple
  * axis. 
@@ -46,27 +46,36 @@ import java.util.TreeSet;
 @SuppressWarnings({"unchecked", "rawtypes"})
 public abstract class CoordinatesBundle implements Iterable<SingleAxisCoordinateSet>{
 
+  /**
+   * The {@link SingleAxisCoordinateSet}s of this bundle. Unmodifiable, as are
+   * all other collections of a {@link CoordinatesBundle}, which is thus
+   * immutable and safe to share among threads.
+   */
   public final SortedSet<SingleAxisCoordinateSet> backingSet;
   
   /**
    * All dimensions touched by this {@link CoordinatesBundle}.
    * TODO: profile deleting this in favor of axisToSacsMap.keySet()
    */
-  public final Set<Class<? extends Enum<?>>> allAxesTouched = 
-    new HashSet<Class<? extends Enum<?>>>();
+  public final Set<Class<? extends Enum<?>>> allAxesTouched;
   
-  private final Set<Enum<?>> allCoordinatesTouched = new HashSet<Enum<?>>();
+  private final Set<Enum<?>> allCoordinatesTouched;
   
   /**
    * Maps each axis touched to the corresponding {@link CoordinatesBundle}
    */
-  public final Map<Class<? extends Enum>,SingleAxisCoordinateSet> axisToSacsMap = 
-    new HashMap<Class<? extends Enum>, SingleAxisCoordinateSet>();
+  public final Map<Class<? extends Enum>,SingleAxisCoordinateSet> axisToSacsMap;
 
   protected CoordinatesBundle(
       Comparator<SingleAxisCoordinateSet> sacsComparator, 
       Collection<SingleAxisCoordinateSet> coordinatesSets) {
-    backingSet = new TreeSet<SingleAxisCoordinateSet>(sacsComparator);
+    SortedSet<SingleAxisCoordinateSet> backingSet = 
+      new TreeSet<SingleAxisCoordinateSet>(sacsComparator);
+    Set<Class<? extends Enum<?>>> allAxesTouched = 
+      new HashSet<Class<? extends Enum<?>>>();
+    Set<Enum<?>> allCoordinatesTouched = new HashSet<Enum<?>>();
+    Map<Class<? extends Enum>,SingleAxisCoordinateSet> axisToSacsMap = 
+      new HashMap<Class<? extends Enum>, SingleAxisCoordinateSet>();
     for (SingleAxisCoordinateSet sacs: coordinatesSets) {
       backingSet.add(sacs);
       axisToSacsMap.put(sacs.getAxis(), sacs);
@@ -80,6 +89,11 @@ public abstract class CoordinatesBundle implements Iterable<SingleAxisCoordinate
         "The same axis is used more than once in '%s'.", 
         coordinatesSets));
     }
+    this.backingSet = Collections.unmodifiableSortedSet(backingSet);
+    this.allAxesTouched = Collections.unmodifiableSet(allAxesTouched);
+    this.allCoordinatesTouched = 
+      Collections.unmodifiableSet(allCoordinatesTouched);
+    this.axisToSacsMap = Collections.unmodifiableMap(axisToSacsMap);
   }
   
   //TODO: delete allDPointsTouched and use some Collections collator -- profile
@@ -111,16 +125,27 @@ public abstract class CoordinatesBundle implements Iterable<SingleAxisCoordinate
     return backingSet.toString();
   }
   
+  /**
+   * Returns the coordinates excluded by this, for each axis with exclusions
+   * (see {@link FixedCoordinates#excluding}). Bundles are only equal if their
+   * exclusions are too.
+   */
+  Map<?, ?> getExclusionsByAxis() {
+    return Collections.emptyMap();
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof CoordinatesBundle)) {
       return false;
     }
-    return backingSet.equals(((CoordinatesBundle)obj).backingSet);
+    CoordinatesBundle that = (CoordinatesBundle) obj;
+    return backingSet.equals(that.backingSet)
+        && getExclusionsByAxis().equals(that.getExclusionsByAxis());
   }
   
   @Override
   public int hashCode() {
-    return backingSet.hashCode();
+    return backingSet.hashCode() + getExclusionsByAxis().hashCode();
   }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link TruthTableBuilder#withFactoring()} merged in a 
+ * {@link com.google.common.truthtable.TruthTable}: the 
+ * {@link AffinityGroup}s that replaced groups differing on a single axis 
+ * (see {@link AffinityGroupFactorer}).
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+public final class FactoringReport {
+
+  private final int originalAffinityGroupCount;
+  private final ImmutableSet<AffinityGroup> affinityGroups;
+  private final ImmutableMap<AffinityGroup, ImmutableSet<AffinityGroup>> 
+      mergedAffinityGroups;
+
+  FactoringReport(int originalAffinityGroupCount, 
+      Set<AffinityGroup> affinityGroups,
+      Map<AffinityGroup, ImmutableSet<AffinityGroup>> mergedAffinityGroups) {
+    this.originalAffinityGroupCount = originalAffinityGroupCount;
+    this.affinityGroups = ImmutableSet.copyOf(affinityGroups);
+    this.mergedAffinityGroups = ImmutableMap.copyOf(mergedAffinityGroups);
+  }
+
+  /**
+   * The groups after factoring.
+   */
+  ImmutableSet<AffinityGroup> getAffinityGroups() {
+    return affinityGroups;
+  }
+
+  /**
+   * Each group that was made by merging others, mapped to those.
+   */
+  public ImmutableMap<AffinityGroup, ImmutableSet<AffinityGroup>> 
+      getMergedAffinityGroups() {
+    return mergedAffinityGroups;
+  }
+
+  /**
+   * The number of groups given to the builder.
+   */
+  public int getOriginalAffinityGroupCount() {
+    return originalAffinityGroupCount;
+  }
+
+  /**
+   * The number of groups after factoring.
+   */
+  public int getAffinityGroupCount() {
+    return affinityGroups.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Factored %s affinity groups into %s: %s", 
+        originalAffinityGroupCount, affinityGroups.size(), 
+        mergedAffinityGroups);
+  }
+}
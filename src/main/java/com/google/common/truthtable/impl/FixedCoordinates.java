@@ -15,10 +15,14 @@
  */
 package com.google.common.truthtable.impl;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.truthtable.TruthTable;
 
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -26,6 +30,12 @@ import java.util.TreeSet;
  * The {@link FixedCoordinates} class is a {@link CoordinatesBundle} to be 
  * passed to {@link TruthTable#getAll(Class, FixedCoordinates)}.
  * 
+ * <p>Besides the coordinates it touches, a {@link FixedCoordinates} can also 
+ * carry exclusions (see {@link #excluding(Enum...)}), i.e. coordinates that 
+ * must not be part of any valid path. E.g. "anything but MERLOT" is
+ * {@code new FixedCoordinates().excluding(Wine.MERLOT)}, which is equivalent 
+ * to, but much cheaper than, fixing the Wine axis to every other wine.
+ * 
  * @author zorzella@google.com
  */
 /*
@@ -36,18 +46,84 @@ import java.util.TreeSet;
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class FixedCoordinates extends CoordinatesBundle {
 
+  /**
+   * For each axis with exclusions, the coordinates excluded. No entry in this 
+   * map is empty.
+   */
+  final ImmutableMap<Class<? extends Enum>, EnumSet> axisToExclusionsMap;
+
+  /**
+   * The ordinals of the coordinates fixed and excluded, as masks, for
+   * {@link MaskBuffer#setAll(FixedCoordinates)}. Computed when first needed.
+   */
+  private volatile OrdinalMasks ordinalMasks;
+
+  /**
+   * For each axis fixed, and each axis with exclusions, the mask of the 
+   * ordinals of its fixed (or excluded) coordinates, as many words as needed
+   * for the largest of them. Never modified.
+   */
+  static final class OrdinalMasks {
+    final Class<? extends Enum>[] fixedAxes;
+    final long[][] fixed;
+    final Class<? extends Enum>[] excludedAxes;
+    final long[][] excluded;
+
+    private OrdinalMasks(FixedCoordinates fixedCoordinates) {
+      int fixedCount = fixedCoordinates.backingSet.size();
+      this.fixedAxes = new Class[fixedCount];
+      this.fixed = new long[fixedCount][];
+      int i = 0;
+      for (SingleAxisCoordinateSet sacs: fixedCoordinates.backingSet) {
+        fixedAxes[i] = sacs.getAxis();
+        fixed[i++] = toMask(sacs.backingEnumSet);
+      }
+      int excludedCount = fixedCoordinates.axisToExclusionsMap.size();
+      this.excludedAxes = new Class[excludedCount];
+      this.excluded = new long[excludedCount][];
+      i = 0;
+      for (Map.Entry<Class<? extends Enum>, EnumSet> entry: 
+          fixedCoordinates.axisToExclusionsMap.entrySet()) {
+        excludedAxes[i] = entry.getKey();
+        excluded[i++] = toMask(entry.getValue());
+      }
+    }
+
+    private static long[] toMask(Set<Enum> coordinates) {
+      int maxOrdinal = 0;
+      for (Enum coordinate: coordinates) {
+        maxOrdinal = Math.max(maxOrdinal, coordinate.ordinal());
+      }
+      long[] result = new long[(maxOrdinal >>> 6) + 1];
+      for (Enum coordinate: coordinates) {
+        result[coordinate.ordinal() >>> 6] |= 1L << coordinate.ordinal();
+      }
+      return result;
+    }
+  }
+
   public FixedCoordinates(Collection<SingleAxisCoordinateSet> coordinates) {
     super(TruthTableComparators.FOR_SINGLE_AXIS_COORDINATES_SET, coordinates);
+    this.axisToExclusionsMap = ImmutableMap.of();
   }
 
   public FixedCoordinates(Comparator<SingleAxisCoordinateSet> sacsComparator, 
       Collection<SingleAxisCoordinateSet> coordinates) {
     super(sacsComparator, coordinates);
+    this.axisToExclusionsMap = ImmutableMap.of();
   }
   
   FixedCoordinates(Comparator<SingleAxisCoordinateSet> sacsComparator, 
       Enum... dPoints) {
     super(sacsComparator, getSingleAxisCoordinatesSetForEnumValues(dPoints));
+    this.axisToExclusionsMap = ImmutableMap.of();
+  }
+
+  private FixedCoordinates(Comparator<SingleAxisCoordinateSet> sacsComparator, 
+      Collection<SingleAxisCoordinateSet> coordinates,
+      ImmutableMap<Class<? extends Enum>, EnumSet> axisToExclusionsMap) {
+    super(sacsComparator, coordinates);
+    this.axisToExclusionsMap = axisToExclusionsMap;
   }
 
   /**
@@ -60,6 +136,66 @@ public class FixedCoordinates extends CoordinatesBundle {
   public FixedCoordinates(Enum... dPoints) {
     super(TruthTableComparators.FOR_SINGLE_AXIS_COORDINATES_SET, 
         getSingleAxisCoordinatesSetForEnumValues(dPoints));
+    this.axisToExclusionsMap = ImmutableMap.of();
+  }
+
+  /**
+   * Returns a copy of this {@link FixedCoordinates} that, additionally, 
+   * excludes the given {@code coordinates}, which may span multiple axes, 
+   * including axes that are also fixed. The search prunes paths through 
+   * excluded coordinates as early as it prunes paths through coordinates
+   * that are not fixed.
+   */
+  public FixedCoordinates excluding(Enum... coordinates) {
+    Map<Class<? extends Enum>, EnumSet> temp = 
+      new LinkedHashMap<Class<? extends Enum>, EnumSet>();
+    for (Map.Entry<Class<? extends Enum>, EnumSet> entry: 
+        axisToExclusionsMap.entrySet()) {
+      temp.put(entry.getKey(), EnumSet.copyOf(entry.getValue()));
+    }
+    for (Enum coordinate: coordinates) {
+      Class<? extends Enum> axis = coordinate.getDeclaringClass();
+      EnumSet exclusions = temp.get(axis);
+      if (exclusions == null) {
+        temp.put(axis, EnumSet.of(coordinate));
+      } else {
+        exclusions.add(coordinate);
+      }
+    }
+    return new FixedCoordinates(
+        (Comparator<SingleAxisCoordinateSet>) backingSet.comparator(), 
+        backingSet, ImmutableMap.copyOf(temp));
+  }
+
+  OrdinalMasks getOrdinalMasks() {
+    OrdinalMasks result = ordinalMasks;
+    if (result == null) {
+      // Racing threads may compute this more than once, to the same result
+      result = new OrdinalMasks(this);
+      ordinalMasks = result;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the coordinates excluded in the given {@code axis}, or 
+   * {@code null} if there are none. The result must not be modified.
+   */
+  EnumSet getExclusions(Class<? extends Enum> axis) {
+    return axisToExclusionsMap.get(axis);
+  }
+
+  @Override
+  Map<?, ?> getExclusionsByAxis() {
+    return axisToExclusionsMap;
+  }
+
+  @Override
+  public String toString() {
+    if (axisToExclusionsMap.isEmpty()) {
+      return super.toString();
+    }
+    return super.toString() + " excluding " + axisToExclusionsMap.values();
   }
 
   @SuppressWarnings("unchecked")
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.impl.RealTruthTable.NextHop;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@link AffinityGroup}s of a {@link RealTruthTable}, and their
+ * {@link NextHop}s, compiled to arrays of ordinal masks (see
+ * {@link MaskLayout}) for {@link MaskSearch}.
+ *
+ * <p>Each group is identified by its position in the iteration order of the
+ * table's groups.
+ *
+ * @author zorzella@google.com
+ */
+final class GroupMasks {
+
+  final MaskLayout layout;
+
+  final AffinityGroup[] groups;
+
+  /**
+   * For each group, the masks of the coordinates it touches. Axes it does
+   * not touch have all their coordinates, so that intersecting a path with
+   * a group is a plain {@code &} of all words.
+   */
+  final long[][] masks;
+
+  /**
+   * For each group, the set of axes it touches, as a bit per axis index.
+   */
+  final long[] axes;
+
+  /**
+   * For each group, its next hops, in the same order as
+   * {@link RealTruthTable#getNextHops}, once needed (see 
+   * {@link #getNextHops(int)}).
+   */
+  private final AtomicReferenceArray<int[]> nextHops;
+
+  private final RealTruthTable truthTable;
+  private final Map<AffinityGroup, Integer> ids;
+
+  /**
+   * For each axis, the groups that touch it.
+   */
+  final int[][] groupsTouchingAxis;
+
+  /**
+   * The set of all axes, as a bit per axis index.
+   */
+  final long allAxes;
+
+  /**
+   * For each axis and each of its coordinates (by ordinal), the set of groups
+   * that touch that coordinate or do not touch the axis at all, as a bit per
+   * group. A group is compatible with some coordinates of an axis if it is
+   * in the union of their supports.
+   */
+  final long[][][] supports;
+
+  /**
+   * @throws IllegalStateException if the table has more than 
+   *   {@link MaskLayout#MAX_AXES} axes
+   */
+  GroupMasks(MaskLayout layout, RealTruthTable truthTable) {
+    layout.checkSingleWordAxisSets();
+    Collection<AffinityGroup> allAffinityGroups = 
+      truthTable.getAffinityGroups();
+    this.layout = layout;
+    this.groups = allAffinityGroups.toArray(
+        new AffinityGroup[allAffinityGroups.size()]);
+    this.truthTable = truthTable;
+    this.ids = new IdentityHashMap<AffinityGroup, Integer>();
+    for (int id = 0; id < groups.length; id++) {
+      ids.put(groups[id], id);
+    }
+
+    this.masks = new long[groups.length][];
+    this.axes = new long[groups.length];
+    this.nextHops = new AtomicReferenceArray<int[]>(groups.length);
+    for (int id = 0; id < groups.length; id++) {
+      masks[id] = maskOf(layout, groups[id]);
+      axes[id] = axesOf(layout, groups[id]);
+    }
+
+    this.groupsTouchingAxis = new int[layout.getAxisCount()][];
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      Set<AffinityGroup> touching =
+        truthTable.getAffinityGroupsTouching(layout.getAxis(axisIndex));
+      groupsTouchingAxis[axisIndex] = new int[touching.size()];
+      int i = 0;
+      for (AffinityGroup group: touching) {
+        groupsTouchingAxis[axisIndex][i++] = ids.get(group);
+      }
+    }
+    this.allAxes = layout.getAxisCount() == 64
+        ? -1L
+        : (1L << layout.getAxisCount()) - 1;
+
+    this.supports = new long[layout.getAxisCount()][][];
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      int offset = layout.getOffset(axisIndex);
+      supports[axisIndex] =
+        new long[layout.getCoordinateCount(axisIndex)][getGroupWordCount()];
+      for (int ordinal = 0; ordinal < supports[axisIndex].length; ordinal++) {
+        long[] support = supports[axisIndex][ordinal];
+        for (int id = 0; id < groups.length; id++) {
+          if ((axes[id] & (1L << axisIndex)) == 0
+              || (masks[id][offset + (ordinal >>> 6)] & (1L << ordinal)) != 0) {
+            support[id >>> 6] |= 1L << id;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the next hops of {@code group}, computing them if this is the
+   * first time they are needed. The result must not be modified.
+   */
+  int[] getNextHops(int group) {
+    int[] result = nextHops.get(group);
+    if (result == null) {
+      // Racing threads may compute this more than once, to the same result
+      Collection<NextHop> hops = truthTable.getNextHops(groups[group]);
+      result = new int[hops.size()];
+      int i = 0;
+      for (NextHop hop: hops) {
+        result[i++] = ids.get(hop.target);
+      }
+      nextHops.set(group, result);
+    }
+    return result;
+  }
+
+  /**
+   * Computes the next hops of all groups, so that no search has to.
+   */
+  void warmUp() {
+    for (int group = 0; group < groups.length; group++) {
+      getNextHops(group);
+    }
+  }
+
+  /**
+   * Returns the masks of the coordinates {@code group} touches, with all
+   * coordinates of the axes it does not touch.
+   */
+  static long[] maskOf(MaskLayout layout, AffinityGroup group) {
+    long[] result = layout.universe.clone();
+    for (SingleAxisCoordinateSet sacs: group.axisToSacsMap.values()) {
+      int axisIndex = layout.indexOf(sacs.getAxis());
+      int offset = layout.getOffset(axisIndex);
+      for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+        result[offset + word] = 0;
+      }
+      for (Enum<?> coordinate: sacs) {
+        int ordinal = coordinate.ordinal();
+        result[offset + (ordinal >>> 6)] |= 1L << ordinal;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the set of axes {@code group} touches, as a bit per axis index.
+   *
+   * @throws IllegalStateException if the table has more than 
+   *   {@link MaskLayout#MAX_AXES} axes
+   */
+  static long axesOf(MaskLayout layout, AffinityGroup group) {
+    layout.checkSingleWordAxisSets();
+    long result = 0;
+    for (SingleAxisCoordinateSet sacs: group.axisToSacsMap.values()) {
+      result |= 1L << layout.indexOf(sacs.getAxis());
+    }
+    return result;
+  }
+
+  /**
+   * The number of {@code long}s in a set of groups, as a bit per group.
+   */
+  int getGroupWordCount() {
+    return (groups.length + 63) >>> 6;
+  }
+
+  int size() {
+    return groups.length;
+  }
+}
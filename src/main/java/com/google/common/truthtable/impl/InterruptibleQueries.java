@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Whether the searches of a {@link RealTruthTable} that the current thread
+ * runs give up as soon as it is interrupted, by throwing a 
+ * {@link CancellationException} (see {@link MaskSearch}).
+ *
+ * <p>Only the queries run by an {@link AsyncTruthTable} are interruptible,
+ * so that cancelling their futures stops them. Other queries never throw
+ * just because the thread that runs them was interrupted.
+ *
+ * @author zorzella@google.com
+ */
+final class InterruptibleQueries {
+
+  private static final ThreadLocal<Boolean> INTERRUPTIBLE = 
+    new ThreadLocal<Boolean>() {
+      @Override
+      protected Boolean initialValue() {
+        return false;
+      }
+    };
+
+  private InterruptibleQueries() {}
+
+  /**
+   * Returns true if the queries the current thread runs are interruptible.
+   */
+  static boolean areOn() {
+    return INTERRUPTIBLE.get();
+  }
+
+  /**
+   * Makes the queries the current thread runs interruptible, until 
+   * {@link #end(boolean)} is called with the result.
+   */
+  static boolean begin() {
+    boolean result = INTERRUPTIBLE.get();
+    INTERRUPTIBLE.set(true);
+    return result;
+  }
+
+  /**
+   * Makes the queries the current thread runs interruptible again if they 
+   * were before the matching call to {@link #begin()}, whose result is 
+   * {@code wereOn}.
+   */
+  static void end(boolean wereOn) {
+    INTERRUPTIBLE.set(wereOn);
+  }
+}
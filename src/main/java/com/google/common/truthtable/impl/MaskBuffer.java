@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.truthtable.MaskedTruthTable;
+
+import java.util.Arrays;
+
+/**
+ * A mutable, reusable set of ordinal masks, one per axis of a
+ * {@link MaskLayout}, to be passed as the fixed coordinates of a
+ * {@link MaskedTruthTable} query. It works for axes of any size, unlike the
+ * single {@code long} per axis of
+ * {@link MaskedTruthTable#getAll(int, long[])}.
+ *
+ * <p>A new buffer has all axes unconstrained, i.e. with all their coordinates.
+ * Fixing an axis to a few coordinates is {@code noneOf(axis)} followed by an
+ * {@code add(axis, ordinal)} for each; excluding a coordinate is simply
+ * {@code remove(axis, ordinal)}.
+ *
+ * @author zorzella@google.com
+ */
+public final class MaskBuffer {
+
+  private final MaskLayout layout;
+
+  /**
+   * The masks of all axes (see {@link MaskLayout}). Bits past the last
+   * coordinate of an axis are always clear.
+   */
+  final long[] words;
+
+  public MaskBuffer(MaskLayout layout) {
+    this.layout = layout;
+    this.words = layout.universe.clone();
+  }
+
+  public MaskLayout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Makes all axes unconstrained.
+   */
+  public MaskBuffer reset() {
+    System.arraycopy(layout.universe, 0, words, 0, words.length);
+    return this;
+  }
+
+  /**
+   * Makes this buffer a copy of {@code that}.
+   */
+  public MaskBuffer copyFrom(MaskBuffer that) {
+    Preconditions.checkArgument(that.layout == layout,
+        "Buffers have different layouts.");
+    System.arraycopy(that.words, 0, words, 0, words.length);
+    return this;
+  }
+
+  /**
+   * Makes the given axis unconstrained, i.e. with all its coordinates.
+   */
+  public MaskBuffer anyOf(int axisIndex) {
+    int offset = layout.getOffset(axisIndex);
+    System.arraycopy(layout.universe, offset, words, offset,
+        layout.getWordCount(axisIndex));
+    return this;
+  }
+
+  /**
+   * Removes all coordinates of the given axis. A query with no coordinates
+   * in some axis has no results.
+   */
+  public MaskBuffer noneOf(int axisIndex) {
+    int offset = layout.getOffset(axisIndex);
+    Arrays.fill(words, offset, offset + layout.getWordCount(axisIndex), 0L);
+    return this;
+  }
+
+  public MaskBuffer add(int axisIndex, int ordinal) {
+    words[wordOf(axisIndex, ordinal)] |= 1L << ordinal;
+    return this;
+  }
+
+  public MaskBuffer remove(int axisIndex, int ordinal) {
+    words[wordOf(axisIndex, ordinal)] &= ~(1L << ordinal);
+    return this;
+  }
+
+  public boolean contains(int axisIndex, int ordinal) {
+    return (words[wordOf(axisIndex, ordinal)] & (1L << ordinal)) != 0;
+  }
+
+  /**
+   * Sets the mask of an axis with a single word. Bits past its last
+   * coordinate are ignored.
+   *
+   * @throws IllegalArgumentException if the axis has more than one word
+   */
+  public MaskBuffer set(int axisIndex, long mask) {
+    int offset = layout.getOffset(axisIndex);
+    checkSingleWord(axisIndex);
+    words[offset] = mask & layout.universe[offset];
+    return this;
+  }
+
+  /**
+   * Returns the mask of an axis with a single word.
+   *
+   * @throws IllegalArgumentException if the axis has more than one word
+   */
+  public long get(int axisIndex) {
+    checkSingleWord(axisIndex);
+    return words[layout.getOffset(axisIndex)];
+  }
+
+  public boolean isEmpty(int axisIndex) {
+    int offset = layout.getOffset(axisIndex);
+    for (int i = 0; i < layout.getWordCount(axisIndex); i++) {
+      if (words[offset + i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Makes this buffer equivalent to the given {@code fixedCoordinates},
+   * including its exclusions. Axes that were not registered are ignored,
+   * since no {@link AffinityGroup} touches them.
+   */
+  public MaskBuffer setAll(FixedCoordinates fixedCoordinates) {
+    reset();
+    FixedCoordinates.OrdinalMasks ordinals = fixedCoordinates.getOrdinalMasks();
+    for (int i = 0; i < ordinals.fixedAxes.length; i++) {
+      int axisIndex = layout.indexOfOrMinusOne(ordinals.fixedAxes[i]);
+      if (axisIndex == -1) {
+        continue;
+      }
+      long[] mask = ordinals.fixed[i];
+      int offset = layout.getOffset(axisIndex);
+      for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+        words[offset + word] = word < mask.length ? mask[word] : 0L;
+      }
+    }
+    for (int i = 0; i < ordinals.excludedAxes.length; i++) {
+      int axisIndex = layout.indexOfOrMinusOne(ordinals.excludedAxes[i]);
+      if (axisIndex == -1) {
+        continue;
+      }
+      long[] mask = ordinals.excluded[i];
+      int offset = layout.getOffset(axisIndex);
+      for (int word = 0; 
+          word < Math.min(mask.length, layout.getWordCount(axisIndex)); 
+          word++) {
+        words[offset + word] &= ~mask[word];
+      }
+    }
+    return this;
+  }
+
+  private int wordOf(int axisIndex, int ordinal) {
+    Preconditions.checkElementIndex(ordinal,
+        layout.getCoordinateCount(axisIndex));
+    return layout.getOffset(axisIndex) + (ordinal >>> 6);
+  }
+
+  private void checkSingleWord(int axisIndex) {
+    // Not using Preconditions, whose varargs would allocate on every call
+    if (layout.getWordCount(axisIndex) != 1) {
+      throw new IllegalArgumentException(String.format(
+        "Axis '%s' has more than 64 coordinates.", layout.getAxis(axisIndex)));
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof MaskBuffer)) {
+      return false;
+    }
+    MaskBuffer that = (MaskBuffer) obj;
+    return layout == that.layout && Arrays.equals(words, that.words);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(words);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("[");
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      if (axisIndex > 0) {
+        result.append(", ");
+      }
+      result.append(layout.toEnumSet(axisIndex, words,
+          layout.getOffset(axisIndex)));
+    }
+    return result.append("]").toString();
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+import com.google.common.truthtable.MaskedTruthTable;
+
+import java.util.Collection;
+import java.util.EnumSet;
+
+/**
+ * Describes how the coordinates of a truth table are laid out as ordinal
+ * masks, for the {@link MaskedTruthTable} queries.
+ *
+ * <p>Each registered axis is given an index, by axis name (see
+ * {@link TruthTableComparators#FOR_AXIS}). Each coordinate is a bit in its
+ * axis' mask: bit {@code i} of word {@code i / 64} for the coordinate of
+ * ordinal {@code i}. Axes with up to 64 coordinates take a single
+ * {@code long}; larger ones take as many as needed. A set of masks for all
+ * axes (see {@link MaskBuffer}) is a single {@code long[]}, with the words of
+ * each axis following those of the previous one.
+ *
+ * @author zorzella@google.com
+ */
+public final class MaskLayout {
+
+  /**
+   * The most axes a table can have to be searched over masks (see 
+   * {@link MaskSearch}), so that a set of axes fits in a {@code long}. 
+   * Tables with more axes are searched over {@code PathTrack}s instead, and
+   * do not support the queries that need masks.
+   */
+  static final int MAX_AXES = 64;
+
+  private final ImmutableList<Class<? extends Enum>> axes;
+  private final ImmutableMap<Class<? extends Enum>, Integer> axisIndexes;
+
+  /**
+   * For each axis, all its coordinates, in ordinal order.
+   */
+  private final Enum<?>[][] coordinates;
+
+  /**
+   * For each axis, the index of its first word. The last entry is the total
+   * number of words.
+   */
+  private final int[] offsets;
+
+  /**
+   * The masks of all coordinates of all axes.
+   */
+  final long[] universe;
+
+  private final boolean singleWordAxes;
+
+  MaskLayout(Collection<Class<? extends Enum>> registeredAxes) {
+    this.axes = Ordering.from(TruthTableComparators.FOR_AXIS)
+        .immutableSortedCopy(registeredAxes);
+    ImmutableMap.Builder<Class<? extends Enum>, Integer> indexes =
+      ImmutableMap.builder();
+    this.coordinates = new Enum<?>[axes.size()][];
+    this.offsets = new int[axes.size() + 1];
+    boolean singleWord = true;
+    for (int i = 0; i < axes.size(); i++) {
+      indexes.put(axes.get(i), i);
+      coordinates[i] = axes.get(i).getEnumConstants();
+      int words = wordsFor(coordinates[i].length);
+      singleWord &= words == 1;
+      offsets[i + 1] = offsets[i] + words;
+    }
+    this.axisIndexes = indexes.build();
+    this.singleWordAxes = singleWord;
+    this.universe = new long[offsets[axes.size()]];
+    for (int i = 0; i < axes.size(); i++) {
+      for (int ordinal = 0; ordinal < coordinates[i].length; ordinal++) {
+        universe[offsets[i] + (ordinal >>> 6)] |= 1L << ordinal;
+      }
+    }
+  }
+
+  private static int wordsFor(int coordinateCount) {
+    return Math.max(1, (coordinateCount + 63) >>> 6);
+  }
+
+  public int getAxisCount() {
+    return axes.size();
+  }
+
+  /**
+   * All axes, ordered by their index.
+   */
+  public ImmutableList<Class<? extends Enum>> getAxes() {
+    return axes;
+  }
+
+  public Class<? extends Enum> getAxis(int axisIndex) {
+    return axes.get(axisIndex);
+  }
+
+  /**
+   * Returns the index of {@code axis}.
+   *
+   * @throws IllegalArgumentException if {@code axis} was not registered
+   */
+  public int indexOf(Class<? extends Enum> axis) {
+    Integer result = axisIndexes.get(axis);
+    if (result == null) {
+      throw new IllegalArgumentException(String.format(
+        "Axis '%s' was not registered.", axis));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the index of {@code axis}, or -1 if it was not registered.
+   */
+  int indexOfOrMinusOne(Class<? extends Enum> axis) {
+    Integer result = axisIndexes.get(axis);
+    return result == null ? -1 : result;
+  }
+
+  public int getCoordinateCount(int axisIndex) {
+    return coordinates[axisIndex].length;
+  }
+
+  public Enum<?> getCoordinate(int axisIndex, int ordinal) {
+    return coordinates[axisIndex][ordinal];
+  }
+
+  /**
+   * The number of {@code long}s in the mask of the given axis.
+   */
+  public int getWordCount(int axisIndex) {
+    return offsets[axisIndex + 1] - offsets[axisIndex];
+  }
+
+  /**
+   * The largest {@link #getWordCount(int)} of all axes.
+   */
+  public int getMaxWordCount() {
+    int result = 0;
+    for (int i = 0; i < axes.size(); i++) {
+      result = Math.max(result, getWordCount(i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if the mask of every axis fits in a single {@code long},
+   * i.e. if no axis has more than 64 coordinates.
+   */
+  public boolean hasSingleWordAxes() {
+    return singleWordAxes;
+  }
+
+  /**
+   * Returns true if a set of axes fits in a {@code long}, i.e. if there are
+   * at most {@link #MAX_AXES} axes.
+   */
+  public boolean hasSingleWordAxisSets() {
+    return axes.size() <= MAX_AXES;
+  }
+
+  /**
+   * @throws IllegalStateException unless {@link #hasSingleWordAxisSets()}
+   */
+  void checkSingleWordAxisSets() {
+    if (!hasSingleWordAxisSets()) {
+      throw new IllegalStateException(String.format(
+        "Searching over masks supports at most %s axes, got %s.", 
+        MAX_AXES, axes.size()));
+    }
+  }
+
+  /**
+   * The index, within a set of masks for all axes, of the first word of the
+   * given axis.
+   */
+  int getOffset(int axisIndex) {
+    return offsets[axisIndex];
+  }
+
+  /**
+   * The number of {@code long}s in a set of masks for all axes.
+   */
+  int getTotalWordCount() {
+    return universe.length;
+  }
+
+  /**
+   * Returns the coordinates of {@code axis} in {@code mask} (which has
+   * {@link #getWordCount(int)} words), as a new {@link EnumSet}.
+   */
+  public <E extends Enum<E>> EnumSet<E> toEnumSet(Class<E> axis, long[] mask) {
+    return toEnumSet(axis, mask, 0);
+  }
+
+  /**
+   * Returns the coordinates of {@code axis} in {@code masks}, where its mask
+   * starts at the given {@code offset}.
+   */
+  <E extends Enum<E>> EnumSet<E> toEnumSet(Class<E> axis, long[] masks,
+      int offset) {
+    int axisIndex = indexOf(axis);
+    EnumSet<E> result = EnumSet.noneOf(axis);
+    for (int word = 0; word < getWordCount(axisIndex); word++) {
+      for (long bits = masks[offset + word]; bits != 0; bits &= bits - 1) {
+        int ordinal = (word << 6) + Long.numberOfTrailingZeros(bits);
+        result.add(axis.cast(coordinates[axisIndex][ordinal]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Same as {@link #toEnumSet(Class, long[], int)}, for the axis with the
+   * given index.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"}) // Axes are raw enum classes
+  public EnumSet<?> toEnumSet(int axisIndex, long[] masks, int offset) {
+    return toEnumSet((Class) getAxis(axisIndex), masks, offset);
+  }
+
+  /**
+   * Returns the mask of a single {@code coordinate}, for axes with a single
+   * word.
+   *
+   * @throws IllegalArgumentException if the axis of {@code coordinate} has
+   *   more than one word
+   */
+  public long toMask(Enum<?> coordinate) {
+    int axisIndex = indexOf(coordinate.getDeclaringClass());
+    Preconditions.checkArgument(getWordCount(axisIndex) == 1,
+        "Axis '%s' has more than 64 coordinates.", axes.get(axisIndex));
+    return 1L << coordinate.ordinal();
+  }
+
+  @Override
+  public String toString() {
+    return axes.toString();
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * The search of {@link RealTruthTable#getValidCoordinatesFor}, over the
+ * ordinal masks of {@link GroupMasks} instead of {@code EnumSet}s.
+ *
+ * <p>It follows the same paths as the {@code PathTrack} search: a path starts
+ * at a group touching the asked axis, and grows through next hops that add at
+ * least one axis, intersecting the coordinates of every axis it touches. The
+ * coordinates of a path at each depth are kept in a preallocated stack of
+ * masks, so a search allocates nothing. A path is abandoned as soon as it can
+ * no longer reach any coordinate of the asked axis that was not found yet.
+ *
+ * <p>A search that is interruptible (see {@link InterruptibleQueries}, 
+ * e.g. a query of an {@link AsyncTruthTable} whose future was cancelled)
+ * gives up as soon as the thread running it is interrupted, by throwing a
+ * {@link CancellationException}. The interrupted status of the thread is 
+ * left set. Other searches ignore interrupts.
+ *
+ * <p>A search can also stop at the first complete path it finds, and report
+ * its groups (see {@link #findCompletePath(int)}), which is how
+ * {@link TruthTablePruner} tells live groups from dead ones.
+ *
+ * <p>A search may also be given a {@link QueryBudget}: when it runs out of
+ * it, the search stops, leaving the coordinates found so far as its result
+ * (see {@link #getExceededLimit()}).
+ *
+ * <p>Instances hold the state of one search at a time, and are reused
+ * (normally one per thread), so they are not thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+final class MaskSearch {
+
+  private final GroupMasks groups;
+  private final long[] universe;
+  private final int totalWords;
+
+  /**
+   * For each depth of the current path, the masks of all axes.
+   */
+  private final long[][] levels;
+
+  /**
+   * The groups of the current path, in the order they were visited.
+   */
+  private final int[] path;
+  private int pathLength;
+  private final boolean[] onPath;
+  private long axesVisited;
+
+  /**
+   * The coordinates of the asked axis that were not found yet.
+   */
+  private final long[] stillNotFound;
+
+  private final long[] singleWordResult = new long[1];
+  private final long[] pathResult;
+  private final int[] singleGroup = new int[1];
+
+  /**
+   * The groups that may be part of a path, as a bit per group, or
+   * {@code null} for all groups.
+   */
+  private long[] liveGroups;
+
+  private int axisOffset;
+  private int axisWords;
+  private long[] result;
+  private boolean done;
+
+  /**
+   * Whether the search stops at the first complete path, and that path.
+   */
+  private boolean firstPathOnly;
+  private int[] completePath;
+
+  private boolean interruptible;
+  private boolean interrupted;
+
+  /**
+   * The deadline is checked every this many paths (a power of two, minus 1).
+   */
+  private static final long DEADLINE_CHECK_MASK = 0xFF;
+
+  private long maxPaths;
+  private long maxHops;
+  private boolean hasDeadline;
+  private long deadlineNanos;
+  private long pathCount;
+  private long hopCount;
+  private QueryBudget.Limit exceededLimit;
+
+  MaskSearch(GroupMasks groups) {
+    MaskLayout layout = groups.layout;
+    this.groups = groups;
+    this.universe = layout.universe;
+    this.totalWords = layout.getTotalWordCount();
+    // Every hop adds at least one axis, so a path is never longer than that
+    this.levels = new long[layout.getAxisCount() + 1][totalWords];
+    this.path = new int[layout.getAxisCount() + 1];
+    this.onPath = new boolean[groups.size()];
+    this.stillNotFound = new long[Math.max(1, layout.getMaxWordCount())];
+    this.pathResult = new long[stillNotFound.length];
+  }
+
+  /**
+   * Returns the mask of the valid coordinates of the given axis, for layouts
+   * where every axis has a single word.
+   */
+  long getAll(int axisIndex, long[] fixedMasks) {
+    getAll(axisIndex, fixedMasks, singleWordResult);
+    return singleWordResult[0];
+  }
+
+  /**
+   * Writes the mask of the valid coordinates of the given axis into
+   * {@code result}, given the masks of the fixed coordinates of all axes (see
+   * {@link MaskLayout}). Bits of {@code fixedMasks} past the last coordinate
+   * of an axis are ignored, and {@code fixedMasks} is not modified.
+   */
+  void getAll(int axisIndex, long[] fixedMasks, long[] result) {
+    getAll(axisIndex, fixedMasks, result, null);
+  }
+
+  /**
+   * Same as {@link #getAll(int, long[], long[])}, but only through the given
+   * {@code liveGroups} (a bit per group), e.g. because the others are known
+   * not to be part of any valid path.
+   */
+  void getAll(int axisIndex, long[] fixedMasks, long[] result,
+      long[] liveGroups) {
+    getAll(axisIndex, fixedMasks, result, liveGroups, QueryBudget.unlimited());
+  }
+
+  /**
+   * Same as {@link #getAll(int, long[], long[], long[])}, but stops when the
+   * search runs out of {@code budget}, leaving the coordinates found so far
+   * in {@code result}.
+   */
+  void getAll(int axisIndex, long[] fixedMasks, long[] result,
+      long[] liveGroups, QueryBudget budget) {
+    search(axisIndex, groups.groupsTouchingAxis[axisIndex], fixedMasks, 
+        result, liveGroups, budget);
+  }
+
+  /**
+   * Same as {@link #getAll(int, long[], long[], long[])}, but following 
+   * {@code plan}, which must be the plan of the shape of the query.
+   */
+  void getAll(QueryPlan plan, long[] fixedMasks, long[] result,
+      long[] liveGroups) {
+    search(plan.axisIndex, plan.startingGroups, fixedMasks, result, 
+        liveGroups, QueryBudget.unlimited());
+  }
+
+  /**
+   * Returns the groups of some complete path starting at {@code group}, in 
+   * the order they were visited, or {@code null} if there is none. No 
+   * coordinate is fixed, and the search stops at the first complete path.
+   */
+  int[] findCompletePath(int group) {
+    // Every path starting at the group touches its axes, so searching for
+    // one of them never abandons a path before it completes
+    singleGroup[0] = group;
+    firstPathOnly = true;
+    completePath = null;
+    try {
+      search(Long.numberOfTrailingZeros(groups.axes[group]), singleGroup,
+          universe, pathResult, null, QueryBudget.unlimited());
+      return completePath;
+    } finally {
+      firstPathOnly = false;
+      completePath = null;
+    }
+  }
+
+  private void search(int axisIndex, int[] startingGroups, 
+      long[] fixedMasks, long[] result, long[] liveGroups, 
+      QueryBudget budget) {
+    MaskLayout layout = groups.layout;
+    this.maxPaths = budget.maxPaths;
+    this.maxHops = budget.maxHops;
+    this.hasDeadline = budget.hasTimeout();
+    if (hasDeadline) {
+      this.deadlineNanos = System.nanoTime() + budget.timeoutNanos;
+    }
+    this.pathCount = 0;
+    this.hopCount = 0;
+    this.exceededLimit = null;
+    this.liveGroups = liveGroups;
+    this.axisOffset = layout.getOffset(axisIndex);
+    this.axisWords = layout.getWordCount(axisIndex);
+    this.result = result;
+    this.done = false;
+    this.interruptible = InterruptibleQueries.areOn();
+    this.interrupted = false;
+    clearPath();
+    Arrays.fill(result, 0, axisWords, 0L);
+
+    boolean anyToFind = false;
+    for (int word = 0; word < axisWords; word++) {
+      stillNotFound[word] =
+        fixedMasks[axisOffset + word] & universe[axisOffset + word];
+      anyToFind |= stillNotFound[word] != 0;
+    }
+    if (!anyToFind || !isPossible(fixedMasks)) {
+      return;
+    }
+
+    long[] start = levels[0];
+    for (int group: startingGroups) {
+      if (!isLive(group)) {
+        continue;
+      }
+      // Skip affinity groups that would not add some value, i.e. that only
+      // touch coordinates already found to be part of the result
+      if (!canStillFind(groups.masks[group])) {
+        continue;
+      }
+      if (!narrow(fixedMasks, group, start)) {
+        continue;
+      }
+      push(group);
+      axesVisited = groups.axes[group];
+      explore(0);
+      pop(group);
+      if (interrupted) {
+        throw new CancellationException("The search was interrupted.");
+      }
+      if (done) {
+        return;
+      }
+    }
+  }
+
+  private void explore(int depth) {
+    if (interruptible && Thread.currentThread().isInterrupted()) {
+      interrupted = true;
+      done = true;
+      return;
+    }
+    if (pathCount == maxPaths) {
+      stop(QueryBudget.Limit.PATHS);
+      return;
+    }
+    pathCount++;
+    if (hasDeadline && (pathCount & DEADLINE_CHECK_MASK) == 1
+        && System.nanoTime() - deadlineNanos >= 0) {
+      stop(QueryBudget.Limit.TIMEOUT);
+      return;
+    }
+    long[] current = levels[depth];
+    if (!canStillFind(current)) {
+      return;
+    }
+    if (axesVisited == groups.allAxes) {
+      if (firstPathOnly) {
+        completePath = Arrays.copyOf(path, pathLength);
+        done = true;
+        return;
+      }
+      boolean anyLeft = false;
+      for (int word = 0; word < axisWords; word++) {
+        long found = current[axisOffset + word];
+        result[word] |= found;
+        stillNotFound[word] &= ~found;
+        anyLeft |= stillNotFound[word] != 0;
+      }
+      // Optimization only -- if we already found everything, we're done
+      done = !anyLeft;
+      return;
+    }
+    long[] next = levels[depth + 1];
+    for (int i = 0; i < pathLength; i++) {
+      for (int target: groups.getNextHops(path[i])) {
+        if (onPath[target] || (groups.axes[target] & ~axesVisited) == 0
+            || !isLive(target)) {
+          continue;
+        }
+        if (hopCount == maxHops) {
+          stop(QueryBudget.Limit.HOPS);
+          return;
+        }
+        hopCount++;
+        if (!narrow(current, target, next)) {
+          continue;
+        }
+        long previousAxesVisited = axesVisited;
+        push(target);
+        axesVisited |= groups.axes[target];
+        explore(depth + 1);
+        pop(target);
+        axesVisited = previousAxesVisited;
+        if (done) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void stop(QueryBudget.Limit limit) {
+    exceededLimit = limit;
+    done = true;
+  }
+
+  /**
+   * The limit of its budget the last search ran into, or {@code null} if it
+   * completed.
+   */
+  QueryBudget.Limit getExceededLimit() {
+    return exceededLimit;
+  }
+
+  /**
+   * The number of paths the last search grew.
+   */
+  long getPathCount() {
+    return pathCount;
+  }
+
+  /**
+   * The number of next hops the last search tried.
+   */
+  long getHopCount() {
+    return hopCount;
+  }
+
+  /**
+   * Forgets the path of a previous search, in case it did not complete
+   * normally.
+   */
+  private void clearPath() {
+    while (pathLength > 0) {
+      onPath[path[--pathLength]] = false;
+    }
+  }
+
+  private boolean isLive(int group) {
+    return liveGroups == null
+        || (liveGroups[group >>> 6] & (1L << group)) != 0;
+  }
+
+  private void push(int group) {
+    path[pathLength++] = group;
+    onPath[group] = true;
+  }
+
+  private void pop(int group) {
+    pathLength--;
+    onPath[group] = false;
+  }
+
+  /**
+   * Returns true if the asked axis of {@code masks} has some coordinate that
+   * was not found yet.
+   */
+  private boolean canStillFind(long[] masks) {
+    for (int word = 0; word < axisWords; word++) {
+      if ((masks[axisOffset + word] & stillNotFound[word]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the intersection of {@code source} and the given group into
+   * {@code target}. Returns false if that leaves some axis of the group
+   * without coordinates.
+   */
+  private boolean narrow(long[] source, int group, long[] target) {
+    long[] mask = groups.masks[group];
+    for (int word = 0; word < totalWords; word++) {
+      target[word] = source[word] & mask[word];
+    }
+    for (long axes = groups.axes[group]; axes != 0; axes &= axes - 1) {
+      if (isEmpty(target, Long.numberOfTrailingZeros(axes))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns false if some axis of {@code fixedMasks} has no coordinates.
+   */
+  private boolean isPossible(long[] fixedMasks) {
+    MaskLayout layout = groups.layout;
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      int offset = layout.getOffset(axisIndex);
+      boolean any = false;
+      for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+        any |= (fixedMasks[offset + word] & universe[offset + word]) != 0;
+      }
+      if (!any) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isEmpty(long[] masks, int axisIndex) {
+    MaskLayout layout = groups.layout;
+    int offset = layout.getOffset(axisIndex);
+    for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+      if (masks[offset + word] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+/**
+ * The answers to all queries of a {@link QueryShape} that fix a single 
+ * coordinate of each of its fixed axes, and leave all other axes 
+ * unconstrained: one mask of the asked axis per combination of fixed
+ * coordinates.
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+final class MaterializedView {
+
+  final QueryShape shape;
+
+  /**
+   * The fixed axes of the shape, and the stride of the ordinals of each in
+   * {@link #masks}, in words.
+   */
+  private final int[] fixedAxes;
+  private final int[] strides;
+
+  private final int axisWords;
+  private final long[] masks;
+
+  /**
+   * Computes all answers of {@code shape} with {@code truthTable}.
+   */
+  MaterializedView(RealTruthTable truthTable, QueryShape shape) {
+    MaskLayout layout = truthTable.getMaskLayout();
+    this.shape = shape;
+    this.axisWords = layout.getWordCount(shape.axisIndex);
+    this.fixedAxes = new int[Long.bitCount(shape.fixedAxes)];
+    this.strides = new int[fixedAxes.length];
+    int stride = axisWords;
+    int i = 0;
+    for (long axes = shape.fixedAxes; axes != 0; axes &= axes - 1) {
+      fixedAxes[i] = Long.numberOfTrailingZeros(axes);
+      strides[i] = stride;
+      stride *= layout.getCoordinateCount(fixedAxes[i]);
+      i++;
+    }
+    this.masks = new long[stride];
+
+    MaskBuffer fixedMasks = new MaskBuffer(layout);
+    long[] result = new long[axisWords];
+    int[] ordinals = new int[fixedAxes.length];
+    for (int offset = 0; offset < masks.length; offset += axisWords) {
+      fixedMasks.reset();
+      for (i = 0; i < fixedAxes.length; i++) {
+        fixedMasks.noneOf(fixedAxes[i]).add(fixedAxes[i], ordinals[i]);
+      }
+      truthTable.getAll(shape.axisIndex, fixedMasks, result);
+      System.arraycopy(result, 0, masks, offset, axisWords);
+      // Next combination, with the first axis changing fastest
+      for (i = 0; i < ordinals.length; i++) {
+        if (++ordinals[i] < layout.getCoordinateCount(fixedAxes[i])) {
+          break;
+        }
+        ordinals[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Returns how many bytes the view of {@code shape} takes, or 
+   * {@link Long#MAX_VALUE} if it is too large to build.
+   */
+  static long estimateSizeInBytes(MaskLayout layout, QueryShape shape) {
+    long words = layout.getWordCount(shape.axisIndex);
+    for (long axes = shape.fixedAxes; axes != 0; axes &= axes - 1) {
+      words *= layout.getCoordinateCount(Long.numberOfTrailingZeros(axes));
+      if (words > Integer.MAX_VALUE) {
+        return Long.MAX_VALUE;
+      }
+    }
+    return 8 * words;
+  }
+
+  long getSizeInBytes() {
+    return 8L * masks.length;
+  }
+
+  /**
+   * Returns the offset in {@link #getMasks()} of the answer to a query of
+   * the shape of this view, given the single fixed ordinal of each axis (see 
+   * {@link MaterializingTruthTable}).
+   */
+  int offsetOf(int[] singleOrdinals) {
+    int result = 0;
+    for (int i = 0; i < fixedAxes.length; i++) {
+      result += singleOrdinals[fixedAxes[i]] * strides[i];
+    }
+    return result;
+  }
+
+  /**
+   * The answers, {@link MaskLayout#getWordCount(int)} words each. Must not be
+   * modified.
+   */
+  long[] getMasks() {
+    return masks;
+  }
+}
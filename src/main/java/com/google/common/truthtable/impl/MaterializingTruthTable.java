@@ -0,0 +1,351 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.truthtable.TruthTable;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TruthTable} that records the {@link QueryShape}s of the
+ * {@code getAll} queries it gets, and precomputes the answers of the most 
+ * frequent ones, within a memory budget.
+ *
+ * <p>A {@link MaterializedView} of a shape holds the answers to all its 
+ * queries that fix a single coordinate of each of its fixed axes (and which
+ * are then answered without a search). The views to keep are chosen by
+ * {@link #advise()}, typically run in the background (see 
+ * {@link #startAdvising(ScheduledExecutorService, long, TimeUnit)}): it 
+ * picks the shapes that would have answered the most queries per byte,
+ * until the budget is used up. The counts of the shapes are halved each 
+ * time, so that the views follow the traffic as it shifts.
+ *
+ * <p>Other queries simply go to the wrapped table.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+public final class MaterializingTruthTable implements TruthTable {
+
+  /**
+   * How many queries of a shape were made, and how many of them a view of
+   * the shape could have answered, since (roughly half of them) the last 
+   * time {@link #advise()} ran.
+   */
+  private static final class ShapeCounts {
+    final AtomicLong queries = new AtomicLong();
+    final AtomicLong viewable = new AtomicLong();
+  }
+
+  private final RealTruthTable truthTable;
+  private final MaskLayout layout;
+  private final long memoryBudgetBytes;
+
+  private final ConcurrentMap<QueryShape, ShapeCounts> shapes = 
+    new ConcurrentHashMap<QueryShape, ShapeCounts>();
+  private volatile ImmutableMap<QueryShape, MaterializedView> views = 
+    ImmutableMap.of();
+
+  private final AtomicLong queryCount = new AtomicLong();
+  private final AtomicLong viewHitCount = new AtomicLong();
+
+  /**
+   * Keeps views of up to {@code memoryBudgetBytes} in total.
+   */
+  public MaterializingTruthTable(RealTruthTable truthTable, 
+      long memoryBudgetBytes) {
+    Preconditions.checkArgument(memoryBudgetBytes >= 0, 
+        "memoryBudgetBytes must not be negative, but was %s.", 
+        memoryBudgetBytes);
+    this.truthTable = truthTable;
+    this.layout = truthTable.getMaskLayout();
+    this.memoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  @Override
+  public <E extends Enum<E>> Set<E> getAll(
+      Class<E> axis, FixedCoordinates fixedCoordinates) {
+    int axisIndex = layout.indexOf(axis);
+    MaskBuffer fixedMasks = new MaskBuffer(layout).setAll(fixedCoordinates);
+    queryCount.incrementAndGet();
+
+    // For each constrained axis, its single fixed ordinal, if it has one
+    int[] singleOrdinals = new int[layout.getAxisCount()];
+    long fixedAxes = 0;
+    boolean viewable = true;
+    for (int fixedAxis = 0; fixedAxis < layout.getAxisCount(); fixedAxis++) {
+      if (isUnconstrained(fixedMasks, fixedAxis)) {
+        continue;
+      }
+      fixedAxes |= 1L << fixedAxis;
+      singleOrdinals[fixedAxis] = singleOrdinal(fixedMasks, fixedAxis);
+      viewable &= singleOrdinals[fixedAxis] != -1;
+    }
+    QueryShape shape = new QueryShape(layout, axisIndex, fixedAxes);
+    record(shape, viewable);
+
+    MaterializedView view = views.get(shape);
+    if (view != null && viewable) {
+      viewHitCount.incrementAndGet();
+      return layout.toEnumSet(
+          axis, view.getMasks(), view.offsetOf(singleOrdinals));
+    }
+    long[] result = new long[layout.getWordCount(axisIndex)];
+    truthTable.getAll(axisIndex, fixedMasks, result);
+    return layout.toEnumSet(axis, result);
+  }
+
+  private void record(QueryShape shape, boolean viewable) {
+    ShapeCounts counts = shapes.get(shape);
+    if (counts == null) {
+      ShapeCounts newCounts = new ShapeCounts();
+      counts = shapes.putIfAbsent(shape, newCounts);
+      if (counts == null) {
+        counts = newCounts;
+      }
+    }
+    counts.queries.incrementAndGet();
+    if (viewable) {
+      counts.viewable.incrementAndGet();
+    }
+  }
+
+  private boolean isUnconstrained(MaskBuffer fixedMasks, int axisIndex) {
+    int offset = layout.getOffset(axisIndex);
+    for (int word = offset; word < offset + layout.getWordCount(axisIndex);
+        word++) {
+      if (fixedMasks.words[word] != layout.universe[word]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the ordinal of the single coordinate of the given axis, or -1 if
+   * it has none or more than one.
+   */
+  private int singleOrdinal(MaskBuffer fixedMasks, int axisIndex) {
+    int result = -1;
+    int offset = layout.getOffset(axisIndex);
+    for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+      long bits = fixedMasks.words[offset + word];
+      if (bits == 0) {
+        continue;
+      }
+      if (result != -1 || Long.bitCount(bits) != 1) {
+        return -1;
+      }
+      result = (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+    return result;
+  }
+
+  @Override
+  public <E extends Enum<E>> Set<E> getAll(Class<E> axis) {
+    return getAll(axis, new FixedCoordinates());
+  }
+
+  /**
+   * Chooses the views to keep from the shapes of the queries made so far,
+   * builds those that are new, and drops those that are no longer chosen.
+   * Then halves the counts of all shapes, so that older queries weigh less 
+   * the next time.
+   */
+  public synchronized void advise() {
+    Map<QueryShape, Long> viewableCounts = Maps.newHashMap();
+    for (Map.Entry<QueryShape, ShapeCounts> entry : shapes.entrySet()) {
+      ShapeCounts counts = entry.getValue();
+      viewableCounts.put(entry.getKey(), halve(counts.viewable));
+      if (halve(counts.queries) == 0) {
+        // Queries of this shape made right now may go uncounted
+        shapes.remove(entry.getKey(), counts);
+      }
+    }
+
+    Map<QueryShape, MaterializedView> oldViews = views;
+    ImmutableMap.Builder<QueryShape, MaterializedView> newViews = 
+      ImmutableMap.builder();
+    for (QueryShape shape : 
+        choose(layout, viewableCounts, memoryBudgetBytes)) {
+      MaterializedView view = oldViews.get(shape);
+      newViews.put(shape, 
+          view != null ? view : new MaterializedView(truthTable, shape));
+    }
+    views = newViews.build();
+  }
+
+  /**
+   * Halves {@code count}, and returns what it was.
+   */
+  private static long halve(AtomicLong count) {
+    while (true) {
+      long result = count.get();
+      if (count.compareAndSet(result, result / 2)) {
+        return result;
+      }
+    }
+  }
+
+  /**
+   * Returns the shapes whose views would answer the most queries per byte, 
+   * given how many queries of each a view would have answered, as long as
+   * they fit in {@code memoryBudgetBytes}.
+   */
+  static List<QueryShape> choose(final MaskLayout layout, 
+      final Map<QueryShape, Long> viewableCounts, long memoryBudgetBytes) {
+    List<QueryShape> candidates = Lists.newArrayList();
+    for (Map.Entry<QueryShape, Long> entry : viewableCounts.entrySet()) {
+      if (entry.getValue() > 0) {
+        candidates.add(entry.getKey());
+      }
+    }
+    Collections.sort(candidates, new Comparator<QueryShape>() {
+      @Override
+      public int compare(QueryShape x, QueryShape y) {
+        return Double.compare(benefit(y), benefit(x));
+      }
+
+      private double benefit(QueryShape shape) {
+        return (double) viewableCounts.get(shape) 
+            / MaterializedView.estimateSizeInBytes(layout, shape);
+      }
+    });
+    List<QueryShape> result = Lists.newArrayList();
+    long left = memoryBudgetBytes;
+    for (QueryShape shape : candidates) {
+      long size = MaterializedView.estimateSizeInBytes(layout, shape);
+      if (size <= left) {
+        result.add(shape);
+        left -= size;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Runs {@link #advise()} every {@code period} on {@code executor}, until
+   * the returned future is cancelled.
+   */
+  public ScheduledFuture<?> startAdvising(ScheduledExecutorService executor,
+      long period, TimeUnit unit) {
+    return executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        advise();
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * The number of {@code getAll} queries made so far.
+   */
+  public long getQueryCount() {
+    return queryCount.get();
+  }
+
+  /**
+   * The number of {@code getAll} queries answered by a view.
+   */
+  public long getViewHitCount() {
+    return viewHitCount.get();
+  }
+
+  /**
+   * Returns how many queries of each shape were made recently (see 
+   * {@link #advise()}).
+   */
+  public ImmutableMap<QueryShape, Long> getQueryShapeCounts() {
+    ImmutableMap.Builder<QueryShape, Long> result = ImmutableMap.builder();
+    for (Map.Entry<QueryShape, ShapeCounts> entry : shapes.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().queries.get());
+    }
+    return result.build();
+  }
+
+  /**
+   * The shapes whose views are kept right now.
+   */
+  public ImmutableSet<QueryShape> getMaterializedShapes() {
+    return views.keySet();
+  }
+
+  /**
+   * Returns how many bytes the views kept right now take.
+   */
+  public long getMaterializedSizeInBytes() {
+    long result = 0;
+    for (MaterializedView view : views.values()) {
+      result += view.getSizeInBytes();
+    }
+    return result;
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes,
+      FixedCoordinates fixedCoordinates) {
+    return truthTable.project(axes, fixedCoordinates);
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes) {
+    return truthTable.project(axes);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights,
+      FixedCoordinates fixedCoordinates) {
+    return truthTable.getTopCells(k, weights, fixedCoordinates);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights) {
+    return truthTable.getTopCells(k, weights);
+  }
+
+  @Override
+  public List<Cell> sample(FixedCoordinates fixedCoordinates, Random random,
+      int n) {
+    return truthTable.sample(fixedCoordinates, random, n);
+  }
+
+  @Override
+  public List<Cell> sample(Random random, int n) {
+    return truthTable.sample(random, n);
+  }
+
+  @Override
+  public String toString() {
+    return truthTable.toString();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+
+/**
+ * For each coordinate {@code c} and each axis {@code A} of a table, the mask
+ * of the coordinates of {@code A} that are valid when only {@code c} is
+ * fixed (i.e. that share a true cell with {@code c}). Together with the 
+ * facets (the valid coordinates of each axis when nothing is fixed), that is
+ * a full pairwise compatibility index of the table.
+ *
+ * <p>With it, queries that constrain a single axis (however many of its 
+ * coordinates they fix) are answered without a search: the valid 
+ * coordinates of any other axis are the union of the rows of the fixed 
+ * coordinates. Queries that constrain more axes still need a search, but the
+ * intersection of such unions bounds the valid coordinates of every axis, so
+ * the search starts from narrower masks, and stops as soon as it found all
+ * coordinates of the bound.
+ *
+ * <p>The index takes a row of {@link MaskLayout#getTotalWordCount()} words
+ * per coordinate (see {@link #estimateSizeInBytes(MaskLayout)}), and one
+ * search per coordinate and axis to build.
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+final class PairwiseIndex {
+
+  private final MaskLayout layout;
+  private final int totalWords;
+
+  /**
+   * The valid coordinates of all axes, when nothing is fixed.
+   */
+  private final long[] facets;
+
+  /**
+   * For each axis, the row of its coordinate of ordinal 0. The rows of the
+   * coordinates of an axis follow each other, in ordinal order.
+   */
+  private final int[] firstRows;
+
+  /**
+   * The rows of all coordinates, {@link #totalWords} words each. The row of
+   * a coordinate that is not part of any true cell is all 0s.
+   */
+  private final long[] rows;
+
+  PairwiseIndex(GroupMasks groups, long[] facets) {
+    this.layout = groups.layout;
+    this.totalWords = layout.getTotalWordCount();
+    this.facets = facets;
+    this.firstRows = new int[layout.getAxisCount()];
+    int rowCount = 0;
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      firstRows[axisIndex] = rowCount;
+      rowCount += layout.getCoordinateCount(axisIndex);
+    }
+    this.rows = new long[rowCount * totalWords];
+
+    MaskSearch search = new MaskSearch(groups);
+    MaskBuffer fixedMasks = new MaskBuffer(layout);
+    long[] result = new long[Math.max(1, layout.getMaxWordCount())];
+    for (int fixedAxis = 0; fixedAxis < layout.getAxisCount(); fixedAxis++) {
+      int fixedOffset = layout.getOffset(fixedAxis);
+      for (int ordinal = 0; ordinal < layout.getCoordinateCount(fixedAxis);
+          ordinal++) {
+        long bit = 1L << ordinal;
+        if ((facets[fixedOffset + (ordinal >>> 6)] & bit) == 0) {
+          continue;
+        }
+        int row = (firstRows[fixedAxis] + ordinal) * totalWords;
+        fixedMasks.reset().noneOf(fixedAxis).add(fixedAxis, ordinal);
+        for (int axisIndex = 0; axisIndex < layout.getAxisCount(); 
+            axisIndex++) {
+          if (axisIndex == fixedAxis) {
+            rows[row + fixedOffset + (ordinal >>> 6)] = bit;
+            continue;
+          }
+          search.getAll(axisIndex, fixedMasks.words, result);
+          System.arraycopy(result, 0, rows, row + layout.getOffset(axisIndex),
+              layout.getWordCount(axisIndex));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns how many bytes the index of a table with the given layout takes.
+   */
+  static long estimateSizeInBytes(MaskLayout layout) {
+    long rowCount = 0;
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      rowCount += layout.getCoordinateCount(axisIndex);
+    }
+    return 8L * (rowCount + 1) * layout.getTotalWordCount() 
+        + 4L * layout.getAxisCount();
+  }
+
+  /**
+   * Bounds the valid coordinates of all axes, given the masks of the fixed
+   * coordinates of all axes (which are not modified), writing the bounds
+   * into {@code bounds}. If that is enough to know the valid coordinates of
+   * the given axis, writes them into {@code result} and returns true.
+   * Otherwise, returns false, and a search with {@code bounds} as the fixed
+   * masks gets the same result as one with {@code fixedMasks}.
+   *
+   * @param union scratch space, as large as {@code bounds}
+   */
+  boolean getAll(int axisIndex, long[] fixedMasks, long[] result, 
+      long[] bounds, long[] union) {
+    for (int word = 0; word < totalWords; word++) {
+      bounds[word] = facets[word] & fixedMasks[word];
+    }
+    int constrainedAxes = 0;
+    for (int fixedAxis = 0; fixedAxis < layout.getAxisCount(); fixedAxis++) {
+      if (!isConstrained(fixedAxis, fixedMasks)) {
+        continue;
+      }
+      constrainedAxes++;
+      // A true cell with one of the fixed coordinates of this axis is in the
+      // row of that coordinate
+      Arrays.fill(union, 0, totalWords, 0L);
+      int offset = layout.getOffset(fixedAxis);
+      for (int word = 0; word < layout.getWordCount(fixedAxis); word++) {
+        for (long bits = bounds[offset + word]; bits != 0; 
+            bits &= bits - 1) {
+          int ordinal = (word << 6) + Long.numberOfTrailingZeros(bits);
+          int row = (firstRows[fixedAxis] + ordinal) * totalWords;
+          for (int i = 0; i < totalWords; i++) {
+            union[i] |= rows[row + i];
+          }
+        }
+      }
+      for (int i = 0; i < totalWords; i++) {
+        bounds[i] &= union[i];
+      }
+    }
+
+    boolean possible = isPossible(bounds);
+    // With a single constrained axis, the bounds are exact
+    if (constrainedAxes > 1 && possible) {
+      return false;
+    }
+    int offset = layout.getOffset(axisIndex);
+    for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+      result[word] = possible ? bounds[offset + word] : 0L;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if {@code fixedMasks} leave out some valid coordinate of the
+   * given axis.
+   */
+  private boolean isConstrained(int axisIndex, long[] fixedMasks) {
+    int offset = layout.getOffset(axisIndex);
+    for (int word = offset; word < offset + layout.getWordCount(axisIndex);
+        word++) {
+      if ((facets[word] & ~fixedMasks[word]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns false if some axis of {@code masks} has no coordinates.
+   */
+  private boolean isPossible(long[] masks) {
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      int offset = layout.getOffset(axisIndex);
+      boolean empty = true;
+      for (int word = offset; word < offset + layout.getWordCount(axisIndex);
+          word++) {
+        empty &= masks[word] == 0;
+      }
+      if (empty) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns how many bytes this index takes.
+   */
+  long getSizeInBytes() {
+    return estimateSizeInBytes(layout);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The result of {@link RealTruthTable#getAllWithin(Class, FixedCoordinates,
+ * QueryBudget)}: the valid coordinates the query found within its
+ * {@link QueryBudget}, and whether those are all of them.
+ *
+ * @author zorzella@google.com
+ */
+public final class PartialResult<E extends Enum<E>> {
+
+  private final Set<E> coordinates;
+  private final QueryBudget.Limit exceededLimit;
+  private final long pathCount;
+  private final long hopCount;
+
+  PartialResult(Set<E> coordinates, QueryBudget.Limit exceededLimit, 
+      long pathCount, long hopCount) {
+    this.coordinates = Collections.unmodifiableSet(coordinates);
+    this.exceededLimit = exceededLimit;
+    this.pathCount = pathCount;
+    this.hopCount = hopCount;
+  }
+
+  /**
+   * The coordinates found. They are all valid, but unless 
+   * {@link #isComplete()}, there may be other valid coordinates.
+   */
+  public Set<E> getCoordinates() {
+    return coordinates;
+  }
+
+  /**
+   * Whether the query completed within its budget, so that 
+   * {@link #getCoordinates()} are all the valid coordinates.
+   */
+  public boolean isComplete() {
+    return exceededLimit == null;
+  }
+
+  /**
+   * The limit of the budget that the query ran into, or {@code null} if it
+   * completed.
+   */
+  public QueryBudget.Limit getExceededLimit() {
+    return exceededLimit;
+  }
+
+  /**
+   * The number of paths the query grew (see {@link QueryBudget.Limit#PATHS}),
+   * as a measure of how expensive it was.
+   */
+  public long getPathCount() {
+    return pathCount;
+  }
+
+  /**
+   * The number of next hops the query tried (see 
+   * {@link QueryBudget.Limit#HOPS}).
+   */
+  public long getHopCount() {
+    return hopCount;
+  }
+
+  @Override
+  public String toString() {
+    return isComplete() 
+        ? coordinates.toString() 
+        : coordinates + " (incomplete, exceeded " + exceededLimit + ")";
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.truthtable.TruthTable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of {@link TruthTable#project(Set, FixedCoordinates)}: all the
+ * distinct tuples of coordinates, over a given subset of axes, that are part
+ * of at least one true cell.
+ *
+ * <p>E.g. projecting onto (Entree, Wine) may return
+ * [[PASTA, CHIANTI], [STEAK, CHIANTI], [STEAK, PORT]].
+ *
+ * <p>Each tuple is stored as a single {@code long}, which encodes the
+ * ordinals of its coordinates in mixed radix (the radix of each axis being the
+ * number of coordinates in that axis). The axes of a tuple are always in the
+ * order given by {@link #getAxes()}, which is sorted by axis name, regardless
+ * of the order in which they were requested.
+ *
+ * @author zorzella@google.com
+ */
+public final class ProjectedTuples implements Iterable<List<Enum<?>>> {
+
+  private final ImmutableList<Class<? extends Enum>> axes;
+
+  /**
+   * For each axis in {@link #axes}, all its coordinates, in ordinal order.
+   */
+  private final Enum<?>[][] coordinates;
+
+  /**
+   * For each axis in {@link #axes}, the value of one unit of its ordinal in
+   * the encoded tuple.
+   */
+  private final long[] weights;
+
+  /**
+   * The encoded tuples, sorted and without duplicates.
+   */
+  private final long[] tuples;
+
+  private ProjectedTuples(ImmutableList<Class<? extends Enum>> axes,
+      Enum<?>[][] coordinates, long[] weights, long[] tuples) {
+    this.axes = axes;
+    this.coordinates = coordinates;
+    this.weights = weights;
+    this.tuples = tuples;
+  }
+
+  /**
+   * The axes of each tuple, in the order in which their coordinates appear.
+   */
+  public ImmutableList<Class<? extends Enum>> getAxes() {
+    return axes;
+  }
+
+  /**
+   * The number of distinct tuples.
+   */
+  public int size() {
+    return tuples.length;
+  }
+
+  public boolean isEmpty() {
+    return tuples.length == 0;
+  }
+
+  /**
+   * Returns the encoded form of the tuple at {@code index}. Tuples are sorted
+   * by their encoded form.
+   */
+  public long getEncoded(int index) {
+    return tuples[index];
+  }
+
+  /**
+   * Returns the ordinal of the coordinate in the {@code axisPosition}-th axis
+   * (see {@link #getAxes()}) of the tuple at {@code index}.
+   */
+  public int getOrdinal(int index, int axisPosition) {
+    return (int) ((tuples[index] / weights[axisPosition])
+        % coordinates[axisPosition].length);
+  }
+
+  /**
+   * Returns the tuple at {@code index}, in the order given by
+   * {@link #getAxes()}.
+   */
+  public List<Enum<?>> get(int index) {
+    Enum<?>[] result = new Enum<?>[axes.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = coordinates[i][getOrdinal(index, i)];
+    }
+    return ImmutableList.copyOf(result);
+  }
+
+  /**
+   * Returns true if the given {@code tuple}, which must have exactly one
+   * coordinate for each of {@link #getAxes()}, in any order, is present.
+   *
+   * @throws IllegalArgumentException if {@code tuple} does not touch exactly
+   *   the axes in {@link #getAxes()}
+   */
+  public boolean contains(Enum<?>... tuple) {
+    if (tuple.length != axes.size()) {
+      throw new IllegalArgumentException(String.format(
+        "Expected one coordinate for each of '%s', got '%s'.",
+        axes, Arrays.asList(tuple)));
+    }
+    long encoded = 0;
+    boolean[] seen = new boolean[axes.size()];
+    for (Enum<?> coordinate : tuple) {
+      int position = axes.indexOf(coordinate.getDeclaringClass());
+      if (position < 0 || seen[position]) {
+        throw new IllegalArgumentException(String.format(
+          "Expected one coordinate for each of '%s', got '%s'.",
+          axes, Arrays.asList(tuple)));
+      }
+      seen[position] = true;
+      encoded += coordinate.ordinal() * weights[position];
+    }
+    return Arrays.binarySearch(tuples, encoded) >= 0;
+  }
+
+  @Override
+  public Iterator<List<Enum<?>>> iterator() {
+    return new AbstractIterator<List<Enum<?>>>() {
+      private int index = 0;
+
+      @Override
+      protected List<Enum<?>> computeNext() {
+        if (index == tuples.length) {
+          return endOfData();
+        }
+        return get(index++);
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ProjectedTuples)) {
+      return false;
+    }
+    ProjectedTuples that = (ProjectedTuples) obj;
+    return axes.equals(that.axes) && Arrays.equals(tuples, that.tuples);
+  }
+
+  @Override
+  public int hashCode() {
+    return axes.hashCode() * 31 + Arrays.hashCode(tuples);
+  }
+
+  @Override
+  public String toString() {
+    return ImmutableList.copyOf(this).toString();
+  }
+
+  /**
+   * Accumulates the tuples found by the search. Tuples are appended as they
+   * are found (which normally causes many duplicates), and periodically
+   * de-duplicated.
+   */
+  static class Builder {
+
+    private final ImmutableList<Class<? extends Enum>> axes;
+    private final Enum<?>[][] coordinates;
+    private final long[] weights;
+
+    private long[] tuples = new long[16];
+    private int size = 0;
+
+    /**
+     * The size of {@link #tuples} after its last de-duplication.
+     */
+    private int compactedSize = 0;
+
+    /**
+     * @throws IllegalArgumentException if {@code axes} is empty, or if the
+     *   number of possible tuples does not fit in a {@code long}
+     */
+    Builder(Collection<? extends Class<? extends Enum>> axesToProject) {
+      if (axesToProject.isEmpty()) {
+        throw new IllegalArgumentException(
+          "At least one axis must be given to project onto.");
+      }
+      // There are no arrays of a generic type, only of raw ones
+      @SuppressWarnings("unchecked")
+      Class<? extends Enum>[] sorted =
+        axesToProject.toArray(new Class[axesToProject.size()]);
+      Arrays.sort(sorted, TruthTableComparators.FOR_AXIS);
+      this.axes = ImmutableList.copyOf(sorted);
+      this.coordinates = new Enum<?>[sorted.length][];
+      this.weights = new long[sorted.length];
+      long weight = 1;
+      for (int i = sorted.length - 1; i >= 0; i--) {
+        coordinates[i] = sorted[i].getEnumConstants();
+        weights[i] = weight;
+        if (weight > Long.MAX_VALUE / coordinates[i].length) {
+          throw new IllegalArgumentException(String.format(
+            "There are too many possible tuples over '%s' to project onto.",
+            axes));
+        }
+        weight *= coordinates[i].length;
+      }
+    }
+
+    ImmutableList<Class<? extends Enum>> getAxes() {
+      return axes;
+    }
+
+    /**
+     * Adds every tuple in the cartesian product of the coordinates of the
+     * projected axes in {@code axesToCoordinates}.
+     */
+    void addCartesianProduct(
+        Map<Class<? extends Enum>, EnumSet<?>> axesToCoordinates) {
+      int[][] ordinals = new int[axes.size()][];
+      for (int i = 0; i < ordinals.length; i++) {
+        ordinals[i] = ordinalsOf(axesToCoordinates.get(axes.get(i)));
+      }
+      addCartesianProduct(ordinals, 0, 0);
+    }
+
+    private static <E extends Enum<E>> int[] ordinalsOf(EnumSet<E> set) {
+      int[] result = new int[set.size()];
+      int i = 0;
+      for (E coordinate : set) {
+        result[i++] = coordinate.ordinal();
+      }
+      return result;
+    }
+
+    private void addCartesianProduct(int[][] ordinals, int position,
+        long partial) {
+      if (position == ordinals.length) {
+        add(partial);
+        return;
+      }
+      for (int ordinal : ordinals[position]) {
+        addCartesianProduct(ordinals, position + 1,
+            partial + ordinal * weights[position]);
+      }
+    }
+
+    private void add(long tuple) {
+      if (size == tuples.length) {
+        compact();
+        if (size > tuples.length / 2) {
+          tuples = Arrays.copyOf(tuples, tuples.length * 2);
+        }
+      }
+      tuples[size++] = tuple;
+    }
+
+    private void compact() {
+      if (compactedSize == size) {
+        return;
+      }
+      Arrays.sort(tuples, 0, size);
+      int unique = 0;
+      for (int i = 0; i < size; i++) {
+        if (unique == 0 || tuples[unique - 1] != tuples[i]) {
+          tuples[unique++] = tuples[i];
+        }
+      }
+      size = unique;
+      compactedSize = unique;
+    }
+
+    ProjectedTuples build() {
+      compact();
+      return new ProjectedTuples(
+          axes, coordinates, weights, Arrays.copyOf(tuples, size));
+    }
+  }
+}
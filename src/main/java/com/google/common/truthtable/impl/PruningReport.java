@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+/**
+ * What {@link TruthTableBuilder#withPruning()} left out of a 
+ * {@link com.google.common.truthtable.TruthTable}: the 
+ * {@link AffinityGroup}s that were not part of any complete path, and the 
+ * coordinates that were not part of any true cell (see 
+ * {@link TruthTablePruner}).
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+public final class PruningReport {
+
+  private final ImmutableSet<AffinityGroup> originalAffinityGroups;
+  private final ImmutableSet<AffinityGroup> affinityGroups;
+  private final ImmutableSet<AffinityGroup> removedAffinityGroups;
+  private final ImmutableSet<Enum<?>> removedCoordinates;
+
+  PruningReport(Set<AffinityGroup> originalAffinityGroups,
+      Set<AffinityGroup> affinityGroups) {
+    this.originalAffinityGroups = ImmutableSet.copyOf(originalAffinityGroups);
+    this.affinityGroups = ImmutableSet.copyOf(affinityGroups);
+    this.removedAffinityGroups = ImmutableSet.copyOf(
+        Sets.difference(originalAffinityGroups, affinityGroups));
+    this.removedCoordinates = ImmutableSet.copyOf(Sets.difference(
+        coordinatesOf(originalAffinityGroups), coordinatesOf(affinityGroups)));
+  }
+
+  private static Set<Enum<?>> coordinatesOf(Set<AffinityGroup> groups) {
+    Set<Enum<?>> result = Sets.newLinkedHashSet();
+    for (AffinityGroup group : groups) {
+      result.addAll(group.getAllCoordinatesTouched());
+    }
+    return result;
+  }
+
+  /**
+   * The groups the table was built from, some of which may have fewer 
+   * coordinates than the ones they replace.
+   */
+  ImmutableSet<AffinityGroup> getAffinityGroups() {
+    return affinityGroups;
+  }
+
+  /**
+   * The groups that were left out, or replaced by groups with fewer 
+   * coordinates.
+   */
+  public ImmutableSet<AffinityGroup> getRemovedAffinityGroups() {
+    return removedAffinityGroups;
+  }
+
+  /**
+   * The coordinates that no group of the table touches anymore.
+   */
+  public ImmutableSet<Enum<?>> getRemovedCoordinates() {
+    return removedCoordinates;
+  }
+
+  /**
+   * The number of groups the table was built from, before pruning.
+   */
+  public int getOriginalAffinityGroupCount() {
+    return originalAffinityGroups.size();
+  }
+
+  /**
+   * The number of groups the table was built from, after pruning.
+   */
+  public int getAffinityGroupCount() {
+    return affinityGroups.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "Pruned %s of %s affinity groups to %s, removing coordinates %s", 
+        removedAffinityGroups.size(), originalAffinityGroups.size(),
+        affinityGroups.size(), removedCoordinates);
+  }
+}
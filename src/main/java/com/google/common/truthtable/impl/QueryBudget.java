@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on how much work a single query may do, for
+ * {@link RealTruthTable#getAll(Class, FixedCoordinates, QueryBudget)} and
+ * {@link RealTruthTable#getAllWithin(Class, FixedCoordinates, QueryBudget)}.
+ * E.g.:
+ *
+ * <pre>
+ *     QueryBudget budget = QueryBudget.unlimited()
+ *       .withMaxPaths(10000)
+ *       .withTimeout(50, TimeUnit.MILLISECONDS);
+ * </pre>
+ *
+ * <p>The search checks its budget as it goes: the path and hop limits are
+ * exact, while the timeout is only checked every so many paths, so a query 
+ * may run slightly past it.
+ *
+ * <p>Instances are immutable.
+ *
+ * @author zorzella@google.com
+ */
+public final class QueryBudget {
+
+  /**
+   * The limits of a {@link QueryBudget}.
+   */
+  public enum Limit {
+    /**
+     * The number of (partial) paths the search grows, i.e. the number of 
+     * nodes of its search tree.
+     */
+    PATHS,
+
+    /**
+     * The number of next hops the search tries to grow a path with.
+     */
+    HOPS,
+
+    /**
+     * The time a query may take.
+     */
+    TIMEOUT,
+  }
+
+  private static final QueryBudget UNLIMITED = 
+    new QueryBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+  final long maxPaths;
+  final long maxHops;
+  final long timeoutNanos;
+
+  private QueryBudget(long maxPaths, long maxHops, long timeoutNanos) {
+    this.maxPaths = maxPaths;
+    this.maxHops = maxHops;
+    this.timeoutNanos = timeoutNanos;
+  }
+
+  /**
+   * A budget with no limits, to add limits to.
+   */
+  public static QueryBudget unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * Returns a copy of this budget that allows at most {@code maxPaths} 
+   * paths (see {@link Limit#PATHS}).
+   *
+   * @throws IllegalArgumentException if {@code maxPaths} is negative
+   */
+  public QueryBudget withMaxPaths(long maxPaths) {
+    Preconditions.checkArgument(maxPaths >= 0, 
+        "maxPaths must not be negative, but was %s.", maxPaths);
+    return new QueryBudget(maxPaths, maxHops, timeoutNanos);
+  }
+
+  /**
+   * Returns a copy of this budget that allows at most {@code maxHops} 
+   * next hops (see {@link Limit#HOPS}).
+   *
+   * @throws IllegalArgumentException if {@code maxHops} is negative
+   */
+  public QueryBudget withMaxHops(long maxHops) {
+    Preconditions.checkArgument(maxHops >= 0, 
+        "maxHops must not be negative, but was %s.", maxHops);
+    return new QueryBudget(maxPaths, maxHops, timeoutNanos);
+  }
+
+  /**
+   * Returns a copy of this budget that allows a query to take at most the
+   * given time, from when it starts.
+   *
+   * @throws IllegalArgumentException if {@code timeout} is negative
+   */
+  public QueryBudget withTimeout(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout >= 0, 
+        "timeout must not be negative, but was %s.", timeout);
+    return new QueryBudget(maxPaths, maxHops, unit.toNanos(timeout));
+  }
+
+  public long getMaxPaths() {
+    return maxPaths;
+  }
+
+  public long getMaxHops() {
+    return maxHops;
+  }
+
+  public long getTimeout(TimeUnit unit) {
+    return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  boolean hasTimeout() {
+    return timeoutNanos != Long.MAX_VALUE;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("QueryBudget[maxPaths=%s, maxHops=%s, timeout=%sns]",
+        maxPaths, maxHops, timeoutNanos);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+/**
+ * Thrown by {@link RealTruthTable#getAll(Class, FixedCoordinates, 
+ * QueryBudget)} when a query does not complete within its 
+ * {@link QueryBudget}.
+ *
+ * @author zorzella@google.com
+ */
+public class QueryBudgetExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final QueryBudget.Limit exceededLimit;
+
+  public QueryBudgetExceededException(QueryBudget budget, 
+      QueryBudget.Limit exceededLimit) {
+    super(String.format("The query exceeded the %s limit of %s.", 
+        exceededLimit, budget));
+    this.exceededLimit = exceededLimit;
+  }
+
+  /**
+   * The limit of the budget that the query ran into.
+   */
+  public QueryBudget.Limit getExceededLimit() {
+    return exceededLimit;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+
+/**
+ * A canonical key for a {@code getAll} query: the index of the axis asked
+ * for, and the masks of the fixed coordinates of all axes (see 
+ * {@link MaskBuffer}). Unlike {@link FixedCoordinates}, it is cheap to hash
+ * and compare, and queries that leave the same coordinates of each axis have
+ * equal keys, however they were built.
+ *
+ * @author zorzella@google.com
+ */
+final class QueryKey {
+  final int axisIndex;
+  final long[] fixedMasks;
+  private final int hashCode;
+
+  /**
+   * Creates a key with the given masks, which must not be changed afterwards.
+   */
+  QueryKey(int axisIndex, long[] fixedMasks) {
+    this.axisIndex = axisIndex;
+    this.fixedMasks = fixedMasks;
+    this.hashCode = 31 * axisIndex + Arrays.hashCode(fixedMasks);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof QueryKey)) {
+      return false;
+    }
+    QueryKey that = (QueryKey) obj;
+    return axisIndex == that.axisIndex
+        && Arrays.equals(fixedMasks, that.fixedMasks);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
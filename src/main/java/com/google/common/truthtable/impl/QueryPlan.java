@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+
+/**
+ * How {@link MaskSearch} goes about the queries of a given shape (see
+ * {@link QueryShape}): in which order to try the groups to start from, and
+ * which groups to check against the fixed coordinates before searching, to
+ * rule out those that can not be part of any path.
+ *
+ * <p>Starting groups that touch more of the constrained axes are tried 
+ * first: they narrow a path the most, so paths that lead nowhere are 
+ * abandoned sooner. Next hops are tried in the order of {@link GroupMasks},
+ * as reordering them would take a copy of all of them per shape.
+ *
+ * <p>A plan only depends on the shape, not on the fixed coordinates, so it is
+ * built once per shape and reused (see {@link QueryPlanCache}).
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+final class QueryPlan {
+
+  private final GroupMasks groups;
+
+  final int axisIndex;
+
+  /**
+   * The constrained axes, a bit per axis index.
+   */
+  final long fixedAxes;
+
+  /**
+   * The groups that touch the asked axis, in the order to try them.
+   */
+  final int[] startingGroups;
+
+  /**
+   * For each constrained axis, the groups that touch it, i.e. that are ruled
+   * out when they touch none of its fixed coordinates.
+   */
+  private final int[] constrainedAxes;
+  private final int[][] groupsTouchingConstrainedAxes;
+
+  QueryPlan(GroupMasks groups, int axisIndex, long fixedAxes) {
+    this.groups = groups;
+    this.axisIndex = axisIndex;
+    this.fixedAxes = fixedAxes;
+    this.startingGroups = inPlanOrder(groups.groupsTouchingAxis[axisIndex]);
+    this.constrainedAxes = new int[Long.bitCount(fixedAxes)];
+    this.groupsTouchingConstrainedAxes = new int[constrainedAxes.length][];
+    int i = 0;
+    for (long axes = fixedAxes; axes != 0; axes &= axes - 1) {
+      int fixedAxis = Long.numberOfTrailingZeros(axes);
+      constrainedAxes[i] = fixedAxis;
+      groupsTouchingConstrainedAxes[i] = groups.groupsTouchingAxis[fixedAxis];
+      i++;
+    }
+  }
+
+  /**
+   * Returns the constrained axes of {@code fixedMasks} (see 
+   * {@link MaskLayout}), a bit per axis index.
+   */
+  static long fixedAxesOf(MaskLayout layout, long[] fixedMasks) {
+    long result = 0;
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      int offset = layout.getOffset(axisIndex);
+      for (int word = offset; word < offset + layout.getWordCount(axisIndex);
+          word++) {
+        if ((fixedMasks[word] & layout.universe[word]) 
+            != layout.universe[word]) {
+          result |= 1L << axisIndex;
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes into {@code liveGroups} (a bit per group) the groups that touch
+   * some fixed coordinate of every constrained axis they touch. The others 
+   * can not be part of any path.
+   */
+  void findLiveGroups(long[] fixedMasks, long[] liveGroups) {
+    MaskLayout layout = groups.layout;
+    int groupWords = groups.getGroupWordCount();
+    Arrays.fill(liveGroups, 0, groupWords, -1L);
+    if ((groups.size() & 63) != 0) {
+      liveGroups[groupWords - 1] = (1L << groups.size()) - 1;
+    }
+    for (int i = 0; i < constrainedAxes.length; i++) {
+      int offset = layout.getOffset(constrainedAxes[i]);
+      int axisWords = layout.getWordCount(constrainedAxes[i]);
+      for (int group: groupsTouchingConstrainedAxes[i]) {
+        long[] mask = groups.masks[group];
+        boolean touchesAny = false;
+        for (int word = offset; word < offset + axisWords; word++) {
+          touchesAny |= (mask[word] & fixedMasks[word]) != 0;
+        }
+        if (!touchesAny) {
+          liveGroups[group >>> 6] &= ~(1L << group);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of {@code ids}, the groups that touch more constrained 
+   * axes first, and otherwise in the same order.
+   */
+  private int[] inPlanOrder(int[] ids) {
+    int[] result = ids.clone();
+    // An insertion sort, as it is stable and the arrays are short
+    for (int i = 1; i < result.length; i++) {
+      int group = result[i];
+      int score = constrainedAxesTouched(group);
+      int j = i;
+      for (; j > 0 && constrainedAxesTouched(result[j - 1]) < score; j--) {
+        result[j] = result[j - 1];
+      }
+      result[j] = group;
+    }
+    return result;
+  }
+
+  private int constrainedAxesTouched(int group) {
+    return Long.bitCount(groups.axes[group] & fixedAxes);
+  }
+
+  @Override
+  public String toString() {
+    return new QueryShape(groups.layout, axisIndex, fixedAxes).toString();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+/**
+ * The {@link QueryPlan}s of a {@link RealTruthTable}, by shape.
+ *
+ * <p>Finding the plan of a shape that was planned already neither locks nor
+ * allocates: the plans are kept in an open addressing hash table that is 
+ * never modified once published, and replaced by a copy whenever a plan is
+ * added. As most tables see only a few shapes, that is rare. Once 
+ * {@link #MAX_PLANS} shapes were planned, further shapes are not planned at
+ * all, and their queries are searched without a plan: finding that they have
+ * none neither locks nor allocates either.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+final class QueryPlanCache {
+
+  static final int MAX_PLANS = 256;
+
+  private final GroupMasks groups;
+
+  /**
+   * Twice as many slots as plans, so that probes are short.
+   */
+  private volatile QueryPlan[] plans = new QueryPlan[2 * MAX_PLANS];
+  private int size;
+
+  /**
+   * Whether there are {@link #MAX_PLANS} plans, so that no shape is planned
+   * any more.
+   */
+  private volatile boolean full;
+
+  QueryPlanCache(GroupMasks groups) {
+    this.groups = groups;
+  }
+
+  /**
+   * Returns the plan for queries of the given axis, given 
+   * {@code fixedMasks}, or {@code null} if it was not planned, and there are 
+   * {@link #MAX_PLANS} plans already.
+   */
+  QueryPlan get(int axisIndex, long[] fixedMasks) {
+    long fixedAxes = QueryPlan.fixedAxesOf(groups.layout, fixedMasks);
+    QueryPlan[] plans = this.plans;
+    for (int slot = slotOf(axisIndex, fixedAxes); plans[slot] != null; 
+        slot = (slot + 1) & (plans.length - 1)) {
+      QueryPlan plan = plans[slot];
+      if (plan.axisIndex == axisIndex && plan.fixedAxes == fixedAxes) {
+        return plan;
+      }
+    }
+    return full ? null : add(axisIndex, fixedAxes);
+  }
+
+  private synchronized QueryPlan add(int axisIndex, long fixedAxes) {
+    QueryPlan[] plans = this.plans;
+    int slot = slotOf(axisIndex, fixedAxes);
+    for (; plans[slot] != null; slot = (slot + 1) & (plans.length - 1)) {
+      if (plans[slot].axisIndex == axisIndex 
+          && plans[slot].fixedAxes == fixedAxes) {
+        // Another thread planned the same shape in the meantime
+        return plans[slot];
+      }
+    }
+    if (size == MAX_PLANS) {
+      return null;
+    }
+    QueryPlan plan = new QueryPlan(groups, axisIndex, fixedAxes);
+    // Copying only once the shape is known to be planned
+    plans = plans.clone();
+    plans[slot] = plan;
+    size++;
+    this.plans = plans;
+    full = size == MAX_PLANS;
+    return plan;
+  }
+
+  private int slotOf(int axisIndex, long fixedAxes) {
+    long hash = (fixedAxes * 31 + axisIndex) * 0x9E3779B97F4A7C15L;
+    return (int) (hash >>> 32) & (plans.length - 1);
+  }
+
+  /**
+   * The number of shapes planned and kept.
+   */
+  synchronized int size() {
+    return size;
+  }
+}
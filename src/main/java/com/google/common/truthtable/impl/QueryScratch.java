@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+/**
+ * The state a query of a {@link RealTruthTable} needs besides its result,
+ * preallocated once per thread, so that a query allocates nothing but its
+ * result (and nothing at all for the queries of 
+ * {@link com.google.common.truthtable.MaskedTruthTable} that take a result 
+ * buffer).
+ *
+ * <p>Not thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+final class QueryScratch {
+
+  final MaskSearch search;
+
+  /**
+   * The masks of the fixed coordinates of the query.
+   */
+  final MaskBuffer fixedMasks;
+
+  /**
+   * The mask of the valid coordinates of the asked axis, as large as the
+   * largest axis needs.
+   */
+  final long[] result;
+
+  /**
+   * The bounds of the valid coordinates of all axes, and the scratch space
+   * to compute them, for tables with a {@link PairwiseIndex}.
+   */
+  final long[] bounds;
+  final long[] union;
+
+  /**
+   * The groups that may be part of a path of the query, a bit per group (see
+   * {@link QueryPlan#findLiveGroups}).
+   */
+  final long[] liveGroups;
+
+  QueryScratch(GroupMasks groups) {
+    this.search = new MaskSearch(groups);
+    this.fixedMasks = new MaskBuffer(groups.layout);
+    this.result = new long[Math.max(1, groups.layout.getMaxWordCount())];
+    this.bounds = new long[groups.layout.getTotalWordCount()];
+    this.union = new long[groups.layout.getTotalWordCount()];
+    this.liveGroups = new long[groups.getGroupWordCount()];
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The shape of a {@code getAll} query: the axis it asks for, and the axes it
+ * constrains (i.e. whose fixed coordinates leave out some coordinate), 
+ * regardless of which coordinates. See {@link MaterializingTruthTable}.
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+public final class QueryShape {
+
+  private final MaskLayout layout;
+  final int axisIndex;
+
+  /**
+   * The constrained axes, a bit per axis index.
+   */
+  final long fixedAxes;
+
+  QueryShape(MaskLayout layout, int axisIndex, long fixedAxes) {
+    this.layout = layout;
+    this.axisIndex = axisIndex;
+    this.fixedAxes = fixedAxes;
+  }
+
+  public Class<? extends Enum> getAskedAxis() {
+    return layout.getAxis(axisIndex);
+  }
+
+  public ImmutableSet<Class<? extends Enum>> getFixedAxes() {
+    ImmutableSet.Builder<Class<? extends Enum>> result = 
+      ImmutableSet.builder();
+    for (long axes = fixedAxes; axes != 0; axes &= axes - 1) {
+      result.add(layout.getAxis(Long.numberOfTrailingZeros(axes)));
+    }
+    return result.build();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof QueryShape)) {
+      return false;
+    }
+    QueryShape that = (QueryShape) obj;
+    return layout == that.layout && axisIndex == that.axisIndex 
+        && fixedAxes == that.fixedAxes;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * axisIndex + (int) (fixedAxes ^ (fixedAxes >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(getAskedAxis().getSimpleName())
+        .append(" given [");
+    String separator = "";
+    for (Class<? extends Enum> axis : getFixedAxes()) {
+      result.append(separator).append(axis.getSimpleName());
+      separator = ", ";
+    }
+    return result.append("]").toString();
+  }
+}
@@ -16,12 +16,15 @@
 package com.google.common.truthtable.impl;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.HashMultimap;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
-import com.google.common.collect.TreeMultimap;
+import com.google.common.truthtable.MaskedTruthTable;
 import com.google.common.truthtable.TruthTable;
 
 import java.util.Collection;
@@ -32,49 +35,105 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentMap;
 
-//TODO(zorzella): make this whole class immutable
+/**
+ * The {@link TruthTable} implementation.
+ * 
+ * <p>A {@link RealTruthTable} is thread-safe, and can be queried 
+ * concurrently by any number of threads without any synchronization. What it
+ * answers is fixed at construction: its axes and affinity groups are held in
+ * final fields, as immutable collections, and never exposed in a modifiable
+ * way. Everything else it holds is derived from those, and is computed 
+ * idempotently (so that threads racing to compute it compute the same) and
+ * safely published:
+ * <ul>
+ * <li>the cheat sheets (the groups touching each axis and coordinate, and the
+ *   next hops of each group), in concurrent maps that queries fill as they 
+ *   need them;
+ * <li>the masks the searches run over (see {@link GroupMasks}), the facets
+ *   and whether the table was warmed up, in volatile fields (the masks are
+ *   built under the lock of the table, so only once; racing threads may 
+ *   each compute the others);
+ * <li>the plans of the shapes of query seen so far (see 
+ *   {@link QueryPlanCache});
+ * <li>per-thread scratch space for searches (see {@link MaskSearch}).
+ * </ul>
+ *
+ * <p>Unless the table is built with lazy indexes (see 
+ * {@link TruthTableBuilder#withLazyIndexes()}), the constructor computes the
+ * cheat sheets and the masks. With lazy indexes, the first query builds the
+ * masks, which takes the groups touching every axis and the supports of 
+ * every coordinate, but the next hops of a group are only computed once a
+ * search reaches that group, or all at once by {@link #warmUp()}.
+ *
+ * <p>Tables with more than {@link MaskLayout#MAX_AXES} axes are not compiled
+ * to masks: their {@code getAll} queries by {@link FixedCoordinates} search
+ * {@link PathTrack}s instead, and the queries that need masks (those of 
+ * {@link MaskedTruthTable}, budgeted queries, sessions) throw an 
+ * {@link IllegalStateException}.
+ * 
+ * <p>The {@code getAll} queries run by an {@link AsyncTruthTable} give up,
+ * throwing a {@link java.util.concurrent.CancellationException}, if the 
+ * thread running them is interrupted (see {@link InterruptibleQueries}). 
+ * Other queries ignore interrupts.
+ * 
+ * @author zorzella@google.com
+ */
 /*
  * Ordinarily we would not suppress warnings, and never for an entire class.
  * But the nature of this problem makes it impossible to properly generify
  * (we would need to generify a variable number of parameters).
  */
 @SuppressWarnings({"unchecked", "rawtypes"})
-public class RealTruthTable implements TruthTable {
+public class RealTruthTable implements TruthTable, MaskedTruthTable {
 
   /** 
    * All the affinity groups this truth table was populated with.
    */
-  public final Set<AffinityGroup> allAffinityGroups;
+  private final ImmutableSet<AffinityGroup> allAffinityGroups;
 
   /**
    * All axes that were registered.
    */
-  private final Set<Class<? extends Enum>> registeredAxes;
+  private final ImmutableSet<Class<? extends Enum>> registeredAxes;
+
+  /**
+   * All axes that were registered, in the canonical order of the axes of a 
+   * cell (see {@link TruthTableComparators#FOR_AXIS}).
+   */
+  final ImmutableList<Class<? extends Enum>> axesInNameOrder;
+
+  /**
+   * How the coordinates of this table are laid out as ordinal masks, for the
+   * {@link MaskedTruthTable} queries.
+   */
+  private final MaskLayout maskLayout;
   
   // Start cheat sheets. The data in these is derived from the others, but
   // it's stored here in a way so as to be of quickest access.
   /**
    * Quick way to find all the coordinates for with a given axis.
    */
-  private final Multimap<Class<? extends Enum>, Enum<?>> axesToCoordinatesMap = 
-    HashMultimap.create();
+  private final ImmutableSetMultimap<Class<? extends Enum>, Enum<?>> 
+      axesToCoordinatesMap;
 
-  // TODO(zorzella): What I need is a TreeMultimap backed by a TreeSet
   /**
-   * All the {@link AffinityGroup}s that touch a given axis.
+   * All the {@link AffinityGroup}s that touch a given axis, in the order of
+   * the {@link CoordinatesBundle} comparator.
    */
-  private final Map<Class<? extends Enum>, Set<AffinityGroup>> axisToAffinityGroups =
-    new LinkedHashMap<Class<? extends Enum>, Set<AffinityGroup>>();
+  private final ConcurrentMap<Class<? extends Enum>, ImmutableSet<AffinityGroup>> 
+      axisToAffinityGroups = new MapMaker().makeMap();
   
-  // TODO(zorzella): What I need is a TreeMultimap backed by a TreeSet
   /**
-   * All {@link AffinityGroup}s that touch a given coordinate.
+   * All {@link AffinityGroup}s that touch a given coordinate, in the order of
+   * the {@link CoordinatesBundle} comparator.
    */
-  private final Map<Enum<?>, Set<AffinityGroup>> coordinateToAffinityGroupsMap =
-    new LinkedHashMap<Enum<?>, Set<AffinityGroup>>();
+  private final ConcurrentMap<Enum<?>, ImmutableSet<AffinityGroup>> 
+      coordinateToAffinityGroupsMap = new MapMaker().makeMap();
 
   private final int numberOfAxes;
 
@@ -85,10 +144,67 @@ public class RealTruthTable implements TruthTable {
    * For each affinity group, all the other affinity groups that are possible 
    * next hops for the algorithm to find a solution path.
    */
-  final Multimap<AffinityGroup,NextHop> nextHopsForAffinityGroup;
-  
+  private final ConcurrentMap<AffinityGroup, ImmutableList<NextHop>> 
+      nextHopsForAffinityGroup = new MapMaker().makeMap();
+
+  /**
+   * All of the above, compiled to ordinal masks, and what is built from 
+   * those, once needed.
+   */
+  private volatile Compiled compiled;
+
+  private static final class Compiled {
+    final GroupMasks groupMasks;
+
+    /**
+     * The valid coordinates of each axis given each single coordinate, if 
+     * this table was built with one (see 
+     * {@link TruthTableBuilder#withPairwiseIndex()}), or null.
+     */
+    final PairwiseIndex pairwiseIndex;
+
+    /**
+     * How to search, for each shape of query seen so far.
+     */
+    final QueryPlanCache queryPlans;
+
+    Compiled(GroupMasks groupMasks, PairwiseIndex pairwiseIndex) {
+      this.groupMasks = groupMasks;
+      this.pairwiseIndex = pairwiseIndex;
+      this.queryPlans = new QueryPlanCache(groupMasks);
+    }
+  }
+
+  /**
+   * The masks of all coordinates that are part of some true cell, for all
+   * axes, as a starting point for {@link TruthTableSession}s. Computed when
+   * first needed, and never modified.
+   */
+  private volatile long[] facets;
+
+  private final long fingerprint;
+
+  private final boolean withPairwiseIndex;
+
+  /**
+   * Whether all cheat sheets were built already.
+   */
+  private volatile boolean warm;
+
   // End cheat sheets
 
+  /**
+   * The state of a query is reused from one query to the next, so each 
+   * thread gets its own.
+   */
+  private final ThreadLocal<QueryScratch> scratches = 
+    new ThreadLocal<QueryScratch>() {
+      @Override
+      protected QueryScratch initialValue() {
+        return new QueryScratch(getGroupMasks());
+      }
+    };
+
   RealTruthTable(Set<Class<? extends Enum>> registeredAxes,
       Set<AffinityGroup> affinityGroups, 
       Set<Enum<?>> allCoordinates) {
@@ -102,53 +218,178 @@ public class RealTruthTable implements TruthTable {
       Set<Enum<?>> allCoordinates, 
       Comparator<SingleAxisCoordinateSet> sacsComparator,
       Comparator<CoordinatesBundle> coordinatesBundleComparator) {
-    this.registeredAxes = registeredAxes;
-    this.allAffinityGroups = allPopulatedAffinityGroups;
+    this(registeredAxes, allPopulatedAffinityGroups, allCoordinates, 
+        sacsComparator, coordinatesBundleComparator, false, false);
+  }
+
+  /**
+   * @param lazyIndexes whether to build the cheat sheets when first needed,
+   *   instead of now
+   */
+  RealTruthTable(Set<Class<? extends Enum>> registeredAxes,
+      Set<AffinityGroup> allPopulatedAffinityGroups, 
+      Set<Enum<?>> allCoordinates, 
+      Comparator<SingleAxisCoordinateSet> sacsComparator,
+      Comparator<CoordinatesBundle> coordinatesBundleComparator,
+      boolean withPairwiseIndex, boolean lazyIndexes) {
+    this.registeredAxes = ImmutableSet.copyOf(registeredAxes);
+    this.maskLayout = new MaskLayout(this.registeredAxes);
+    this.axesInNameOrder = maskLayout.getAxes();
+    this.allAffinityGroups = ImmutableSet.copyOf(allPopulatedAffinityGroups);
     this.numberOfAxes = registeredAxes.size();
     this.sacsComparator = sacsComparator;
-    Comparator<NextHop> nextHopComparator = 
-      TruthTableComparators.forNextHop(coordinatesBundleComparator);
     this.coordinatesBundleComparator = coordinatesBundleComparator;
-    this.nextHopsForAffinityGroup = TreeMultimap.create(
-        coordinatesBundleComparator,
-        nextHopComparator);
 
-    populateCheatSheets(allCoordinates, allPopulatedAffinityGroups);
+    this.withPairwiseIndex = withPairwiseIndex;
+    if (withPairwiseIndex) {
+      maskLayout.checkSingleWordAxisSets();
+    }
+
+    this.axesToCoordinatesMap = indexByAxis(allCoordinates);
+    this.fingerprint = 
+      TruthTableFingerprint.of(maskLayout, this.allAffinityGroups);
+    if (!lazyIndexes) {
+      warmUp();
+    }
   }
 
   /**
-   * Populates maps that makes querying data quick.
+   * Builds all cheat sheets that were not built yet, for tables built with
+   * lazy indexes (see {@link TruthTableBuilder#withLazyIndexes()}), so that
+   * no query has to. Does nothing for other tables, or if this was called
+   * already.
    */
-  private void populateCheatSheets(Set<Enum<?>> allCoordinates,
-      Set<AffinityGroup> allAffinityGroups) {
+  public RealTruthTable warmUp() {
+    if (warm) {
+      return this;
+    }
+    // Populates maps that makes querying data quick
+    coordinateToAffinityGroupsMap.putAll(indexByCoordinate(
+        allAffinityGroups, coordinatesBundleComparator));
+    axisToAffinityGroups.putAll(indexByAxisTouched(
+        allAffinityGroups, coordinatesBundleComparator));
+    for (AffinityGroup affinityGroup: allAffinityGroups) {
+      getNextHops(affinityGroup);
+    }
+    if (maskLayout.hasSingleWordAxisSets()) {
+      compile().groupMasks.warmUp();
+    }
+    warm = true;
+    return this;
+  }
+
+  /**
+   * Returns true if all cheat sheets were built (see {@link #warmUp()}).
+   */
+  public boolean isWarm() {
+    return warm;
+  }
+
+  private Compiled compile() {
+    Compiled result = compiled;
+    if (result == null) {
+      // Only once, as a pairwise index is expensive to build
+      synchronized (this) {
+        result = compiled;
+        if (result == null) {
+          GroupMasks groupMasks = new GroupMasks(maskLayout, this);
+          result = new Compiled(groupMasks, withPairwiseIndex 
+              ? new PairwiseIndex(groupMasks, 
+                  computeFacets(new MaskSearch(groupMasks))) 
+              : null);
+          compiled = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static ImmutableSetMultimap<Class<? extends Enum>, Enum<?>> 
+      indexByAxis(Set<Enum<?>> allCoordinates) {
+    ImmutableSetMultimap.Builder<Class<? extends Enum>, Enum<?>> result =
+      ImmutableSetMultimap.builder();
     for (Enum coordinate : allCoordinates) {
-      axesToCoordinatesMap.put(coordinate.getClass(), coordinate);
+      result.put(coordinate.getDeclaringClass(), coordinate);
     }
+    return result.build();
+  }
+
+  private static ImmutableMap<Enum<?>, ImmutableSet<AffinityGroup>> 
+      indexByCoordinate(Set<AffinityGroup> allAffinityGroups,
+          Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    Map<Enum<?>, Set<AffinityGroup>> result =
+      new LinkedHashMap<Enum<?>, Set<AffinityGroup>>();
     for (AffinityGroup affinityGroup : allAffinityGroups) {
       for (Enum<?> coordinate : affinityGroup.getAllCoordinatesTouched()) {
-        Set<AffinityGroup> set = coordinateToAffinityGroupsMap.get(coordinate);
+        Set<AffinityGroup> set = result.get(coordinate);
         if (set == null) {
           set = new TreeSet<AffinityGroup>(coordinatesBundleComparator);
-          coordinateToAffinityGroupsMap.put(coordinate, set);
+          result.put(coordinate, set);
         }
         set.add(affinityGroup);
       }
-      
+    }
+    return freeze(result);
+  }
+
+  private static ImmutableMap<Class<? extends Enum>, ImmutableSet<AffinityGroup>> 
+      indexByAxisTouched(Set<AffinityGroup> allAffinityGroups,
+          Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    Map<Class<? extends Enum>, Set<AffinityGroup>> result =
+      new LinkedHashMap<Class<? extends Enum>, Set<AffinityGroup>>();
+    for (AffinityGroup affinityGroup : allAffinityGroups) {
       for (Class<? extends Enum> axis: affinityGroup.allAxesTouched) {
-        Set<AffinityGroup> set = axisToAffinityGroups.get(axis);
+        Set<AffinityGroup> set = result.get(axis);
         if (set == null) {
           set = new TreeSet<AffinityGroup>(coordinatesBundleComparator);
-          axisToAffinityGroups.put(axis, set);
+          result.put(axis, set);
         }
         set.add(affinityGroup);
       }
     }
-    for (AffinityGroup affinityGroup: allAffinityGroups) {
-      Set<NextHop> nextHopsFor = calculateNextHopsFor(affinityGroup);
-      nextHopsForAffinityGroup.putAll(affinityGroup, nextHopsFor);
+    return freeze(result);
+  }
+
+  /**
+   * Returns an immutable copy of {@code map}, keeping the order of its keys 
+   * and of the values of each.
+   */
+  private static <K> ImmutableMap<K, ImmutableSet<AffinityGroup>> freeze(
+      Map<K, Set<AffinityGroup>> map) {
+    ImmutableMap.Builder<K, ImmutableSet<AffinityGroup>> result = 
+      ImmutableMap.builder();
+    for (Map.Entry<K, Set<AffinityGroup>> entry : map.entrySet()) {
+      result.put(entry.getKey(), ImmutableSet.copyOf(entry.getValue()));
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the next hops of {@code affinityGroup}, in the order of the 
+   * {@link CoordinatesBundle} comparator.
+   */
+  ImmutableList<NextHop> getNextHops(AffinityGroup affinityGroup) {
+    ImmutableList<NextHop> result = 
+      nextHopsForAffinityGroup.get(affinityGroup);
+    if (result == null) {
+      // Racing threads may compute this more than once, to the same result
+      Set<NextHop> sorted = new TreeSet<NextHop>(
+          TruthTableComparators.forNextHop(coordinatesBundleComparator));
+      sorted.addAll(calculateNextHopsFor(affinityGroup, allAffinityGroups));
+      result = ImmutableList.copyOf(sorted);
+      nextHopsForAffinityGroup.put(affinityGroup, result);
     }
+    return result;
   }
   
+  /**
+   * The number of groups whose next hops were computed.
+   */
+  @VisibleForTesting
+  int getNextHopsCount() {
+    return nextHopsForAffinityGroup.size();
+  }
+
   private void assertAxisWasRegistered(Class<? extends Enum> axis) {
     if (!registeredAxes.contains(axis)) {
       throw new IllegalArgumentException(String.format(
@@ -157,8 +398,25 @@ public class RealTruthTable implements TruthTable {
     }
   }
   
+  ImmutableSet<AffinityGroup> getAffinityGroups() {
+    return allAffinityGroups;
+  }
+
   Set<AffinityGroup> getAffinityGroupsInvolving(Enum<?> coordinate) {
-    Set<AffinityGroup> result = coordinateToAffinityGroupsMap.get(coordinate);
+    ImmutableSet<AffinityGroup> result = 
+      coordinateToAffinityGroupsMap.get(coordinate);
+    if (result == null && !warm) {
+      // Racing threads may compute this more than once, to the same result
+      Set<AffinityGroup> sorted = 
+        new TreeSet<AffinityGroup>(coordinatesBundleComparator);
+      for (AffinityGroup affinityGroup : allAffinityGroups) {
+        if (affinityGroup.touches(coordinate)) {
+          sorted.add(affinityGroup);
+        }
+      }
+      result = ImmutableSet.copyOf(sorted);
+      coordinateToAffinityGroupsMap.put(coordinate, result);
+    }
     if (result == null) {
       return Collections.emptySet();
     }
@@ -166,7 +424,19 @@ public class RealTruthTable implements TruthTable {
   }
 
   Set<AffinityGroup> getAffinityGroupsTouching(Class<? extends Enum> axis) {
-    Set<AffinityGroup> result = axisToAffinityGroups.get(axis);
+    ImmutableSet<AffinityGroup> result = axisToAffinityGroups.get(axis);
+    if (result == null && !warm) {
+      // Racing threads may compute this more than once, to the same result
+      Set<AffinityGroup> sorted = 
+        new TreeSet<AffinityGroup>(coordinatesBundleComparator);
+      for (AffinityGroup affinityGroup : allAffinityGroups) {
+        if (affinityGroup.touches(axis)) {
+          sorted.add(affinityGroup);
+        }
+      }
+      result = ImmutableSet.copyOf(sorted);
+      axisToAffinityGroups.put(axis, result);
+    }
     if (result == null) {
       return Collections.emptySet();
     }
@@ -184,7 +454,245 @@ public class RealTruthTable implements TruthTable {
   @Override
   public <T extends Enum<T>> Set<T> getAll(
       Class<T> coordinates) {
-    return getAll(coordinates, new FixedCoordinates(sacsComparator));
+    int axisIndex = maskLayout.indexOf(coordinates);
+    if (!maskLayout.hasSingleWordAxisSets()) {
+      return getValidCoordinatesByPathsFor(coordinates, 
+          new FixedCoordinates(sacsComparator));
+    }
+    QueryScratch scratch = scratches.get();
+    search(scratch, axisIndex, maskLayout.universe, scratch.result);
+    return maskLayout.toEnumSet(coordinates, scratch.result);
+  }
+
+  /**
+   * Runs {@link #getAll(Class, FixedCoordinates)} for each of the given 
+   * {@code queries}, and returns the sets of valid coordinates in the same 
+   * order. This is quicker than running them one by one when there are many
+   * queries, and they fix some axes the same way (see {@link BatchSearch}).
+   */
+  public <T extends Enum<T>> List<EnumSet<T>> getAll(Class<T> axis, 
+      List<FixedCoordinates> queries) {
+    int axisIndex = maskLayout.indexOf(axis);
+    if (!maskLayout.hasSingleWordAxisSets()) {
+      List<EnumSet<T>> result = Lists.newArrayListWithCapacity(queries.size());
+      for (FixedCoordinates query : queries) {
+        result.add(getValidCoordinatesByPathsFor(axis, query));
+      }
+      return result;
+    }
+    long[][] fixedMasks = new long[queries.size()][];
+    for (int i = 0; i < fixedMasks.length; i++) {
+      fixedMasks[i] = new MaskBuffer(maskLayout).setAll(queries.get(i)).words;
+    }
+    long[][] masks = new BatchSearch(getGroupMasks(), scratches.get().search)
+        .getAll(axisIndex, fixedMasks);
+    List<EnumSet<T>> result = Lists.newArrayListWithCapacity(masks.length);
+    for (long[] mask : masks) {
+      result.add(maskLayout.toEnumSet(axis, mask));
+    }
+    return result;
+  }
+
+  /**
+   * Same as {@link #getAll(Class, FixedCoordinates)}, but fails if the query
+   * does not complete within the given {@code budget}.
+   * 
+   * @throws QueryBudgetExceededException if the query ran out of budget
+   */
+  public <T extends Enum<T>> Set<T> getAll(Class<T> axis, 
+      FixedCoordinates fixedCoordinates, QueryBudget budget) {
+    PartialResult<T> result = getAllWithin(axis, fixedCoordinates, budget);
+    if (!result.isComplete()) {
+      throw new QueryBudgetExceededException(
+          budget, result.getExceededLimit());
+    }
+    return result.getCoordinates();
+  }
+
+  /**
+   * Same as {@link #getAll(Class, FixedCoordinates)}, but stops when the 
+   * query runs out of the given {@code budget}, returning the valid 
+   * coordinates it found so far.
+   */
+  public <T extends Enum<T>> PartialResult<T> getAllWithin(Class<T> axis, 
+      FixedCoordinates fixedCoordinates, QueryBudget budget) {
+    int axisIndex = maskLayout.indexOf(axis);
+    QueryScratch scratch = scratches.get();
+    scratch.fixedMasks.setAll(fixedCoordinates);
+    MaskSearch search = scratch.search;
+    search.getAll(axisIndex, scratch.fixedMasks.words, scratch.result, null, 
+        budget);
+    return new PartialResult<T>(maskLayout.toEnumSet(axis, scratch.result), 
+        search.getExceededLimit(), search.getPathCount(), 
+        search.getHopCount());
+  }
+
+  @Override
+  public MaskLayout getMaskLayout() {
+    return maskLayout;
+  }
+
+  GroupMasks getGroupMasks() {
+    return compile().groupMasks;
+  }
+
+  /**
+   * Returns the masks of all coordinates that are part of some true cell, for
+   * all axes. The result must not be modified.
+   */
+  long[] getFacets() {
+    long[] result = facets;
+    if (result == null) {
+      // Racing threads may compute this more than once, to the same result
+      result = computeFacets(scratches.get().search);
+      facets = result;
+    }
+    return result;
+  }
+
+  private long[] computeFacets(MaskSearch search) {
+    long[] result = new long[maskLayout.getTotalWordCount()];
+    long[] axisFacet = new long[maskLayout.getMaxWordCount()];
+    for (int axisIndex = 0; axisIndex < maskLayout.getAxisCount(); 
+        axisIndex++) {
+      search.getAll(axisIndex, maskLayout.universe, axisFacet);
+      System.arraycopy(axisFacet, 0, result, maskLayout.getOffset(axisIndex), 
+          maskLayout.getWordCount(axisIndex));
+    }
+    return result;
+  }
+
+  /**
+   * Returns a fingerprint of the contents of this table (see 
+   * {@link TruthTableFingerprint}): tables built from the same axes and 
+   * affinity groups have the same fingerprint. These are the groups left 
+   * after factoring, leaving out subsumed groups and pruning, if any (see 
+   * {@link TruthTableBuilder#getFingerprint()}).
+   */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Returns true if this table was built from the given axes and affinity 
+   * groups, with the given comparators.
+   */
+  boolean hasContents(Set<Class<? extends Enum>> registeredAxes, 
+      Set<AffinityGroup> affinityGroups,
+      Comparator<SingleAxisCoordinateSet> sacsComparator,
+      Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    return this.registeredAxes.equals(registeredAxes)
+        && this.allAffinityGroups.equals(affinityGroups)
+        && this.sacsComparator.equals(sacsComparator)
+        && this.coordinatesBundleComparator.equals(
+            coordinatesBundleComparator);
+  }
+
+  boolean hasSameContentsAs(RealTruthTable that) {
+    return hasContents(that.registeredAxes, that.allAffinityGroups, 
+        that.sacsComparator, that.coordinatesBundleComparator);
+  }
+
+  /**
+   * Returns true if this table was built with a {@link PairwiseIndex} (see
+   * {@link TruthTableBuilder#withPairwiseIndex()}).
+   */
+  public boolean hasPairwiseIndex() {
+    return withPairwiseIndex;
+  }
+
+  /**
+   * Returns how many bytes the {@link PairwiseIndex} of this table takes, or
+   * would take if it was built with one.
+   */
+  public long getPairwiseIndexSizeInBytes() {
+    return PairwiseIndex.estimateSizeInBytes(maskLayout);
+  }
+
+  @Override
+  public long getAll(int axisIndex, long[] fixedMasks) {
+    if (!maskLayout.hasSingleWordAxes()) {
+      throw new IllegalStateException(
+        "Some axis has more than 64 coordinates, use a MaskBuffer instead.");
+    }
+    Preconditions.checkElementIndex(axisIndex, maskLayout.getAxisCount());
+    // Not using Preconditions, whose varargs would allocate on every query
+    if (fixedMasks.length != maskLayout.getAxisCount()) {
+      throw new IllegalArgumentException(String.format(
+        "Expected %s masks, got %s.", 
+        maskLayout.getAxisCount(), fixedMasks.length));
+    }
+    QueryScratch scratch = scratches.get();
+    search(scratch, axisIndex, fixedMasks, scratch.result);
+    return scratch.result[0];
+  }
+
+  @Override
+  public void getAll(int axisIndex, MaskBuffer fixedMasks, long[] result) {
+    Preconditions.checkElementIndex(axisIndex, maskLayout.getAxisCount());
+    Preconditions.checkArgument(fixedMasks.getLayout() == maskLayout,
+        "The MaskBuffer is for a different truth table.");
+    if (result.length < maskLayout.getWordCount(axisIndex)) {
+      throw new IllegalArgumentException(String.format(
+        "Expected at least %s words for the result, got %s.", 
+        maskLayout.getWordCount(axisIndex), result.length));
+    }
+    search(scratches.get(), axisIndex, fixedMasks.words, result);
+  }
+
+  @Override
+  public <E extends Enum<E>> EnumSet<E> getAll(
+      Class<E> axis, MaskBuffer fixedMasks) {
+    int axisIndex = maskLayout.indexOf(axis);
+    Preconditions.checkArgument(fixedMasks.getLayout() == maskLayout,
+        "The MaskBuffer is for a different truth table.");
+    QueryScratch scratch = scratches.get();
+    search(scratch, axisIndex, fixedMasks.words, scratch.result);
+    return maskLayout.toEnumSet(axis, scratch.result);
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes,
+      FixedCoordinates fixedCoordinates) {
+    for (Class<? extends Enum> axis : axes) {
+      assertAxisWasRegistered(axis);
+    }
+    ProjectedTuples.Builder result = new ProjectedTuples.Builder(axes);
+    for (PathTrack validPath: getAllCompleteValidPaths(fixedCoordinates)) {
+      result.addCartesianProduct(validPath.axesToCoordinates);
+    }
+    return result.build();
+  }
+
+  @Override
+  public ProjectedTuples project(Set<? extends Class<? extends Enum>> axes) {
+    return project(axes, new FixedCoordinates(sacsComparator));
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights,
+      FixedCoordinates fixedCoordinates) {
+    Preconditions.checkArgument(k > 0, "k must be positive, got %s.", k);
+    Preconditions.checkNotNull(weights);
+    return new TopCellsSearch(this, weights, k).search(fixedCoordinates);
+  }
+
+  @Override
+  public List<ScoredCell> getTopCells(int k, CoordinateWeights weights) {
+    return getTopCells(k, weights, new FixedCoordinates(sacsComparator));
+  }
+
+  @Override
+  public List<Cell> sample(
+      FixedCoordinates fixedCoordinates, Random random, int n) {
+    Preconditions.checkArgument(n >= 0, "n must not be negative, got %s.", n);
+    Preconditions.checkNotNull(random);
+    return new CellSampler(this, fixedCoordinates).sample(random, n);
+  }
+
+  @Override
+  public List<Cell> sample(Random random, int n) {
+    return sample(new FixedCoordinates(sacsComparator), random, n);
   }
 
   /**
@@ -212,18 +720,34 @@ public class RealTruthTable implements TruthTable {
      * All affinity groups visited.
      */
     private final ImmutableSet<AffinityGroup> visited;
+
+    /**
+     * For each axis, the coordinates that must never be part of this path 
+     * (see {@link FixedCoordinates#excluding(Enum...)}). These are removed from
+     * {@link #axesToCoordinates} as soon as an axis is first touched, so a 
+     * path through excluded coordinates only is pruned as early as one 
+     * through coordinates that were not fixed.
+     */
+    private final Map<Class<? extends Enum>, EnumSet> exclusions;
     
-    private PathTrack(AffinityGroup startingPoint) {
+    private PathTrack(AffinityGroup startingPoint, 
+        Map<Class<? extends Enum>, EnumSet> exclusions) {
       visited = ImmutableSet.of(startingPoint);
+      this.exclusions = exclusions;
     }
 
     // TODO(zorzella): I think that if I store an axesToCoordinates map in the
     // FixedCoordinates classes, I'd do away with this constructor
     public PathTrack(FixedCoordinates fixedCoordinates) {
       visited = ImmutableSet.of();
+      exclusions = fixedCoordinates.axisToExclusionsMap;
       for (SingleAxisCoordinateSet fixedCoordinate: fixedCoordinates) {
-        axesToCoordinates.put(fixedCoordinate.getAxis(), 
-          EnumSet.copyOf(fixedCoordinate.backingEnumSet));
+        EnumSet coordinates = EnumSet.copyOf(fixedCoordinate.backingEnumSet);
+        EnumSet excluded = exclusions.get(fixedCoordinate.getAxis());
+        if (excluded != null) {
+          coordinates.removeAll(excluded);
+        }
+        axesToCoordinates.put(fixedCoordinate.getAxis(), coordinates);
       }
     }
     
@@ -233,10 +757,32 @@ public class RealTruthTable implements TruthTable {
               .addAll(old.visited)
               .add(nextHop.target)
               .build();
+      exclusions = old.exclusions;
       axesVisited.addAll(old.axesVisited);
       axesToCoordinates = deepCopy(old.axesToCoordinates);
     }
 
+    /**
+     * For each axis, the coordinates that this path touches. The result must 
+     * not be modified.
+     */
+    Map<Class<? extends Enum>, EnumSet<?>> getAxesToCoordinates() {
+      return axesToCoordinates;
+    }
+
+    /**
+     * Returns false if every coordinate of some axis was excluded, i.e. if no
+     * path can possibly be valid.
+     */
+    boolean isPossible() {
+      for (EnumSet<?> coordinates: axesToCoordinates.values()) {
+        if (coordinates.isEmpty()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     /**
      * Given a {@code source} Map of axis to coordinates, returns a copy of 
      * that Map. We need to copy these maps for 
@@ -255,7 +801,7 @@ public class RealTruthTable implements TruthTable {
     }
 
     PathTrack startAt(AffinityGroup startingPoint) {
-      PathTrack result = new PathTrack(startingPoint);
+      PathTrack result = new PathTrack(startingPoint, exclusions);
       
       result.axesToCoordinates = deepCopy(axesToCoordinates);
       
@@ -313,7 +859,16 @@ public class RealTruthTable implements TruthTable {
           EnumSet temp = target.axisToSacsMap.get(oneAxis).backingEnumSet;
           // ...we set the collection of valid coordinates for this axis to be
           // a copy of the target hop's coordinates for that axis,...
-          axesToCoordinates.put(oneAxis, EnumSet.copyOf(temp));
+          EnumSet coordinates = EnumSet.copyOf(temp);
+          EnumSet excluded = exclusions.get(oneAxis);
+          // ...minus the ones excluded...
+          if (excluded != null) {
+            coordinates.removeAll(excluded);
+            if (coordinates.isEmpty()) {
+              return false;
+            }
+          }
+          axesToCoordinates.put(oneAxis, coordinates);
         } else {
           //... otherwise, we just narrow down the current existing list
           coordinatesForAnAxisInCurrentPath.retainAll(
@@ -347,30 +902,56 @@ public class RealTruthTable implements TruthTable {
     }
   }
   
+  /**
+   * Find all coordinates in a given {@code axis} that are still valid, given 
+   * a set of fixed coordinates. The search itself is done over ordinal masks
+   * (see {@link MaskSearch}); this only converts to and from them.
+   */
   public <T extends Enum<T>> EnumSet<T> getValidCoordinatesFor(Class<T> axis, 
       FixedCoordinates fixedCoordinates) {
+    int axisIndex = maskLayout.indexOf(axis);
+    if (!maskLayout.hasSingleWordAxisSets()) {
+      return getValidCoordinatesByPathsFor(axis, fixedCoordinates);
+    }
+    QueryScratch scratch = scratches.get();
+    scratch.fixedMasks.setAll(fixedCoordinates);
+    search(scratch, axisIndex, scratch.fixedMasks.words, scratch.result);
+    return maskLayout.toEnumSet(axis, scratch.result);
+  }
 
+  /**
+   * Same as {@link #getValidCoordinatesFor}, but searching {@link PathTrack}s,
+   * for tables with too many axes to be searched over masks.
+   */
+  private <T extends Enum<T>> EnumSet<T> getValidCoordinatesByPathsFor(
+      Class<T> axis, FixedCoordinates fixedCoordinates) {
     EnumSet<T> result = EnumSet.noneOf(axis);
     EnumSet<T> stillNotFound = EnumSet.complementOf(result);
+    // Excluded coordinates can never be found, so we don't look for them 
+    EnumSet<T> excluded = fixedCoordinates.getExclusions(axis);
+    if (excluded != null) {
+      stillNotFound.removeAll(excluded);
+    }
     
     PathTrack pathTrack = new PathTrack(fixedCoordinates);
+    if (stillNotFound.isEmpty() || !pathTrack.isPossible()) {
+      return result;
+    }
     
-    Set<AffinityGroup> startingAffinityGroups = 
-      getAffinityGroupsTouching(axis);
-    
-    for (AffinityGroup startingAffinityGroup: startingAffinityGroups) {
-      // Skip affinity groups that would not add some value, i.e. that only touch 
-      // dPoints already found to be part of the result
-      if (!startingAffinityGroup.axisToSacsMap.get(axis).touches(stillNotFound)) {
+    for (AffinityGroup startingAffinityGroup: 
+        getAffinityGroupsTouching(axis)) {
+      // Skip affinity groups that would not add some value, i.e. that only 
+      // touch coordinates already found to be part of the result
+      if (!startingAffinityGroup.axisToSacsMap.get(axis).touches(
+          stillNotFound)) {
         continue;
       }
       PathTrack newPathTrack = pathTrack.startAt(startingAffinityGroup);
       if (newPathTrack == null) {
         continue;
       }
-      Collection<PathTrack> allCompleteValidPathsBeginningWithNewPathTrack = 
-        getAllCompleteValidPathsBeginningWith(newPathTrack);
-      for (PathTrack validPath: allCompleteValidPathsBeginningWithNewPathTrack) {
+      for (PathTrack validPath: 
+          getAllCompleteValidPathsBeginningWith(newPathTrack)) {
         EnumSet<T> newlyFoundCoordinates = 
           (EnumSet<T>) validPath.axesToCoordinates.get(axis);
         result.addAll(newlyFoundCoordinates);
@@ -384,6 +965,70 @@ public class RealTruthTable implements TruthTable {
     return result;
   }
 
+  /**
+   * Writes the valid coordinates of the given axis into {@code result}, 
+   * from the {@link PairwiseIndex} if this table has one and that is enough,
+   * and searching otherwise.
+   */
+  private void search(QueryScratch scratch, int axisIndex, long[] fixedMasks,
+      long[] result) {
+    Compiled compiled = compile();
+    PairwiseIndex pairwiseIndex = compiled.pairwiseIndex;
+    if (pairwiseIndex == null) {
+      searchAsPlanned(compiled, scratch, axisIndex, fixedMasks, result);
+    } else if (!pairwiseIndex.getAll(axisIndex, fixedMasks, result, 
+        scratch.bounds, scratch.union)) {
+      searchAsPlanned(compiled, scratch, axisIndex, scratch.bounds, result);
+    }
+  }
+
+  private void searchAsPlanned(Compiled compiled, QueryScratch scratch, 
+      int axisIndex, long[] fixedMasks, long[] result) {
+    QueryPlan plan = compiled.queryPlans.get(axisIndex, fixedMasks);
+    if (plan == null) {
+      scratch.search.getAll(axisIndex, fixedMasks, result);
+      return;
+    }
+    plan.findLiveGroups(fixedMasks, scratch.liveGroups);
+    scratch.search.getAll(plan, fixedMasks, result, scratch.liveGroups);
+  }
+
+  /**
+   * The number of shapes of query (see {@link QueryShape}) this table has 
+   * planned its searches for.
+   */
+  int getQueryPlanCount() {
+    return compile().queryPlans.size();
+  }
+
+  /**
+   * Returns all paths that are complete, valid and abide by the given
+   * {@code fixedCoordinates}. Each true cell is in the cartesian product of 
+   * the coordinates of at least one of these paths, but normally many.
+   */
+  Collection<PathTrack> getAllCompleteValidPaths(
+      FixedCoordinates fixedCoordinates) {
+    List<PathTrack> result = Lists.newArrayList();
+    PathTrack pathTrack = new PathTrack(fixedCoordinates);
+    if (!pathTrack.isPossible()) {
+      return result;
+    }
+
+    // Every complete path touches all axes, so starting only from the groups 
+    // that touch any one axis is enough to find all of them
+    Set<AffinityGroup> startingAffinityGroups = 
+      getAffinityGroupsTouching(axesInNameOrder.get(0));
+
+    for (AffinityGroup startingAffinityGroup: startingAffinityGroups) {
+      PathTrack newPathTrack = pathTrack.startAt(startingAffinityGroup);
+      if (newPathTrack == null) {
+        continue;
+      }
+      result.addAll(getAllCompleteValidPathsBeginningWith(newPathTrack));
+    }
+    return result;
+  }
+
   /**
    * Returns all paths that are complete (a complete path touches all axes),
    * valid (i.e. abide by the affinities declared) and are super-paths of
@@ -403,7 +1048,7 @@ public class RealTruthTable implements TruthTable {
       PathTrack pathTrack) {
     List<PathTrack> result = Lists.newArrayList();
     // If the path track touches all dimensions, our job is done
-    if (pathTrack.axesVisited.size() == numberOfAxes) {
+    if (isComplete(pathTrack)) {
       result.add(pathTrack);
       return result;
     }
@@ -416,13 +1061,20 @@ public class RealTruthTable implements TruthTable {
     return result;
   }
   
+  /**
+   * Returns true if {@code pathTrack} touches all axes.
+   */
+  boolean isComplete(PathTrack pathTrack) {
+    return pathTrack.axesVisited.size() == numberOfAxes;
+  }
+
   /**
    * Given a source, returns true if all targets are next hops for source.
    */
   @VisibleForTesting
   boolean targetsAreNextHopsFor(AffinityGroup source, 
       AffinityGroup... target) {
-    Collection<NextHop> nextHops = nextHopsForAffinityGroup.get(source);
+    Collection<NextHop> nextHops = getNextHops(source);
     Set<AffinityGroup> targets = Sets.newTreeSet(coordinatesBundleComparator);
     Collections.addAll(targets, target);
     if (nextHops.size() == 0) {
@@ -450,11 +1102,11 @@ public class RealTruthTable implements TruthTable {
    *      touches.
    * </ul>
    */
-  private Set<PathTrack> getPossiblePathsFrom(PathTrack pathTrack) {
+  Set<PathTrack> getPossiblePathsFrom(PathTrack pathTrack) {
     Set<PathTrack> result = new LinkedHashSet<PathTrack>();
 
     for (AffinityGroup lastHop : pathTrack.visited) {
-      for (NextHop nextHop: nextHopsForAffinityGroup.get(lastHop)) {
+      for (NextHop nextHop: getNextHops(lastHop)) {
         PathTrack newPathTrack = pathTrack.visit(nextHop);
         if (newPathTrack == null) {
           continue;
@@ -468,7 +1120,8 @@ public class RealTruthTable implements TruthTable {
   /**
    * Figures out the possible next hops for a given {@link AffinityGroup}
    */
-  private Set<NextHop> calculateNextHopsFor(AffinityGroup source) {
+  private static Set<NextHop> calculateNextHopsFor(AffinityGroup source,
+      Set<AffinityGroup> allAffinityGroups) {
     Set<NextHop> result = new LinkedHashSet<NextHop>();
     for (AffinityGroup tentativeNextHop : allAffinityGroups) {
       if (tentativeNextHop == source) {
@@ -499,15 +1152,15 @@ public class RealTruthTable implements TruthTable {
    */
   public static class NextHop {
 
-    public AffinityGroup target;
-    
-    public NextHop(AffinityGroup target) {
+    public final AffinityGroup target;
+
+    final ImmutableSet<Class<? extends Enum>> newAxes;
+
+    public NextHop(AffinityGroup target, Set<Class<? extends Enum>> newAxes) {
       this.target = target;
+      this.newAxes = ImmutableSet.copyOf(newAxes);
     }
     
-    Set<Class<? extends Enum>> newAxes =
-      new LinkedHashSet<Class<? extends Enum>>();
-    
     @Override
     public String toString() {
       return target + ":" + newAxes;
@@ -533,18 +1186,18 @@ public class RealTruthTable implements TruthTable {
   private static NextHop getNextHopFor(
       AffinityGroup source, AffinityGroup target) {
 
-    NextHop result = new NextHop(target);
-    
+    Set<Class<? extends Enum>> newAxes =
+      new LinkedHashSet<Class<? extends Enum>>();
     Set<Class<? extends Enum<?>>> sharedAxes =
       new LinkedHashSet<Class<? extends Enum<?>>>();
     for (Class<? extends Enum<?>>axis: target.allAxesTouched) {
       if (source.touches(axis)) {
         sharedAxes.add(axis);
       } else {
-        result.newAxes.add(axis);
+        newAxes.add(axis);
       }
     }
-    if ((sharedAxes.size() == 0) || (result.newAxes.size() == 0)) {
+    if ((sharedAxes.size() == 0) || (newAxes.size() == 0)) {
       // (A) No shared dimensions OR (C) no new dimensions
       return null;
     }
@@ -556,7 +1209,7 @@ public class RealTruthTable implements TruthTable {
         return null;
       }
     }
-    return result;
+    return new NextHop(target, newAxes);
   }
 
   private static Set<Enum<?>> getSharedCoordinates(
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import java.util.Arrays;
+
+/**
+ * A set of bits that can only shrink, and be restored to the way it was at
+ * some earlier level, as in the "compact table" filtering of constraint
+ * solvers.
+ *
+ * <p>Only the non-zero words are visited when shrinking the set: their
+ * indexes are kept in the first {@code limit} positions of {@link #index}, and
+ * a word that becomes zero is swapped past the limit. Restoring a level only
+ * needs to restore the limit (the words before it are still the same, if
+ * maybe in a different order) and the words that changed, each of which is
+ * saved at most once per level.
+ *
+ * @author zorzella@google.com
+ */
+final class ReversibleSparseBitSet {
+
+  /**
+   * The bits of this set. Words past {@link #limit} in {@link #index} are
+   * always zero, so this can be read as a plain (dense) bit set.
+   */
+  final long[] words;
+
+  private final int[] index;
+  private int limit;
+
+  /**
+   * For each word, the stamp of the level in which it was last saved.
+   */
+  private final int[] savedAt;
+
+  private int level;
+  private int nextStamp = 1;
+  private int[] levelStamps = new int[8];
+  private int[] levelLimits = new int[8];
+  private int[] levelTrailSizes = new int[8];
+
+  private int[] trailIndexes = new int[16];
+  private long[] trailValues = new long[16];
+  private int trailSize;
+
+  /**
+   * Creates a set with all bits from 0 to {@code size} (exclusive) set.
+   */
+  ReversibleSparseBitSet(int size) {
+    int wordCount = (size + 63) >>> 6;
+    this.words = new long[wordCount];
+    this.index = new int[wordCount];
+    this.savedAt = new int[wordCount];
+    Arrays.fill(words, -1L);
+    if (size % 64 != 0) {
+      words[wordCount - 1] = (1L << size) - 1;
+    }
+    for (int i = 0; i < wordCount; i++) {
+      index[i] = i;
+    }
+    this.limit = wordCount;
+  }
+
+  /**
+   * Starts a new level. A later {@link #undoLevel()} restores this set to the
+   * way it is now.
+   */
+  void newLevel() {
+    if (level == levelStamps.length) {
+      levelStamps = Arrays.copyOf(levelStamps, level * 2);
+      levelLimits = Arrays.copyOf(levelLimits, level * 2);
+      levelTrailSizes = Arrays.copyOf(levelTrailSizes, level * 2);
+    }
+    levelStamps[level] = nextStamp++;
+    levelLimits[level] = limit;
+    levelTrailSizes[level] = trailSize;
+    level++;
+  }
+
+  /**
+   * Restores this set to the way it was when the current level was started.
+   *
+   * @throws IllegalStateException if no level was started
+   */
+  void undoLevel() {
+    if (level == 0) {
+      throw new IllegalStateException("No level was started.");
+    }
+    level--;
+    while (trailSize > levelTrailSizes[level]) {
+      trailSize--;
+      words[trailIndexes[trailSize]] = trailValues[trailSize];
+    }
+    limit = levelLimits[level];
+  }
+
+  int getLevel() {
+    return level;
+  }
+
+  /**
+   * Removes all bits that are not in {@code mask}.
+   */
+  void intersectWith(long[] mask) {
+    for (int i = limit - 1; i >= 0; i--) {
+      int word = index[i];
+      long newValue = words[word] & mask[word];
+      if (newValue == words[word]) {
+        continue;
+      }
+      save(word);
+      words[word] = newValue;
+      if (newValue == 0) {
+        index[i] = index[limit - 1];
+        index[limit - 1] = word;
+        limit--;
+      }
+    }
+  }
+
+  boolean get(int bit) {
+    return (words[bit >>> 6] & (1L << bit)) != 0;
+  }
+
+  boolean isEmpty() {
+    return limit == 0;
+  }
+
+  int cardinality() {
+    int result = 0;
+    for (int i = 0; i < limit; i++) {
+      result += Long.bitCount(words[index[i]]);
+    }
+    return result;
+  }
+
+  private void save(int word) {
+    if (level == 0) {
+      // Nothing to restore to
+      return;
+    }
+    int stamp = levelStamps[level - 1];
+    if (savedAt[word] == stamp) {
+      return;
+    }
+    savedAt[word] = stamp;
+    if (trailSize == trailIndexes.length) {
+      trailIndexes = Arrays.copyOf(trailIndexes, trailSize * 2);
+      trailValues = Arrays.copyOf(trailValues, trailSize * 2);
+    }
+    trailIndexes[trailSize] = word;
+    trailValues[trailSize] = words[word];
+    trailSize++;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("{");
+    for (int word = 0; word < words.length; word++) {
+      for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+        if (result.length() > 1) {
+          result.append(", ");
+        }
+        result.append((word << 6) + Long.numberOfTrailingZeros(bits));
+      }
+    }
+    return result.append("}").toString();
+  }
+}
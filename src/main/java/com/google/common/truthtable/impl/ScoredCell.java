@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Comparator;
+
+/**
+ * A single true {@link Cell}, together with its score according to some 
+ * {@link CoordinateWeights}.
+ *
+ * @author zorzella@google.com
+ */
+public final class ScoredCell {
+
+  /**
+   * Orders cells from the highest to the lowest score. Cells with the same
+   * score are ordered by the ordinals of their coordinates.
+   */
+  static final Comparator<ScoredCell> BEST_FIRST = new Comparator<ScoredCell>() {
+    @Override
+    public int compare(ScoredCell x, ScoredCell y) {
+      int result = Double.compare(y.score, x.score);
+      if (result != 0) {
+        return result;
+      }
+      ImmutableList<Enum<?>> xCoordinates = x.getCoordinates();
+      ImmutableList<Enum<?>> yCoordinates = y.getCoordinates();
+      for (int i = 0; i < xCoordinates.size(); i++) {
+        result = xCoordinates.get(i).ordinal() - yCoordinates.get(i).ordinal();
+        if (result != 0) {
+          return result;
+        }
+      }
+      return result;
+    }
+  };
+
+  private final Cell cell;
+  private final double score;
+
+  ScoredCell(Cell cell, double score) {
+    this.cell = cell;
+    this.score = score;
+  }
+
+  public Cell getCell() {
+    return cell;
+  }
+
+  /**
+   * The coordinates of this cell (see {@link Cell#getCoordinates()}).
+   */
+  public ImmutableList<Enum<?>> getCoordinates() {
+    return cell.getCoordinates();
+  }
+
+  /**
+   * Returns the coordinate of this cell in the given {@code axis}.
+   *
+   * @throws IllegalArgumentException if {@code axis} is not an axis of this
+   *   cell
+   */
+  public <E extends Enum<E>> E get(Class<E> axis) {
+    return cell.get(axis);
+  }
+
+  public double getScore() {
+    return score;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ScoredCell)) {
+      return false;
+    }
+    ScoredCell that = (ScoredCell) obj;
+    return cell.equals(that.cell) && score == that.score;
+  }
+
+  @Override
+  public int hashCode() {
+    return cell.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return cell + ":" + score;
+  }
+}
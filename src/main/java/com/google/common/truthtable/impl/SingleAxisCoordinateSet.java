@@ -15,8 +15,11 @@
  */
 package com.google.common.truthtable.impl;
 
+import com.google.common.collect.Iterators;
+
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
@@ -47,8 +50,8 @@ import java.util.Set;
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class SingleAxisCoordinateSet implements Iterable<Enum<?>> {
   
-  // TODO(zorzella): make this immutable
-  // Intentional raw type because of EnumSet.copyOf in GuruEngineImpl
+  // Intentional raw type because of EnumSet.copyOf in GuruEngineImpl.
+  // Never modified after construction, nor exposed in a modifiable way
   final EnumSet backingEnumSet;
   final Class<? extends Enum<?>> axis;
   
@@ -102,7 +105,7 @@ public class SingleAxisCoordinateSet implements Iterable<Enum<?>> {
    * Returns the EnumSet with all the DPoints
    */
   public Set<? extends Enum<?>> getEnumSet() {
-    return backingEnumSet;
+    return Collections.unmodifiableSet(backingEnumSet);
   }
 
   // TODO(zorzella): decide if we want to nuke this (or make package protected)
@@ -134,7 +137,7 @@ public class SingleAxisCoordinateSet implements Iterable<Enum<?>> {
   @Override
   @SuppressWarnings("unchecked")
   public Iterator<Enum<?>> iterator() {
-    return backingEnumSet.iterator();
+    return Iterators.unmodifiableIterator(backingEnumSet.iterator());
   }
   
   @Override
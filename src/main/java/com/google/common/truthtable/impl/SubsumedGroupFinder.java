@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the {@link AffinityGroup}s that are subsumed by some other group: 
+ * that touch the same axes, and a subset of its coordinates on each, so 
+ * that {@link TruthTableBuilder} can leave them out (see 
+ * {@link TruthTableBuilder#withoutSubsumedGroups()}).
+ *
+ * <p>Leaving them out changes no answer: replacing a subsumed group with 
+ * the group that subsumes it in a complete path leaves a complete path, 
+ * with the same cells or more, and the two can not be part of the same path,
+ * as the later one would add no axis.
+ *
+ * <p>Only groups touching the same axes are compared, largest first, and
+ * each group is only compared with the larger groups that were kept, through
+ * an index: for each coordinate, the set of kept groups touching it (as a
+ * bit per kept group). The groups subsuming a group are those in the sets of
+ * all its coordinates, so finding them takes an {@code &} per coordinate and
+ * per 64 kept groups, rather than a comparison with every kept group.
+ *
+ * @author zorzella@google.com
+ */
+final class SubsumedGroupFinder {
+
+  private SubsumedGroupFinder() {}
+
+  /**
+   * A group, and its coordinates (as their bit in the masks of a
+   * {@link MaskLayout}).
+   */
+  private static final class Candidate {
+    final AffinityGroup group;
+    final int[] coordinates;
+
+    Candidate(MaskLayout layout, AffinityGroup group) {
+      this.group = group;
+      int size = 0;
+      for (SingleAxisCoordinateSet sacs: group) {
+        size += sacs.getEnumSet().size();
+      }
+      this.coordinates = new int[size];
+      int i = 0;
+      for (SingleAxisCoordinateSet sacs: group) {
+        int offset = layout.getOffset(layout.indexOf(sacs.getAxis()));
+        for (Enum<?> coordinate: sacs) {
+          coordinates[i++] = (offset << 6) + coordinate.ordinal();
+        }
+      }
+    }
+  }
+
+  private static final Comparator<Candidate> LARGEST_FIRST = 
+    new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate x, Candidate y) {
+        return y.coordinates.length - x.coordinates.length;
+      }
+    };
+
+  /**
+   * Returns the groups of {@code groups} that are not subsumed by any other,
+   * in the order of {@code coordinatesBundleComparator}, and those that are.
+   */
+  static SubsumptionReport find(MaskLayout layout, 
+      Collection<AffinityGroup> groups,
+      Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    // Only groups touching the same axes can subsume each other
+    Map<Set<?>, List<Candidate>> byAxes = Maps.newLinkedHashMap();
+    for (AffinityGroup group: groups) {
+      Set<?> axes = group.axisToSacsMap.keySet();
+      List<Candidate> candidates = byAxes.get(axes);
+      if (candidates == null) {
+        candidates = Lists.newArrayList();
+        byAxes.put(axes, candidates);
+      }
+      candidates.add(new Candidate(layout, group));
+    }
+
+    Set<AffinityGroup> kept = 
+      new TreeSet<AffinityGroup>(coordinatesBundleComparator);
+    Map<AffinityGroup, AffinityGroup> dropped = Maps.newLinkedHashMap();
+    // For each coordinate, the kept groups (of the current axes) touching it
+    long[][] keptByCoordinate = new long[layout.universe.length << 6][];
+    for (List<Candidate> candidates: byAxes.values()) {
+      Collections.sort(candidates, LARGEST_FIRST);
+      List<Candidate> keptCandidates = Lists.newArrayList();
+      long[] subsuming = new long[(candidates.size() + 63) >>> 6];
+      for (Candidate candidate: candidates) {
+        // Subsumption is transitive, so comparing with the kept groups only
+        // is enough. They are largest first, so if the first one subsuming
+        // this one is not larger, none is.
+        int first = findFirstSubsuming(candidate, keptByCoordinate, subsuming);
+        if (first >= 0 && keptCandidates.get(first).coordinates.length 
+            > candidate.coordinates.length) {
+          dropped.put(candidate.group, keptCandidates.get(first).group);
+          continue;
+        }
+        int index = keptCandidates.size();
+        for (int coordinate: candidate.coordinates) {
+          long[] keptGroups = keptByCoordinate[coordinate];
+          if (keptGroups == null) {
+            keptGroups = new long[(index >>> 6) + 1];
+          } else if (keptGroups.length <= index >>> 6) {
+            keptGroups = Arrays.copyOf(keptGroups, 
+                Math.max(keptGroups.length * 2, (index >>> 6) + 1));
+          }
+          keptGroups[index >>> 6] |= 1L << index;
+          keptByCoordinate[coordinate] = keptGroups;
+        }
+        keptCandidates.add(candidate);
+        kept.add(candidate.group);
+      }
+      for (Candidate keptCandidate: keptCandidates) {
+        for (int coordinate: keptCandidate.coordinates) {
+          keptByCoordinate[coordinate] = null;
+        }
+      }
+    }
+    return new SubsumptionReport(groups.size(), kept, dropped);
+  }
+
+  /**
+   * Returns the index of the first kept group touching all the coordinates 
+   * of {@code candidate}, or -1 if there is none, using {@code scratch} for 
+   * the set of those groups.
+   */
+  private static int findFirstSubsuming(Candidate candidate, 
+      long[][] keptByCoordinate, long[] scratch) {
+    int wordCount = scratch.length;
+    for (int coordinate: candidate.coordinates) {
+      long[] keptGroups = keptByCoordinate[coordinate];
+      if (keptGroups == null) {
+        return -1;
+      }
+      wordCount = Math.min(wordCount, keptGroups.length);
+    }
+    Arrays.fill(scratch, 0, wordCount, -1L);
+    for (int coordinate: candidate.coordinates) {
+      long[] keptGroups = keptByCoordinate[coordinate];
+      boolean any = false;
+      for (int word = 0; word < wordCount; word++) {
+        scratch[word] &= keptGroups[word];
+        any |= scratch[word] != 0;
+      }
+      if (!any) {
+        return -1;
+      }
+    }
+    for (int word = 0; word < wordCount; word++) {
+      if (scratch[word] != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(scratch[word]);
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link TruthTableBuilder#withoutSubsumedGroups()} left out of a 
+ * {@link com.google.common.truthtable.TruthTable}: the 
+ * {@link AffinityGroup}s that were subsumed by some other group (see 
+ * {@link SubsumedGroupFinder}).
+ *
+ * <p>This class is immutable.
+ *
+ * @author zorzella@google.com
+ */
+public final class SubsumptionReport {
+
+  private final int originalAffinityGroupCount;
+  private final ImmutableSet<AffinityGroup> affinityGroups;
+  private final ImmutableMap<AffinityGroup, AffinityGroup> 
+      droppedAffinityGroups;
+
+  SubsumptionReport(int originalAffinityGroupCount, 
+      Set<AffinityGroup> affinityGroups,
+      Map<AffinityGroup, AffinityGroup> droppedAffinityGroups) {
+    this.originalAffinityGroupCount = originalAffinityGroupCount;
+    this.affinityGroups = ImmutableSet.copyOf(affinityGroups);
+    this.droppedAffinityGroups = ImmutableMap.copyOf(droppedAffinityGroups);
+  }
+
+  /**
+   * The groups that were kept.
+   */
+  ImmutableSet<AffinityGroup> getAffinityGroups() {
+    return affinityGroups;
+  }
+
+  /**
+   * The groups that were left out, each mapped to a group that subsumes it 
+   * and was kept.
+   */
+  public ImmutableMap<AffinityGroup, AffinityGroup> getDroppedAffinityGroups() {
+    return droppedAffinityGroups;
+  }
+
+  /**
+   * The number of groups given to the builder.
+   */
+  public int getOriginalAffinityGroupCount() {
+    return originalAffinityGroupCount;
+  }
+
+  /**
+   * The number of groups that were kept.
+   */
+  public int getAffinityGroupCount() {
+    return affinityGroups.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Dropped %s of %s affinity groups as subsumed: %s", 
+        droppedAffinityGroups.size(), originalAffinityGroupCount, 
+        droppedAffinityGroups);
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.impl.RealTruthTable.PathTrack;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A branch-and-bound search for the highest scoring true cells of a
+ * {@link RealTruthTable}.
+ *
+ * <p>It walks the same paths as the regular search, but, for every partial
+ * path, it computes an upper bound of the score of any cell that can be
+ * reached through it: for each axis, the highest weight among the coordinates
+ * the path (or the fixed coordinates) still allows, plus the weights of all
+ * weighted groups that are still compatible with the path. Once {@code k}
+ * cells were found, paths whose upper bound is worse than the worst of
+ * those are pruned, and, among the continuations of a path, the most promising
+ * are explored first.
+ *
+ * <p>Instances are single-use.
+ *
+ * @author zorzella@google.com
+ */
+class TopCellsSearch {
+
+  private final RealTruthTable truthTable;
+  private final CoordinateWeights weights;
+  private final int k;
+
+  private final ImmutableList<Class<? extends Enum>> axes;
+
+  /**
+   * The weighted groups, and their weights. Groups with a non-positive weight
+   * never raise an upper bound, so they are only used to compute exact
+   * scores.
+   */
+  private final Map<AffinityGroup, Double> affinityGroupWeights;
+
+  /**
+   * The best cells found so far, worst on top.
+   */
+  private final PriorityQueue<ScoredCell> best;
+
+  /**
+   * The coordinates of the cells in {@link #best}, as the same cell is
+   * normally reachable through multiple paths.
+   */
+  private final Set<ImmutableList<Enum<?>>> bestCoordinates =
+    new HashSet<ImmutableList<Enum<?>>>();
+
+  /**
+   * For each axis not yet touched by a path, the coordinates it may still
+   * take: its fixed coordinates, if any, or all of its coordinates, minus any
+   * exclusions.
+   */
+  private Map<Class<? extends Enum>, EnumSet<?>> untouchedAxesToCoordinates;
+
+  TopCellsSearch(RealTruthTable truthTable, CoordinateWeights weights, int k) {
+    this.truthTable = truthTable;
+    this.weights = weights;
+    this.k = k;
+    this.axes = truthTable.axesInNameOrder;
+    this.affinityGroupWeights = weights.getAffinityGroupWeights();
+    this.best = new PriorityQueue<ScoredCell>(k + 1,
+        Collections.reverseOrder(ScoredCell.BEST_FIRST));
+  }
+
+  List<ScoredCell> search(FixedCoordinates fixedCoordinates) {
+    PathTrack pathTrack = new PathTrack(fixedCoordinates);
+    if (!pathTrack.isPossible()) {
+      return Collections.emptyList();
+    }
+    untouchedAxesToCoordinates =
+      getUntouchedAxesToCoordinates(pathTrack, fixedCoordinates);
+
+    // Every complete path touches all axes, so starting only from the groups
+    // that touch the first one is enough to find all of them
+    for (AffinityGroup startingAffinityGroup:
+        truthTable.getAffinityGroupsTouching(axes.get(0))) {
+      PathTrack newPathTrack = pathTrack.startAt(startingAffinityGroup);
+      if (newPathTrack == null) {
+        continue;
+      }
+      search(newPathTrack);
+    }
+    List<ScoredCell> result = Lists.newArrayList(best);
+    Collections.sort(result, ScoredCell.BEST_FIRST);
+    return result;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"}) // Axes are raw enum classes
+  private Map<Class<? extends Enum>, EnumSet<?>> getUntouchedAxesToCoordinates(
+      PathTrack pathTrack, FixedCoordinates fixedCoordinates) {
+    Map<Class<? extends Enum>, EnumSet<?>> result =
+      new HashMap<Class<? extends Enum>, EnumSet<?>>(
+          pathTrack.getAxesToCoordinates());
+    for (Class<? extends Enum> axis: axes) {
+      if (result.containsKey(axis)) {
+        continue;
+      }
+      EnumSet coordinates = EnumSet.allOf(axis);
+      EnumSet excluded = fixedCoordinates.getExclusions(axis);
+      if (excluded != null) {
+        coordinates.removeAll(excluded);
+      }
+      result.put(axis, coordinates);
+    }
+    return result;
+  }
+
+  private void search(PathTrack pathTrack) {
+    if (cannotImprove(getUpperBound(pathTrack.getAxesToCoordinates()))) {
+      return;
+    }
+    if (truthTable.isComplete(pathTrack)) {
+      offerCellsIn(pathTrack.getAxesToCoordinates());
+      return;
+    }
+    List<BoundedPathTrack> possiblePaths = Lists.newArrayList();
+    for (PathTrack possiblePath: truthTable.getPossiblePathsFrom(pathTrack)) {
+      possiblePaths.add(new BoundedPathTrack(possiblePath,
+          getUpperBound(possiblePath.getAxesToCoordinates())));
+    }
+    Collections.sort(possiblePaths, BoundedPathTrack.MOST_PROMISING_FIRST);
+    for (BoundedPathTrack possiblePath: possiblePaths) {
+      if (cannotImprove(possiblePath.upperBound)) {
+        // All the other paths are even less promising
+        return;
+      }
+      search(possiblePath.pathTrack);
+    }
+  }
+
+  /**
+   * Returns true if a cell with a score of {@code upperBound} would not make it
+   * into the best {@code k} cells. A cell with the same score as the worst of
+   * those still might, depending on its coordinates (see
+   * {@link ScoredCell#BEST_FIRST}), which keeps the result deterministic.
+   */
+  private boolean cannotImprove(double upperBound) {
+    return best.size() == k && upperBound < best.peek().getScore();
+  }
+
+  /**
+   * An upper bound for the score of any cell within {@code axesToCoordinates}.
+   */
+  private double getUpperBound(
+      Map<Class<? extends Enum>, EnumSet<?>> axesToCoordinates) {
+    double result = getUpperBoundForAffinityGroups(axesToCoordinates);
+    for (Class<? extends Enum> axis: axes) {
+      EnumSet<?> coordinates = axesToCoordinates.get(axis);
+      if (coordinates == null) {
+        coordinates = untouchedAxesToCoordinates.get(axis);
+      }
+      result += getHighestWeight(coordinates);
+    }
+    return result;
+  }
+
+  private <E extends Enum<E>> double getHighestWeight(EnumSet<E> coordinates) {
+    double result = Double.NEGATIVE_INFINITY;
+    for (E coordinate: coordinates) {
+      result = Math.max(result, weights.getWeight(coordinate));
+    }
+    return result;
+  }
+
+  /**
+   * The sum of the positive weights of all weighted groups that are compatible
+   * with {@code axesToCoordinates}, i.e. that touch at least one of its
+   * coordinates in each of the axes they both touch.
+   */
+  private double getUpperBoundForAffinityGroups(
+      Map<Class<? extends Enum>, EnumSet<?>> axesToCoordinates) {
+    double result = 0;
+    for (Map.Entry<AffinityGroup, Double> entry:
+        affinityGroupWeights.entrySet()) {
+      if (entry.getValue() > 0
+          && isCompatible(entry.getKey(), axesToCoordinates)) {
+        result += entry.getValue();
+      }
+    }
+    return result;
+  }
+
+  private static boolean isCompatible(AffinityGroup affinityGroup,
+      Map<Class<? extends Enum>, EnumSet<?>> axesToCoordinates) {
+    for (SingleAxisCoordinateSet sacs: affinityGroup) {
+      EnumSet<?> coordinates = axesToCoordinates.get(sacs.getAxis());
+      if (coordinates != null && !sacs.touches(coordinates)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Offers all cells of a complete path, i.e. all cells in the cartesian
+   * product of {@code axesToCoordinates}, trying the highest weighted
+   * coordinates of each axis first.
+   */
+  private void offerCellsIn(
+      Map<Class<? extends Enum>, EnumSet<?>> axesToCoordinates) {
+    Enum<?>[][] choices = new Enum<?>[axes.size()][];
+    double[] highestRemaining = new double[axes.size() + 1];
+    for (int i = 0; i < choices.length; i++) {
+      choices[i] = sortByWeight(axesToCoordinates.get(axes.get(i)));
+    }
+    for (int i = choices.length - 1; i >= 0; i--) {
+      highestRemaining[i] = highestRemaining[i + 1]
+          + weights.getWeight(choices[i][0]);
+    }
+    double affinityGroupsUpperBound =
+      getUpperBoundForAffinityGroups(axesToCoordinates);
+    offerCellsIn(choices, highestRemaining, affinityGroupsUpperBound,
+        new Enum<?>[axes.size()], 0, 0);
+  }
+
+  private void offerCellsIn(Enum<?>[][] choices, double[] highestRemaining,
+      double affinityGroupsUpperBound, Enum<?>[] cell, int axis,
+      double score) {
+    if (axis == cell.length) {
+      offer(cell, score);
+      return;
+    }
+    for (Enum<?> coordinate: choices[axis]) {
+      double newScore = score + weights.getWeight(coordinate);
+      if (cannotImprove(
+          newScore + highestRemaining[axis + 1] + affinityGroupsUpperBound)) {
+        // All the other coordinates weigh even less
+        return;
+      }
+      cell[axis] = coordinate;
+      offerCellsIn(choices, highestRemaining, affinityGroupsUpperBound, cell,
+          axis + 1, newScore);
+    }
+  }
+
+  private Enum<?>[] sortByWeight(EnumSet<?> coordinates) {
+    Enum<?>[] result = coordinates.toArray(new Enum<?>[coordinates.size()]);
+    Arrays.sort(result, new Comparator<Enum<?>>() {
+      @Override
+      public int compare(Enum<?> x, Enum<?> y) {
+        return Double.compare(weights.getWeight(y), weights.getWeight(x));
+      }
+    });
+    return result;
+  }
+
+  private void offer(Enum<?>[] cell, double coordinatesScore) {
+    double score = coordinatesScore;
+    for (Map.Entry<AffinityGroup, Double> entry:
+        affinityGroupWeights.entrySet()) {
+      if (contains(entry.getKey(), cell)) {
+        score += entry.getValue();
+      }
+    }
+    if (cannotImprove(score)) {
+      return;
+    }
+    ImmutableList<Enum<?>> coordinates = ImmutableList.copyOf(cell);
+    ScoredCell scoredCell = new ScoredCell(new Cell(coordinates), score);
+    if (best.size() == k
+        && ScoredCell.BEST_FIRST.compare(scoredCell, best.peek()) >= 0) {
+      return;
+    }
+    if (!bestCoordinates.add(coordinates)) {
+      return;
+    }
+    best.add(scoredCell);
+    if (best.size() > k) {
+      bestCoordinates.remove(best.poll().getCoordinates());
+    }
+  }
+
+  private static boolean contains(AffinityGroup affinityGroup, Enum<?>[] cell) {
+    for (Enum<?> coordinate: cell) {
+      SingleAxisCoordinateSet sacs =
+        affinityGroup.axisToSacsMap.get(coordinate.getDeclaringClass());
+      if (sacs != null && !sacs.backingEnumSet.contains(coordinate)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A {@link PathTrack}, and the upper bound of the score of the cells it can
+   * reach.
+   */
+  private static class BoundedPathTrack {
+
+    static final Comparator<BoundedPathTrack> MOST_PROMISING_FIRST =
+      new Comparator<BoundedPathTrack>() {
+        @Override
+        public int compare(BoundedPathTrack x, BoundedPathTrack y) {
+          return Double.compare(y.upperBound, x.upperBound);
+        }
+      };
+
+    final PathTrack pathTrack;
+    final double upperBound;
+
+    BoundedPathTrack(PathTrack pathTrack, double upperBound) {
+      this.pathTrack = pathTrack;
+      this.upperBound = upperBound;
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.google.common.truthtable.impl;
 
+import com.google.common.base.Preconditions;
 import com.google.common.truthtable.TruthTable;
 
 import java.util.Arrays;
@@ -41,6 +42,24 @@ public class TruthTableBuilder {
 
   private final Set<AffinityGroup> affinityGroups;
 
+  private boolean withPairwiseIndex;
+
+  private boolean withLazyIndexes;
+
+  private boolean withPruning;
+
+  private PruningReport lastPruningReport;
+
+  private boolean withFactoring;
+
+  private FactoringReport lastFactoringReport;
+
+  private boolean withoutSubsumedGroups;
+
+  private SubsumptionReport lastSubsumptionReport;
+
+  private TruthTableRegistry registry;
+
   public TruthTableBuilder() {
     this(TruthTableComparators.FOR_COORDINATES_BUNDLE);
   }
@@ -59,6 +78,119 @@ public class TruthTableBuilder {
     return this;
   }
 
+  /**
+   * Makes the {@link TruthTable} to be created precompute the valid 
+   * coordinates of each axis given each single coordinate (see 
+   * {@link PairwiseIndex}), so that queries that constrain a single axis need
+   * no search, and others search less. This makes the table larger (see
+   * {@link RealTruthTable#getPairwiseIndexSizeInBytes()}) and slower to 
+   * create.
+   */
+  public TruthTableBuilder withPairwiseIndex() {
+    withPairwiseIndex = true;
+    return this;
+  }
+
+  /**
+   * Makes the {@link TruthTable} to be created build its indexes when first
+   * needed instead of when created, which makes creating it quicker, and 
+   * its first queries slower (see {@link RealTruthTable#warmUp()}). This is 
+   * meant for tables that are seldom or never queried.
+   */
+  public TruthTableBuilder withLazyIndexes() {
+    withLazyIndexes = true;
+    return this;
+  }
+
+  /**
+   * Makes {@link #create()} merge the {@link AffinityGroup}s that touch the
+   * same axes and the same coordinates on all of them but one, which makes
+   * the searches of the {@link TruthTable} it creates quicker without 
+   * changing any answer (see {@link AffinityGroupFactorer}). What was merged
+   * is then reported by {@link #getLastFactoringReport()}.
+   */
+  public TruthTableBuilder withFactoring() {
+    withFactoring = true;
+    return this;
+  }
+
+  /**
+   * Returns what the last call to {@link #create()} merged, or {@code null}
+   * if it did not factor (see {@link #withFactoring()}).
+   */
+  public FactoringReport getLastFactoringReport() {
+    return lastFactoringReport;
+  }
+
+  /**
+   * Makes {@link #create()} leave out of the {@link TruthTable} it creates 
+   * the {@link AffinityGroup}s that touch the same axes as some other group,
+   * and a subset of its coordinates on each, which makes its searches 
+   * quicker without changing any answer (see {@link SubsumedGroupFinder}). 
+   * What was left out is then reported by 
+   * {@link #getLastSubsumptionReport()}.
+   */
+  public TruthTableBuilder withoutSubsumedGroups() {
+    withoutSubsumedGroups = true;
+    return this;
+  }
+
+  /**
+   * Returns what the last call to {@link #create()} left out as subsumed, 
+   * or {@code null} if it did not look for subsumed groups (see 
+   * {@link #withoutSubsumedGroups()}).
+   */
+  public SubsumptionReport getLastSubsumptionReport() {
+    return lastSubsumptionReport;
+  }
+
+  /**
+   * Makes {@link #create()} leave out of the {@link TruthTable} it creates 
+   * the {@link AffinityGroup}s that are not part of any complete path, and
+   * the coordinates that are not part of any true cell, which can make its
+   * searches much quicker without changing any answer (see 
+   * {@link TruthTablePruner}). What was left out is then reported by 
+   * {@link #getLastPruningReport()}. Finding it out can be slow when there 
+   * are many such groups.
+   */
+  public TruthTableBuilder withPruning() {
+    withPruning = true;
+    return this;
+  }
+
+  /**
+   * Returns what the last call to {@link #create()} left out, or 
+   * {@code null} if it did not prune (see {@link #withPruning()}).
+   */
+  public PruningReport getLastPruningReport() {
+    return lastPruningReport;
+  }
+
+  /**
+   * Makes {@link #create()} return the table in {@code registry} built from
+   * the same axes, affinity groups and options, if there is one, without 
+   * factoring, looking for subsumed groups or pruning again, and register 
+   * the one it creates otherwise.
+   */
+  public TruthTableBuilder usingRegistry(TruthTableRegistry registry) {
+    this.registry = Preconditions.checkNotNull(registry);
+    return this;
+  }
+
+  /**
+   * Returns the fingerprint of the axes and affinity groups given so far, 
+   * without creating the {@link TruthTable}. This is the fingerprint the 
+   * table would have (see {@link RealTruthTable#getFingerprint()}) if 
+   * created without factoring, leaving out subsumed groups or pruning (see
+   * {@link #withFactoring()}, {@link #withoutSubsumedGroups()} and 
+   * {@link #withPruning()}), as those change its groups, and so its 
+   * fingerprint.
+   */
+  public long getFingerprint() {
+    return TruthTableFingerprint.of(
+        new MaskLayout(registeredAxes), affinityGroups);
+  }
+
   /**
    * Adds all given {@link AffinityGroup}s to the {@link TruthTable} to be
    * created.
@@ -126,10 +258,79 @@ public class TruthTableBuilder {
         neverReachedAxes));
     }
 
+    long fingerprint = 0;
+    if (registry != null) {
+      fingerprint = getFingerprint();
+      TruthTableRegistry.Build build = registry.get(fingerprint, getOptions(),
+          registeredAxes, affinityGroups, sacsComparator, 
+          coordinatesbundleComparator);
+      if (build != null) {
+        lastFactoringReport = build.factoringReport;
+        lastSubsumptionReport = build.subsumptionReport;
+        lastPruningReport = build.pruningReport;
+        // Maybe built with lazy indexes by another builder
+        return withLazyIndexes ? build.truthTable : build.truthTable.warmUp();
+      }
+    }
+
+    Set<AffinityGroup> groupsToBuild = affinityGroups;
+    lastFactoringReport = null;
+    if (withFactoring) {
+      // Merged groups touch the coordinates of the groups they replace, so
+      // no coordinate is lost
+      lastFactoringReport = AffinityGroupFactorer.factor(
+          new MaskLayout(registeredAxes), groupsToBuild, sacsComparator,
+          coordinatesbundleComparator);
+      groupsToBuild = lastFactoringReport.getAffinityGroups();
+    }
+    lastSubsumptionReport = null;
+    if (withoutSubsumedGroups) {
+      // A subsumed group only has coordinates of the group subsuming it, so
+      // no coordinate is lost
+      lastSubsumptionReport = SubsumedGroupFinder.find(
+          new MaskLayout(registeredAxes), groupsToBuild, 
+          coordinatesbundleComparator);
+      groupsToBuild = lastSubsumptionReport.getAffinityGroups();
+    }
+    lastPruningReport = null;
+    if (withPruning) {
+      lastPruningReport = TruthTablePruner.prune(new RealTruthTable(
+          registeredAxes, groupsToBuild, foundDPoints, sacsComparator, 
+          coordinatesbundleComparator, false, true), 
+          sacsComparator, coordinatesbundleComparator);
+      groupsToBuild = lastPruningReport.getAffinityGroups();
+      foundDPoints.clear();
+      for (AffinityGroup vc: groupsToBuild) {
+        foundDPoints.addAll(vc.getAllCoordinatesTouched());
+      }
+    }
+
     // TODO: somewhere, make these immutable/unmodifiable
-    return new RealTruthTable(
-      registeredAxes, affinityGroups, foundDPoints,
-      sacsComparator, coordinatesbundleComparator);
+    RealTruthTable result = new RealTruthTable(
+      registeredAxes, groupsToBuild, foundDPoints,
+      sacsComparator, coordinatesbundleComparator, withPairwiseIndex,
+      withLazyIndexes);
+    if (registry == null) {
+      return result;
+    }
+    result = registry.register(fingerprint, new TruthTableRegistry.Build(
+        registeredAxes, affinityGroups, sacsComparator, 
+        coordinatesbundleComparator, getOptions(), result, 
+        lastFactoringReport, lastSubsumptionReport, lastPruningReport));
+    // Maybe built with lazy indexes by another builder
+    return withLazyIndexes ? result : result.warmUp();
+  }
+
+  /**
+   * Returns the options that change the table to be created, as 
+   * {@link TruthTableRegistry} bits.
+   */
+  private int getOptions() {
+    return (withPairwiseIndex ? TruthTableRegistry.WITH_PAIRWISE_INDEX : 0)
+        | (withFactoring ? TruthTableRegistry.WITH_FACTORING : 0)
+        | (withoutSubsumedGroups 
+            ? TruthTableRegistry.WITHOUT_SUBSUMED_GROUPS : 0)
+        | (withPruning ? TruthTableRegistry.WITH_PRUNING : 0);
   }
   
   private void assertAxisWasRegistered(Class<? extends Enum> axis) {
@@ -22,6 +22,21 @@ import java.util.Iterator;
 
 public class TruthTableComparators {
 
+  /**
+   * Orders axes by name. This is the same order in which 
+   * {@link #FOR_SINGLE_AXIS_COORDINATES_SET} sorts {@link SingleAxisCoordinateSet}s
+   * of different axes, and the canonical order of the axes of a cell.
+   */
+  @SuppressWarnings("rawtypes")
+  public static final Comparator<Class<? extends Enum>> FOR_AXIS = 
+    new Comparator<Class<? extends Enum>>() {
+
+    @Override
+    public int compare(Class<? extends Enum> x, Class<? extends Enum> y) {
+      return x.getName().compareTo(y.getName());
+    }
+  };
+
   public static final Comparator<SingleAxisCoordinateSet> FOR_SINGLE_AXIS_COORDINATES_SET = 
     new Comparator<SingleAxisCoordinateSet>() {
 
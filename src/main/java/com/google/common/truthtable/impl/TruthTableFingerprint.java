@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.base.Charsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Computes a fingerprint of the contents of a {@link RealTruthTable}: its
+ * axes, their coordinates (by name, in ordinal order) and its affinity
+ * groups. Two tables with the same contents have the same fingerprint,
+ * regardless of the order their groups were added in; tables with different
+ * contents have different fingerprints, but for (very unlikely) collisions.
+ *
+ * @author zorzella@google.com
+ */
+final class TruthTableFingerprint {
+
+  /**
+   * Orders masks by their words, so that the fingerprint does not depend on
+   * the order of the groups.
+   */
+  private static final Comparator<long[]> FOR_MASKS = new Comparator<long[]>() {
+    @Override
+    public int compare(long[] x, long[] y) {
+      for (int i = 0; i < x.length; i++) {
+        if (x[i] != y[i]) {
+          return x[i] < y[i] ? -1 : 1;
+        }
+      }
+      return 0;
+    }
+  };
+
+  private TruthTableFingerprint() {}
+
+  /**
+   * Returns the fingerprint of the table that would be built from the given
+   * axes and groups, without building it.
+   */
+  static long of(MaskLayout layout, Collection<AffinityGroup> groups) {
+    long[][] masks = new long[groups.size()][];
+    long[][] axes = new long[groups.size()][];
+    int id = 0;
+    for (AffinityGroup group : groups) {
+      masks[id] = GroupMasks.maskOf(layout, group);
+      axes[id] = axesOf(layout, group);
+      id++;
+    }
+    return of(layout, masks, axes);
+  }
+
+  /**
+   * Returns the set of axes {@code group} touches, as a bit per axis index.
+   * Unlike {@link GroupMasks#axesOf}, this takes as many words as needed for
+   * tables with more than {@link MaskLayout#MAX_AXES} axes.
+   */
+  private static long[] axesOf(MaskLayout layout, AffinityGroup group) {
+    long[] result = new long[Math.max(1, (layout.getAxisCount() + 63) >>> 6)];
+    for (SingleAxisCoordinateSet sacs: group.axisToSacsMap.values()) {
+      int axisIndex = layout.indexOf(sacs.getAxis());
+      result[axisIndex >>> 6] |= 1L << axisIndex;
+    }
+    return result;
+  }
+
+  private static long of(MaskLayout layout, long[][] groupMasks, 
+      long[][] groupAxes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-1
+      throw new AssertionError(e);
+    }
+    update(digest, layout.getAxisCount());
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      update(digest, layout.getAxis(axisIndex).getName());
+      update(digest, layout.getCoordinateCount(axisIndex));
+      for (int ordinal = 0; ordinal < layout.getCoordinateCount(axisIndex);
+          ordinal++) {
+        update(digest, layout.getCoordinate(axisIndex, ordinal).name());
+      }
+    }
+
+    long[][] masks = new long[groupMasks.length][];
+    for (int id = 0; id < masks.length; id++) {
+      // Untouched axes have all coordinates, which is not the same as a
+      // group touching all coordinates of an axis
+      masks[id] = Arrays.copyOf(groupMasks[id], 
+          groupMasks[id].length + groupAxes[id].length);
+      System.arraycopy(groupAxes[id], 0, masks[id], groupMasks[id].length, 
+          groupAxes[id].length);
+    }
+    Arrays.sort(masks, FOR_MASKS);
+    update(digest, masks.length);
+    for (long[] mask: masks) {
+      for (long word: mask) {
+        update(digest, word);
+      }
+    }
+
+    byte[] hash = digest.digest();
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result = (result << 8) | (hash[i] & 0xFF);
+    }
+    return result;
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    update(digest, bytes.length);
+    digest.update(bytes);
+  }
+
+  private static void update(MessageDigest digest, long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      digest.update((byte) (value >>> shift));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the {@link AffinityGroup}s of a {@link RealTruthTable} that are not 
+ * part of any complete path, and the coordinates that are not part of any 
+ * true cell, so that {@link TruthTableBuilder} can leave them out (see 
+ * {@link TruthTableBuilder#withPruning()}).
+ *
+ * <p>Leaving them out changes no answer: a path of a query is also a path
+ * when no coordinate is fixed, so a group that is not part of any complete
+ * path then is not part of any complete path of any query. And a coordinate
+ * that is not part of any true cell can not be left in the intersection of 
+ * a complete path, so removing it from the groups only abandons paths that
+ * would have never completed.
+ *
+ * <p>A group is part of some complete path if and only if some complete path
+ * starts with it: every other group of such a path that adds some axis 
+ * overlaps with some group before it. So each group is tried as the start of
+ * a path (see {@link MaskSearch#findCompletePath(int)}), until some complete
+ * path is found, marking all the groups of that path as live. This is quick
+ * for live groups, but dead ones take an exhaustive search, which is why 
+ * pruning is optional.
+ *
+ * <p>Not thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+final class TruthTablePruner {
+
+  private final MaskSearch search;
+
+  /**
+   * The groups found to be part of some complete path, a bit per group.
+   */
+  private final long[] liveGroups;
+
+  private TruthTablePruner(GroupMasks groups) {
+    this.search = new MaskSearch(groups);
+    this.liveGroups = new long[groups.getGroupWordCount()];
+  }
+
+  /**
+   * Returns what can be left out of {@code truthTable}, and the groups to 
+   * build a table with the same answers from.
+   */
+  static PruningReport prune(RealTruthTable truthTable,
+      Comparator<SingleAxisCoordinateSet> sacsComparator,
+      Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    GroupMasks groups = truthTable.getGroupMasks();
+    MaskLayout layout = groups.layout;
+    TruthTablePruner pruner = new TruthTablePruner(groups);
+    long[] facets = truthTable.getFacets();
+
+    Set<AffinityGroup> pruned = 
+      new TreeSet<AffinityGroup>(coordinatesBundleComparator);
+    Set<AffinityGroup> removed = Sets.newLinkedHashSet();
+    for (int id = 0; id < groups.size(); id++) {
+      AffinityGroup group = groups.groups[id];
+      if (!pruner.isLive(id)) {
+        removed.add(group);
+        continue;
+      }
+      List<SingleAxisCoordinateSet> sets = Lists.newArrayList();
+      boolean narrowed = false;
+      for (SingleAxisCoordinateSet sacs: group) {
+        int offset = layout.getOffset(layout.indexOf(sacs.getAxis()));
+        List<Enum<?>> kept = Lists.newArrayList();
+        for (Enum<?> coordinate: sacs) {
+          int ordinal = coordinate.ordinal();
+          if ((facets[offset + (ordinal >>> 6)] & (1L << ordinal)) != 0) {
+            kept.add(coordinate);
+          }
+        }
+        // A live group is part of some true cell, so "kept" is never empty
+        narrowed |= kept.size() != sacs.getEnumSet().size();
+        sets.add(kept.size() == sacs.getEnumSet().size() 
+            ? sacs : new SingleAxisCoordinateSet(kept));
+      }
+      pruned.add(narrowed 
+          ? AffinityGroup.forCoordinates(sacsComparator, sets) : group);
+    }
+    if (pruned.isEmpty()) {
+      // A table without true cells still needs groups touching all its axes
+      return new PruningReport(truthTable.getAffinityGroups(), 
+          truthTable.getAffinityGroups());
+    }
+    return new PruningReport(truthTable.getAffinityGroups(), pruned);
+  }
+
+  /**
+   * Returns true if the given group is part of some complete path, marking
+   * all the groups of the path found as live.
+   */
+  private boolean isLive(int group) {
+    if ((liveGroups[group >>> 6] & (1L << group)) != 0) {
+      return true;
+    }
+    int[] path = search.findCompletePath(group);
+    if (path == null) {
+      return false;
+    }
+    for (int id: path) {
+      liveGroups[id >>> 6] |= 1L << id;
+    }
+    return true;
+  }
+}
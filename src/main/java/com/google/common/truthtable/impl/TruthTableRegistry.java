@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tables built so far, by what they were built from, so that a 
+ * {@link TruthTableBuilder} that uses the registry (see 
+ * {@link TruthTableBuilder#usingRegistry(TruthTableRegistry)}) returns the
+ * table that was already built from the same axes, affinity groups and 
+ * options, without factoring, looking for subsumed groups or pruning again,
+ * instead of building (and holding) another identical one.
+ *
+ * <p>Builds are found by the fingerprint of the axes and affinity groups 
+ * given to the builder (see {@link TruthTableBuilder#getFingerprint()}) and
+ * the options that change the table built, and what they were built from is
+ * then compared, so that a collision never returns a different table. Builds
+ * that end up with the same contents (e.g. the same groups, before and after
+ * factoring) share a single table. Tables are held softly: those no longer
+ * used elsewhere are dropped when memory runs low.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+public final class TruthTableRegistry {
+
+  /**
+   * The options (see {@link TruthTableBuilder}) that change the table built,
+   * as bits of the options of a {@link Key}.
+   */
+  static final int WITH_PAIRWISE_INDEX = 1;
+  static final int WITH_FACTORING = 1 << 1;
+  static final int WITHOUT_SUBSUMED_GROUPS = 1 << 2;
+  static final int WITH_PRUNING = 1 << 3;
+
+  /**
+   * A fingerprint, and the options of the table built.
+   */
+  private static final class Key {
+    final long fingerprint;
+    final int options;
+
+    Key(long fingerprint, int options) {
+      this.fingerprint = fingerprint;
+      this.options = options;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) obj;
+      return fingerprint == that.fingerprint && options == that.options;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (fingerprint ^ (fingerprint >>> 32)) * 31 + options;
+    }
+  }
+
+  /**
+   * What a table was built from, the table, and what its builder reported.
+   *
+   * <p>This class is immutable.
+   */
+  static final class Build {
+    private final ImmutableSet<Class<? extends Enum>> registeredAxes;
+    private final ImmutableSet<AffinityGroup> affinityGroups;
+    private final Comparator<SingleAxisCoordinateSet> sacsComparator;
+    private final Comparator<CoordinatesBundle> coordinatesBundleComparator;
+    private final int options;
+    final RealTruthTable truthTable;
+    final FactoringReport factoringReport;
+    final SubsumptionReport subsumptionReport;
+    final PruningReport pruningReport;
+
+    Build(Set<Class<? extends Enum>> registeredAxes, 
+        Set<AffinityGroup> affinityGroups,
+        Comparator<SingleAxisCoordinateSet> sacsComparator,
+        Comparator<CoordinatesBundle> coordinatesBundleComparator,
+        int options, RealTruthTable truthTable, 
+        FactoringReport factoringReport, SubsumptionReport subsumptionReport,
+        PruningReport pruningReport) {
+      this.registeredAxes = ImmutableSet.copyOf(registeredAxes);
+      this.affinityGroups = ImmutableSet.copyOf(affinityGroups);
+      this.sacsComparator = sacsComparator;
+      this.coordinatesBundleComparator = coordinatesBundleComparator;
+      this.options = options;
+      this.truthTable = truthTable;
+      this.factoringReport = factoringReport;
+      this.subsumptionReport = subsumptionReport;
+      this.pruningReport = pruningReport;
+    }
+
+    private Build withTable(RealTruthTable truthTable) {
+      return new Build(registeredAxes, affinityGroups, sacsComparator,
+          coordinatesBundleComparator, options, truthTable, factoringReport,
+          subsumptionReport, pruningReport);
+    }
+
+    private boolean isFrom(Set<Class<? extends Enum>> registeredAxes, 
+        Set<AffinityGroup> affinityGroups,
+        Comparator<SingleAxisCoordinateSet> sacsComparator,
+        Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+      return this.registeredAxes.equals(registeredAxes)
+          && this.affinityGroups.equals(affinityGroups)
+          && this.sacsComparator.equals(sacsComparator)
+          && this.coordinatesBundleComparator.equals(
+              coordinatesBundleComparator);
+    }
+  }
+
+  /**
+   * The builds so far, by the fingerprint of what they were built from.
+   */
+  private final ConcurrentMap<Key, Build> builds = 
+    new MapMaker().softValues().makeMap();
+
+  /**
+   * The tables built so far, by their own fingerprint.
+   */
+  private final ConcurrentMap<Key, RealTruthTable> tables = 
+    new MapMaker().softValues().makeMap();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Returns the build from the given axes and groups (with the given 
+   * fingerprint, see {@link TruthTableBuilder#getFingerprint()}), options 
+   * and comparators, if there is one.
+   */
+  Build get(long fingerprint, int options,
+      Set<Class<? extends Enum>> registeredAxes, 
+      Set<AffinityGroup> affinityGroups,
+      Comparator<SingleAxisCoordinateSet> sacsComparator,
+      Comparator<CoordinatesBundle> coordinatesBundleComparator) {
+    Build result = builds.get(new Key(fingerprint, options));
+    if (result == null || !result.isFrom(registeredAxes, affinityGroups,
+        sacsComparator, coordinatesBundleComparator)) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    return result;
+  }
+
+  /**
+   * Registers {@code build}, with the given fingerprint of what it was built
+   * from, and returns its table, or the registered table with the same 
+   * contents (e.g. built by a racing build) if there is one.
+   */
+  RealTruthTable register(long fingerprint, Build build) {
+    RealTruthTable truthTable = register(build.truthTable);
+    if (truthTable != build.truthTable) {
+      build = build.withTable(truthTable);
+    }
+    Build existing = builds.putIfAbsent(new Key(fingerprint, build.options), 
+        build);
+    if (existing != null && existing.isFrom(build.registeredAxes, 
+        build.affinityGroups, build.sacsComparator, 
+        build.coordinatesBundleComparator)) {
+      return existing.truthTable;
+    }
+    // Else a fingerprint collision: the existing build stays, and this one is
+    // simply not registered
+    return truthTable;
+  }
+
+  private RealTruthTable register(RealTruthTable truthTable) {
+    Key key = new Key(truthTable.getFingerprint(), 
+        truthTable.hasPairwiseIndex() ? WITH_PAIRWISE_INDEX : 0);
+    RealTruthTable existing = tables.putIfAbsent(key, truthTable);
+    if (existing == null) {
+      return truthTable;
+    }
+    if (existing.hasSameContentsAs(truthTable)) {
+      return existing;
+    }
+    return truthTable;
+  }
+
+  /**
+   * The number of tables registered, and not dropped yet.
+   */
+  public int size() {
+    return tables.size();
+  }
+
+  /**
+   * The number of builds that returned a registered table.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * The number of builds that built a new table.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Drops all registered tables.
+   */
+  public void clear() {
+    builds.clear();
+    tables.clear();
+  }
+}
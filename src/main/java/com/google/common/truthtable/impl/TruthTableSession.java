@@ -0,0 +1,704 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A sequence of choices over a {@link RealTruthTable}, as made by a user of a
+ * configurator: coordinates are fixed (or excluded) one step at a time, and
+ * steps can be undone. After each step, the facets (i.e. the coordinates of
+ * each axis that are still part of some true cell) are known, and reading
+ * them costs nothing.
+ *
+ * <p>A step only recomputes what it can change. The facets never grow as
+ * coordinates are fixed, so each search starts from the previous facets
+ * rather than from the fixed coordinates. Groups that are compatible with the
+ * facets (the live groups) are kept in a {@link ReversibleSparseBitSet}, and
+ * groups that are not are never visited again. The facets, the fixed
+ * coordinates and the live groups are all trailed, so {@link #undo()} simply
+ * restores the words that the last step changed.
+ *
+ * <p>A session can be saved as a compact token (see 
+ * {@link #toToken(byte[])}), and resumed from it later, by any process with
+ * the same table (see {@link #resume(RealTruthTable, String, byte[])}). The
+ * token holds the steps taken and the current facets, so resuming does not
+ * search at all. Tokens are held by clients, who could forge the facets, so
+ * they are signed with a key of the owner of the table: if the signature
+ * does not match, resuming recomputes the facets of the last step from its
+ * fixed coordinates instead. Undoing a step of a resumed session recomputes
+ * the facets of the previous step the same way, since the token does not 
+ * hold those.
+ *
+ * <p>A session is not thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+public final class TruthTableSession {
+
+  /**
+   * The version of the format of {@link #toBytes(byte[])}.
+   */
+  private static final int TOKEN_VERSION = 3;
+
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * The number of bytes of the signature kept at the end of a token.
+   */
+  private static final int MAC_LENGTH = 16;
+
+  private final RealTruthTable truthTable;
+  private final MaskLayout layout;
+  private final GroupMasks groups;
+  private final MaskSearch search;
+
+  /**
+   * The masks of the coordinates fixed so far, for all axes.
+   */
+  private final long[] fixedMasks;
+
+  /**
+   * The masks of the coordinates that are still part of some true cell, for
+   * all axes. This is always a subset of {@link #fixedMasks}.
+   */
+  private final long[] facets;
+
+  private final ReversibleSparseBitSet liveGroups;
+
+  /**
+   * The steps taken so far, i.e. the ones that can be undone.
+   */
+  private final List<Step> steps = Lists.newArrayList();
+
+  private int depth;
+  private int[] depthTrailSizes = new int[8];
+
+  /**
+   * For each depth, whether the facets of that depth were never computed, 
+   * which is the case for all steps of a resumed session until they are
+   * reached.
+   */
+  private boolean[] staleDepths = new boolean[8];
+
+  /**
+   * The words of {@link #fixedMasks} (as their index) and {@link #facets} (as
+   * their index plus the total number of words) changed since the first
+   * step, and their previous values.
+   */
+  private int[] trailWords = new int[16];
+  private long[] trailValues = new long[16];
+  private int trailSize;
+
+  private final long[] scratchMask;
+  private final long[] scratchGroups;
+
+  private long searchCount;
+
+  public TruthTableSession(RealTruthTable truthTable) {
+    this.truthTable = truthTable;
+    this.layout = truthTable.getMaskLayout();
+    this.groups = truthTable.getGroupMasks();
+    this.search = new MaskSearch(groups);
+    this.fixedMasks = layout.universe.clone();
+    this.facets = layout.universe.clone();
+    this.liveGroups = new ReversibleSparseBitSet(groups.size());
+    this.scratchMask = new long[Math.max(1, layout.getMaxWordCount())];
+    this.scratchGroups = new long[groups.getGroupWordCount()];
+    System.arraycopy(truthTable.getFacets(), 0, facets, 0, facets.length);
+    restrictLiveGroups();
+  }
+
+  /**
+   * Resumes a session from a token created by {@link #toToken(byte[])} with
+   * the same {@code key}.
+   *
+   * @throws IllegalArgumentException if {@code token} is malformed, or was
+   *   created for a table with different contents (see
+   *   {@link RealTruthTable#getFingerprint()}), or {@code key} is empty
+   */
+  public static TruthTableSession resume(RealTruthTable truthTable, 
+      String token, byte[] key) {
+    return resume(truthTable, Base64Url.decode(token), key);
+  }
+
+  /**
+   * Resumes a session from the bytes created by {@link #toBytes(byte[])} 
+   * with the same {@code key}.
+   *
+   * @throws IllegalArgumentException if {@code bytes} are malformed, or were
+   *   created for a table with different contents, or {@code key} is empty
+   */
+  public static TruthTableSession resume(RealTruthTable truthTable, 
+      byte[] bytes, byte[] key) {
+    TruthTableSession result = new TruthTableSession(truthTable);
+    result.readFrom(new TokenReader(bytes), key);
+    return result;
+  }
+
+  public RealTruthTable getTruthTable() {
+    return truthTable;
+  }
+
+  /**
+   * Narrows the axis of the given coordinates down to them (or to those of
+   * them that were not excluded or fixed away already), as a single step.
+   *
+   * @throws IllegalArgumentException if the coordinates are not all of the
+   *   same axis, or that axis was not registered
+   */
+  public TruthTableSession fix(Enum<?> first, Enum<?>... rest) {
+    int axisIndex = toMask(first, rest);
+    return take(new Step(false, axisIndex, Arrays.copyOf(scratchMask,
+        layout.getWordCount(axisIndex))));
+  }
+
+  /**
+   * Excludes the given coordinates, which must all be of the same axis, as a
+   * single step (see {@link FixedCoordinates#excluding(Enum...)}).
+   *
+   * @throws IllegalArgumentException if the coordinates are not all of the
+   *   same axis, or that axis was not registered
+   */
+  public TruthTableSession exclude(Enum<?> first, Enum<?>... rest) {
+    int axisIndex = toMask(first, rest);
+    return take(new Step(true, axisIndex, Arrays.copyOf(scratchMask,
+        layout.getWordCount(axisIndex))));
+  }
+
+  /**
+   * Undoes the last {@link #fix} or {@link #exclude}.
+   *
+   * @throws IllegalStateException if there are no steps to undo
+   */
+  public TruthTableSession undo() {
+    if (depth == 0) {
+      throw new IllegalStateException("There is nothing to undo.");
+    }
+    depth--;
+    steps.remove(steps.size() - 1);
+    int totalWords = fixedMasks.length;
+    while (trailSize > depthTrailSizes[depth]) {
+      trailSize--;
+      int word = trailWords[trailSize];
+      if (word < totalWords) {
+        fixedMasks[word] = trailValues[trailSize];
+      } else {
+        facets[word - totalWords] = trailValues[trailSize];
+      }
+    }
+    liveGroups.undoLevel();
+    if (staleDepths[depth]) {
+      recomputeFacets();
+    }
+    return this;
+  }
+
+  /**
+   * The number of steps that can be undone.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Returns false if no cell is true given the coordinates fixed so far.
+   */
+  public boolean hasTrueCells() {
+    return layout.getAxisCount() > 0 && !isEmpty(facets, 0);
+  }
+
+  /**
+   * Returns true if {@code coordinate} is still part of some true cell.
+   *
+   * @throws IllegalArgumentException if its axis was not registered
+   */
+  public boolean isValid(Enum<?> coordinate) {
+    int axisIndex = layout.indexOf(coordinate.getDeclaringClass());
+    int ordinal = coordinate.ordinal();
+    return (facets[layout.getOffset(axisIndex) + (ordinal >>> 6)]
+        & (1L << ordinal)) != 0;
+  }
+
+  /**
+   * Returns the coordinates of {@code axis} that are still part of some true
+   * cell. This is equivalent to {@link RealTruthTable#getAll(Class,
+   * FixedCoordinates)} with all the coordinates fixed so far.
+   *
+   * @throws IllegalArgumentException if {@code axis} was not registered
+   */
+  public <E extends Enum<E>> EnumSet<E> getFacet(Class<E> axis) {
+    return layout.toEnumSet(axis, facets,
+        layout.getOffset(layout.indexOf(axis)));
+  }
+
+  /**
+   * Returns the mask of the coordinates of an axis with a single word that
+   * are still part of some true cell.
+   *
+   * @throws IllegalArgumentException if the axis has more than one word
+   */
+  public long getFacetMask(int axisIndex) {
+    Preconditions.checkArgument(layout.getWordCount(axisIndex) == 1,
+        "Axis '%s' has more than 64 coordinates.", layout.getAxis(axisIndex));
+    return facets[layout.getOffset(axisIndex)];
+  }
+
+  /**
+   * Writes the mask of the coordinates of the given axis that are still part
+   * of some true cell into {@code result}.
+   */
+  public void getFacetMask(int axisIndex, long[] result) {
+    System.arraycopy(facets, layout.getOffset(axisIndex), result, 0,
+        layout.getWordCount(axisIndex));
+  }
+
+  /**
+   * Returns the mask of the coordinates of an axis with a single word that
+   * were fixed so far.
+   *
+   * @throws IllegalArgumentException if the axis has more than one word
+   */
+  public long getFixedMask(int axisIndex) {
+    Preconditions.checkArgument(layout.getWordCount(axisIndex) == 1,
+        "Axis '%s' has more than 64 coordinates.", layout.getAxis(axisIndex));
+    return fixedMasks[layout.getOffset(axisIndex)];
+  }
+
+  /**
+   * The number of groups that are still compatible with the facets.
+   */
+  int getLiveGroupCount() {
+    return liveGroups.cardinality();
+  }
+
+  /**
+   * Writes the mask of the given coordinates into {@link #scratchMask}, and
+   * returns the index of their axis.
+   */
+  private int toMask(Enum<?> first, Enum<?>... rest) {
+    Class<? extends Enum> axis = first.getDeclaringClass();
+    int axisIndex = layout.indexOf(axis);
+    Arrays.fill(scratchMask, 0L);
+    scratchMask[first.ordinal() >>> 6] |= 1L << first.ordinal();
+    for (Enum<?> coordinate: rest) {
+      if (coordinate.getDeclaringClass() != axis) {
+        throw new IllegalArgumentException(String.format(
+          "'%s' and '%s' are not of the same axis.", first, coordinate));
+      }
+      scratchMask[coordinate.ordinal() >>> 6] |= 1L << coordinate.ordinal();
+    }
+    return axisIndex;
+  }
+
+  private TruthTableSession take(Step step) {
+    startStep(step);
+    long[] mask = step.mask;
+    int offset = layout.getOffset(step.axisIndex);
+    boolean facetChanged = false;
+    for (int word = 0; word < mask.length; word++) {
+      facetChanged |= 
+        setFacet(offset + word, facets[offset + word] & mask[word]);
+    }
+    // Fixing coordinates that were not part of any true cell anyway changes
+    // nothing else
+    if (facetChanged) {
+      try {
+        refreshFacets(step.axisIndex);
+      } catch (RuntimeException e) {
+        // E.g. an interruptible search was interrupted (see 
+        // InterruptibleQueries): leave the session as it was before
+        undo();
+        throw e;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Starts a new depth for {@code step}, and narrows down the fixed masks 
+   * (but not the facets) accordingly.
+   */
+  private void startStep(Step step) {
+    if (depth + 1 == depthTrailSizes.length) {
+      depthTrailSizes = Arrays.copyOf(depthTrailSizes, depth * 2);
+      staleDepths = Arrays.copyOf(staleDepths, depth * 2);
+    }
+    depthTrailSizes[depth++] = trailSize;
+    staleDepths[depth] = false;
+    liveGroups.newLevel();
+    steps.add(step);
+
+    long[] mask = step.mask;
+    int offset = layout.getOffset(step.axisIndex);
+    for (int word = 0; word < mask.length; word++) {
+      setFixedMask(offset + word, fixedMasks[offset + word] & mask[word]);
+    }
+  }
+
+  /**
+   * Recomputes the facets of the current depth, which were never computed.
+   * The current facets are those of some earlier depth, so they still hold 
+   * all valid coordinates.
+   */
+  private void recomputeFacets() {
+    for (int word = 0; word < facets.length; word++) {
+      setFacet(word, facets[word] & fixedMasks[word]);
+    }
+    restrictLiveGroups();
+    refreshFacets(-1);
+    staleDepths[depth] = false;
+  }
+
+  /**
+   * Recomputes the facets of all axes other than {@code changedAxisIndex},
+   * whose facet was narrowed down (and is correct, for each of its
+   * coordinates was part of a true cell before, and no other axis changed).
+   */
+  private void refreshFacets(int changedAxisIndex) {
+    if (changedAxisIndex != -1) {
+      restrictLiveGroups(changedAxisIndex);
+    }
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      if (axisIndex == changedAxisIndex) {
+        continue;
+      }
+      // Searching from the current facets (rather than the fixed
+      // coordinates) finds the same true cells, for they are all within them
+      search.getAll(axisIndex, facets, scratchMask, liveGroups.words);
+      searchCount++;
+      int offset = layout.getOffset(axisIndex);
+      boolean facetChanged = false;
+      for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+        facetChanged |= setFacet(offset + word, scratchMask[word]);
+      }
+      if (facetChanged) {
+        restrictLiveGroups(axisIndex);
+      }
+    }
+  }
+
+  private void restrictLiveGroups() {
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      restrictLiveGroups(axisIndex);
+    }
+  }
+
+  /**
+   * Removes the groups that do not touch any coordinate of the facet of the
+   * given axis from the live groups.
+   */
+  private void restrictLiveGroups(int axisIndex) {
+    Arrays.fill(scratchGroups, 0L);
+    long[][] supports = groups.supports[axisIndex];
+    int offset = layout.getOffset(axisIndex);
+    for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+      for (long bits = facets[offset + word]; bits != 0; bits &= bits - 1) {
+        long[] support =
+          supports[(word << 6) + Long.numberOfTrailingZeros(bits)];
+        for (int i = 0; i < scratchGroups.length; i++) {
+          scratchGroups[i] |= support[i];
+        }
+      }
+    }
+    liveGroups.intersectWith(scratchGroups);
+  }
+
+  private void setFixedMask(int word, long value) {
+    if (fixedMasks[word] != value) {
+      trail(word, fixedMasks[word]);
+      fixedMasks[word] = value;
+    }
+  }
+
+  /**
+   * Returns true if the facet word changed.
+   */
+  private boolean setFacet(int word, long value) {
+    if (facets[word] == value) {
+      return false;
+    }
+    trail(fixedMasks.length + word, facets[word]);
+    facets[word] = value;
+    return true;
+  }
+
+  private void trail(int word, long previousValue) {
+    if (depth == 0) {
+      // Nothing to undo to
+      return;
+    }
+    if (trailSize == trailWords.length) {
+      trailWords = Arrays.copyOf(trailWords, trailSize * 2);
+      trailValues = Arrays.copyOf(trailValues, trailSize * 2);
+    }
+    trailWords[trailSize] = word;
+    trailValues[trailSize] = previousValue;
+    trailSize++;
+  }
+
+  /**
+   * The number of searches this session ran, one per axis whose facet was
+   * recomputed.
+   */
+  @VisibleForTesting
+  long getSearchCount() {
+    return searchCount;
+  }
+
+  /**
+   * Returns the state of this session as compact bytes, signed with 
+   * {@code key}, to be resumed with 
+   * {@link #resume(RealTruthTable, byte[], byte[])}.
+   *
+   * @throws IllegalArgumentException if {@code key} is empty
+   */
+  public byte[] toBytes(byte[] key) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(TOKEN_VERSION);
+    long fingerprint = truthTable.getFingerprint();
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (fingerprint >>> shift));
+    }
+    writeVarLong(out, steps.size());
+    for (Step step: steps) {
+      writeVarLong(out, step.axisIndex << 1 | (step.exclude ? 1 : 0));
+      for (long word: step.coordinates) {
+        writeVarLong(out, word);
+      }
+    }
+    for (long word: facets) {
+      writeVarLong(out, word);
+    }
+    byte[] signed = out.toByteArray();
+    out.write(sign(key, signed, signed.length), 0, MAC_LENGTH);
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the state of this session as a compact base64url token (which 
+   * can be used as is in URLs), signed with {@code key}, to be resumed with
+   * {@link #resume(RealTruthTable, String, byte[])}.
+   *
+   * @throws IllegalArgumentException if {@code key} is empty
+   */
+  public String toToken(byte[] key) {
+    return Base64Url.encode(toBytes(key));
+  }
+
+  /**
+   * Returns the signature of the first {@code length} bytes of 
+   * {@code bytes}, with {@code key}.
+   */
+  private static byte[] sign(byte[] key, byte[] bytes, int length) {
+    try {
+      Mac mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+      mac.update(bytes, 0, length);
+      return mac.doFinal();
+    } catch (GeneralSecurityException e) {
+      // Every Java platform has HmacSHA256, and SecretKeySpec already 
+      // rejected empty keys
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Writes {@code value} 7 bits at a time, least significant first, so that
+   * small values (like the masks of a few coordinates) take few bytes.
+   */
+  private static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private void readFrom(TokenReader in, byte[] key) {
+    if (in.readByte() != TOKEN_VERSION) {
+      throw new IllegalArgumentException("Unknown session token version.");
+    }
+    long fingerprint = 0;
+    for (int i = 0; i < 8; i++) {
+      fingerprint = (fingerprint << 8) | in.readByte();
+    }
+    if (fingerprint != truthTable.getFingerprint()) {
+      throw new IllegalArgumentException(
+        "This session token is for a different truth table.");
+    }
+    long stepCount = in.readVarLong();
+    for (long i = 0; i < stepCount; i++) {
+      long axisAndKind = in.readVarLong();
+      long axisIndex = axisAndKind >>> 1;
+      if (axisIndex >= layout.getAxisCount()) {
+        throw new IllegalArgumentException("Malformed session token.");
+      }
+      long[] coordinates = new long[layout.getWordCount((int) axisIndex)];
+      for (int word = 0; word < coordinates.length; word++) {
+        coordinates[word] = in.readVarLong();
+      }
+      startStep(new Step((axisAndKind & 1) == 1, (int) axisIndex, 
+          coordinates));
+      staleDepths[depth] = true;
+    }
+    long[] signedFacets = new long[facets.length];
+    for (int word = 0; word < facets.length; word++) {
+      signedFacets[word] = in.readVarLong();
+      if ((signedFacets[word] & ~fixedMasks[word]) != 0) {
+        throw new IllegalArgumentException("Malformed session token.");
+      }
+    }
+    int signedLength = in.getPosition();
+    byte[] signature = in.readBytes(MAC_LENGTH);
+    in.checkFullyRead();
+    byte[] expected = Arrays.copyOf(
+        sign(key, in.getBytes(), signedLength), MAC_LENGTH);
+    if (!MessageDigest.isEqual(signature, expected)) {
+      // Not signed by the owner of the table, so possibly forged
+      if (staleDepths[depth]) {
+        recomputeFacets();
+      }
+      return;
+    }
+    for (int word = 0; word < facets.length; word++) {
+      setFacet(word, signedFacets[word]);
+    }
+    staleDepths[depth] = false;
+    restrictLiveGroups();
+  }
+
+  /**
+   * Reads what {@link TruthTableSession#toBytes(byte[])} writes.
+   */
+  private static class TokenReader {
+
+    private final byte[] bytes;
+    private int position;
+
+    TokenReader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int readByte() {
+      if (position == bytes.length) {
+        throw new IllegalArgumentException("Truncated session token.");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    long readVarLong() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IllegalArgumentException("Malformed session token.");
+    }
+
+    byte[] readBytes(int count) {
+      if (bytes.length - position < count) {
+        throw new IllegalArgumentException("Truncated session token.");
+      }
+      position += count;
+      return Arrays.copyOfRange(bytes, position - count, position);
+    }
+
+    int getPosition() {
+      return position;
+    }
+
+    byte[] getBytes() {
+      return bytes;
+    }
+
+    void checkFullyRead() {
+      if (position != bytes.length) {
+        throw new IllegalArgumentException("Malformed session token.");
+      }
+    }
+  }
+
+  /**
+   * A call to {@link TruthTableSession#fix} or 
+   * {@link TruthTableSession#exclude}.
+   */
+  private static class Step {
+
+    final boolean exclude;
+    final int axisIndex;
+
+    /**
+     * The mask of the coordinates that were fixed or excluded.
+     */
+    final long[] coordinates;
+
+    /**
+     * The mask of the coordinates that this step keeps.
+     */
+    final long[] mask;
+
+    Step(boolean exclude, int axisIndex, long[] coordinates) {
+      this.exclude = exclude;
+      this.axisIndex = axisIndex;
+      this.coordinates = coordinates;
+      this.mask = coordinates.clone();
+      if (exclude) {
+        for (int word = 0; word < mask.length; word++) {
+          mask[word] = ~mask[word];
+        }
+      }
+    }
+  }
+
+  private boolean isEmpty(long[] masks, int axisIndex) {
+    int offset = layout.getOffset(axisIndex);
+    for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+      if (masks[offset + word] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("[");
+    for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+      if (axisIndex > 0) {
+        result.append(", ");
+      }
+      result.append(layout.toEnumSet(axisIndex, facets,
+          layout.getOffset(axisIndex)));
+    }
+    return result.append("]").toString();
+  }
+}
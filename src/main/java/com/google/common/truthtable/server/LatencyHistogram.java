@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.server;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts requests and their latencies, in buckets, so that recording a 
+ * latency takes no locks and no memory. Latencies of less than 8 nanoseconds
+ * have a bucket each; each larger power of two is split in 8 buckets of the
+ * same width. The percentiles are thus approximate: they are the upper bound
+ * of the bucket the percentile falls in, i.e. at most an eighth more than the
+ * actual latency.
+ *
+ * @author zorzella@google.com
+ */
+public final class LatencyHistogram {
+
+  /**
+   * The number of bits of a latency, below its highest one, that pick its
+   * bucket within its power of two.
+   */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Enough buckets for the largest latency, whose highest bit is bit 62.
+   */
+  private static final int BUCKET_COUNT = bucketOf(Long.MAX_VALUE) + 1;
+
+  /**
+   * For each bucket (see {@link #bucketOf}), the number of latencies in it.
+   */
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    nanos = Math.max(0, nanos);
+    buckets.incrementAndGet(bucketOf(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Returns the bucket of a (non-negative) latency: the latency itself, if it
+   * is less than {@link #SUB_BUCKETS}, or else its power of two and the 
+   * {@link #SUB_BUCKET_BITS} bits below its highest one.
+   */
+  private static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+    // The highest bit is always set, so the sub-buckets of each power of two
+    // are numbered from SUB_BUCKETS up, past those of the smaller ones
+    return (shift << SUB_BUCKET_BITS) + (int) (nanos >>> shift);
+  }
+
+  /**
+   * Returns the largest latency of the given bucket.
+   */
+  private static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowerBound = (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns (an upper bound of) the latency that the given fraction of 
+   * requests took no more than, in nanoseconds, or 0 if there were none.
+   */
+  public long getPercentileNanos(double fraction) {
+    long total = 0;
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    long rank = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return upperBoundOf(i);
+      }
+    }
+    return 0;
+  }
+
+  public JsonObject toJson() {
+    JsonObject result = new JsonObject();
+    long count = this.count.get();
+    result.addProperty("count", count);
+    result.addProperty("meanMicros", count == 0 
+        ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / count));
+    result.addProperty("p50Micros", 
+        TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(0.5)));
+    result.addProperty("p99Micros", 
+        TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(0.99)));
+    result.addProperty("p999Micros", 
+        TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(0.999)));
+    result.addProperty("maxMicros", 
+        TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+    return result;
+  }
+}
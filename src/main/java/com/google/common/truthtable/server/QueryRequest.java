@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.server;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JSON body of a query to a {@link TruthTableServer}. Axes are named by
+ * their simple (or, if ambiguous, full) class name, and coordinates by their
+ * enum constant name. E.g.:
+ *
+ * <pre>
+ *     {"axis": "Bread",
+ *      "fixed": {"Wine": ["PORT", "MERLOT"]},
+ *      "excluded": {"Entree": ["STEAK"]}}
+ * </pre>
+ *
+ * @author zorzella@google.com
+ */
+final class QueryRequest {
+
+  /**
+   * The axis asked for, by {@code getAll}.
+   */
+  String axis;
+
+  /**
+   * The axes asked for, by {@code facets}, or {@code null} for all axes.
+   */
+  List<String> axes;
+
+  /**
+   * For each fixed axis, the coordinates it is fixed to.
+   */
+  Map<String, List<String>> fixed;
+
+  /**
+   * For each axis with exclusions, the coordinates excluded.
+   */
+  Map<String, List<String>> excluded;
+
+  /**
+   * The coordinate of each axis of the cell asked about, by {@code isTrue}.
+   */
+  Map<String, String> cell;
+}
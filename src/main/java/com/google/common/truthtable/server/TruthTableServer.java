@@ -0,0 +1,548 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.server;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.LimitInputStream;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.truthtable.impl.MaskBuffer;
+import com.google.common.truthtable.impl.MaskLayout;
+import com.google.common.truthtable.impl.RealTruthTable;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Serves {@link RealTruthTable}s over HTTP, with compact JSON requests and
+ * responses, using the JDK's built-in HTTP server. The endpoints are:
+ *
+ * <ul>
+ * <li>{@code GET /tables}: the names of the tables served, and their axes</li>
+ * <li>{@code POST /tables/<name>/getAll}: the valid coordinates of an axis, 
+ *   as {@code {"coordinates": [...]}}</li>
+ * <li>{@code POST /tables/<name>/facets}: the valid coordinates of many 
+ *   axes (all by default) at once, as {@code {"facets": {axis: [...]}}}</li>
+ * <li>{@code POST /tables/<name>/isTrue}: whether a cell is true, as 
+ *   {@code {"isTrue": ...}}</li>
+ * <li>{@code GET /metrics}: request counts and latencies per endpoint, and
+ *   the stats of the response cache</li>
+ * </ul>
+ *
+ * <p>See {@link QueryRequest} for the format of the body of the queries. 
+ * Malformed queries get a 400, with an {@code {"error": ...}} body, and
+ * queries longer than {@link #MAX_REQUEST_BYTES} a 413.
+ *
+ * <p>Responses to queries are cached, by table and by the coordinates the 
+ * query leaves for each axis (so that equivalent queries share an entry).
+ * Replacing a table drops the responses cached for the one it replaces.
+ *
+ * <p>Axes are named by their simple name, or by their full name when
+ * several axes of a table share a simple name. Queries accept both, but 
+ * not both for the same axis.
+ *
+ * <p>Requests are handled on the given {@link Executor}, which the caller
+ * owns. Each thread that queries a table allocates its own search state for
+ * it, once, and keeps it for as long as the thread lives (see 
+ * {@link RealTruthTable}). So a pool of long-lived threads works best, e.g.
+ * {@code Executors.newFixedThreadPool}, with somewhat more threads than 
+ * cores, as clients may be slow to send and read. With a thread per request
+ * (e.g. virtual threads), every request that misses the response cache 
+ * allocates that state again, for each table it queries, which for large
+ * tables may cost more than the search itself.
+ *
+ * @author zorzella@google.com
+ */
+public final class TruthTableServer {
+
+  private static final String GET_ALL = "getAll";
+  private static final String FACETS = "facets";
+  private static final String IS_TRUE = "isTrue";
+
+  /**
+   * The longest body of a query, in bytes.
+   */
+  public static final int MAX_REQUEST_BYTES = 64 * 1024;
+
+  /**
+   * A table served, the index of each of its axes, by name, and the name of
+   * each axis in responses.
+   */
+  private static final class ServedTable {
+    final RealTruthTable truthTable;
+    final Map<String, Integer> axisIndexes;
+    final String[] axisNames;
+
+    ServedTable(RealTruthTable truthTable) {
+      this.truthTable = truthTable;
+      MaskLayout layout = truthTable.getMaskLayout();
+      Map<String, Integer> axisIndexes = new HashMap<String, Integer>();
+      this.axisNames = new String[layout.getAxisCount()];
+      Map<String, Integer> simpleNameCounts = new HashMap<String, Integer>();
+      for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+        String simpleName = layout.getAxis(axisIndex).getSimpleName();
+        Integer count = simpleNameCounts.get(simpleName);
+        simpleNameCounts.put(simpleName, count == null ? 1 : count + 1);
+      }
+      for (int axisIndex = 0; axisIndex < layout.getAxisCount(); axisIndex++) {
+        Class<?> axis = layout.getAxis(axisIndex);
+        axisIndexes.put(axis.getName(), axisIndex);
+        axisNames[axisIndex] = axis.getName();
+        if (simpleNameCounts.get(axis.getSimpleName()) == 1) {
+          axisIndexes.put(axis.getSimpleName(), axisIndex);
+          axisNames[axisIndex] = axis.getSimpleName();
+        }
+      }
+      this.axisIndexes = ImmutableMap.copyOf(axisIndexes);
+    }
+  }
+
+  /**
+   * A query, by the table and endpoint it is for, and the masks of the 
+   * coordinates it leaves for each axis.
+   */
+  private static final class ResponseKey {
+    final ServedTable table;
+    final String endpoint;
+    /**
+     * The asked axis, for {@link #GET_ALL}, or the asked axes, as a bit per
+     * axis index, for {@link #FACETS}.
+     */
+    final long axes;
+    final MaskBuffer fixedMasks;
+
+    ResponseKey(ServedTable table, String endpoint, long axes, 
+        MaskBuffer fixedMasks) {
+      this.table = table;
+      this.endpoint = endpoint;
+      this.axes = axes;
+      this.fixedMasks = fixedMasks;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ResponseKey)) {
+        return false;
+      }
+      ResponseKey that = (ResponseKey) obj;
+      return table == that.table && endpoint.equals(that.endpoint) 
+          && axes == that.axes && fixedMasks.equals(that.fixedMasks);
+    }
+
+    @Override
+    public int hashCode() {
+      return ((System.identityHashCode(table) * 31 + endpoint.hashCode()) * 31
+          + (int) (axes ^ (axes >>> 32))) * 31 + fixedMasks.hashCode();
+    }
+  }
+
+  /**
+   * A failed request, with the HTTP status to answer it with.
+   */
+  private static final class RequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    RequestException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  private final HttpServer server;
+  private final Gson gson = new Gson();
+  private final ConcurrentMap<String, ServedTable> tables = 
+    new ConcurrentHashMap<String, ServedTable>();
+  private final Cache<ResponseKey, String> responses;
+  private final ImmutableMap<String, LatencyHistogram> latencies = 
+    ImmutableMap.of(
+        GET_ALL, new LatencyHistogram(), 
+        FACETS, new LatencyHistogram(),
+        IS_TRUE, new LatencyHistogram());
+
+  /**
+   * Creates a server (which must then be {@link #start() started}) that will
+   * listen on the given {@code address}, handle requests on the given 
+   * {@code executor}, and cache up to {@code maxCachedResponses} responses.
+   *
+   * @throws IOException if the server can't be bound to {@code address}
+   */
+  public TruthTableServer(InetSocketAddress address, Executor executor, 
+      int maxCachedResponses) throws IOException {
+    Preconditions.checkArgument(maxCachedResponses >= 0, 
+        "maxCachedResponses must not be negative, but was %s.", 
+        maxCachedResponses);
+    this.responses = CacheBuilder.newBuilder()
+        .maximumSize(maxCachedResponses)
+        .build(new CacheLoader<ResponseKey, String>() {
+          @Override
+          public String load(ResponseKey key) {
+            return compute(key);
+          }
+        });
+    this.server = HttpServer.create(address, 0);
+    server.setExecutor(Preconditions.checkNotNull(executor));
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        TruthTableServer.this.handle(exchange);
+      }
+    });
+  }
+
+  /**
+   * Serves {@code truthTable} under the given {@code name}, instead of the 
+   * table that was served under it, if any.
+   *
+   * @throws IllegalArgumentException if {@code truthTable} has too many axes
+   *   to be queried over masks (see {@link MaskLayout#hasSingleWordAxisSets})
+   */
+  public TruthTableServer addTable(String name, RealTruthTable truthTable) {
+    Preconditions.checkArgument(
+        truthTable.getMaskLayout().hasSingleWordAxisSets(),
+        "Table '%s' has too many axes to be served.", name);
+    ServedTable replaced = 
+      tables.put(Preconditions.checkNotNull(name), new ServedTable(truthTable));
+    if (replaced != null) {
+      // Its responses can no longer be asked for, but would otherwise stay 
+      // until evicted, and keep the table they were computed from
+      Iterator<ResponseKey> keys = responses.asMap().keySet().iterator();
+      while (keys.hasNext()) {
+        if (keys.next().table == replaced) {
+          keys.remove();
+        }
+      }
+    }
+    return this;
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops the server, waiting up to {@code delaySeconds} for the requests
+   * being handled to finish. The executor is not shut down.
+   */
+  public void stop(int delaySeconds) {
+    server.stop(delaySeconds);
+  }
+
+  /**
+   * The address the server listens on (with the actual port, if it was 
+   * created for port 0).
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    int status = 200;
+    String response;
+    try {
+      response = route(exchange);
+    } catch (RequestException e) {
+      status = e.status;
+      response = error(e.getMessage());
+    } catch (JsonParseException e) {
+      status = 400;
+      response = error("Malformed JSON: " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      status = 400;
+      response = error(e.getMessage());
+    } catch (RuntimeException e) {
+      status = 500;
+      response = error(e.toString());
+    }
+    byte[] bytes = response.getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set(
+        "Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private String route(HttpExchange exchange) throws IOException {
+    String[] path = exchange.getRequestURI().getPath().split("/");
+    if (path.length == 2 && path[1].equals("metrics")) {
+      checkMethod(exchange, "GET");
+      return metrics();
+    }
+    if (path.length == 2 && path[1].equals("tables")) {
+      checkMethod(exchange, "GET");
+      return tables();
+    }
+    if (path.length == 4 && path[1].equals("tables")) {
+      ServedTable table = tables.get(path[2]);
+      if (table == null) {
+        throw new RequestException(404, "No table named '" + path[2] + "'.");
+      }
+      LatencyHistogram latency = latencies.get(path[3]);
+      if (latency == null) {
+        throw new RequestException(404, "No endpoint '" + path[3] + "'.");
+      }
+      checkMethod(exchange, "POST");
+      long start = System.nanoTime();
+      QueryRequest request = gson.fromJson(
+          new String(readBody(exchange), Charsets.UTF_8), QueryRequest.class);
+      if (request == null) {
+        throw new RequestException(400, "Missing query.");
+      }
+      String result = query(table, path[3], request);
+      latency.record(System.nanoTime() - start);
+      return result;
+    }
+    throw new RequestException(404, "Not found.");
+  }
+
+  /**
+   * Reads the body of the request, up to {@link #MAX_REQUEST_BYTES}.
+   */
+  private static byte[] readBody(HttpExchange exchange) throws IOException {
+    // Reading one byte more tells a body at the limit from a longer one
+    byte[] result = ByteStreams.toByteArray(new LimitInputStream(
+        exchange.getRequestBody(), MAX_REQUEST_BYTES + 1));
+    if (result.length > MAX_REQUEST_BYTES) {
+      throw new RequestException(413, 
+          "Queries must not be longer than " + MAX_REQUEST_BYTES + " bytes.");
+    }
+    return result;
+  }
+
+  private static void checkMethod(HttpExchange exchange, String method) {
+    if (!exchange.getRequestMethod().equals(method)) {
+      throw new RequestException(405, "Expected " + method + ".");
+    }
+  }
+
+  private String query(ServedTable table, String endpoint, 
+      QueryRequest request) {
+    MaskLayout layout = table.truthTable.getMaskLayout();
+    MaskBuffer fixedMasks = new MaskBuffer(layout);
+    long axes = 0;
+    if (endpoint.equals(GET_ALL)) {
+      if (request.axis == null) {
+        throw new RequestException(400, "Missing 'axis'.");
+      }
+      axes = axisIndex(table, request.axis);
+      setFixedMasks(table, request, fixedMasks);
+    } else if (endpoint.equals(FACETS)) {
+      if (request.axes == null) {
+        axes = layout.getAxisCount() == 64 
+            ? -1L : (1L << layout.getAxisCount()) - 1;
+      } else {
+        for (String axis : request.axes) {
+          axes |= 1L << axisIndex(table, axis);
+        }
+      }
+      setFixedMasks(table, request, fixedMasks);
+    } else {
+      setCell(table, request, fixedMasks);
+    }
+    try {
+      return responses.getUnchecked(
+          new ResponseKey(table, endpoint, axes, fixedMasks));
+    } catch (UncheckedExecutionException e) {
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  private static void setFixedMasks(ServedTable table, QueryRequest request, 
+      MaskBuffer fixedMasks) {
+    if (request.fixed != null) {
+      long axes = 0;
+      for (Map.Entry<String, List<String>> entry : request.fixed.entrySet()) {
+        int axisIndex = axisIndex(table, entry.getKey());
+        axes = addOnce(table, axes, axisIndex, "fixed");
+        fixedMasks.noneOf(axisIndex);
+        for (String coordinate : entry.getValue()) {
+          fixedMasks.add(axisIndex, ordinal(table, axisIndex, coordinate));
+        }
+      }
+    }
+    if (request.excluded != null) {
+      for (Map.Entry<String, List<String>> entry : 
+          request.excluded.entrySet()) {
+        int axisIndex = axisIndex(table, entry.getKey());
+        for (String coordinate : entry.getValue()) {
+          fixedMasks.remove(axisIndex, ordinal(table, axisIndex, coordinate));
+        }
+      }
+    }
+  }
+
+  private static void setCell(ServedTable table, QueryRequest request, 
+      MaskBuffer fixedMasks) {
+    MaskLayout layout = table.truthTable.getMaskLayout();
+    long axes = 0;
+    if (request.cell != null) {
+      for (Map.Entry<String, String> entry : request.cell.entrySet()) {
+        int axisIndex = axisIndex(table, entry.getKey());
+        axes = addOnce(table, axes, axisIndex, "cell");
+        fixedMasks.noneOf(axisIndex);
+        fixedMasks.add(axisIndex, ordinal(table, axisIndex, entry.getValue()));
+      }
+    }
+    if (Long.bitCount(axes) != layout.getAxisCount()) {
+      throw new RequestException(400, 
+          "'cell' must have a coordinate for each of the " 
+          + layout.getAxisCount() + " axes.");
+    }
+  }
+
+  /**
+   * Adds {@code axisIndex} to {@code axes}, a bit per axis index, unless it
+   * is there already, i.e. {@code field} of the query has the axis under 
+   * both its simple and its full name.
+   */
+  private static long addOnce(ServedTable table, long axes, int axisIndex, 
+      String field) {
+    if ((axes & (1L << axisIndex)) != 0) {
+      throw new RequestException(400, String.format(
+          "'%s' has axis '%s' more than once.", 
+          field, table.axisNames[axisIndex]));
+    }
+    return axes | (1L << axisIndex);
+  }
+
+  private static int axisIndex(ServedTable table, String axis) {
+    Integer result = table.axisIndexes.get(axis);
+    if (result == null) {
+      throw new RequestException(400, "No axis named '" + axis + "'.");
+    }
+    return result;
+  }
+
+  private static int ordinal(ServedTable table, int axisIndex, 
+      String coordinate) {
+    MaskLayout layout = table.truthTable.getMaskLayout();
+    for (int ordinal = 0; ordinal < layout.getCoordinateCount(axisIndex); 
+        ordinal++) {
+      if (layout.getCoordinate(axisIndex, ordinal).name().equals(coordinate)) {
+        return ordinal;
+      }
+    }
+    throw new RequestException(400, String.format(
+        "No coordinate named '%s' in axis '%s'.", 
+        coordinate, table.axisNames[axisIndex]));
+  }
+
+  /**
+   * Runs the query of {@code key}, and returns its response.
+   */
+  private String compute(ResponseKey key) {
+    RealTruthTable truthTable = key.table.truthTable;
+    MaskLayout layout = truthTable.getMaskLayout();
+    MaskBuffer fixedMasks = key.fixedMasks;
+    long[] result = new long[layout.getMaxWordCount()];
+    JsonObject response = new JsonObject();
+    if (key.endpoint.equals(GET_ALL)) {
+      truthTable.getAll((int) key.axes, fixedMasks, result);
+      response.add("coordinates", toJson(layout, (int) key.axes, result));
+    } else if (key.endpoint.equals(FACETS)) {
+      JsonObject facets = new JsonObject();
+      for (long axes = key.axes; axes != 0; axes &= axes - 1) {
+        int axisIndex = Long.numberOfTrailingZeros(axes);
+        truthTable.getAll(axisIndex, fixedMasks, result);
+        facets.add(key.table.axisNames[axisIndex], 
+            toJson(layout, axisIndex, result));
+      }
+      response.add("facets", facets);
+    } else {
+      // With every axis fixed to a single coordinate, any axis will do
+      truthTable.getAll(0, fixedMasks, result);
+      response.addProperty("isTrue", result[0] != 0);
+    }
+    return gson.toJson(response);
+  }
+
+  private static JsonArray toJson(MaskLayout layout, int axisIndex, 
+      long[] mask) {
+    JsonArray result = new JsonArray();
+    for (int word = 0; word < layout.getWordCount(axisIndex); word++) {
+      for (long bits = mask[word]; bits != 0; bits &= bits - 1) {
+        int ordinal = (word << 6) + Long.numberOfTrailingZeros(bits);
+        result.add(new JsonPrimitive(
+            layout.getCoordinate(axisIndex, ordinal).name()));
+      }
+    }
+    return result;
+  }
+
+  private String tables() {
+    JsonObject tables = new JsonObject();
+    for (Map.Entry<String, ServedTable> entry : this.tables.entrySet()) {
+      JsonArray axes = new JsonArray();
+      for (String axis : entry.getValue().axisNames) {
+        axes.add(new JsonPrimitive(axis));
+      }
+      tables.add(entry.getKey(), axes);
+    }
+    JsonObject response = new JsonObject();
+    response.add("tables", tables);
+    return gson.toJson(response);
+  }
+
+  private String metrics() {
+    JsonObject endpoints = new JsonObject();
+    for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+      endpoints.add(entry.getKey(), entry.getValue().toJson());
+    }
+    CacheStats stats = responses.stats();
+    JsonObject cache = new JsonObject();
+    cache.addProperty("size", responses.size());
+    cache.addProperty("hits", stats.hitCount());
+    cache.addProperty("misses", stats.missCount());
+    cache.addProperty("evictions", stats.evictionCount());
+    JsonObject response = new JsonObject();
+    response.add("endpoints", endpoints);
+    response.add("cache", cache);
+    return gson.toJson(response);
+  }
+
+  private String error(String message) {
+    JsonObject response = new JsonObject();
+    response.addProperty("error", message);
+    return gson.toJson(response);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.tools;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.truthtable.impl.MaskLayout;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds axes by name, and parses coordinates of an axis, as written in
+ * table and query files. An axis is named by its full class name, or by its
+ * simple class name, unless another axis has the same simple name. 
+ * Coordinates of an axis are written as {@code <axis>:<name>,<name>...}, 
+ * e.g. {@code Wine:MERLOT,PORT}.
+ *
+ * @author zorzella@google.com
+ */
+final class AxisNames {
+
+  private final Map<String, Class<? extends Enum>> axes = Maps.newHashMap();
+  private final Set<String> ambiguousNames = Sets.newHashSet();
+
+  static AxisNames of(MaskLayout layout) {
+    AxisNames result = new AxisNames();
+    for (Class<? extends Enum> axis : layout.getAxes()) {
+      result.add(axis);
+    }
+    return result;
+  }
+
+  void add(Class<? extends Enum> axis) {
+    axes.put(axis.getName(), axis);
+    String simpleName = axis.getSimpleName();
+    if (ambiguousNames.contains(simpleName)) {
+      return;
+    }
+    Class<? extends Enum> other = axes.get(simpleName);
+    if (other != null && other != axis) {
+      axes.remove(simpleName);
+      ambiguousNames.add(simpleName);
+    } else {
+      axes.put(simpleName, axis);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no such axis
+   */
+  Class<? extends Enum> get(String name) {
+    Class<? extends Enum> result = axes.get(name);
+    if (result == null) {
+      throw new IllegalArgumentException(ambiguousNames.contains(name)
+          ? String.format("Axis name '%s' is ambiguous, use its full name.", 
+              name)
+          : String.format("No axis named '%s'.", name));
+    }
+    return result;
+  }
+
+  /**
+   * Parses the (non-empty) coordinates of an axis, e.g. 
+   * {@code Wine:MERLOT,PORT}.
+   *
+   * @throws IllegalArgumentException if {@code token} is malformed, or names
+   *   an unknown axis or coordinate
+   */
+  // The axis named in the token is only known at runtime, as a raw enum
+  // class, and so is the type of the coordinates of the set
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  EnumSet<?> parseCoordinates(String token) {
+    int colon = token.lastIndexOf(':');
+    if (colon <= 0 || colon == token.length() - 1) {
+      throw new IllegalArgumentException(String.format(
+        "Expected '<axis>:<coordinates>', got '%s'.", token));
+    }
+    Class<? extends Enum> axis = get(token.substring(0, colon));
+    EnumSet result = EnumSet.noneOf(axis);
+    // Keeping empty names, so that e.g. 'Wine:,' is rejected
+    for (String name : token.substring(colon + 1).split(",", -1)) {
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException(String.format(
+          "Empty coordinate name in '%s'.", token));
+      }
+      try {
+        result.add(Enum.valueOf(axis, name));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(String.format(
+          "No coordinate named '%s' in axis '%s'.", 
+          name, axis.getSimpleName()), e);
+      }
+    }
+    return result;
+  }
+}
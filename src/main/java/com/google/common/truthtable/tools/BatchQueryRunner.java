@@ -0,0 +1,319 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.tools;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.impl.MaskBuffer;
+import com.google.common.truthtable.impl.MaskLayout;
+import com.google.common.truthtable.impl.RealTruthTable;
+import com.google.common.truthtable.server.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the queries of a file (or of stdin) against a table read from a file
+ * (see {@link TableFile}), writes their answers to stdout, and reports the 
+ * throughput and latencies to stderr. Usage:
+ *
+ * <pre>
+ *     BatchQueryRunner --table=&lt;file&gt; [--queries=&lt;file&gt;] 
+ *         [--threads=&lt;n&gt;] [--warmup=&lt;n&gt;]
+ * </pre>
+ *
+ * <p>Each line of the queries is the axis asked for, followed by the 
+ * coordinates fixed in other axes and, prefixed by '!', the coordinates 
+ * excluded (see {@link AxisNames} for the syntax). E.g.:
+ *
+ * <pre>
+ *     Bread Wine:MERLOT,PORT !Entree:STEAK
+ * </pre>
+ *
+ * <p>Each answer is written as the query, a tab and the valid coordinates
+ * of the axis asked for, in the order of the queries, whatever the number of
+ * threads. Malformed queries are answered with an error, and do not stop the
+ * run. The first {@code --warmup} queries are answered, but are not part of 
+ * the report, so that it is not skewed by the JIT compiler.
+ *
+ * @author zorzella@google.com
+ */
+public final class BatchQueryRunner {
+
+  /**
+   * The number of queries read (and answered) at a time. 
+   */
+  private static final int CHUNK_SIZE = 1024;
+
+  private static final String USAGE = "Usage: BatchQueryRunner "
+      + "--table=<file> [--queries=<file>] [--threads=<n>] [--warmup=<n>]";
+
+  private final RealTruthTable truthTable;
+  private final AxisNames axisNames;
+  private final int threadCount;
+  private final int warmupQueryCount;
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final AtomicLong queryCount = new AtomicLong();
+  private final AtomicLong errorCount = new AtomicLong();
+  private long elapsedNanos;
+
+  BatchQueryRunner(RealTruthTable truthTable, int threadCount, 
+      int warmupQueryCount) {
+    Preconditions.checkArgument(threadCount > 0, 
+        "threadCount must be positive, but was %s.", threadCount);
+    Preconditions.checkArgument(warmupQueryCount >= 0, 
+        "warmupQueryCount must not be negative, but was %s.", 
+        warmupQueryCount);
+    this.truthTable = truthTable;
+    this.axisNames = AxisNames.of(truthTable.getMaskLayout());
+    this.threadCount = threadCount;
+    this.warmupQueryCount = warmupQueryCount;
+  }
+
+  /**
+   * Answers all {@code queries}, writing the answers to {@code out} as they
+   * come.
+   */
+  void run(Reader queries, Writer out) 
+      throws IOException, InterruptedException {
+    BufferedReader lines = new BufferedReader(queries);
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      long lineCount = 0;
+      List<Callable<String>> chunk = Lists.newArrayList();
+      for (String line = lines.readLine(); line != null; 
+          line = lines.readLine()) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        lineCount++;
+        chunk.add(new Query(line, lineCount > warmupQueryCount));
+        // Warmup queries are run in chunks of their own, so that they are
+        // not part of the elapsed time
+        if (chunk.size() == CHUNK_SIZE || lineCount == warmupQueryCount) {
+          runChunk(executor, chunk, lineCount > warmupQueryCount, out);
+          chunk.clear();
+        }
+      }
+      runChunk(executor, chunk, lineCount > warmupQueryCount, out);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void runChunk(ExecutorService executor, 
+      List<Callable<String>> chunk, boolean measured, Writer out) 
+      throws IOException, InterruptedException {
+    if (chunk.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    List<Future<String>> answers = executor.invokeAll(chunk);
+    if (measured) {
+      elapsedNanos += System.nanoTime() - start;
+    }
+    for (Future<String> answer : answers) {
+      try {
+        out.write(answer.get());
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+  /**
+   * A line of the queries, which answers with the line to write out.
+   */
+  private final class Query implements Callable<String> {
+    private final String line;
+    private final boolean measured;
+
+    Query(String line, boolean measured) {
+      this.line = line;
+      this.measured = measured;
+    }
+
+    @Override
+    public String call() {
+      long start = System.nanoTime();
+      try {
+        String answer = answer(line.trim());
+        if (measured) {
+          latencies.record(System.nanoTime() - start);
+          queryCount.incrementAndGet();
+        }
+        return line + "\t" + answer;
+      } catch (IllegalArgumentException e) {
+        return error(e.getMessage());
+      } catch (RuntimeException e) {
+        // A bug, but no reason to give up on the other queries
+        return error(e.toString());
+      }
+    }
+
+    private String error(String message) {
+      if (measured) {
+        errorCount.incrementAndGet();
+      }
+      return line + "\terror: " + message;
+    }
+  }
+
+  /**
+   * Parses and runs a query, and returns the names of its valid coordinates.
+   *
+   * @throws IllegalArgumentException if the query is malformed
+   */
+  private String answer(String query) {
+    MaskLayout layout = truthTable.getMaskLayout();
+    String[] tokens = query.split("\\s+");
+    int axisIndex = layout.indexOf(axisNames.get(tokens[0]));
+    MaskBuffer fixedMasks = new MaskBuffer(layout);
+    for (int i = 1; i < tokens.length; i++) {
+      boolean excluded = tokens[i].startsWith("!");
+      EnumSet<?> coordinates = axisNames.parseCoordinates(
+          excluded ? tokens[i].substring(1) : tokens[i]);
+      int fixedAxisIndex = layout.indexOf(axisOf(coordinates));
+      for (int ordinal = 0; 
+          ordinal < layout.getCoordinateCount(fixedAxisIndex); ordinal++) {
+        if (excluded == coordinates.contains(
+            layout.getCoordinate(fixedAxisIndex, ordinal))) {
+          fixedMasks.remove(fixedAxisIndex, ordinal);
+        }
+      }
+    }
+    long[] result = new long[layout.getWordCount(axisIndex)];
+    truthTable.getAll(axisIndex, fixedMasks, result);
+    return Joiner.on(',').join(layout.toEnumSet(axisIndex, result, 0));
+  }
+
+  private static <E extends Enum<E>> Class<E> axisOf(EnumSet<E> coordinates) {
+    return coordinates.iterator().next().getDeclaringClass();
+  }
+
+  long getQueryCount() {
+    return queryCount.get();
+  }
+
+  long getErrorCount() {
+    return errorCount.get();
+  }
+
+  /**
+   * Writes the throughput and latencies of the queries run (but for the 
+   * warmup) to {@code out}.
+   */
+  void report(PrintWriter out) {
+    long queryCount = this.queryCount.get();
+    double seconds = elapsedNanos / 1e9;
+    out.printf("Queries: %s (%s errors, %s warmup) on %s threads%n", 
+        queryCount, errorCount.get(), warmupQueryCount, threadCount);
+    out.printf("Throughput: %.0f queries/s over %.3f s%n", 
+        seconds == 0 ? 0 : queryCount / seconds, seconds);
+    out.printf("Latency (us): p50 %s, p99 %s, p99.9 %s%n", 
+        micros(latencies.getPercentileNanos(0.5)),
+        micros(latencies.getPercentileNanos(0.99)),
+        micros(latencies.getPercentileNanos(0.999)));
+    out.flush();
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  public static void main(String[] args) throws Exception {
+    String tablePath = null;
+    String queriesPath = null;
+    int threadCount = 1;
+    int warmupQueryCount = 0;
+    try {
+      for (String arg : args) {
+        if (arg.startsWith("--table=")) {
+          tablePath = value(arg);
+        } else if (arg.startsWith("--queries=")) {
+          queriesPath = value(arg);
+        } else if (arg.startsWith("--threads=")) {
+          threadCount = Integer.parseInt(value(arg));
+        } else if (arg.startsWith("--warmup=")) {
+          warmupQueryCount = Integer.parseInt(value(arg));
+        } else {
+          throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+      }
+      if (tablePath == null) {
+        throw new IllegalArgumentException("Missing --table.");
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+    }
+
+    RealTruthTable truthTable;
+    Reader tableReader = 
+      new InputStreamReader(new FileInputStream(tablePath), Charsets.UTF_8);
+    try {
+      truthTable = TableFile.read(tableReader);
+    } catch (RuntimeException e) {
+      // E.g. a malformed file, or one the builder rejects
+      System.err.println(tablePath + ": " 
+          + Objects.firstNonNull(e.getMessage(), e.toString()));
+      System.exit(1);
+      return;
+    } finally {
+      tableReader.close();
+    }
+
+    BatchQueryRunner runner = 
+      new BatchQueryRunner(truthTable, threadCount, warmupQueryCount);
+    InputStream queries = queriesPath == null 
+        ? System.in : new FileInputStream(queriesPath);
+    try {
+      runner.run(new InputStreamReader(queries, Charsets.UTF_8), 
+          new BufferedWriter(
+              new OutputStreamWriter(System.out, Charsets.UTF_8)));
+    } finally {
+      queries.close();
+    }
+    runner.report(new PrintWriter(System.err));
+  }
+
+  private static String value(String arg) {
+    return arg.substring(arg.indexOf('=') + 1);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.tools;
+
+import com.google.common.truthtable.impl.RealTruthTable;
+import com.google.common.truthtable.impl.SimpleAffinityGroupBuilder;
+import com.google.common.truthtable.impl.TruthTableBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a {@link RealTruthTable} from a text file. Each line either 
+ * registers an axis, by the name of its enum class (which must be in the
+ * classpath), or adds an affinity group, by the coordinates it touches in
+ * each axis. Axes are referred to by their simple class name, or by their
+ * full class name if the simple one is ambiguous. Blank lines and lines
+ * starting with '#' are ignored. E.g.:
+ *
+ * <pre>
+ *     axis com.example.Menu$Wine
+ *     axis com.example.Menu$Entree
+ *     # Red wines
+ *     group Wine:MERLOT,PORT Entree:STEAK
+ * </pre>
+ *
+ * <p>Axes must all be registered before the first group.
+ *
+ * <p>This is a mutable object, and is not thread-safe.
+ *
+ * @author zorzella@google.com
+ */
+final class TableFile {
+
+  private final TruthTableBuilder builder = new TruthTableBuilder();
+  private final AxisNames axisNames = new AxisNames();
+  private boolean sawGroups;
+  private int lineNumber;
+
+  private TableFile() {}
+
+  /**
+   * Reads a table from {@code reader}, which is left open.
+   *
+   * @throws IllegalArgumentException if the file is malformed, with the line
+   *   number at fault
+   */
+  static RealTruthTable read(Reader reader) throws IOException {
+    TableFile file = new TableFile();
+    BufferedReader lines = new BufferedReader(reader);
+    for (String line = lines.readLine(); line != null; 
+        line = lines.readLine()) {
+      file.lineNumber++;
+      try {
+        file.parse(line.trim());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(String.format(
+          "Line %s: %s", file.lineNumber, e.getMessage()), e);
+      }
+    }
+    return (RealTruthTable) file.builder.create();
+  }
+
+  private void parse(String line) {
+    if (line.isEmpty() || line.startsWith("#")) {
+      return;
+    }
+    String[] tokens = line.split("\\s+");
+    if (tokens[0].equals("axis") && tokens.length == 2) {
+      if (sawGroups) {
+        throw new IllegalArgumentException(
+          "Axes must be registered before the first group.");
+      }
+      Class<? extends Enum> axis = loadAxis(tokens[1]);
+      builder.forAxes(axis);
+      axisNames.add(axis);
+    } else if (tokens[0].equals("group") && tokens.length > 1) {
+      sawGroups = true;
+      SimpleAffinityGroupBuilder group = new SimpleAffinityGroupBuilder();
+      for (int i = 1; i < tokens.length; i++) {
+        group.touching(axisNames.parseCoordinates(tokens[i]));
+      }
+      builder.addAffinityGroups(group.create());
+    } else {
+      throw new IllegalArgumentException(
+        "Expected 'axis <class name>' or 'group <axis>:<coordinates>...'.");
+    }
+  }
+
+  private static Class<? extends Enum> loadAxis(String className) {
+    Class<?> result;
+    try {
+      result = Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException(String.format(
+        "No class '%s' in the classpath.", className), e);
+    }
+    if (!result.isEnum()) {
+      throw new IllegalArgumentException(String.format(
+        "Class '%s' is not an enum.", className));
+    }
+    return result.asSubclass(Enum.class);
+  }
+}
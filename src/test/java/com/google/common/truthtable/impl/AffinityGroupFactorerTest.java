@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests {@link AffinityGroupFactorer}, through 
+ * {@link TruthTableBuilder#withFactoring()}.
+ *
+ * @author zorzella@google.com
+ */
+public class AffinityGroupFactorerTest extends TestCase {
+
+  private static TruthTableBuilder builder() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Entree.STEAK)
+      .touching(Bread.PITA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.MERLOT)
+      .touching(Entree.STEAK)
+      .touching(Bread.PITA)
+      .create());
+
+    // Differs from the two above on two axes, but from their merge on one
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.PITA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.PASTA)
+      .touching(Bread.WHEAT)
+      .create());
+
+    // Touches other axes
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.PASTA)
+      .create());
+    return builder;
+  }
+
+  public void testGroupsAreMergedUntilNoMoreCanBe() throws Exception {
+    TruthTableBuilder builder = builder().withFactoring();
+    RealTruthTable truthTable = (RealTruthTable) builder.create();
+    FactoringReport report = builder.getLastFactoringReport();
+
+    assertEquals(5, report.getOriginalAffinityGroupCount());
+    assertEquals(3, report.getAffinityGroupCount());
+    assertEquals(3, truthTable.getAffinityGroups().size());
+
+    Map.Entry<AffinityGroup, ImmutableSet<AffinityGroup>> merged =
+      Iterables.getOnlyElement(report.getMergedAffinityGroups().entrySet());
+    assertEquals(3, merged.getValue().size());
+    AffinityGroup group = merged.getKey();
+    assertEquals(EnumSet.of(Wine.PORT, Wine.MERLOT),
+        group.axisToSacsMap.get(Wine.class).getEnumSet());
+    assertEquals(EnumSet.of(Entree.STEAK, Entree.CHICKEN),
+        group.axisToSacsMap.get(Entree.class).getEnumSet());
+    assertEquals(EnumSet.of(Bread.PITA),
+        group.axisToSacsMap.get(Bread.class).getEnumSet());
+    assertTrue(truthTable.getAffinityGroups().contains(group));
+  }
+
+  public void testFactoringChangesNoAnswer() throws Exception {
+    TruthTable all = builder().create();
+    TruthTable factored = builder().withFactoring().create();
+
+    for (Entree entree : Entree.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(entree);
+      assertEquals(all.getAll(Wine.class, fixedCoordinates),
+          factored.getAll(Wine.class, fixedCoordinates));
+      assertEquals(all.getAll(Bread.class, fixedCoordinates),
+          factored.getAll(Bread.class, fixedCoordinates));
+    }
+    for (Wine wine : Wine.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(wine);
+      assertEquals(all.getAll(Entree.class, fixedCoordinates),
+          factored.getAll(Entree.class, fixedCoordinates));
+    }
+  }
+
+  /**
+   * Compares a factored table with an unfactored one, for random groups of
+   * single coordinates, and random fixed coordinates.
+   */
+  public void testFactoringChangesNoAnswerOfALargerTable() throws Exception {
+    Random random = new Random(0);
+    TruthTableBuilder allBuilder = new TruthTableBuilder();
+    TruthTableBuilder factoredBuilder = new TruthTableBuilder().withFactoring();
+    allBuilder.forAxes(Wine.class, Bread.class, Entree.class);
+    factoredBuilder.forAxes(Wine.class, Bread.class, Entree.class);
+    for (int i = 0; i < 60; i++) {
+      SimpleAffinityGroupBuilder group = new SimpleAffinityGroupBuilder()
+        .touching(Wine.values()[random.nextInt(Wine.values().length)])
+        .touching(Entree.values()[random.nextInt(Entree.values().length)]);
+      if (random.nextInt(3) != 0) {
+        group.touching(Bread.values()[random.nextInt(Bread.values().length)]);
+      }
+      try {
+        Set<AffinityGroup> created = group.create();
+        allBuilder.addAffinityGroups(created);
+        factoredBuilder.addAffinityGroups(created);
+      } catch (IllegalArgumentException e) {
+        // The same group twice
+      }
+    }
+    TruthTable all = allBuilder.create();
+    TruthTable factored = factoredBuilder.create();
+    assertTrue(factoredBuilder.getLastFactoringReport().getAffinityGroupCount()
+        < factoredBuilder.getLastFactoringReport()
+            .getOriginalAffinityGroupCount());
+
+    for (int i = 0; i < 200; i++) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(
+          Bread.values()[random.nextInt(Bread.values().length)])
+          .excluding(Wine.values()[random.nextInt(Wine.values().length)]);
+      assertEquals(all.getAll(Wine.class, fixedCoordinates),
+          factored.getAll(Wine.class, fixedCoordinates));
+      assertEquals(all.getAll(Entree.class, fixedCoordinates),
+          factored.getAll(Entree.class, fixedCoordinates));
+    }
+  }
+
+  public void testNoReportWithoutFactoring() throws Exception {
+    TruthTableBuilder builder = builder();
+    builder.create();
+    assertNull(builder.getLastFactoringReport());
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests {@link AsyncTruthTable}.
+ *
+ * @author zorzella@google.com
+ */
+public class AsyncTruthTableTest extends TestCase {
+
+  /**
+   * An {@link Executor} that runs commands only when asked to.
+   */
+  private static class ManualExecutor implements Executor {
+    final List<Runnable> commands = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable command) {
+      commands.add(command);
+    }
+
+    void runNext() {
+      commands.remove(0).run();
+    }
+  }
+
+  public void testGetAllAsync() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncTruthTable asyncTruthTable = 
+      new AsyncTruthTable(BogusTruthTables.buildTwoPathTable(), executor, 1);
+
+    ListenableFuture<Set<Bread>> breads = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.PORT));
+    assertFalse(breads.isDone());
+
+    executor.runNext();
+    assertEquals(EnumSet.of(Bread.PITA), breads.get());
+  }
+
+  public void testConcurrencyLimit() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncTruthTable asyncTruthTable = 
+      new AsyncTruthTable(BogusTruthTables.buildTwoPathTable(), executor, 2);
+
+    ListenableFuture<Set<Bread>> first = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.PORT));
+    ListenableFuture<Set<Bread>> second = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.CHIANTI));
+    ListenableFuture<Set<Wine>> third = asyncTruthTable.getAllAsync(
+        Wine.class, new FixedCoordinates(Entree.CHICKEN));
+    assertEquals(2, executor.commands.size());
+    assertEquals(1, asyncTruthTable.getWaitingCount());
+
+    // Finishing a query starts the one that was waiting
+    executor.runNext();
+    assertEquals(EnumSet.of(Bread.PITA), first.get());
+    assertEquals(2, executor.commands.size());
+    assertEquals(0, asyncTruthTable.getWaitingCount());
+
+    executor.runNext();
+    executor.runNext();
+    assertEquals(EnumSet.of(Bread.WHEAT), second.get());
+    assertEquals(EnumSet.of(Wine.PORT, Wine.CHIANTI), third.get());
+    assertTrue(executor.commands.isEmpty());
+  }
+
+  public void testCancellingAWaitingQuery() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncTruthTable asyncTruthTable = 
+      new AsyncTruthTable(BogusTruthTables.buildTwoPathTable(), executor, 1);
+
+    asyncTruthTable.getAllAsync(Bread.class, new FixedCoordinates(Wine.PORT));
+    ListenableFuture<Set<Bread>> cancelled = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.CHIANTI));
+    ListenableFuture<Set<Bread>> last = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates());
+    assertTrue(cancelled.cancel(true));
+
+    executor.runNext();
+    executor.runNext();
+    executor.runNext();
+    assertTrue(cancelled.isCancelled());
+    assertEquals(EnumSet.of(Bread.PITA, Bread.WHEAT), last.get());
+  }
+
+  public void testBatch() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncTruthTable asyncTruthTable = 
+      new AsyncTruthTable(BogusTruthTables.buildTwoPathTable(), executor, 1);
+
+    ListenableFuture<List<Set<Bread>>> result = asyncTruthTable.getAllAsync(
+        Bread.class, ImmutableList.of(
+            new FixedCoordinates(Wine.PORT), 
+            new FixedCoordinates(Wine.CHIANTI)));
+    executor.runNext();
+    assertFalse(result.isDone());
+    executor.runNext();
+
+    List<Set<Bread>> expected = Lists.newArrayList();
+    expected.add(EnumSet.of(Bread.PITA));
+    expected.add(EnumSet.of(Bread.WHEAT));
+    assertEquals(expected, result.get());
+  }
+
+  public void testCancellingABatchCancelsItsQueries() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncTruthTable asyncTruthTable = 
+      new AsyncTruthTable(BogusTruthTables.buildTwoPathTable(), executor, 1);
+
+    ListenableFuture<List<Set<Bread>>> result = asyncTruthTable.getAllAsync(
+        Bread.class, ImmutableList.of(
+            new FixedCoordinates(Wine.PORT), 
+            new FixedCoordinates(Wine.CHIANTI)));
+    ListenableFuture<Set<Bread>> after = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.CHIANTI));
+    result.cancel(true);
+
+    executor.runNext();
+    executor.runNext();
+    executor.runNext();
+    assertTrue(executor.commands.isEmpty());
+    assertEquals(EnumSet.of(Bread.WHEAT), after.get());
+  }
+
+  public void testRejectedQueriesAreCancelled() throws Exception {
+    AsyncTruthTable asyncTruthTable = new AsyncTruthTable(
+        BogusTruthTables.buildTwoPathTable(), 
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            throw new RejectedExecutionException();
+          }
+        }, 1);
+
+    assertTrue(asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.PORT)).isCancelled());
+    // The limit was not used up by the rejected query
+    assertTrue(asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.PORT)).isCancelled());
+    assertEquals(0, asyncTruthTable.getWaitingCount());
+  }
+
+  public void testInterruptedSearchesGiveUp() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    AsyncTruthTable asyncTruthTable = 
+      new AsyncTruthTable(BogusTruthTables.buildTwoPathTable(), executor, 1);
+    ListenableFuture<Set<Bread>> query = asyncTruthTable.getAllAsync(
+        Bread.class, new FixedCoordinates(Wine.PORT));
+    Thread.currentThread().interrupt();
+    try {
+      executor.runNext();
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+    try {
+      query.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof CancellationException);
+    }
+    assertFalse(InterruptibleQueries.areOn());
+  }
+
+  public void testOtherSearchesIgnoreInterrupts() throws Exception {
+    TruthTable truthTable = BogusTruthTables.buildTwoPathTable();
+    Thread.currentThread().interrupt();
+    try {
+      assertEquals(EnumSet.of(Bread.PITA), 
+          truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT)));
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  public void testListenerIsToldWhatEachQueryCost() throws Exception {
+    ManualExecutor executor = new ManualExecutor();
+    final List<FixedCoordinates> finished = Lists.newArrayList();
+    AsyncTruthTable asyncTruthTable = new AsyncTruthTable(
+        BogusTruthTables.buildTwoPathTable(), 
+        executor, 1, new AsyncTruthTable.QueryListener() {
+          @Override
+          public void queryFinished(Class<?> axis, 
+              FixedCoordinates fixedCoordinates, long waitingNanos, 
+              long runningNanos) {
+            assertEquals(Bread.class, axis);
+            assertTrue(waitingNanos >= 0);
+            assertTrue(runningNanos >= 0);
+            finished.add(fixedCoordinates);
+          }
+        });
+    FixedCoordinates port = new FixedCoordinates(Wine.PORT);
+    FixedCoordinates chianti = new FixedCoordinates(Wine.CHIANTI);
+
+    asyncTruthTable.getAllAsync(Bread.class, ImmutableList.of(port, chianti));
+    assertTrue(finished.isEmpty());
+    executor.runNext();
+    executor.runNext();
+
+    assertEquals(ImmutableList.of(port, chianti), finished);
+  }
+
+  public void testMaxConcurrentQueriesMustBePositive() throws Exception {
+    try {
+      new AsyncTruthTable(
+          BogusTruthTables.buildTwoPathTable(), new ManualExecutor(), 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
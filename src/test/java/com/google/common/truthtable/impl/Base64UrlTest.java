@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests {@link Base64Url}.
+ *
+ * @author zorzella@google.com
+ */
+public class Base64UrlTest extends TestCase {
+
+  public void testKnownValues() throws Exception {
+    // From RFC 4648, without padding
+    assertEquals("", Base64Url.encode(bytes("")));
+    assertEquals("Zg", Base64Url.encode(bytes("f")));
+    assertEquals("Zm8", Base64Url.encode(bytes("fo")));
+    assertEquals("Zm9v", Base64Url.encode(bytes("foo")));
+    assertEquals("Zm9vYmE", Base64Url.encode(bytes("fooba")));
+    assertEquals("-_8", Base64Url.encode(new byte[] {(byte) 0xFB, (byte) 0xFF}));
+  }
+
+  public void testRoundTrip() throws Exception {
+    Random random = new Random(0);
+    for (int length = 0; length < 40; length++) {
+      byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      assertTrue(Arrays.equals(bytes,
+          Base64Url.decode(Base64Url.encode(bytes))));
+    }
+  }
+
+  public void testInvalidInput() throws Exception {
+    try {
+      Base64Url.decode("Zm9v+");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      Base64Url.decode("Zm9vY");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static byte[] bytes(String value) throws Exception {
+    return value.getBytes("US-ASCII");
+  }
+}
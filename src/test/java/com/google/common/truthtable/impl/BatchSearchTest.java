@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests {@link BatchSearch}, through 
+ * {@link RealTruthTable#getAll(Class, List)}.
+ *
+ * @author zorzella@google.com
+ */
+public class BatchSearchTest extends TestCase {
+
+  public void testBatch() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+
+    List<FixedCoordinates> queries = Lists.newArrayList();
+    queries.add(new FixedCoordinates(Wine.CHIANTI));
+    queries.add(new FixedCoordinates(Wine.PORT));
+    queries.add(new FixedCoordinates());
+    queries.add(new FixedCoordinates(Wine.CHIANTI));
+    queries.add(new FixedCoordinates(Wine.ZINFANDEL));
+
+    List<EnumSet<Bread>> expected = Lists.newArrayList();
+    expected.add(EnumSet.of(Bread.WHEAT, Bread.WHITE));
+    expected.add(EnumSet.of(Bread.PITA, Bread.OAT));
+    expected.add(EnumSet.of(Bread.PITA, Bread.OAT, Bread.WHEAT, Bread.WHITE));
+    expected.add(EnumSet.of(Bread.WHEAT, Bread.WHITE));
+    expected.add(EnumSet.noneOf(Bread.class));
+    assertEquals(expected, truthTable.getAll(Bread.class, queries));
+  }
+
+  public void testEmptyBatch() throws Exception {
+    assertTrue(BogusTruthTables.buildFourAxisTable().getAll(Bread.class, 
+        Lists.<FixedCoordinates>newArrayList()).isEmpty());
+  }
+
+  /**
+   * Tests that a batch of random queries, many of which share some fixed 
+   * coordinates, has the same results as running them one by one.
+   */
+  public void testAgreesWithGetAll() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    Random random = new Random(0);
+    List<FixedCoordinates> queries = Lists.newArrayList();
+    for (int i = 0; i < 300; i++) {
+      List<Enum<?>> fixed = Lists.newArrayList();
+      List<Enum<?>> excluded = Lists.newArrayList();
+      pick(random, Wine.values(), fixed, excluded);
+      pick(random, Entree.values(), fixed, excluded);
+      // Picking among the first few desserts, as the others are never valid
+      pick(random, Arrays.copyOf(Dessert.values(), 72), fixed, excluded);
+      queries.add(new FixedCoordinates(fixed.toArray(new Enum<?>[0]))
+          .excluding(excluded.toArray(new Enum<?>[0])));
+    }
+
+    List<EnumSet<Bread>> breads = truthTable.getAll(Bread.class, queries);
+    List<EnumSet<Dessert>> desserts = truthTable.getAll(Dessert.class, queries);
+    for (int i = 0; i < queries.size(); i++) {
+      assertEquals(truthTable.getAll(Bread.class, queries.get(i)), 
+          breads.get(i));
+      assertEquals(truthTable.getAll(Dessert.class, queries.get(i)), 
+          desserts.get(i));
+    }
+  }
+
+  /**
+   * Randomly fixes, excludes or leaves alone one of the given coordinates.
+   */
+  private static void pick(Random random, Enum<?>[] coordinates, 
+      List<Enum<?>> fixed, List<Enum<?>> excluded) {
+    Enum<?> coordinate = coordinates[random.nextInt(coordinates.length)];
+    switch (random.nextInt(3)) {
+      case 0:
+        fixed.add(coordinate);
+        break;
+      case 1:
+        excluded.add(coordinate);
+        break;
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests {@link CacheSnapshot}.
+ *
+ * @author zorzella@google.com
+ */
+public class CacheSnapshotTest extends TestCase {
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static final MaskLayout LAYOUT = new MaskLayout(
+      ImmutableList.<Class<? extends Enum>>of(Wine.class, Dessert.class));
+
+  private static QueryKey randomKey(Random random) {
+    long[] fixedMasks = LAYOUT.universe.clone();
+    for (int word = 0; word < fixedMasks.length; word++) {
+      fixedMasks[word] &= random.nextLong();
+    }
+    return new QueryKey(random.nextInt(LAYOUT.getAxisCount()), fixedMasks);
+  }
+
+  public void testWriteAndGet() throws Exception {
+    Random random = new Random(0);
+    Map<QueryKey, long[]> results = Maps.newHashMap();
+    for (int i = 0; i < 500; i++) {
+      QueryKey key = randomKey(random);
+      long[] result = new long[LAYOUT.getWordCount(key.axisIndex)];
+      for (int word = 0; word < result.length; word++) {
+        result[word] = random.nextLong();
+      }
+      results.put(key, result);
+    }
+    File file = File.createTempFile("truthtable", ".cache");
+    try {
+      CacheSnapshot.write(file, 42, LAYOUT, results);
+
+      CacheSnapshot snapshot = CacheSnapshot.open(file, 42, LAYOUT);
+      assertEquals(500, snapshot.getResultCount());
+      for (Map.Entry<QueryKey, long[]> entry : results.entrySet()) {
+        assertTrue(Arrays.equals(
+            entry.getValue(), snapshot.get(entry.getKey())));
+      }
+      for (int i = 0; i < 500; i++) {
+        QueryKey key = randomKey(random);
+        if (!results.containsKey(key)) {
+          assertNull(snapshot.get(key));
+        }
+      }
+      assertNull(CacheSnapshot.open(file, 43, LAYOUT));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testEmptySnapshot() throws Exception {
+    File file = File.createTempFile("truthtable", ".cache");
+    try {
+      CacheSnapshot.write(file, 42, LAYOUT, 
+          Maps.<QueryKey, long[]>newHashMap());
+      CacheSnapshot snapshot = CacheSnapshot.open(file, 42, LAYOUT);
+      assertEquals(0, snapshot.getResultCount());
+      assertNull(snapshot.get(randomKey(new Random(0))));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testWritingLeavesNoTemporaryFilesBehind() throws Exception {
+    File directory = Files.createTempDir();
+    File file = new File(directory, "truthtable.cache");
+    try {
+      CacheSnapshot.write(file, 42, LAYOUT, 
+          Maps.<QueryKey, long[]>newHashMap());
+      CacheSnapshot.write(file, 42, LAYOUT, 
+          Maps.<QueryKey, long[]>newHashMap());
+      assertEquals(Arrays.asList(file.getName()), 
+          Arrays.asList(directory.list()));
+    } finally {
+      file.delete();
+      directory.delete();
+    }
+  }
+}
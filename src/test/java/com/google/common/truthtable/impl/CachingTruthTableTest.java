@@ -0,0 +1,185 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.io.Files;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Tests {@link CachingTruthTable}.
+ *
+ * @author zorzella@google.com
+ */
+public class CachingTruthTableTest extends TestCase {
+
+  private static RealTruthTable buildTruthTable(Wine wine) {
+    return (RealTruthTable) BogusTruthTables.twoPathBuilder(wine).create();
+  }
+
+  public void testEquivalentQueriesShareAnEntry() throws Exception {
+    CachingTruthTable truthTable = 
+      new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+
+    assertEquals(EnumSet.of(Bread.PITA), 
+        truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT)));
+    assertEquals(EnumSet.of(Bread.PITA), truthTable.getAll(Bread.class, 
+        new FixedCoordinates().excluding(
+            Wine.CHIANTI, Wine.MERLOT, Wine.PINOT_NOIR, Wine.ZINFANDEL)));
+    assertEquals(EnumSet.of(Bread.PITA), 
+        truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT)));
+    // Same masks, other axis
+    assertEquals(EnumSet.of(Entree.STEAK, Entree.CHICKEN), 
+        truthTable.getAll(Entree.class, new FixedCoordinates(Wine.PORT)));
+
+    assertEquals(4, truthTable.getQueryCount());
+    assertEquals(2, truthTable.getMissCount());
+    assertEquals(2, truthTable.getHitCount());
+    assertEquals(2, truthTable.getCachedCount());
+  }
+
+  public void testEachCallerGetsItsOwnSet() throws Exception {
+    CachingTruthTable truthTable = 
+      new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+
+    Set<Wine> first = truthTable.getAll(Wine.class);
+    first.clear();
+
+    assertEquals(EnumSet.of(Wine.PORT, Wine.CHIANTI), 
+        truthTable.getAll(Wine.class));
+    assertEquals(1, truthTable.getHitCount());
+  }
+
+  public void testLeastRecentlyUsedResultsAreEvicted() throws Exception {
+    // A single segment, so that the LRU order is that of all queries
+    CachingTruthTable truthTable = 
+      new CachingTruthTable(buildTruthTable(Wine.PORT), 2, 1);
+
+    truthTable.getAll(Wine.class);
+    truthTable.getAll(Bread.class);
+    truthTable.getAll(Wine.class);
+    truthTable.getAll(Entree.class);
+    assertEquals(1, truthTable.getEvictionCount());
+    assertEquals(2, truthTable.getCachedCount());
+
+    // Bread was the least recently used
+    truthTable.getAll(Wine.class);
+    assertEquals(2, truthTable.getHitCount());
+    truthTable.getAll(Bread.class);
+    assertEquals(4, truthTable.getMissCount());
+  }
+
+  public void testReplacingTheTableDropsCachedResults() throws Exception {
+    CachingTruthTable truthTable = 
+      new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+    assertEquals(EnumSet.of(Wine.PORT, Wine.CHIANTI), 
+        truthTable.getAll(Wine.class));
+
+    RealTruthTable rebuilt = buildTruthTable(Wine.MERLOT);
+    truthTable.setTruthTable(rebuilt);
+
+    assertSame(rebuilt, truthTable.getTruthTable());
+    assertEquals(0, truthTable.getCachedCount());
+    assertEquals(EnumSet.of(Wine.MERLOT, Wine.CHIANTI), 
+        truthTable.getAll(Wine.class));
+    assertEquals(2, truthTable.getMissCount());
+    assertEquals(0, truthTable.getEvictionCount());
+
+    truthTable.invalidateAll();
+    assertEquals(0, truthTable.getCachedCount());
+  }
+
+  public void testWarmStart() throws Exception {
+    File file = File.createTempFile("truthtable", ".cache");
+    try {
+      CachingTruthTable truthTable = 
+        new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+      truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT));
+      truthTable.getAll(Entree.class, new FixedCoordinates(Bread.WHEAT));
+      truthTable.getAll(Wine.class);
+      truthTable.saveTo(file);
+
+      CachingTruthTable restarted = 
+        new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+      assertTrue(restarted.loadFrom(file));
+      assertEquals(EnumSet.of(Bread.PITA), 
+          restarted.getAll(Bread.class, new FixedCoordinates(Wine.PORT)));
+      assertEquals(EnumSet.of(Entree.CHICKEN), 
+          restarted.getAll(Entree.class, new FixedCoordinates(Bread.WHEAT)));
+      assertEquals(EnumSet.of(Wine.PORT, Wine.CHIANTI), 
+          restarted.getAll(Wine.class));
+      assertEquals(EnumSet.of(Bread.PITA, Bread.WHEAT), 
+          restarted.getAll(Bread.class));
+      assertEquals(3, restarted.getRestoredCount());
+      assertEquals(4, restarted.getMissCount());
+
+      // Rebuilding the same table keeps the snapshot, but a different one 
+      // does not
+      restarted.setTruthTable(buildTruthTable(Wine.PORT));
+      restarted.getAll(Wine.class);
+      assertEquals(4, restarted.getRestoredCount());
+      restarted.setTruthTable(buildTruthTable(Wine.MERLOT));
+      assertEquals(EnumSet.of(Wine.MERLOT, Wine.CHIANTI), 
+          restarted.getAll(Wine.class));
+      assertEquals(4, restarted.getRestoredCount());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testSnapshotsAreForASingleTable() throws Exception {
+    File file = File.createTempFile("truthtable", ".cache");
+    try {
+      CachingTruthTable truthTable = 
+        new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+      truthTable.getAll(Wine.class);
+      truthTable.saveTo(file);
+
+      CachingTruthTable other = 
+        new CachingTruthTable(buildTruthTable(Wine.MERLOT), 100);
+      assertFalse(other.loadFrom(file));
+      assertEquals(EnumSet.of(Wine.MERLOT, Wine.CHIANTI), 
+          other.getAll(Wine.class));
+      assertFalse(other.loadFrom(new File(file.getPath() + ".missing")));
+
+      Files.write(new byte[] {1, 2, 3}, file);
+      assertFalse(truthTable.loadFrom(file));
+      Files.write(new byte[100], file);
+      assertFalse(truthTable.loadFrom(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testUnregisteredAxis() throws Exception {
+    CachingTruthTable truthTable = 
+      new CachingTruthTable(buildTruthTable(Wine.PORT), 100);
+    try {
+      truthTable.getAll(Dessert.class);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests {@link TruthTable#sample(FixedCoordinates, Random, int)}.
+ *
+ * @author zorzella@google.com
+ */
+public class CellSamplerTest extends TestCase {
+
+  /**
+   * A table whose paths overlap, so that counting boxes independently would
+   * count some cells more than once.
+   */
+  private static RealTruthTable buildTruthTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .touching(Bread.PITA, Bread.WHEAT)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+
+  private static Set<Cell> getAllSampledCells(
+      TruthTable truthTable, FixedCoordinates fixedCoordinates) {
+    Set<Cell> result = Sets.newHashSet();
+    for (Cell cell: truthTable.sample(fixedCoordinates, new Random(0), 5000)) {
+      result.add(cell);
+    }
+    return result;
+  }
+
+  public void testCountingDoesNotCountOverlapsTwice() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    int expected = 0;
+    for (Wine wine : Wine.values()) {
+      for (Bread bread : Bread.values()) {
+        for (Entree entree : Entree.values()) {
+          if (truthTable.getAll(Wine.class,
+              new FixedCoordinates(bread, entree)).contains(wine)) {
+            expected++;
+          }
+        }
+      }
+    }
+    assertEquals(expected,
+        new CellSampler(truthTable, new FixedCoordinates()).count());
+  }
+
+  public void testSamplesAreTrueAndUniform() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    int cells = (int) new CellSampler(truthTable, new FixedCoordinates())
+        .count();
+    int samplesPerCell = 2000;
+
+    List<Cell> samples =
+      truthTable.sample(new Random(42), cells * samplesPerCell);
+
+    Multiset<Cell> histogram = HashMultiset.create(samples);
+    assertEquals(cells, histogram.elementSet().size());
+    for (Cell cell : histogram.elementSet()) {
+      assertTrue(truthTable.getAll(Wine.class, new FixedCoordinates(
+          cell.get(Bread.class), cell.get(Entree.class)))
+          .contains(cell.get(Wine.class)));
+      // Some 7 standard deviations away
+      assertEquals(samplesPerCell, histogram.count(cell), 300);
+    }
+  }
+
+  public void testSamplingWithFixedCoordinates() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+
+    Set<Cell> cells = getAllSampledCells(truthTable,
+        new FixedCoordinates(Bread.PITA).excluding(Entree.STEAK));
+
+    // PASTA or CHICKEN, with PORT or MERLOT
+    assertEquals(4, cells.size());
+    for (Cell cell : cells) {
+      assertEquals(Bread.PITA, cell.get(Bread.class));
+      assertFalse(Entree.STEAK == cell.get(Entree.class));
+    }
+  }
+
+  public void testCheckedArithmetic() throws Exception {
+    assertEquals(Long.MAX_VALUE, 
+        CellSampler.checkedAdd(Long.MAX_VALUE - 1, 1));
+    assertEquals(Long.MAX_VALUE - 1, 
+        CellSampler.checkedMultiply((Long.MAX_VALUE - 1) / 2, 2));
+    try {
+      CellSampler.checkedAdd(Long.MAX_VALUE, 1);
+      fail();
+    } catch (ArithmeticException expected) {
+    }
+    try {
+      // Wraps around to a positive 2^32
+      CellSampler.checkedMultiply(1L << 32, (1L << 32) + 1);
+      fail();
+    } catch (ArithmeticException expected) {
+    }
+    try {
+      CellSampler.checkedMultiply(-1, Long.MIN_VALUE);
+      fail();
+    } catch (ArithmeticException expected) {
+    }
+  }
+
+  public void testSamplingWithNoTrueCells() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+
+    assertTrue(truthTable.sample(new FixedCoordinates(Bread.WONDER),
+        new Random(), 10).isEmpty());
+  }
+}
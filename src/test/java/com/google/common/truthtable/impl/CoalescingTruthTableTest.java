@@ -0,0 +1,220 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.MaskedTruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link CoalescingTruthTable}.
+ *
+ * @author zorzella@google.com
+ */
+public class CoalescingTruthTableTest extends TestCase {
+
+  /**
+   * A {@link MaskedTruthTable} whose {@code getAll(Class, MaskBuffer)} 
+   * searches wait for {@link #release} before running, and fail while
+   * {@link #failure} is set.
+   */
+  private static class BlockingMaskedTruthTable implements MaskedTruthTable {
+    final RealTruthTable delegate;
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger searches = new AtomicInteger();
+    volatile RuntimeException failure;
+
+    BlockingMaskedTruthTable(RealTruthTable delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public MaskLayout getMaskLayout() {
+      return delegate.getMaskLayout();
+    }
+
+    @Override
+    public long getAll(int axisIndex, long[] fixedMasks) {
+      return delegate.getAll(axisIndex, fixedMasks);
+    }
+
+    @Override
+    public void getAll(int axisIndex, MaskBuffer fixedMasks, long[] result) {
+      delegate.getAll(axisIndex, fixedMasks, result);
+    }
+
+    @Override
+    public <E extends Enum<E>> EnumSet<E> getAll(
+        Class<E> axis, MaskBuffer fixedMasks) {
+      searches.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return delegate.getAll(axis, fixedMasks);
+    }
+  }
+
+  public void testGetAll() throws Exception {
+    CoalescingTruthTable truthTable = 
+      new CoalescingTruthTable(BogusTruthTables.buildTwoPathTable());
+
+    assertEquals(EnumSet.of(Bread.PITA), 
+        truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT)));
+    assertEquals(EnumSet.of(Wine.PORT, Wine.CHIANTI), 
+        truthTable.getAll(Wine.class));
+    assertEquals(2, truthTable.getQueryCount());
+    assertEquals(0, truthTable.getCoalescedCount());
+    assertEquals(0, truthTable.getInFlightCount());
+  }
+
+  public void testIdenticalQueriesAreCoalesced() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildTwoPathTable();
+    BlockingMaskedTruthTable blocking = 
+      new BlockingMaskedTruthTable(realTruthTable);
+    CoalescingTruthTable truthTable = 
+      new CoalescingTruthTable(realTruthTable, blocking);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      Future<Set<Bread>> first = submitGetAll(executor, truthTable, 
+          new FixedCoordinates(Wine.PORT));
+      blocking.started.await();
+      assertEquals(1, truthTable.getInFlightCount());
+
+      // The same query, built differently
+      Future<Set<Bread>> second = submitGetAll(executor, truthTable, 
+          new FixedCoordinates().excluding(
+              Wine.CHIANTI, Wine.MERLOT, Wine.PINOT_NOIR, Wine.ZINFANDEL));
+      waitForCoalescedCount(truthTable, 1);
+
+      blocking.release.countDown();
+      assertEquals(EnumSet.of(Bread.PITA), first.get());
+      assertEquals(EnumSet.of(Bread.PITA), second.get());
+      assertNotSame(first.get(), second.get());
+      assertEquals(1, blocking.searches.get());
+      assertEquals(2, truthTable.getQueryCount());
+      assertEquals(0, truthTable.getInFlightCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testDifferentQueriesAreNotCoalesced() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildTwoPathTable();
+    BlockingMaskedTruthTable blocking = 
+      new BlockingMaskedTruthTable(realTruthTable);
+    CoalescingTruthTable truthTable = 
+      new CoalescingTruthTable(realTruthTable, blocking);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      Future<Set<Bread>> first = submitGetAll(executor, truthTable, 
+          new FixedCoordinates(Wine.PORT));
+      Future<Set<Bread>> second = submitGetAll(executor, truthTable, 
+          new FixedCoordinates(Wine.CHIANTI));
+      blocking.release.countDown();
+
+      assertEquals(EnumSet.of(Bread.PITA), first.get());
+      assertEquals(EnumSet.of(Bread.WHEAT), second.get());
+      assertEquals(2, blocking.searches.get());
+      assertEquals(0, truthTable.getCoalescedCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testFailuresAreShared() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildTwoPathTable();
+    BlockingMaskedTruthTable blocking = 
+      new BlockingMaskedTruthTable(realTruthTable);
+    blocking.failure = new IllegalStateException("bogus");
+    CoalescingTruthTable truthTable = 
+      new CoalescingTruthTable(realTruthTable, blocking);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      Future<Set<Bread>> first = submitGetAll(executor, truthTable, 
+          new FixedCoordinates(Wine.PORT));
+      blocking.started.await();
+      Future<Set<Bread>> second = submitGetAll(executor, truthTable, 
+          new FixedCoordinates(Wine.PORT));
+      waitForCoalescedCount(truthTable, 1);
+      blocking.release.countDown();
+
+      assertFailsWith(IllegalStateException.class, first);
+      assertFailsWith(IllegalStateException.class, second);
+      assertEquals(1, blocking.searches.get());
+
+      // Failures are not remembered
+      blocking.failure = null;
+      assertEquals(EnumSet.of(Bread.PITA), 
+          truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static Future<Set<Bread>> submitGetAll(ExecutorService executor, 
+      final CoalescingTruthTable truthTable, 
+      final FixedCoordinates fixedCoordinates) {
+    return executor.submit(new Callable<Set<Bread>>() {
+      @Override
+      public Set<Bread> call() {
+        return truthTable.getAll(Bread.class, fixedCoordinates);
+      }
+    });
+  }
+
+  private static void waitForCoalescedCount(CoalescingTruthTable truthTable, 
+      long count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (truthTable.getCoalescedCount() < count) {
+      assertTrue(System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  private static void assertFailsWith(Class<? extends Throwable> expected, 
+      Future<?> future) throws InterruptedException {
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals(expected, e.getCause().getClass());
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.TruthTable;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmarks the throughput of a single {@link RealTruthTable} shared by
+ * many threads, with no synchronization, to check that querying scales with
+ * the number of threads.
+ *
+ * <p>Each run does the same total amount of queries as
+ * {@link RealTruthTableBenchmark#timeQueryingMixingCombinationsOnLarge}, split
+ * evenly among {@link #threads} threads.
+ *
+ * @author zorzella@google.com
+ */
+public class ConcurrentRealTruthTableBenchmark extends SimpleBenchmark {
+
+  @Param({"1", "2", "4", "8"})
+  private int threads;
+
+  private ExecutorService executor;
+
+  @Override
+  protected void setUp() throws Exception {
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdown();
+  }
+
+  public int timeConcurrentQueryingMixingCombinationsOnLarge(int reps) 
+      throws Exception {
+    final RealTruthTableBenchmark benchmark = new RealTruthTableBenchmark();
+    final TruthTable truthTable = benchmark.buildTruthTableToBenchmark();
+
+    List<Future<Integer>> futures = Lists.newArrayList();
+    for (int thread = 0; thread < threads; thread++) {
+      final int repsForThread = 
+        reps / threads + (thread < reps % threads ? 1 : 0);
+      futures.add(executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          int result = 0;
+          for (int i = 0; i < repsForThread; i++) {
+            result += benchmark.doTimeQueryingMixingCombinations(truthTable);
+          }
+          return result;
+        }
+      }));
+    }
+    int result = 0;
+    for (Future<Integer> future : futures) {
+      result += future.get();
+    }
+    return result;
+  }
+
+  public static void main(String[] args) {
+    Runner.main(ConcurrentRealTruthTableBenchmark.class, args);
+  }
+}
@@ -15,8 +15,10 @@
  */
 package com.google.common.truthtable.impl;
 
+import com.google.common.collect.Iterables;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
 
 import junit.framework.TestCase;
 
@@ -36,4 +38,42 @@ public class FixedCoordinatesTest extends TestCase {
     } catch (IllegalArgumentException expected) {
     }
   }
+
+  public void testExcludingDoesNotChangeTheOriginal() throws Exception {
+    FixedCoordinates original = new FixedCoordinates(Entree.STEAK);
+    FixedCoordinates excluding = original.excluding(Wine.MERLOT);
+
+    assertNull(original.getExclusions(Wine.class));
+    assertTrue(excluding.getExclusions(Wine.class).contains(Wine.MERLOT));
+    assertFalse(original.equals(excluding));
+  }
+
+  public void testEqualityWithOtherBundlesIsSymmetric() throws Exception {
+    CoordinatesBundle group = Iterables.getOnlyElement(
+        new SimpleAffinityGroupBuilder()
+          .touching(Entree.STEAK)
+          .touching(Bread.PITA)
+          .create());
+    FixedCoordinates fixedCoordinates = 
+      new FixedCoordinates(Entree.STEAK, Bread.PITA);
+    FixedCoordinates excluding = fixedCoordinates.excluding(Wine.MERLOT);
+
+    assertEquals(group, fixedCoordinates);
+    assertEquals(fixedCoordinates, group);
+    assertEquals(group.hashCode(), fixedCoordinates.hashCode());
+    assertFalse(group.equals(excluding));
+    assertFalse(excluding.equals(group));
+  }
+
+  public void testExclusionsAccumulate() throws Exception {
+    FixedCoordinates fixedCoordinates = new FixedCoordinates()
+        .excluding(Wine.MERLOT)
+        .excluding(Wine.PORT, Bread.PITA);
+
+    assertEquals(2, fixedCoordinates.getExclusions(Wine.class).size());
+    assertEquals(1, fixedCoordinates.getExclusions(Bread.class).size());
+    assertEquals(
+        new FixedCoordinates().excluding(Bread.PITA, Wine.PORT, Wine.MERLOT),
+        fixedCoordinates);
+  }
 }
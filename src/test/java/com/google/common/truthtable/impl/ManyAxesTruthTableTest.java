@@ -0,0 +1,233 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truthtable.TruthTable;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+
+/**
+ * Tests a {@link RealTruthTable} with more axes than can be searched over
+ * masks (see {@link MaskLayout#MAX_AXES}).
+ *
+ * @author zorzella@google.com
+ */
+public class ManyAxesTruthTableTest extends TestCase {
+
+  private enum A00 { X, Y }
+  private enum A01 { X, Y }
+  private enum A02 { X, Y }
+  private enum A03 { X, Y }
+  private enum A04 { X, Y }
+  private enum A05 { X, Y }
+  private enum A06 { X, Y }
+  private enum A07 { X, Y }
+  private enum A08 { X, Y }
+  private enum A09 { X, Y }
+  private enum A10 { X, Y }
+  private enum A11 { X, Y }
+  private enum A12 { X, Y }
+  private enum A13 { X, Y }
+  private enum A14 { X, Y }
+  private enum A15 { X, Y }
+  private enum A16 { X, Y }
+  private enum A17 { X, Y }
+  private enum A18 { X, Y }
+  private enum A19 { X, Y }
+  private enum A20 { X, Y }
+  private enum A21 { X, Y }
+  private enum A22 { X, Y }
+  private enum A23 { X, Y }
+  private enum A24 { X, Y }
+  private enum A25 { X, Y }
+  private enum A26 { X, Y }
+  private enum A27 { X, Y }
+  private enum A28 { X, Y }
+  private enum A29 { X, Y }
+  private enum A30 { X, Y }
+  private enum A31 { X, Y }
+  private enum A32 { X, Y }
+  private enum A33 { X, Y }
+  private enum A34 { X, Y }
+  private enum A35 { X, Y }
+  private enum A36 { X, Y }
+  private enum A37 { X, Y }
+  private enum A38 { X, Y }
+  private enum A39 { X, Y }
+  private enum A40 { X, Y }
+  private enum A41 { X, Y }
+  private enum A42 { X, Y }
+  private enum A43 { X, Y }
+  private enum A44 { X, Y }
+  private enum A45 { X, Y }
+  private enum A46 { X, Y }
+  private enum A47 { X, Y }
+  private enum A48 { X, Y }
+  private enum A49 { X, Y }
+  private enum A50 { X, Y }
+  private enum A51 { X, Y }
+  private enum A52 { X, Y }
+  private enum A53 { X, Y }
+  private enum A54 { X, Y }
+  private enum A55 { X, Y }
+  private enum A56 { X, Y }
+  private enum A57 { X, Y }
+  private enum A58 { X, Y }
+  private enum A59 { X, Y }
+  private enum A60 { X, Y }
+  private enum A61 { X, Y }
+  private enum A62 { X, Y }
+  private enum A63 { X, Y }
+  private enum A64 { X, Y }
+
+  private static final ImmutableList<Class<? extends Enum<?>>> AXES = 
+    ImmutableList.<Class<? extends Enum<?>>>builder()
+      .add(A00.class)
+      .add(A01.class)
+      .add(A02.class)
+      .add(A03.class)
+      .add(A04.class)
+      .add(A05.class)
+      .add(A06.class)
+      .add(A07.class)
+      .add(A08.class)
+      .add(A09.class)
+      .add(A10.class)
+      .add(A11.class)
+      .add(A12.class)
+      .add(A13.class)
+      .add(A14.class)
+      .add(A15.class)
+      .add(A16.class)
+      .add(A17.class)
+      .add(A18.class)
+      .add(A19.class)
+      .add(A20.class)
+      .add(A21.class)
+      .add(A22.class)
+      .add(A23.class)
+      .add(A24.class)
+      .add(A25.class)
+      .add(A26.class)
+      .add(A27.class)
+      .add(A28.class)
+      .add(A29.class)
+      .add(A30.class)
+      .add(A31.class)
+      .add(A32.class)
+      .add(A33.class)
+      .add(A34.class)
+      .add(A35.class)
+      .add(A36.class)
+      .add(A37.class)
+      .add(A38.class)
+      .add(A39.class)
+      .add(A40.class)
+      .add(A41.class)
+      .add(A42.class)
+      .add(A43.class)
+      .add(A44.class)
+      .add(A45.class)
+      .add(A46.class)
+      .add(A47.class)
+      .add(A48.class)
+      .add(A49.class)
+      .add(A50.class)
+      .add(A51.class)
+      .add(A52.class)
+      .add(A53.class)
+      .add(A54.class)
+      .add(A55.class)
+      .add(A56.class)
+      .add(A57.class)
+      .add(A58.class)
+      .add(A59.class)
+      .add(A60.class)
+      .add(A61.class)
+      .add(A62.class)
+      .add(A63.class)
+      .add(A64.class)
+      .build();
+
+  /**
+   * A table whose true cells are all X, or all Y, through a chain of groups
+   * each touching two consecutive axes.
+   */
+  private static TruthTableBuilder builder() {
+    TruthTableBuilder result = new TruthTableBuilder();
+    for (Class<? extends Enum<?>> axis : AXES) {
+      result.forAxes(axis);
+    }
+    for (int i = 0; i + 1 < AXES.size(); i++) {
+      for (int ordinal = 0; ordinal < 2; ordinal++) {
+        result.addAffinityGroups(new SimpleAffinityGroupBuilder()
+            .touchingAll(ImmutableSet.of(sacs(AXES.get(i), ordinal), 
+                sacs(AXES.get(i + 1), ordinal)))
+            .create());
+      }
+    }
+    return result;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static SingleAxisCoordinateSet sacs(Class<? extends Enum<?>> axis, 
+      int ordinal) {
+    return new SingleAxisCoordinateSet(
+        EnumSet.of((Enum) axis.getEnumConstants()[ordinal]));
+  }
+
+  public void testGetAll() throws Exception {
+    RealTruthTable truthTable = (RealTruthTable) builder().create();
+    assertFalse(truthTable.getMaskLayout().hasSingleWordAxisSets());
+    assertEquals(EnumSet.of(A64.X), 
+        truthTable.getAll(A64.class, new FixedCoordinates(A00.X)));
+    assertEquals(EnumSet.noneOf(A64.class), truthTable.getAll(A64.class, 
+        new FixedCoordinates(A00.X).excluding(A32.X)));
+    assertEquals(EnumSet.allOf(A64.class), truthTable.getAll(A64.class));
+    assertEquals(ImmutableList.of(EnumSet.of(A64.Y)), truthTable.getAll(
+        A64.class, ImmutableList.of(new FixedCoordinates(A00.Y))));
+  }
+
+  public void testTheFingerprintTellsAllAxesApart() throws Exception {
+    TruthTable truthTable = builder().create();
+    TruthTableBuilder builder = builder();
+    builder.addAffinityGroups(new SimpleAffinityGroupBuilder()
+        .touching(A00.X, A00.Y)
+        .touching(A64.X)
+        .create());
+    assertFalse(((RealTruthTable) truthTable).getFingerprint() 
+        == ((RealTruthTable) builder.create()).getFingerprint());
+  }
+
+  public void testMaskQueriesFail() throws Exception {
+    RealTruthTable truthTable = (RealTruthTable) builder().create();
+    try {
+      truthTable.getAll(A64.class, 
+          new MaskBuffer(truthTable.getMaskLayout()));
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      builder().withPairwiseIndex().create();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
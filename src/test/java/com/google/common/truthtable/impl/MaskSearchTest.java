@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truthtable.MaskedTruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests the {@link MaskedTruthTable} queries of {@link RealTruthTable}.
+ *
+ * @author zorzella@google.com
+ */
+public class MaskSearchTest extends TestCase {
+
+  private static RealTruthTable buildTruthTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+
+  private static RealTruthTable buildTruthTableWithDesserts() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Dessert.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Dessert.APPLE_PIE, Dessert.values()[70])
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.MERLOT, Wine.CHIANTI)
+      .touching(Dessert.values()[65], Dessert.values()[66])
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+
+  public void testAxesAreIndexedByName() throws Exception {
+    MaskLayout layout = buildTruthTable().getMaskLayout();
+
+    assertEquals(3, layout.getAxisCount());
+    assertEquals(0, layout.indexOf(Bread.class));
+    assertEquals(1, layout.indexOf(Entree.class));
+    assertEquals(2, layout.indexOf(Wine.class));
+    assertTrue(layout.hasSingleWordAxes());
+    try {
+      layout.indexOf(Dessert.class);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testSingleWordMasks() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    MaskLayout layout = truthTable.getMaskLayout();
+    int wine = layout.indexOf(Wine.class);
+    long[] fixedMasks = {-1L, -1L, -1L};
+
+    assertEquals(mask(Wine.PORT, Wine.MERLOT, Wine.CHIANTI),
+        truthTable.getAll(wine, fixedMasks));
+
+    fixedMasks[layout.indexOf(Entree.class)] = layout.toMask(Entree.STEAK);
+    assertEquals(mask(Wine.PORT, Wine.MERLOT),
+        truthTable.getAll(wine, fixedMasks));
+
+    // Excluding PORT
+    fixedMasks[wine] = ~layout.toMask(Wine.PORT);
+    assertEquals(mask(Wine.MERLOT), truthTable.getAll(wine, fixedMasks));
+    // The fixed masks are left alone
+    assertEquals(~layout.toMask(Wine.PORT), fixedMasks[wine]);
+
+    fixedMasks[layout.indexOf(Bread.class)] = 0;
+    assertEquals(0, truthTable.getAll(wine, fixedMasks));
+  }
+
+  public void testSingleWordMasksMustHaveOneMaskPerAxis() throws Exception {
+    try {
+      buildTruthTable().getAll(0, new long[2]);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testMaskBufferForLargeAxes() throws Exception {
+    RealTruthTable truthTable = buildTruthTableWithDesserts();
+    MaskLayout layout = truthTable.getMaskLayout();
+    int dessert = layout.indexOf(Dessert.class);
+    int wine = layout.indexOf(Wine.class);
+    assertFalse(layout.hasSingleWordAxes());
+    assertEquals(2, layout.getWordCount(dessert));
+
+    try {
+      truthTable.getAll(wine, new long[] {-1L, -1L});
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+
+    MaskBuffer fixedMasks = new MaskBuffer(layout);
+    long[] result = new long[layout.getWordCount(dessert)];
+    truthTable.getAll(dessert, fixedMasks, result);
+    assertEquals(EnumSet.of(Dessert.APPLE_PIE, Dessert.values()[65],
+        Dessert.values()[66], Dessert.values()[70]),
+        layout.toEnumSet(Dessert.class, result));
+
+    fixedMasks.noneOf(wine).add(wine, Wine.MERLOT.ordinal())
+        .remove(dessert, 66);
+    assertEquals(EnumSet.of(Dessert.values()[65]),
+        truthTable.getAll(Dessert.class, fixedMasks));
+
+    fixedMasks.reset().noneOf(dessert).add(dessert, 70);
+    assertEquals(EnumSet.of(Wine.PORT),
+        truthTable.getAll(Wine.class, fixedMasks));
+  }
+
+  public void testMaskBufferIsForASingleTable() throws Exception {
+    MaskBuffer fixedMasks =
+      new MaskBuffer(buildTruthTableWithDesserts().getMaskLayout());
+    try {
+      buildTruthTable().getAll(Wine.class, fixedMasks);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testMaskBufferFromFixedCoordinates() throws Exception {
+    MaskLayout layout = buildTruthTable().getMaskLayout();
+    MaskBuffer fixedMasks = new MaskBuffer(layout).setAll(
+        new FixedCoordinates(Entree.STEAK, Bread.PITA)
+            .excluding(Wine.PORT, Bread.OAT));
+
+    assertEquals(layout.toMask(Bread.PITA),
+        fixedMasks.get(layout.indexOf(Bread.class)));
+    assertEquals(layout.toMask(Entree.STEAK),
+        fixedMasks.get(layout.indexOf(Entree.class)));
+    assertEquals(mask(Wine.values()) & ~layout.toMask(Wine.PORT),
+        fixedMasks.get(layout.indexOf(Wine.class)));
+  }
+
+  /**
+   * Compares the mask search with the path search of
+   * {@link RealTruthTable#project}, for random fixed coordinates.
+   */
+  public void testAgreesWithProjection() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    Random random = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(
+          Wine.values()[random.nextInt(Wine.values().length)],
+          Bread.values()[random.nextInt(Bread.values().length)])
+          .excluding(Entree.values()[random.nextInt(Entree.values().length)]);
+      if (random.nextBoolean()) {
+        fixedCoordinates = new FixedCoordinates(
+            Entree.values()[random.nextInt(Entree.values().length)]);
+      }
+      ProjectedTuples expected = truthTable.project(
+          ImmutableSet.of(Entree.class), fixedCoordinates);
+      Set<Entree> actual =
+        truthTable.getAll(Entree.class, fixedCoordinates);
+      assertEquals(expected.size(), actual.size());
+      for (List<Enum<?>> tuple : expected) {
+        assertTrue(actual.contains(tuple.get(0)));
+      }
+    }
+  }
+
+  private static long mask(Enum<?>... coordinates) {
+    long result = 0;
+    for (Enum<?> coordinate : coordinates) {
+      result |= 1L << coordinate.ordinal();
+    }
+    return result;
+  }
+}
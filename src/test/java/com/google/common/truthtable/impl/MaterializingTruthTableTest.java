@@ -0,0 +1,192 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Tests {@link MaterializingTruthTable}.
+ *
+ * @author zorzella@google.com
+ */
+public class MaterializingTruthTableTest extends TestCase {
+
+  private static QueryShape shape(RealTruthTable truthTable, 
+      Class<? extends Enum<?>> axis) {
+    MaskLayout layout = truthTable.getMaskLayout();
+    return new QueryShape(layout, layout.indexOf(axis), 0);
+  }
+
+  private static QueryShape shape(RealTruthTable truthTable, 
+      Class<? extends Enum<?>> axis, Class<? extends Enum<?>> fixedAxis) {
+    MaskLayout layout = truthTable.getMaskLayout();
+    return new QueryShape(layout, layout.indexOf(axis), 
+        1L << layout.indexOf(fixedAxis));
+  }
+
+  private static QueryShape shape(RealTruthTable truthTable, 
+      Class<? extends Enum<?>> axis, Class<? extends Enum<?>> fixedAxis,
+      Class<? extends Enum<?>> otherFixedAxis) {
+    MaskLayout layout = truthTable.getMaskLayout();
+    return new QueryShape(layout, layout.indexOf(axis), 
+        1L << layout.indexOf(fixedAxis) | 1L << layout.indexOf(otherFixedAxis));
+  }
+
+  public void testRecordsQueryShapes() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildFourAxisTable();
+    MaterializingTruthTable truthTable = 
+      new MaterializingTruthTable(realTruthTable, 1000);
+
+    truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT));
+    truthTable.getAll(Bread.class, new FixedCoordinates(Wine.MERLOT));
+    truthTable.getAll(Bread.class, 
+        new FixedCoordinates(Entree.STEAK).excluding(Wine.PORT));
+    truthTable.getAll(Bread.class);
+
+    QueryShape breadGivenWine = shape(realTruthTable, Bread.class, Wine.class);
+    assertEquals("Bread given [Wine]", breadGivenWine.toString());
+    assertEquals(Bread.class, breadGivenWine.getAskedAxis());
+    assertEquals(ImmutableSet.of(Wine.class), breadGivenWine.getFixedAxes());
+    assertEquals(ImmutableMap.of(
+        breadGivenWine, 2L,
+        shape(realTruthTable, Bread.class, Wine.class, Entree.class), 1L,
+        shape(realTruthTable, Bread.class), 1L), 
+        truthTable.getQueryShapeCounts());
+  }
+
+  public void testFrequentShapesAreMaterialized() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildFourAxisTable();
+    MaterializingTruthTable truthTable = 
+      new MaterializingTruthTable(realTruthTable, 1000);
+    for (int i = 0; i < 10; i++) {
+      truthTable.getAll(Bread.class, new FixedCoordinates(Wine.CHIANTI));
+    }
+    truthTable.getAll(Wine.class, new FixedCoordinates(Entree.STEAK));
+    // Too large a view for the budget
+    truthTable.getAll(Dessert.class, 
+        new FixedCoordinates(Entree.STEAK, Wine.PORT, Bread.OAT));
+    assertEquals(0, truthTable.getViewHitCount());
+
+    truthTable.advise();
+
+    assertEquals(ImmutableSet.of(
+        shape(realTruthTable, Bread.class, Wine.class), 
+        shape(realTruthTable, Wine.class, Entree.class)), 
+        truthTable.getMaterializedShapes());
+    // A word per wine, and a word per entree
+    assertEquals(8 * (Wine.values().length + Entree.values().length), 
+        truthTable.getMaterializedSizeInBytes());
+
+    for (Wine wine : Wine.values()) {
+      assertEquals(realTruthTable.getAll(Bread.class, 
+          new FixedCoordinates(wine)), 
+          truthTable.getAll(Bread.class, new FixedCoordinates(wine)));
+    }
+    for (Entree entree : Entree.values()) {
+      assertEquals(realTruthTable.getAll(Wine.class, 
+          new FixedCoordinates(entree)), 
+          truthTable.getAll(Wine.class, new FixedCoordinates(entree)));
+    }
+    assertEquals(Wine.values().length + Entree.values().length, 
+        truthTable.getViewHitCount());
+
+    // Fixing more than one coordinate of an axis needs a search
+    assertEquals(EnumSet.of(Bread.WHEAT, Bread.WHITE, Bread.PITA, Bread.OAT), 
+        truthTable.getAll(Bread.class, 
+            new FixedCoordinates().excluding(Wine.ZINFANDEL)));
+    assertEquals(Wine.values().length + Entree.values().length, 
+        truthTable.getViewHitCount());
+  }
+
+  public void testViewsOfManyAxes() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildFourAxisTable();
+    MaterializingTruthTable truthTable = 
+      new MaterializingTruthTable(realTruthTable, 1000000);
+    truthTable.getAll(Dessert.class, 
+        new FixedCoordinates(Entree.STEAK, Wine.PORT, Bread.OAT));
+    truthTable.advise();
+    assertEquals(1, truthTable.getMaterializedShapes().size());
+
+    for (Wine wine : Wine.values()) {
+      for (Bread bread : Bread.values()) {
+        for (Entree entree : Entree.values()) {
+          FixedCoordinates query = new FixedCoordinates(wine, bread, entree);
+          assertEquals(realTruthTable.getAll(Dessert.class, query), 
+              truthTable.getAll(Dessert.class, query));
+        }
+      }
+    }
+  }
+
+  public void testViewsFollowTheTraffic() throws Exception {
+    RealTruthTable realTruthTable = BogusTruthTables.buildFourAxisTable();
+    // Room for a single view
+    MaterializingTruthTable truthTable = 
+      new MaterializingTruthTable(realTruthTable, 8 * Wine.values().length);
+    for (int i = 0; i < 4; i++) {
+      truthTable.getAll(Bread.class, new FixedCoordinates(Wine.CHIANTI));
+    }
+    truthTable.advise();
+    assertEquals(
+        ImmutableSet.of(shape(realTruthTable, Bread.class, Wine.class)),
+        truthTable.getMaterializedShapes());
+
+    // The old shape weighs 4 / 2 now
+    for (int i = 0; i < 3; i++) {
+      truthTable.getAll(Entree.class, new FixedCoordinates(Wine.CHIANTI));
+    }
+    truthTable.advise();
+    assertEquals(
+        ImmutableSet.of(shape(realTruthTable, Entree.class, Wine.class)),
+        truthTable.getMaterializedShapes());
+
+    // Shapes that are no longer queried are eventually forgotten
+    for (int i = 0; i < 3; i++) {
+      truthTable.advise();
+    }
+    assertTrue(truthTable.getMaterializedShapes().isEmpty());
+    assertTrue(truthTable.getQueryShapeCounts().isEmpty());
+  }
+
+  public void testChoosesTheMostQueriesPerByte() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    MaskLayout layout = truthTable.getMaskLayout();
+    QueryShape small = shape(truthTable, Bread.class, Wine.class);
+    QueryShape large = shape(truthTable, Bread.class, Dessert.class);
+    long smallSize = MaterializedView.estimateSizeInBytes(layout, small);
+    long largeSize = MaterializedView.estimateSizeInBytes(layout, large);
+    assertTrue(smallSize < largeSize);
+    Map<QueryShape, Long> counts = ImmutableMap.of(small, 10L, large, 11L);
+
+    assertEquals(ImmutableSet.of(small, large), ImmutableSet.copyOf(
+        MaterializingTruthTable.choose(layout, counts, smallSize + largeSize)));
+    assertEquals(ImmutableSet.of(small), ImmutableSet.copyOf(
+        MaterializingTruthTable.choose(layout, counts, largeSize)));
+    assertEquals(ImmutableSet.of(), ImmutableSet.copyOf(
+        MaterializingTruthTable.choose(layout, counts, smallSize - 1)));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+/**
+ * Tests {@link PairwiseIndex}.
+ *
+ * @author zorzella@google.com
+ */
+public class PairwiseIndexTest extends TestCase {
+
+  private static RealTruthTable buildTruthTable(TruthTableBuilder builder) {
+    builder.forAxes(Wine.class, Bread.class, Entree.class, Dessert.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .touching(Dessert.APPLE_PIE, Dessert.values()[70])
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.CHICKEN, Entree.STEAK)
+      .touching(Dessert.values()[65], Dessert.values()[70])
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+
+  public void testSingleFixedCoordinate() throws Exception {
+    RealTruthTable truthTable = 
+      buildTruthTable(new TruthTableBuilder().withPairwiseIndex());
+    assertTrue(truthTable.hasPairwiseIndex());
+
+    assertEquals(EnumSet.of(Bread.WHEAT, Bread.WHITE), 
+        truthTable.getAll(Bread.class, new FixedCoordinates(Wine.CHIANTI)));
+    assertEquals(EnumSet.of(Wine.CHIANTI), 
+        truthTable.getAll(Wine.class, new FixedCoordinates(Wine.CHIANTI)));
+    assertEquals(EnumSet.noneOf(Wine.class), 
+        truthTable.getAll(Wine.class, new FixedCoordinates(Wine.ZINFANDEL)));
+    assertEquals(EnumSet.of(Wine.PORT, Wine.MERLOT, Wine.CHIANTI), 
+        truthTable.getAll(Wine.class));
+  }
+
+  /**
+   * Runs random queries on tables with and without an index, which must 
+   * agree.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void testAgreesWithSearching() throws Exception {
+    RealTruthTable withIndex = 
+      buildTruthTable(new TruthTableBuilder().withPairwiseIndex());
+    RealTruthTable withoutIndex = buildTruthTable(new TruthTableBuilder());
+    assertFalse(withoutIndex.hasPairwiseIndex());
+    MaskLayout layout = withIndex.getMaskLayout();
+    Random random = new Random(0);
+
+    for (int query = 0; query < 2000; query++) {
+      MaskBuffer fixed = new MaskBuffer(layout);
+      MaskBuffer sameFixed = new MaskBuffer(withoutIndex.getMaskLayout());
+      int constraints = random.nextInt(4);
+      for (int i = 0; i < constraints; i++) {
+        int axisIndex = random.nextInt(layout.getAxisCount());
+        // Picking among the first few desserts, as the others are never valid
+        int ordinal = random.nextInt(
+            Math.min(layout.getCoordinateCount(axisIndex), 72));
+        if (random.nextBoolean()) {
+          boolean wasFixed = fixed.contains(axisIndex, ordinal);
+          fixed.noneOf(axisIndex);
+          sameFixed.noneOf(axisIndex);
+          if (wasFixed) {
+            fixed.add(axisIndex, ordinal);
+            sameFixed.add(axisIndex, ordinal);
+          }
+        } else {
+          fixed.remove(axisIndex, ordinal);
+          sameFixed.remove(axisIndex, ordinal);
+        }
+      }
+      for (int axisIndex = 0; axisIndex < layout.getAxisCount(); 
+          axisIndex++) {
+        Class axis = layout.getAxis(axisIndex);
+        assertEquals(fixed.toString(), 
+            withoutIndex.getAll(axis, sameFixed), 
+            withIndex.getAll(axis, fixed));
+      }
+    }
+  }
+
+  public void testSize() throws Exception {
+    RealTruthTable truthTable = buildTruthTable(new TruthTableBuilder());
+    MaskLayout layout = truthTable.getMaskLayout();
+    int coordinates = Wine.values().length + Bread.values().length 
+        + Entree.values().length + Dessert.values().length;
+    // A row per coordinate, and the facets
+    long expected = 8L * (coordinates + 1) * layout.getTotalWordCount() 
+        + 4L * layout.getAxisCount();
+
+    assertEquals(expected, truthTable.getPairwiseIndexSizeInBytes());
+    assertEquals(expected, 
+        buildTruthTable(new TruthTableBuilder().withPairwiseIndex())
+        .getPairwiseIndexSizeInBytes());
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests {@link TruthTable#project(Set, FixedCoordinates)} and the resulting
+ * {@link ProjectedTuples}.
+ *
+ * @author zorzella@google.com
+ */
+public class ProjectedTuplesTest extends TestCase {
+
+  private static TruthTable buildTruthTable() {
+    TruthTableBuilder builder = BogusTruthTables.twoPathBuilder(Wine.PORT);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.MERLOT)
+      .touching(Entree.PASTA)
+      .create());
+
+    return builder.create();
+  }
+
+  public void testProjectingOntoTwoAxes() throws Exception {
+    TruthTable truthTable = buildTruthTable();
+
+    ProjectedTuples tuples = truthTable.project(
+        ImmutableSet.of(Wine.class, Entree.class));
+
+    assertEquals(3, tuples.size());
+    assertTrue(tuples.contains(Wine.PORT, Entree.STEAK));
+    assertTrue(tuples.contains(Entree.CHICKEN, Wine.PORT));
+    assertTrue(tuples.contains(Wine.CHIANTI, Entree.CHICKEN));
+    // MERLOT/PASTA never reaches the Bread axis, so it is not a valid path
+    assertFalse(tuples.contains(Wine.MERLOT, Entree.PASTA));
+    assertFalse(tuples.contains(Wine.CHIANTI, Entree.STEAK));
+  }
+
+  public void testProjectingWithFixedCoordinates() throws Exception {
+    TruthTable truthTable = buildTruthTable();
+
+    ProjectedTuples tuples = truthTable.project(
+        ImmutableSet.of(Wine.class, Bread.class),
+        new FixedCoordinates(Entree.CHICKEN));
+
+    assertEquals(2, tuples.size());
+    assertTrue(tuples.contains(Wine.PORT, Bread.PITA));
+    assertTrue(tuples.contains(Wine.CHIANTI, Bread.WHEAT));
+    assertFalse(tuples.contains(Wine.PORT, Bread.WHEAT));
+  }
+
+  public void testProjectionAgreesWithGetAll() throws Exception {
+    TruthTable truthTable = buildTruthTable();
+
+    ProjectedTuples tuples = truthTable.project(
+        ImmutableSet.of(Wine.class, Entree.class));
+
+    for (Wine wine : Wine.values()) {
+      Set<Entree> entrees =
+        truthTable.getAll(Entree.class, new FixedCoordinates(wine));
+      for (Entree entree : Entree.values()) {
+        assertEquals(entrees.contains(entree), tuples.contains(wine, entree));
+      }
+    }
+  }
+
+  public void testTuplesAreOrderedByAxisName() throws Exception {
+    TruthTable truthTable = buildTruthTable();
+
+    ProjectedTuples tuples = truthTable.project(
+        ImmutableSet.of(Wine.class, Entree.class));
+
+    assertEquals(ImmutableList.of(Entree.class, Wine.class), tuples.getAxes());
+    for (List<Enum<?>> tuple : tuples) {
+      assertEquals(Entree.class, tuple.get(0).getDeclaringClass());
+      assertEquals(Wine.class, tuple.get(1).getDeclaringClass());
+    }
+    assertEquals(
+        ImmutableList.of(Entree.CHICKEN, Wine.CHIANTI), tuples.get(0));
+  }
+
+  public void testProjectingOntoUnregisteredAxisFails() throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Bread.class, Entree.class);
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Bread.WHITE)
+      .touching(Entree.CHICKEN)
+      .create());
+    TruthTable truthTable = builder.create();
+
+    try {
+      truthTable.project(ImmutableSet.of(Bread.class, Wine.class));
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testContainsRequiresOneCoordinatePerAxis() throws Exception {
+    ProjectedTuples tuples = buildTruthTable().project(
+        ImmutableSet.of(Wine.class, Entree.class));
+    try {
+      tuples.contains(Wine.PORT, Wine.CHIANTI);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
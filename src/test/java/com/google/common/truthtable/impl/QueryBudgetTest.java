@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link QueryBudget}, and the queries of {@link RealTruthTable} that
+ * take one.
+ *
+ * @author zorzella@google.com
+ */
+public class QueryBudgetTest extends TestCase {
+
+  private static RealTruthTable buildTruthTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class, Dessert.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .touching(Dessert.APPLE_PIE, Dessert.CAKE)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.CHICKEN, Entree.STEAK)
+      .touching(Dessert.CAKE, Dessert.CHERRY_PIE)
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+
+  public void testUnlimitedBudget() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+
+    PartialResult<Bread> result = truthTable.getAllWithin(Bread.class, 
+        new FixedCoordinates(), QueryBudget.unlimited());
+
+    assertTrue(result.isComplete());
+    assertNull(result.getExceededLimit());
+    assertEquals(truthTable.getAll(Bread.class), result.getCoordinates());
+    assertTrue(result.getPathCount() > 0);
+    assertTrue(result.getHopCount() > 0);
+  }
+
+  public void testRunningOutOfPaths() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    QueryBudget budget = QueryBudget.unlimited().withMaxPaths(0);
+
+    PartialResult<Bread> result = 
+      truthTable.getAllWithin(Bread.class, new FixedCoordinates(), budget);
+    assertFalse(result.isComplete());
+    assertEquals(QueryBudget.Limit.PATHS, result.getExceededLimit());
+    assertEquals(EnumSet.noneOf(Bread.class), result.getCoordinates());
+    assertEquals(0, result.getPathCount());
+
+    try {
+      truthTable.getAll(Bread.class, new FixedCoordinates(), budget);
+      fail();
+    } catch (QueryBudgetExceededException expected) {
+      assertEquals(QueryBudget.Limit.PATHS, expected.getExceededLimit());
+    }
+  }
+
+  public void testRunningOutOfHops() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+
+    // Every path to a bread needs at least one hop
+    PartialResult<Bread> result = truthTable.getAllWithin(Bread.class, 
+        new FixedCoordinates(), QueryBudget.unlimited().withMaxHops(0));
+
+    assertEquals(QueryBudget.Limit.HOPS, result.getExceededLimit());
+    assertEquals(0, result.getHopCount());
+  }
+
+  public void testRunningOutOfTime() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+
+    PartialResult<Bread> result = truthTable.getAllWithin(Bread.class, 
+        new FixedCoordinates(), 
+        QueryBudget.unlimited().withTimeout(0, TimeUnit.NANOSECONDS));
+
+    assertEquals(QueryBudget.Limit.TIMEOUT, result.getExceededLimit());
+  }
+
+  /**
+   * Tests that partial results only have valid coordinates, and that a large
+   * enough budget gives the complete result.
+   */
+  public void testPartialResultsAreValid() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    Set<Dessert> all = 
+      truthTable.getAll(Dessert.class, new FixedCoordinates(Wine.PORT));
+
+    for (long maxPaths = 0; ; maxPaths++) {
+      PartialResult<Dessert> result = truthTable.getAllWithin(Dessert.class, 
+          new FixedCoordinates(Wine.PORT), 
+          QueryBudget.unlimited().withMaxPaths(maxPaths));
+      assertTrue(all.containsAll(result.getCoordinates()));
+      if (result.isComplete()) {
+        assertEquals(all, result.getCoordinates());
+        assertTrue(result.getPathCount() <= maxPaths);
+        break;
+      }
+      assertEquals(QueryBudget.Limit.PATHS, result.getExceededLimit());
+    }
+  }
+
+  public void testLimitsMustNotBeNegative() throws Exception {
+    try {
+      QueryBudget.unlimited().withMaxPaths(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      QueryBudget.unlimited().withMaxHops(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      QueryBudget.unlimited().withTimeout(-1, TimeUnit.SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
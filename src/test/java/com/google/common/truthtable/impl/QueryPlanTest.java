@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Cuttlery;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.MealTime;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests {@link QueryPlan} and {@link QueryPlanCache}.
+ *
+ * @author zorzella@google.com
+ */
+public class QueryPlanTest extends TestCase {
+
+  public void testGroupsTouchingMoreConstrainedAxesComeFirst() 
+      throws Exception {
+    GroupMasks groups = BogusTruthTables.buildFourAxisTable().getGroupMasks();
+    MaskLayout layout = groups.layout;
+    int entree = layout.indexOf(Entree.class);
+    long fixedAxes = 1L << layout.indexOf(Bread.class) 
+        | 1L << layout.indexOf(Dessert.class);
+    QueryPlan plan = new QueryPlan(groups, entree, fixedAxes);
+
+    int[] starting = plan.startingGroups;
+    assertEquals(groups.groupsTouchingAxis[entree].length, starting.length);
+    for (int i = 1; i < starting.length; i++) {
+      assertTrue(Long.bitCount(groups.axes[starting[i - 1]] & fixedAxes)
+          >= Long.bitCount(groups.axes[starting[i]] & fixedAxes));
+    }
+    // The PITA/OAT group touches both constrained axes
+    assertEquals(2, Long.bitCount(groups.axes[starting[0]] & fixedAxes));
+  }
+
+  public void testGroupsThatTouchNoFixedCoordinateAreNotLive() 
+      throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    GroupMasks groups = truthTable.getGroupMasks();
+    MaskLayout layout = groups.layout;
+    int wine = layout.indexOf(Wine.class);
+    MaskBuffer fixed = new MaskBuffer(layout).noneOf(wine);
+    fixed.add(wine, Wine.CHIANTI.ordinal());
+    QueryPlan plan = new QueryPlan(groups, layout.indexOf(Entree.class),
+        QueryPlan.fixedAxesOf(layout, fixed.words));
+    long[] liveGroups = new long[groups.getGroupWordCount()];
+    plan.findLiveGroups(fixed.words, liveGroups);
+
+    // Only the PORT/MERLOT group is ruled out
+    assertEquals(groups.size() - 1, Long.bitCount(liveGroups[0]));
+    for (int group = 0; group < groups.size(); group++) {
+      boolean live = (liveGroups[0] & (1L << group)) != 0;
+      assertEquals(!groups.groups[group].touches(Wine.PORT), live);
+    }
+  }
+
+  public void testShapesArePlannedOnce() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    assertEquals(0, truthTable.getQueryPlanCount());
+
+    truthTable.getAll(Entree.class, new FixedCoordinates(Wine.PORT));
+    truthTable.getAll(Entree.class, new FixedCoordinates(Wine.CHIANTI));
+    truthTable.getAll(Entree.class, 
+        new FixedCoordinates().excluding(Wine.MERLOT));
+    assertEquals(1, truthTable.getQueryPlanCount());
+
+    truthTable.getAll(Bread.class, new FixedCoordinates(Wine.PORT));
+    truthTable.getAll(Entree.class, new FixedCoordinates(Bread.OAT));
+    truthTable.getAll(Entree.class);
+    assertEquals(4, truthTable.getQueryPlanCount());
+  }
+
+  /**
+   * A table of 6 axes, and thus of more shapes than
+   * {@link QueryPlanCache#MAX_PLANS}.
+   */
+  private static RealTruthTable buildSixAxisTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class, Dessert.class,
+        MealTime.class, Cuttlery.class);
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .touching(Bread.PITA, Bread.OAT)
+      .create());
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.CHICKEN, Entree.PASTA)
+      .touching(Dessert.APPLE_PIE, Dessert.values()[70])
+      .touching(MealTime.LUNCH, MealTime.DINNER)
+      .touching(Cuttlery.SILVER, Cuttlery.GOLD)
+      .create());
+    return (RealTruthTable) builder.create();
+  }
+
+  public void testShapesPastTheLastPlanAreSearchedWithoutOne() 
+      throws Exception {
+    RealTruthTable truthTable = buildSixAxisTable();
+    MaskLayout layout = truthTable.getMaskLayout();
+    MaskSearch unplanned = new MaskSearch(truthTable.getGroupMasks());
+    long[] expected = new long[layout.getMaxWordCount()];
+    long[] actual = new long[layout.getMaxWordCount()];
+    int axisCount = layout.getAxisCount();
+    // Each shape, fixing all coordinates of its constrained axes but one
+    for (int axisIndex = 0; axisIndex < axisCount; axisIndex++) {
+      for (int fixedAxes = 0; fixedAxes < 1 << axisCount; fixedAxes++) {
+        MaskBuffer fixed = new MaskBuffer(layout);
+        for (int axis = 0; axis < axisCount; axis++) {
+          if ((fixedAxes & (1 << axis)) != 0) {
+            fixed.remove(axis, 1);
+          }
+        }
+        unplanned.getAll(axisIndex, fixed.words, expected);
+        truthTable.getAll(axisIndex, fixed, actual);
+        int axisWords = layout.getWordCount(axisIndex);
+        assertTrue(Arrays.equals(Arrays.copyOf(expected, axisWords), 
+            Arrays.copyOf(actual, axisWords)));
+      }
+    }
+    assertEquals(QueryPlanCache.MAX_PLANS, truthTable.getQueryPlanCount());
+  }
+
+  public void testThreadsPlanNoMoreThanTheLastPlan() throws Exception {
+    final RealTruthTable truthTable = buildSixAxisTable();
+    final MaskLayout layout = truthTable.getMaskLayout();
+    final int axisCount = layout.getAxisCount();
+    final int shapeCount = axisCount << axisCount;
+    final AtomicReference<Throwable> failure = 
+      new AtomicReference<Throwable>();
+    List<Thread> threads = Lists.newArrayList();
+    for (int t = 0; t < 4; t++) {
+      // Each thread goes through all shapes, starting from a different one
+      final int start = t * shapeCount / 4;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            MaskSearch unplanned = new MaskSearch(truthTable.getGroupMasks());
+            long[] expected = new long[layout.getMaxWordCount()];
+            long[] actual = new long[layout.getMaxWordCount()];
+            for (int i = 0; i < shapeCount; i++) {
+              int shape = (start + i) % shapeCount;
+              int axisIndex = shape >>> axisCount;
+              MaskBuffer fixed = new MaskBuffer(layout);
+              for (int axis = 0; axis < axisCount; axis++) {
+                if ((shape & (1 << axis)) != 0) {
+                  fixed.remove(axis, 1);
+                }
+              }
+              unplanned.getAll(axisIndex, fixed.words, expected);
+              truthTable.getAll(axisIndex, fixed, actual);
+              int axisWords = layout.getWordCount(axisIndex);
+              assertTrue(Arrays.equals(Arrays.copyOf(expected, axisWords), 
+                  Arrays.copyOf(actual, axisWords)));
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertEquals(QueryPlanCache.MAX_PLANS, truthTable.getQueryPlanCount());
+  }
+
+  /**
+   * Compares planned searches with unplanned ones, for random fixed 
+   * coordinates.
+   */
+  public void testAgreesWithUnplannedSearch() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    MaskLayout layout = truthTable.getMaskLayout();
+    MaskSearch unplanned = new MaskSearch(truthTable.getGroupMasks());
+    long[] expected = new long[layout.getMaxWordCount()];
+    long[] actual = new long[layout.getMaxWordCount()];
+    Random random = new Random(0);
+    for (int i = 0; i < 500; i++) {
+      MaskBuffer fixed = new MaskBuffer(layout);
+      for (int axisIndex = 0; axisIndex < layout.getAxisCount(); 
+          axisIndex++) {
+        if (random.nextBoolean()) {
+          continue;
+        }
+        // Leaving out the desserts that are never valid anyway
+        int coordinateCount = 
+          Math.min(layout.getCoordinateCount(axisIndex), 72);
+        for (int ordinal = 0; ordinal < coordinateCount; ordinal++) {
+          if (random.nextInt(3) == 0) {
+            fixed.remove(axisIndex, ordinal);
+          }
+        }
+      }
+      int axisIndex = random.nextInt(layout.getAxisCount());
+      unplanned.getAll(axisIndex, fixed.words, expected);
+      truthTable.getAll(axisIndex, fixed, actual);
+      int axisWords = layout.getWordCount(axisIndex);
+      assertTrue(Arrays.equals(Arrays.copyOf(expected, axisWords), 
+          Arrays.copyOf(actual, axisWords)));
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumSet;
+
+/**
+ * Tests that, thanks to {@link QueryScratch}, the queries of a 
+ * {@link RealTruthTable} that take a result buffer allocate nothing once the
+ * thread's scratch exists.
+ *
+ * @author zorzella@google.com
+ */
+public class QueryScratchTest extends TestCase {
+
+  private static RealTruthTable buildTruthTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class, Dessert.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .touching(Dessert.APPLE_PIE, Dessert.values()[70])
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+
+  public void testSteadyStateQueriesDoNotAllocate() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      // Can't measure allocations on this JVM
+      return;
+    }
+    com.sun.management.ThreadMXBean allocations = 
+      (com.sun.management.ThreadMXBean) threads;
+    long threadId = Thread.currentThread().getId();
+
+    RealTruthTable truthTable = buildTruthTable();
+    MaskLayout layout = truthTable.getMaskLayout();
+    MaskBuffer fixedMasks = new MaskBuffer(layout)
+        .setAll(new FixedCoordinates(Entree.STEAK).excluding(Bread.OAT));
+    int axisIndex = layout.indexOf(Dessert.class);
+    long[] result = new long[layout.getWordCount(axisIndex)];
+    // Creates the scratch of this thread
+    truthTable.getAll(axisIndex, fixedMasks, result);
+
+    long before = allocations.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 10000; i++) {
+      truthTable.getAll(axisIndex, fixedMasks, result);
+    }
+    long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+    // Measuring may allocate a little, but not a few bytes per query
+    assertTrue("Allocated " + allocated + " bytes", allocated < 10000);
+    assertTrue(layout.toEnumSet(Dessert.class, result)
+        .contains(Dessert.APPLE_PIE));
+  }
+
+  /**
+   * Tests that fixed coordinates are converted to masks the same way, 
+   * whether or not their masks were already computed.
+   */
+  public void testReusingFixedCoordinates() throws Exception {
+    RealTruthTable truthTable = buildTruthTable();
+    FixedCoordinates fixedCoordinates = 
+      new FixedCoordinates(Entree.STEAK).excluding(Dessert.APPLE_PIE);
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals(EnumSet.of(Dessert.values()[70]), 
+          truthTable.getAll(Dessert.class, fixedCoordinates));
+      assertEquals(EnumSet.of(Bread.PITA, Bread.OAT), 
+          truthTable.getAll(Bread.class, fixedCoordinates));
+    }
+  }
+}
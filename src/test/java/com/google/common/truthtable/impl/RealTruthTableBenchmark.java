@@ -17,6 +17,7 @@ package com.google.common.truthtable.impl;
 
 import com.google.caliper.Runner;
 import com.google.caliper.SimpleBenchmark;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.truthtable.TruthTable;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
@@ -26,6 +27,7 @@ import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.MealTime;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -104,6 +106,65 @@ public class RealTruthTableBenchmark extends SimpleBenchmark {
     return result;
   }
 
+  public int timeBatchQueryingOnLarge(int reps) {
+    int result = 0;
+    RealTruthTable truthTable = (RealTruthTable) buildTruthTableToBenchmark();
+    List<FixedCoordinates> queries = Lists.newArrayList();
+    for (Wine wine : Wine.values()) {
+      for (Entree entree : Entree.values()) {
+        queries.add(new FixedCoordinates(wine, entree));
+      }
+    }
+
+    for (int i = 0; i < reps; i++) {
+      result += truthTable.getAll(Bread.class, queries).size();
+    }
+    return result;
+  }
+
+  public int timeQueryingOneByOneOnLarge(int reps) {
+    int result = 0;
+    RealTruthTable truthTable = (RealTruthTable) buildTruthTableToBenchmark();
+    List<FixedCoordinates> queries = Lists.newArrayList();
+    for (Wine wine : Wine.values()) {
+      for (Entree entree : Entree.values()) {
+        queries.add(new FixedCoordinates(wine, entree));
+      }
+    }
+
+    for (int i = 0; i < reps; i++) {
+      for (FixedCoordinates query : queries) {
+        result += truthTable.getAll(Bread.class, query).size();
+      }
+    }
+    return result;
+  }
+
+  public int timeSingleFixedQueryingOnLarge(int reps) {
+    return doTimeSingleFixedQuerying(
+        buildTruthTableToBenchmark(new TruthTableBuilder()), reps);
+  }
+
+  public int timeSingleFixedQueryingOnLargeWithPairwiseIndex(int reps) {
+    return doTimeSingleFixedQuerying(buildTruthTableToBenchmark(
+        new TruthTableBuilder().withPairwiseIndex()), reps);
+  }
+
+  private int doTimeSingleFixedQuerying(TruthTable truthTable, int reps) {
+    int result = 0;
+    List<FixedCoordinates> queries = Lists.newArrayList();
+    for (Entree entree : Entree.values()) {
+      queries.add(new FixedCoordinates(entree));
+    }
+
+    for (int i = 0; i < reps; i++) {
+      for (FixedCoordinates query : queries) {
+        result += truthTable.getAll(Dessert.class, query).size();
+      }
+    }
+    return result;
+  }
+
   public int doTimeQueryingMixingCombinations(TruthTable truthTable) {
 
     Set<Bread> breads0 = truthTable.getAll(Bread.class,
@@ -118,8 +179,11 @@ public class RealTruthTableBenchmark extends SimpleBenchmark {
     return breads0.size() + entrees.size() + breads1.size();
   }
 
-  private TruthTable buildTruthTableToBenchmark() {
-    TruthTableBuilder builder = new TruthTableBuilder();
+  TruthTable buildTruthTableToBenchmark() {
+    return buildTruthTableToBenchmark(new TruthTableBuilder());
+  }
+
+  TruthTable buildTruthTableToBenchmark(TruthTableBuilder builder) {
     builder.forAxes(
         Wine.class,
         Bread.class,
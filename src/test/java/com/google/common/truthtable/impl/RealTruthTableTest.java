@@ -15,6 +15,7 @@
  */
 package com.google.common.truthtable.impl;
 
+import com.google.common.collect.Lists;
 import com.google.common.truthtable.TruthTable;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
 import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Cuttlery;
@@ -27,7 +28,12 @@ import com.google.common.truthtable.testing.RiggedComparatorAffinityGroupsBuilde
 import junit.framework.TestCase;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author zorzella@google.com
@@ -487,4 +493,191 @@ public class RealTruthTableTest extends TestCase {
 
     assertEquals(EnumSet.of(Bread.PITA), breads);
   }
+
+  public void testQueryingWithExclusions() throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Bread.PITA)
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .create());
+
+    builder.addAffinityGroups(      
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT)
+      .create());
+    
+    TruthTable truthTable = builder.create();
+
+    assertEquals(EnumSet.of(Wine.CHIANTI, Wine.MERLOT), 
+        truthTable.getAll(Wine.class, 
+            new FixedCoordinates().excluding(Wine.PORT)));
+
+    // Excluding CHICKEN leaves no path through CHIANTI
+    assertEquals(EnumSet.of(Bread.PITA), 
+        truthTable.getAll(Bread.class, 
+            new FixedCoordinates().excluding(Entree.CHICKEN)));
+
+    // Excluding all fixed coordinates leaves no path at all
+    assertEquals(EnumSet.noneOf(Bread.class), 
+        truthTable.getAll(Bread.class, 
+            new FixedCoordinates(Wine.PORT).excluding(Wine.PORT)));
+
+    assertEquals(EnumSet.noneOf(Bread.class), 
+        truthTable.getAll(Bread.class, 
+            new FixedCoordinates().excluding(Bread.PITA, Bread.WHEAT)));
+  }
+
+  /**
+   * Tests that many threads can query the same truth table at once, with no
+   * synchronization, and get the same answers as a single thread does.
+   */
+  public void testConcurrentQuerying() throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Bread.PITA)
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .create());
+
+    builder.addAffinityGroups(      
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT)
+      .create());
+    
+    final TruthTable truthTable = builder.create();
+    final Set<Bread> portBreads = truthTable.getAll(Bread.class, 
+        new FixedCoordinates(Wine.PORT));
+    final Set<Wine> chickenWines = truthTable.getAll(Wine.class, 
+        new FixedCoordinates(Entree.CHICKEN));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> futures = Lists.newArrayList();
+      for (int thread = 0; thread < 8; thread++) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            for (int i = 0; i < 1000; i++) {
+              if (!portBreads.equals(truthTable.getAll(Bread.class, 
+                  new FixedCoordinates(Wine.PORT)))) {
+                return false;
+              }
+              if (!chickenWines.equals(truthTable.getAll(Wine.class, 
+                  new FixedCoordinates(Entree.CHICKEN)))) {
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static TruthTableBuilder buildMeals(TruthTableBuilder builder) {
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Bread.PITA)
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .create());
+
+    builder.addAffinityGroups(      
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT)
+      .create());
+    return builder;
+  }
+
+  public void testLazyIndexes() throws Exception {
+    RealTruthTable eager = (RealTruthTable) buildMeals(
+        new TruthTableBuilder()).create();
+    RealTruthTable lazy = (RealTruthTable) buildMeals(
+        new TruthTableBuilder().withLazyIndexes()).create();
+    RealTruthTable lazyIndexed = (RealTruthTable) buildMeals(
+        new TruthTableBuilder().withLazyIndexes().withPairwiseIndex())
+        .create();
+
+    assertTrue(eager.isWarm());
+    assertFalse(lazy.isWarm());
+    assertEquals(eager.getFingerprint(), lazy.getFingerprint());
+
+    for (Entree entree : Entree.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(entree);
+      assertEquals(eager.getAll(Wine.class, fixedCoordinates),
+          lazy.getAll(Wine.class, fixedCoordinates));
+      assertEquals(eager.getAll(Wine.class, fixedCoordinates),
+          lazyIndexed.getAll(Wine.class, fixedCoordinates));
+    }
+    assertEquals(eager.getAffinityGroupsInvolving(Entree.CHICKEN),
+        lazy.getAffinityGroupsInvolving(Entree.CHICKEN));
+    assertEquals(eager.getAffinityGroupsInvolving(Entree.PASTA),
+        lazy.getAffinityGroupsInvolving(Entree.PASTA));
+    assertFalse(lazy.isWarm());
+    // Every group touches all axes, so no search needed a next hop
+    assertEquals(0, lazy.getNextHopsCount());
+
+    assertTrue(lazy.warmUp().isWarm());
+    assertEquals(2, lazy.getNextHopsCount());
+    assertEquals(eager.getAffinityGroupsTouching(Bread.class),
+        lazy.getAffinityGroupsTouching(Bread.class));
+    assertEquals(eager.getAll(Bread.class), lazy.getAll(Bread.class));
+  }
+
+  /**
+   * Tests that many threads can run the first queries of a table with lazy
+   * indexes at once, and get the same answers as a table without.
+   */
+  public void testConcurrentQueryingWithLazyIndexes() throws Exception {
+    TruthTable eager = buildMeals(new TruthTableBuilder()).create();
+    final Set<Bread> portBreads = eager.getAll(Bread.class, 
+        new FixedCoordinates(Wine.PORT));
+    final Set<Wine> chickenWines = eager.getAll(Wine.class, 
+        new FixedCoordinates(Entree.CHICKEN));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      for (int table = 0; table < 20; table++) {
+        final TruthTable truthTable = 
+          buildMeals(new TruthTableBuilder().withLazyIndexes()).create();
+        List<Future<Boolean>> futures = Lists.newArrayList();
+        for (int thread = 0; thread < 8; thread++) {
+          futures.add(executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              return portBreads.equals(truthTable.getAll(Bread.class, 
+                  new FixedCoordinates(Wine.PORT)))
+                  && chickenWines.equals(truthTable.getAll(Wine.class, 
+                      new FixedCoordinates(Entree.CHICKEN)));
+            }
+          }));
+        }
+        for (Future<Boolean> future : futures) {
+          assertTrue(future.get());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
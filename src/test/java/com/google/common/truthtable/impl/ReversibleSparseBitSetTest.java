@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ReversibleSparseBitSet}.
+ *
+ * @author zorzella@google.com
+ */
+public class ReversibleSparseBitSetTest extends TestCase {
+
+  public void testStartsFull() throws Exception {
+    ReversibleSparseBitSet bits = new ReversibleSparseBitSet(130);
+    assertEquals(130, bits.cardinality());
+    assertTrue(bits.get(0));
+    assertTrue(bits.get(129));
+    assertEquals(0, bits.words[2] >>> 2);
+  }
+
+  public void testUndoRestoresEachLevel() throws Exception {
+    ReversibleSparseBitSet bits = new ReversibleSparseBitSet(130);
+
+    bits.newLevel();
+    // Only bits 1 and 128
+    bits.intersectWith(new long[] {2L, 0L, 1L});
+    assertEquals(2, bits.cardinality());
+
+    bits.newLevel();
+    bits.intersectWith(new long[] {0L, 0L, -1L});
+    // Saving a word twice in the same level must restore the first value
+    bits.intersectWith(new long[] {0L, 0L, 0L});
+    assertTrue(bits.isEmpty());
+
+    bits.undoLevel();
+    assertEquals("{1, 128}", bits.toString());
+
+    bits.undoLevel();
+    assertEquals(130, bits.cardinality());
+    assertEquals(0, bits.getLevel());
+  }
+
+  public void testReusedLevelsStillSaveWords() throws Exception {
+    ReversibleSparseBitSet bits = new ReversibleSparseBitSet(10);
+
+    bits.newLevel();
+    bits.intersectWith(new long[] {1L});
+    bits.undoLevel();
+
+    bits.newLevel();
+    bits.intersectWith(new long[] {2L});
+    bits.undoLevel();
+    assertEquals(10, bits.cardinality());
+  }
+
+  public void testCannotUndoWithoutALevel() throws Exception {
+    try {
+      new ReversibleSparseBitSet(10).undoLevel();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
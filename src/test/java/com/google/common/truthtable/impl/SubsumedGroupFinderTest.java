@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.Iterables;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests {@link SubsumedGroupFinder}, through 
+ * {@link TruthTableBuilder#withoutSubsumedGroups()}.
+ *
+ * @author zorzella@google.com
+ */
+public class SubsumedGroupFinderTest extends TestCase {
+
+  private static final Set<AffinityGroup> LARGE = 
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create();
+
+  private static final Set<AffinityGroup> MEDIUM = 
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .create();
+
+  private static final Set<AffinityGroup> SMALL = 
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Entree.STEAK)
+      .create();
+
+  /**
+   * A subset of the coordinates of LARGE, but touching one more axis.
+   */
+  private static final Set<AffinityGroup> WITH_BREAD = 
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Entree.STEAK)
+      .touching(Bread.PITA)
+      .create();
+
+  /**
+   * Overlaps with LARGE, but not a subset of it.
+   */
+  private static final Set<AffinityGroup> OVERLAPPING = 
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.CHIANTI)
+      .touching(Entree.STEAK)
+      .create();
+
+  private static final Set<AffinityGroup> BREAD = 
+    new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .create();
+
+  private static TruthTableBuilder builder() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+    builder.addAffinityGroups(SMALL);
+    builder.addAffinityGroups(LARGE);
+    builder.addAffinityGroups(MEDIUM);
+    builder.addAffinityGroups(WITH_BREAD);
+    builder.addAffinityGroups(OVERLAPPING);
+    builder.addAffinityGroups(BREAD);
+    return builder;
+  }
+
+  private static AffinityGroup only(Set<AffinityGroup> groups) {
+    return Iterables.getOnlyElement(groups);
+  }
+
+  public void testSubsumedGroupsAreDropped() throws Exception {
+    TruthTableBuilder builder = builder().withoutSubsumedGroups();
+    RealTruthTable truthTable = (RealTruthTable) builder.create();
+    SubsumptionReport report = builder.getLastSubsumptionReport();
+
+    assertEquals(6, report.getOriginalAffinityGroupCount());
+    assertEquals(4, report.getAffinityGroupCount());
+    assertEquals(2, report.getDroppedAffinityGroups().size());
+    assertSame(only(LARGE), 
+        report.getDroppedAffinityGroups().get(only(MEDIUM)));
+    assertSame(only(LARGE), 
+        report.getDroppedAffinityGroups().get(only(SMALL)));
+    assertEquals(4, truthTable.getAffinityGroups().size());
+    assertFalse(truthTable.getAffinityGroups().contains(only(SMALL)));
+    assertTrue(truthTable.getAffinityGroups().contains(only(WITH_BREAD)));
+    assertTrue(truthTable.getAffinityGroups().contains(only(OVERLAPPING)));
+  }
+
+  public void testDroppingChangesNoAnswer() throws Exception {
+    TruthTable all = builder().create();
+    TruthTable kept = builder().withoutSubsumedGroups().create();
+
+    for (Entree entree : Entree.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(entree);
+      assertEquals(all.getAll(Wine.class, fixedCoordinates),
+          kept.getAll(Wine.class, fixedCoordinates));
+      assertEquals(all.getAll(Bread.class, fixedCoordinates),
+          kept.getAll(Bread.class, fixedCoordinates));
+    }
+    for (Wine wine : Wine.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(wine);
+      assertEquals(all.getAll(Entree.class, fixedCoordinates),
+          kept.getAll(Entree.class, fixedCoordinates));
+    }
+  }
+
+  public void testManyKeptGroups() throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+    Bread[] breads = Bread.values();
+    for (Wine wine : Wine.values()) {
+      for (Entree entree : Entree.values()) {
+        for (int i = 0; i < breads.length; i++) {
+          builder.addAffinityGroups(new SimpleAffinityGroupBuilder()
+            .touching(wine)
+            .touching(entree)
+            .touching(breads[i])
+            .create());
+          if (i + 1 < breads.length) {
+            builder.addAffinityGroups(new SimpleAffinityGroupBuilder()
+              .touching(wine)
+              .touching(entree)
+              .touching(breads[i], breads[i + 1])
+              .create());
+          }
+        }
+      }
+    }
+    builder.withoutSubsumedGroups().create();
+    SubsumptionReport report = builder.getLastSubsumptionReport();
+
+    // Each single bread group is subsumed, but no group of two breads is
+    assertEquals(5 * 12 * 4, report.getAffinityGroupCount());
+    assertEquals(5 * 12 * 5, report.getDroppedAffinityGroups().size());
+    for (Map.Entry<AffinityGroup, AffinityGroup> entry
+        : report.getDroppedAffinityGroups().entrySet()) {
+      assertTrue(entry.getValue().getAllCoordinatesTouched()
+          .containsAll(entry.getKey().getAllCoordinatesTouched()));
+    }
+  }
+
+  public void testNoReportWithoutLooking() throws Exception {
+    TruthTableBuilder builder = builder();
+    builder.create();
+    assertNull(builder.getLastSubsumptionReport());
+  }
+}
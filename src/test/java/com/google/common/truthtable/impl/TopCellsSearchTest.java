@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link TruthTable#getTopCells(int, CoordinateWeights, FixedCoordinates)}.
+ *
+ * @author zorzella@google.com
+ */
+public class TopCellsSearchTest extends TestCase {
+
+  private AffinityGroup portGroup;
+
+  private TruthTable buildTruthTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    portGroup = new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create().iterator().next();
+    builder.addAffinityGroups(portGroup);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    return builder.create();
+  }
+
+  public void testTopCells() throws Exception {
+    TruthTable truthTable = buildTruthTable();
+    CoordinateWeights weights = new CoordinateWeights()
+      .weighing(Wine.CHIANTI, 5)
+      .weighing(Bread.WHITE, 1)
+      .weighing(Entree.PASTA, 3)
+      .weighing(Bread.OAT, 2);
+
+    List<ScoredCell> top = truthTable.getTopCells(2, weights);
+
+    assertEquals(2, top.size());
+    assertEquals(ImmutableList.of(Bread.WHITE, Entree.CHICKEN, Wine.CHIANTI),
+        top.get(0).getCoordinates());
+    assertEquals(6.0, top.get(0).getScore());
+    assertEquals(Bread.OAT, top.get(1).get(Bread.class));
+    assertEquals(Entree.PASTA, top.get(1).get(Entree.class));
+    assertEquals(5.0, top.get(1).getScore());
+  }
+
+  public void testTopCellsWithFixedCoordinatesAndGroupWeights()
+      throws Exception {
+    TruthTable truthTable = buildTruthTable();
+    CoordinateWeights weights = new CoordinateWeights()
+      .weighing(Wine.CHIANTI, 5)
+      .weighing(portGroup, 10)
+      .weighing(Bread.PITA, 1);
+
+    List<ScoredCell> top = truthTable.getTopCells(1, weights,
+        new FixedCoordinates(Entree.STEAK).excluding(Wine.PORT));
+
+    assertEquals(1, top.size());
+    assertEquals(ImmutableList.of(Bread.PITA, Entree.STEAK, Wine.MERLOT),
+        top.get(0).getCoordinates());
+    assertEquals(11.0, top.get(0).getScore());
+  }
+
+  public void testTopCellsAgreesWithBruteForce() throws Exception {
+    TruthTable truthTable = buildTruthTable();
+    CoordinateWeights weights = new CoordinateWeights()
+      .weighing(Wine.CHIANTI, 1.5)
+      .weighing(Wine.PORT, -1)
+      .weighing(Bread.OAT, 0.5)
+      .weighing(Entree.STEAK, 2)
+      .weighing(portGroup, 0.25);
+
+    List<Double> expected = Lists.newArrayList();
+    for (Wine wine : Wine.values()) {
+      for (Bread bread : Bread.values()) {
+        for (Entree entree : Entree.values()) {
+          if (!truthTable.getAll(Wine.class,
+              new FixedCoordinates(bread, entree)).contains(wine)) {
+            continue;
+          }
+          double score = weights.getWeight(wine) + weights.getWeight(bread)
+              + weights.getWeight(entree);
+          if (portGroup.touches(wine) && portGroup.touches(entree)) {
+            score += 0.25;
+          }
+          expected.add(score);
+        }
+      }
+    }
+    Collections.sort(expected, Collections.reverseOrder());
+
+    for (int k = 1; k <= expected.size() + 1; k++) {
+      List<ScoredCell> top = truthTable.getTopCells(k, weights);
+      assertEquals(Math.min(k, expected.size()), top.size());
+      for (int i = 0; i < top.size(); i++) {
+        assertEquals(expected.get(i), top.get(i).getScore());
+      }
+    }
+  }
+
+  public void testKMustBePositive() throws Exception {
+    try {
+      buildTruthTable().getTopCells(0, new CoordinateWeights());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TruthTableFingerprint}.
+ *
+ * @author zorzella@google.com
+ */
+public class TruthTableFingerprintTest extends TestCase {
+
+  private static final SimpleAffinityGroupBuilder PORT_GROUP =
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA);
+
+  private static final SimpleAffinityGroupBuilder CHIANTI_GROUP =
+    new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT);
+
+  private static RealTruthTable build(SimpleAffinityGroupBuilder... groups) {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+    for (SimpleAffinityGroupBuilder group : groups) {
+      builder.addAffinityGroups(group.create());
+    }
+    return (RealTruthTable) builder.create();
+  }
+
+  public void testSameContentsHaveTheSameFingerprint() throws Exception {
+    assertEquals(build(PORT_GROUP, CHIANTI_GROUP).getFingerprint(),
+        build(CHIANTI_GROUP, PORT_GROUP).getFingerprint());
+  }
+
+  public void testDifferentContentsHaveDifferentFingerprints()
+      throws Exception {
+    assertFalse(build(PORT_GROUP, CHIANTI_GROUP).getFingerprint()
+        == build(PORT_GROUP).getFingerprint());
+  }
+
+  public void testTheBuilderKnowsTheFingerprint() throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+    builder.addAffinityGroups(PORT_GROUP.create());
+    builder.addAffinityGroups(CHIANTI_GROUP.create());
+    long fingerprint = builder.getFingerprint();
+    assertEquals(fingerprint, 
+        ((RealTruthTable) builder.create()).getFingerprint());
+  }
+}
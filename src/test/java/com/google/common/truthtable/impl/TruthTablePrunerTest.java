@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests {@link TruthTablePruner}, through 
+ * {@link TruthTableBuilder#withPruning()}.
+ *
+ * @author zorzella@google.com
+ */
+public class TruthTablePrunerTest extends TestCase {
+
+  private static TruthTableBuilder buildCrufty(TruthTableBuilder builder) {
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Bread.PITA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Bread.PITA)
+      .touching(Entree.STEAK)
+      .create());
+
+    // Nothing else touches WHEAT, so this is part of no complete path
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Bread.WHEAT)
+      .create());
+
+    // OAT is part of no true cell
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.MERLOT)
+      .touching(Bread.PITA, Bread.OAT)
+      .create());
+    return builder;
+  }
+
+  public void testPruning() throws Exception {
+    TruthTableBuilder builder = buildCrufty(new TruthTableBuilder())
+      .withPruning();
+    RealTruthTable truthTable = (RealTruthTable) builder.create();
+    PruningReport report = builder.getLastPruningReport();
+
+    assertEquals(4, report.getOriginalAffinityGroupCount());
+    assertEquals(3, report.getAffinityGroupCount());
+    assertEquals(3, truthTable.getAffinityGroups().size());
+    assertEquals(2, report.getRemovedAffinityGroups().size());
+    assertEquals(ImmutableSet.of(Wine.CHIANTI, Bread.WHEAT, Bread.OAT),
+        ImmutableSet.copyOf(report.getRemovedCoordinates()));
+    assertTrue(truthTable.getAffinityGroupsInvolving(Bread.OAT).isEmpty());
+    assertEquals(3, truthTable.getAffinityGroupsInvolving(Bread.PITA).size());
+  }
+
+  public void testPruningChangesNoAnswer() throws Exception {
+    TruthTable unpruned = buildCrufty(new TruthTableBuilder()).create();
+    TruthTable pruned = 
+      buildCrufty(new TruthTableBuilder()).withPruning().create();
+
+    for (Wine wine : Wine.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(wine);
+      assertEquals(unpruned.getAll(Bread.class, fixedCoordinates),
+          pruned.getAll(Bread.class, fixedCoordinates));
+      assertEquals(unpruned.getAll(Entree.class, fixedCoordinates),
+          pruned.getAll(Entree.class, fixedCoordinates));
+    }
+    for (Bread bread : Bread.values()) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(bread);
+      assertEquals(unpruned.getAll(Wine.class, fixedCoordinates),
+          pruned.getAll(Wine.class, fixedCoordinates));
+    }
+  }
+
+  /**
+   * Compares a pruned table with an unpruned one, for random fixed
+   * coordinates.
+   */
+  public void testPruningChangesNoAnswerOfALargerTable() throws Exception {
+    Random random = new Random(0);
+    TruthTableBuilder unprunedBuilder = new TruthTableBuilder();
+    TruthTableBuilder prunedBuilder = new TruthTableBuilder().withPruning();
+    unprunedBuilder.forAxes(Wine.class, Bread.class, Entree.class, 
+        Dessert.class);
+    prunedBuilder.forAxes(Wine.class, Bread.class, Entree.class, 
+        Dessert.class);
+    // A few complete groups, so that all axes are touched
+    for (int i = 0; i < 3; i++) {
+      Set<AffinityGroup> group = new SimpleAffinityGroupBuilder()
+        .touching(Wine.values()[i])
+        .touching(Bread.values()[i])
+        .touching(Entree.values()[i])
+        .touching(Dessert.values()[i])
+        .create();
+      unprunedBuilder.addAffinityGroups(group);
+      prunedBuilder.addAffinityGroups(group);
+    }
+    for (int i = 0; i < 12; i++) {
+      SimpleAffinityGroupBuilder group = new SimpleAffinityGroupBuilder()
+        .touching(Entree.values()[random.nextInt(Entree.values().length)]);
+      if (random.nextBoolean()) {
+        group.touching(Wine.values()[random.nextInt(Wine.values().length)]);
+      }
+      if (random.nextBoolean()) {
+        group.touching(Bread.values()[random.nextInt(Bread.values().length)]);
+      }
+      group.touching(Dessert.values()[random.nextInt(8)]);
+      try {
+        Set<AffinityGroup> created = group.create();
+        unprunedBuilder.addAffinityGroups(created);
+        prunedBuilder.addAffinityGroups(created);
+      } catch (IllegalArgumentException e) {
+        // The same group twice
+      }
+    }
+    TruthTable unpruned = unprunedBuilder.create();
+    TruthTable pruned = prunedBuilder.create();
+
+    for (int i = 0; i < 200; i++) {
+      FixedCoordinates fixedCoordinates = new FixedCoordinates(
+          Entree.values()[random.nextInt(Entree.values().length)])
+          .excluding(Wine.values()[random.nextInt(Wine.values().length)]);
+      assertEquals(unpruned.getAll(Wine.class, fixedCoordinates),
+          pruned.getAll(Wine.class, fixedCoordinates));
+      assertEquals(unpruned.getAll(Dessert.class, fixedCoordinates),
+          pruned.getAll(Dessert.class, fixedCoordinates));
+    }
+  }
+
+  public void testNothingToPrune() throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder().withPruning();
+    builder.forAxes(Wine.class, Bread.class);
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Bread.PITA)
+      .create());
+    builder.create();
+
+    assertTrue(builder.getLastPruningReport()
+        .getRemovedAffinityGroups().isEmpty());
+    assertTrue(builder.getLastPruningReport()
+        .getRemovedCoordinates().isEmpty());
+  }
+
+  public void testNoReportWithoutPruning() throws Exception {
+    TruthTableBuilder builder = buildCrufty(new TruthTableBuilder());
+    builder.create();
+    assertNull(builder.getLastPruningReport());
+  }
+}
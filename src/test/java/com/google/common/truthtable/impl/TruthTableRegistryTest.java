@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.truthtable.TruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TruthTableRegistry}.
+ *
+ * @author zorzella@google.com
+ */
+public class TruthTableRegistryTest extends TestCase {
+
+  private static TruthTableBuilder builder(TruthTableRegistry registry, 
+      Wine wine) {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(wine)
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA)
+      .create());
+    return builder.usingRegistry(registry);
+  }
+
+  public void testSameContentsAreBuiltOnce() throws Exception {
+    TruthTableRegistry registry = new TruthTableRegistry();
+    TruthTable first = builder(registry, Wine.PORT).create();
+    TruthTable second = builder(registry, Wine.PORT).create();
+
+    assertSame(first, second);
+    assertEquals(1, registry.size());
+    assertEquals(1, registry.getHitCount());
+    assertEquals(1, registry.getMissCount());
+  }
+
+  public void testDifferentContentsAreBuiltApart() throws Exception {
+    TruthTableRegistry registry = new TruthTableRegistry();
+    TruthTable port = builder(registry, Wine.PORT).create();
+    TruthTable chianti = builder(registry, Wine.CHIANTI).create();
+    TruthTable indexed = 
+      builder(registry, Wine.PORT).withPairwiseIndex().create();
+
+    assertNotSame(port, chianti);
+    assertNotSame(port, indexed);
+    assertTrue(((RealTruthTable) indexed).hasPairwiseIndex());
+    assertEquals(3, registry.size());
+    assertEquals(0, registry.getHitCount());
+  }
+
+  public void testPassesRunOnlyOnAMiss() throws Exception {
+    TruthTableRegistry registry = new TruthTableRegistry();
+    TruthTableBuilder first = builder(registry, Wine.PORT).withPruning();
+    TruthTable built = first.create();
+    TruthTableBuilder second = builder(registry, Wine.PORT).withPruning();
+
+    assertSame(built, second.create());
+    // Pruning again would have reported anew
+    assertSame(first.getLastPruningReport(), 
+        second.getLastPruningReport());
+    assertEquals(1, registry.getHitCount());
+  }
+
+  public void testOptionsAreBuiltApartButShareContents() throws Exception {
+    TruthTableRegistry registry = new TruthTableRegistry();
+    TruthTable plain = builder(registry, Wine.PORT).create();
+    TruthTableBuilder builder = builder(registry, Wine.PORT).withPruning();
+    TruthTable pruned = builder.create();
+
+    // Nothing to prune, so both builds end up with the same table
+    assertNotNull(builder.getLastPruningReport());
+    assertSame(plain, pruned);
+    assertEquals(1, registry.size());
+    assertEquals(0, registry.getHitCount());
+    assertEquals(2, registry.getMissCount());
+  }
+
+  public void testClear() throws Exception {
+    TruthTableRegistry registry = new TruthTableRegistry();
+    TruthTable first = builder(registry, Wine.PORT).create();
+    registry.clear();
+
+    assertEquals(0, registry.size());
+    assertNotSame(first, builder(registry, Wine.PORT).create());
+  }
+}
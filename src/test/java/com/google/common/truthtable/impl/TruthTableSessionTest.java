@@ -0,0 +1,282 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tests {@link TruthTableSession}.
+ *
+ * @author zorzella@google.com
+ */
+public class TruthTableSessionTest extends TestCase {
+
+  private static final byte[] KEY = {4, 8, 15, 16, 23, 42};
+
+  public void testFixAndUndo() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    TruthTableSession session = new TruthTableSession(truthTable);
+    assertEquals(EnumSet.of(Wine.PORT, Wine.MERLOT, Wine.CHIANTI),
+        session.getFacet(Wine.class));
+
+    session.fix(Wine.CHIANTI);
+    assertEquals(1, session.getDepth());
+    assertEquals(EnumSet.of(Entree.CHICKEN), session.getFacet(Entree.class));
+    assertEquals(EnumSet.of(Bread.WHEAT, Bread.WHITE),
+        session.getFacet(Bread.class));
+    assertEquals(EnumSet.of(Dessert.values()[65], Dessert.values()[70]),
+        session.getFacet(Dessert.class));
+    assertTrue(session.isValid(Bread.WHITE));
+    assertFalse(session.isValid(Bread.PITA));
+
+    session.exclude(Dessert.values()[65], Dessert.values()[70]);
+    assertFalse(session.hasTrueCells());
+    assertTrue(session.getFacet(Wine.class).isEmpty());
+
+    session.undo().undo();
+    assertEquals(0, session.getDepth());
+    assertEquals(EnumSet.of(Wine.PORT, Wine.MERLOT, Wine.CHIANTI),
+        session.getFacet(Wine.class));
+    assertEquals(truthTable.getAll(Entree.class),
+        session.getFacet(Entree.class));
+  }
+
+  public void testFixingManyCoordinatesOfAnAxis() throws Exception {
+    TruthTableSession session = 
+      new TruthTableSession(BogusTruthTables.buildFourAxisTable());
+
+    session.fix(Entree.PASTA, Entree.CHICKEN).fix(Bread.PITA);
+
+    assertEquals(EnumSet.of(Entree.PASTA), session.getFacet(Entree.class));
+    assertEquals(EnumSet.of(Wine.PORT, Wine.MERLOT),
+        session.getFacet(Wine.class));
+  }
+
+  public void testCoordinatesMustBeOfTheSameAxis() throws Exception {
+    try {
+      new TruthTableSession(BogusTruthTables.buildFourAxisTable())
+          .fix(Wine.PORT, Bread.OAT);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testCannotUndoPastTheStart() throws Exception {
+    try {
+      new TruthTableSession(BogusTruthTables.buildFourAxisTable()).undo();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  /**
+   * Randomly fixes, excludes and undoes, and compares the facets with
+   * {@link RealTruthTable#getAll(Class, MaskBuffer)} over the same fixed
+   * coordinates.
+   */
+  public void testAgreesWithGetAll() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    MaskLayout layout = truthTable.getMaskLayout();
+    TruthTableSession session = new TruthTableSession(truthTable);
+    List<MaskBuffer> history = Lists.newArrayList();
+    history.add(new MaskBuffer(layout));
+    Random random = new Random(0);
+
+    for (int step = 0; step < 500; step++) {
+      MaskBuffer fixed = history.get(history.size() - 1);
+      if (random.nextInt(3) == 0 && session.getDepth() > 0) {
+        session.undo();
+        history.remove(history.size() - 1);
+      } else {
+        int axisIndex = random.nextInt(layout.getAxisCount());
+        int coordinateCount = layout.getCoordinateCount(axisIndex);
+        // Picking among the first few desserts, as the others are never valid
+        Enum<?> coordinate = layout.getCoordinate(axisIndex,
+            random.nextInt(Math.min(coordinateCount, 72)));
+        MaskBuffer next = new MaskBuffer(layout).copyFrom(fixed);
+        if (random.nextBoolean()) {
+          session.fix(coordinate);
+          boolean wasFixed = next.contains(axisIndex, coordinate.ordinal());
+          next.noneOf(axisIndex);
+          if (wasFixed) {
+            next.add(axisIndex, coordinate.ordinal());
+          }
+        } else {
+          session.exclude(coordinate);
+          next.remove(axisIndex, coordinate.ordinal());
+        }
+        history.add(next);
+      }
+      assertEquals(history.size() - 1, session.getDepth());
+      MaskBuffer current = history.get(history.size() - 1);
+      assertEquals(truthTable.getAll(Wine.class, current),
+          session.getFacet(Wine.class));
+      assertEquals(truthTable.getAll(Bread.class, current),
+          session.getFacet(Bread.class));
+      assertEquals(truthTable.getAll(Entree.class, current),
+          session.getFacet(Entree.class));
+      assertEquals(truthTable.getAll(Dessert.class, current),
+          session.getFacet(Dessert.class));
+    }
+  }
+
+  public void testDeadGroupsAreNotLive() throws Exception {
+    TruthTableSession session = 
+      new TruthTableSession(BogusTruthTables.buildFourAxisTable());
+    assertEquals(4, session.getLiveGroupCount());
+
+    session.fix(Wine.CHIANTI);
+    // Only the CHIANTI group and the CHICKEN/dessert group are left
+    assertEquals(2, session.getLiveGroupCount());
+
+    session.undo();
+    assertEquals(4, session.getLiveGroupCount());
+  }
+
+  public void testResumingFromAToken() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    TruthTableSession session = new TruthTableSession(truthTable)
+      .exclude(Wine.PORT)
+      .fix(Entree.STEAK, Entree.PASTA)
+      .fix(Bread.OAT);
+    String token = session.toToken(KEY);
+
+    TruthTableSession resumed =
+      TruthTableSession.resume(
+          BogusTruthTables.buildFourAxisTable(), token, KEY);
+
+    assertEquals(3, resumed.getDepth());
+    assertEquals(session.toString(), resumed.toString());
+    assertEquals(session.getLiveGroupCount(), resumed.getLiveGroupCount());
+    assertEquals(token, resumed.toToken(KEY));
+
+    // Undoing needs facets that the token does not have
+    session.undo();
+    resumed.undo();
+    assertEquals(session.toString(), resumed.toString());
+    assertEquals(session.toToken(KEY), resumed.toToken(KEY));
+    session.undo().undo();
+    resumed.undo().undo();
+    assertEquals(session.toString(), resumed.toString());
+
+    resumed.fix(Wine.CHIANTI);
+    assertEquals(EnumSet.of(Entree.CHICKEN), resumed.getFacet(Entree.class));
+  }
+
+  public void testTokensAreForASingleTable() throws Exception {
+    String token = new TruthTableSession(BogusTruthTables.buildFourAxisTable())
+      .fix(Wine.MERLOT).toToken(KEY);
+
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class, Dessert.class);
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.MERLOT)
+      .touching(Entree.STEAK)
+      .touching(Bread.PITA)
+      .touching(Dessert.APPLE_PIE)
+      .create());
+    try {
+      TruthTableSession.resume((RealTruthTable) builder.create(), token, KEY);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testMalformedTokens() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    byte[] bytes = new TruthTableSession(truthTable).fix(Wine.MERLOT)
+        .toBytes(KEY);
+
+    try {
+      TruthTableSession.resume(truthTable,
+          Arrays.copyOf(bytes, bytes.length - 1), KEY);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      TruthTableSession.resume(truthTable,
+          Arrays.copyOf(bytes, bytes.length + 1), KEY);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      TruthTableSession.resume(truthTable, "not a token!", KEY);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testResumingRunsNoSearch() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    TruthTableSession session = new TruthTableSession(truthTable)
+      .exclude(Wine.PORT)
+      .fix(Entree.STEAK, Entree.PASTA);
+
+    TruthTableSession resumed = 
+      TruthTableSession.resume(truthTable, session.toBytes(KEY), KEY);
+
+    assertEquals(0, resumed.getSearchCount());
+    assertEquals(session.toString(), resumed.toString());
+    assertEquals(session.getLiveGroupCount(), resumed.getLiveGroupCount());
+  }
+
+  public void testFacetsNotSignedWithTheKeyAreRecomputed() throws Exception {
+    RealTruthTable truthTable = BogusTruthTables.buildFourAxisTable();
+    TruthTableSession session = new TruthTableSession(truthTable)
+      .fix(Wine.MERLOT);
+    byte[] bytes = session.toBytes("someone else's key".getBytes("UTF-8"));
+
+    TruthTableSession resumed = 
+      TruthTableSession.resume(truthTable, bytes, KEY);
+
+    assertTrue(resumed.getSearchCount() > 0);
+    assertEquals(session.toString(), resumed.toString());
+  }
+
+  public void testInterruptedStepsAreNotTaken() throws Exception {
+    TruthTableSession session = 
+      new TruthTableSession(BogusTruthTables.buildFourAxisTable())
+        .fix(Entree.STEAK);
+    String before = session.toString();
+
+    boolean wereInterruptible = InterruptibleQueries.begin();
+    Thread.currentThread().interrupt();
+    try {
+      session.fix(Bread.OAT);
+      fail();
+    } catch (CancellationException expected) {
+    } finally {
+      assertTrue(Thread.interrupted());
+      InterruptibleQueries.end(wereInterruptible);
+    }
+    assertEquals(1, session.getDepth());
+    assertEquals(before, session.toString());
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.server;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ *
+ * @author zorzella@google.com
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public void testNoLatencies() throws Exception {
+    assertEquals(0, new LatencyHistogram().getPercentileNanos(0.5));
+  }
+
+  public void testSmallLatenciesAreExact() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 0; nanos < 16; nanos++) {
+      histogram.record(nanos);
+    }
+    assertEquals(7, histogram.getPercentileNanos(0.5));
+    assertEquals(15, histogram.getPercentileNanos(1));
+  }
+
+  public void testPercentilesAreAtMostAnEighthOff() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 1000; micros++) {
+      histogram.record(micros * 1000);
+    }
+    assertBetween(500000, 562500, histogram.getPercentileNanos(0.5));
+    assertBetween(990000, 1113750, histogram.getPercentileNanos(0.99));
+    assertBetween(1000000, 1125000, histogram.getPercentileNanos(1));
+  }
+
+  public void testLargestLatency() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(1));
+  }
+
+  private static void assertBetween(long min, long max, long actual) {
+    assertTrue(actual + " < " + min, actual >= min);
+    assertTrue(actual + " > " + max, actual <= max);
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.server;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.truthtable.impl.RealTruthTable;
+import com.google.common.truthtable.impl.SimpleAffinityGroupBuilder;
+import com.google.common.truthtable.impl.TruthTableBuilder;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+import com.google.common.truthtable.testing.BogusTruthTables;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import junit.framework.TestCase;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests {@link TruthTableServer}.
+ *
+ * @author zorzella@google.com
+ */
+public class TruthTableServerTest extends TestCase {
+
+  private ExecutorService executor;
+  private TruthTableServer server;
+
+  /**
+   * Holds an axis with the same simple name as {@link Wine}.
+   */
+  static class Cellar {
+    enum Wine {
+      PORT, CHIANTI,
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    executor = Executors.newCachedThreadPool();
+    server = new TruthTableServer(new InetSocketAddress("localhost", 0), 
+        executor, 100);
+    server.addTable("dinner", BogusTruthTables.buildTwoPathTable());
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  /**
+   * The status and the JSON body of a response.
+   */
+  private static class Response {
+    final int status;
+    final JsonObject body;
+
+    Response(int status, JsonObject body) {
+      this.status = status;
+      this.body = body;
+    }
+  }
+
+  private Response request(String method, String path, String body) 
+      throws Exception {
+    URL url = new URL("http", server.getAddress().getHostName(), 
+        server.getAddress().getPort(), path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      OutputStream out = connection.getOutputStream();
+      out.write(body.getBytes(Charsets.UTF_8));
+      out.close();
+    }
+    int status = connection.getResponseCode();
+    InputStream in = status < 400 
+        ? connection.getInputStream() : connection.getErrorStream();
+    String response = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    in.close();
+    return new Response(status, 
+        new JsonParser().parse(response).getAsJsonObject());
+  }
+
+  private Response post(String path, String body) throws Exception {
+    return request("POST", path, body);
+  }
+
+  private static Set<String> names(JsonElement array) {
+    Set<String> result = Sets.newHashSet();
+    for (JsonElement element : array.getAsJsonArray()) {
+      result.add(element.getAsString());
+    }
+    return result;
+  }
+
+  public void testGetAll() throws Exception {
+    Response response = post("/tables/dinner/getAll", 
+        "{axis: 'Bread', fixed: {Entree: ['CHICKEN']}, "
+        + "excluded: {Wine: ['PORT']}}");
+    assertEquals(200, response.status);
+    assertEquals(ImmutableSet.of("WHEAT"), 
+        names(response.body.get("coordinates")));
+
+    response = post("/tables/dinner/getAll", "{axis: 'Bread'}");
+    assertEquals(ImmutableSet.of("PITA", "WHEAT"), 
+        names(response.body.get("coordinates")));
+  }
+
+  public void testFacets() throws Exception {
+    Response response = post("/tables/dinner/facets", 
+        "{fixed: {Entree: ['STEAK']}}");
+    assertEquals(200, response.status);
+    JsonObject facets = response.body.getAsJsonObject("facets");
+    assertEquals(ImmutableSet.of("PORT"), names(facets.get("Wine")));
+    assertEquals(ImmutableSet.of("PITA"), names(facets.get("Bread")));
+    assertEquals(ImmutableSet.of("STEAK"), names(facets.get("Entree")));
+
+    response = post("/tables/dinner/facets", 
+        "{axes: ['Wine'], fixed: {Bread: ['WHEAT']}}");
+    facets = response.body.getAsJsonObject("facets");
+    assertEquals(1, facets.entrySet().size());
+    assertEquals(ImmutableSet.of("CHIANTI"), names(facets.get("Wine")));
+  }
+
+  public void testIsTrue() throws Exception {
+    Response response = post("/tables/dinner/isTrue", 
+        "{cell: {Wine: 'PORT', Bread: 'PITA', Entree: 'CHICKEN'}}");
+    assertEquals(200, response.status);
+    assertTrue(response.body.get("isTrue").getAsBoolean());
+
+    response = post("/tables/dinner/isTrue", 
+        "{cell: {Wine: 'PORT', Bread: 'WHEAT', Entree: 'CHICKEN'}}");
+    assertFalse(response.body.get("isTrue").getAsBoolean());
+
+    response = post("/tables/dinner/isTrue", 
+        "{cell: {Wine: 'PORT', Bread: 'PITA'}}");
+    assertEquals(400, response.status);
+  }
+
+  public void testTables() throws Exception {
+    Response response = request("GET", "/tables", null);
+    assertEquals(200, response.status);
+    assertEquals(ImmutableSet.of("Wine", "Bread", "Entree"), 
+        names(response.body.getAsJsonObject("tables").get("dinner")));
+  }
+
+  public void testAxesWithTheSameSimpleNameGoByTheirFullName() 
+      throws Exception {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Cellar.Wine.class, Bread.class);
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT)
+      .touching(Cellar.Wine.CHIANTI)
+      .touching(Bread.PITA)
+      .create());
+    server.addTable("cellar", (RealTruthTable) builder.create());
+
+    Set<String> axes = ImmutableSet.of(
+        Wine.class.getName(), Cellar.Wine.class.getName(), "Bread");
+    assertEquals(axes, names(request("GET", "/tables", null).body
+        .getAsJsonObject("tables").get("cellar")));
+    Response response = post("/tables/cellar/facets", 
+        "{fixed: {'" + Cellar.Wine.class.getName() + "': ['CHIANTI']}}");
+    assertEquals(200, response.status);
+    JsonObject facets = response.body.getAsJsonObject("facets");
+    assertEquals(axes.size(), facets.entrySet().size());
+    assertEquals(ImmutableSet.of("PORT"), 
+        names(facets.get(Wine.class.getName())));
+    assertEquals(400, post("/tables/cellar/getAll", "{axis: 'Wine'}").status);
+  }
+
+  public void testErrors() throws Exception {
+    assertEquals(404, post("/tables/lunch/getAll", "{axis: 'Bread'}").status);
+    assertEquals(404, post("/tables/dinner/getNone", "{}").status);
+    assertEquals(404, request("GET", "/nothing", null).status);
+    assertEquals(405, request("GET", "/tables/dinner/getAll", null).status);
+    assertEquals(405, post("/metrics", "{}").status);
+
+    Response response = post("/tables/dinner/getAll", "{axis: 'Dessert'}");
+    assertEquals(400, response.status);
+    assertTrue(response.body.has("error"));
+    assertEquals(400, post("/tables/dinner/getAll", "{}").status);
+    assertEquals(400, post("/tables/dinner/getAll", 
+        "{axis: 'Bread', fixed: {Wine: ['BEER']}}").status);
+    assertEquals(400, post("/tables/dinner/getAll", "{axis: ").status);
+    assertEquals(400, post("/tables/dinner/getAll", "").status);
+  }
+
+  public void testAnAxisCanNotBeGivenTwice() throws Exception {
+    assertEquals(400, post("/tables/dinner/getAll", "{axis: 'Bread', fixed: {"
+        + "Wine: ['PORT'], '" + Wine.class.getName() + "': ['CHIANTI']}}")
+        .status);
+    assertEquals(400, post("/tables/dinner/isTrue", "{cell: {Wine: 'PORT', "
+        + "'" + Wine.class.getName() + "': 'PORT', Bread: 'PITA'}}").status);
+  }
+
+  public void testLongQueriesAreRejected() throws Exception {
+    StringBuilder body = new StringBuilder("{axis: 'Bread'}");
+    while (body.length() <= TruthTableServer.MAX_REQUEST_BYTES) {
+      body.append(' ');
+    }
+    assertEquals(413, post("/tables/dinner/getAll", body.toString()).status);
+    body.setLength(TruthTableServer.MAX_REQUEST_BYTES);
+    assertEquals(200, post("/tables/dinner/getAll", body.toString()).status);
+  }
+
+  public void testReplacingATableDropsItsResponses() throws Exception {
+    post("/tables/dinner/getAll", "{axis: 'Bread'}");
+    post("/tables/dinner/getAll", "{axis: 'Entree'}");
+    server.addTable("lunch", BogusTruthTables.buildTwoPathTable());
+    post("/tables/lunch/getAll", "{axis: 'Bread'}");
+
+    server.addTable("dinner", BogusTruthTables.buildTwoPathTable());
+    JsonObject cache = request("GET", "/metrics", null).body
+        .getAsJsonObject("cache");
+    assertEquals(1, cache.get("size").getAsInt());
+  }
+
+  public void testEquivalentQueriesAreCached() throws Exception {
+    post("/tables/dinner/getAll", "{axis: 'Bread', fixed: {Wine: ['PORT']}}");
+    // The same coordinates, by exclusion and by full axis name
+    post("/tables/dinner/getAll", "{axis: 'Bread', excluded: {"
+        + "'" + Wine.class.getName() + "': "
+        + "['CHIANTI', 'MERLOT', 'PINOT_NOIR', 'ZINFANDEL']}}");
+    post("/tables/dinner/getAll", "{axis: 'Entree'}");
+
+    Response metrics = request("GET", "/metrics", null);
+    assertEquals(200, metrics.status);
+    JsonObject cache = metrics.body.getAsJsonObject("cache");
+    assertEquals(2, cache.get("size").getAsInt());
+    assertEquals(1, cache.get("hits").getAsInt());
+    assertEquals(2, cache.get("misses").getAsInt());
+    JsonObject getAll = metrics.body.getAsJsonObject("endpoints")
+        .getAsJsonObject("getAll");
+    assertEquals(3, getAll.get("count").getAsInt());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.testing;
+
+import com.google.common.truthtable.impl.RealTruthTable;
+import com.google.common.truthtable.impl.SimpleAffinityGroupBuilder;
+import com.google.common.truthtable.impl.TruthTableBuilder;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Dessert;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+/**
+ * Do not use this for production code.
+ *
+ * <p>Small tables, over the {@link BogusTruthTableTestingEnums}, shared by 
+ * the tests that only need some table to query.
+ *
+ * @author zorzella@google.com
+ */
+public final class BogusTruthTables {
+
+  private BogusTruthTables() {}
+
+  /**
+   * Returns a builder for two paths over wines, breads and entrees: 
+   * {@code wine}, {@code PITA} and {@code STEAK} or {@code CHICKEN}; and
+   * {@code CHIANTI}, {@code WHEAT} and {@code CHICKEN}. More groups can be
+   * added to it.
+   */
+  public static TruthTableBuilder twoPathBuilder(Wine wine) {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(wine)
+      .touching(Bread.PITA)
+      .touching(Entree.STEAK, Entree.CHICKEN)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT)
+      .create());
+
+    return builder;
+  }
+
+  /**
+   * Same as {@link #twoPathBuilder(Wine)}, built, with {@code PORT}.
+   */
+  public static RealTruthTable buildTwoPathTable() {
+    return (RealTruthTable) twoPathBuilder(Wine.PORT).create();
+  }
+
+  /**
+   * Returns a table over wines, breads, entrees and desserts, whose paths 
+   * overlap, and some of whose desserts take a second word of masks.
+   */
+  public static RealTruthTable buildFourAxisTable() {
+    TruthTableBuilder builder = new TruthTableBuilder();
+    builder.forAxes(Wine.class, Bread.class, Entree.class, Dessert.class);
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.PORT, Wine.MERLOT)
+      .touching(Entree.STEAK, Entree.CHICKEN, Entree.PASTA)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.STEAK, Entree.PASTA)
+      .touching(Bread.PITA, Bread.OAT)
+      .touching(Dessert.APPLE_PIE, Dessert.values()[70])
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Wine.CHIANTI)
+      .touching(Entree.CHICKEN)
+      .touching(Bread.WHEAT, Bread.WHITE)
+      .create());
+
+    builder.addAffinityGroups(
+      new SimpleAffinityGroupBuilder()
+      .touching(Entree.CHICKEN, Entree.STEAK)
+      .touching(Dessert.values()[65], Dessert.values()[70])
+      .create());
+
+    return (RealTruthTable) builder.create();
+  }
+}
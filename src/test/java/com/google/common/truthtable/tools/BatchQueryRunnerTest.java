@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.tools;
+
+import com.google.common.truthtable.impl.RealTruthTable;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.PrintWriter;
+
+/**
+ * Tests {@link BatchQueryRunner}.
+ *
+ * @author zorzella@google.com
+ */
+public class BatchQueryRunnerTest extends TestCase {
+
+  private static RealTruthTable readTruthTable() throws Exception {
+    return TableFile.read(new StringReader(TableFileTest.TABLE));
+  }
+
+  public void testAnswersInOrder() throws Exception {
+    BatchQueryRunner runner = new BatchQueryRunner(readTruthTable(), 4, 0);
+    StringWriter out = new StringWriter();
+
+    runner.run(new StringReader(
+        "Bread\n"
+        + "\n"
+        + "Bread Entree:CHICKEN !Wine:PORT\n"
+        + "Wine Bread:WHEAT,PITA Entree:STEAK\n"
+        + "Entree Wine:MERLOT\n"
+        + "Dessert\n"
+        + "Bread Wine:BEER\n"
+        + "Bread Wine:,\n"
+        + "Bread Wine:PORT,\n"), out);
+
+    String[] lines = out.toString().split("\n");
+    assertEquals(8, lines.length);
+    assertEquals("Bread\tPITA,WHEAT", lines[0]);
+    assertEquals("Bread Entree:CHICKEN !Wine:PORT\tWHEAT", lines[1]);
+    assertEquals("Wine Bread:WHEAT,PITA Entree:STEAK\tPORT", lines[2]);
+    assertEquals("Entree Wine:MERLOT\t", lines[3]);
+    assertTrue(lines[4], lines[4].startsWith("Dessert\terror: "));
+    assertTrue(lines[5], lines[5].startsWith("Bread Wine:BEER\terror: "));
+    assertTrue(lines[6], lines[6].startsWith("Bread Wine:,\terror: "));
+    assertTrue(lines[7], lines[7].startsWith("Bread Wine:PORT,\terror: "));
+    assertEquals(4, runner.getQueryCount());
+    assertEquals(4, runner.getErrorCount());
+  }
+
+  public void testManyQueries() throws Exception {
+    BatchQueryRunner runner = new BatchQueryRunner(readTruthTable(), 3, 100);
+    StringBuilder queries = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      queries.append(i % 2 == 0 ? "Wine\n" : "Wine Bread:WHEAT\n");
+    }
+    StringWriter out = new StringWriter();
+
+    runner.run(new StringReader(queries.toString()), out);
+
+    String[] lines = out.toString().split("\n");
+    assertEquals(3000, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      assertEquals(i % 2 == 0 ? "Wine\tCHIANTI,PORT" 
+          : "Wine Bread:WHEAT\tCHIANTI", lines[i]);
+    }
+    // Warmup queries are not measured
+    assertEquals(2900, runner.getQueryCount());
+    StringWriter report = new StringWriter();
+    runner.report(new PrintWriter(report));
+    assertTrue(report.toString(), 
+        report.toString().startsWith("Queries: 2900 (0 errors, 100 warmup)"));
+  }
+}
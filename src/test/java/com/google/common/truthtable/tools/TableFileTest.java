@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.truthtable.tools;
+
+import com.google.common.truthtable.impl.FixedCoordinates;
+import com.google.common.truthtable.impl.RealTruthTable;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Bread;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Entree;
+import com.google.common.truthtable.testing.BogusTruthTableTestingEnums.Wine;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.EnumSet;
+
+/**
+ * Tests {@link TableFile}.
+ *
+ * @author zorzella@google.com
+ */
+public class TableFileTest extends TestCase {
+
+  static final String ENUMS = 
+    "com.google.common.truthtable.testing.BogusTruthTableTestingEnums$";
+
+  static final String TABLE = 
+    "# Dinner\n"
+    + "axis " + ENUMS + "Wine\n"
+    + "axis " + ENUMS + "Bread\n"
+    + "axis " + ENUMS + "Entree\n"
+    + "\n"
+    + "group Wine:PORT Bread:PITA Entree:STEAK,CHICKEN\n"
+    + "  group  Wine:CHIANTI Entree:CHICKEN " + ENUMS + "Bread:WHEAT\n";
+
+  public void testRead() throws Exception {
+    RealTruthTable truthTable = TableFile.read(new StringReader(TABLE));
+
+    assertEquals(EnumSet.of(Wine.PORT, Wine.CHIANTI), 
+        truthTable.getAll(Wine.class));
+    assertEquals(EnumSet.of(Bread.WHEAT), truthTable.getAll(Bread.class, 
+        new FixedCoordinates(Entree.CHICKEN).excluding(Wine.PORT)));
+  }
+
+  public void testMalformedFiles() throws Exception {
+    assertMalformed("axis java.lang.String\n", "Line 1: ");
+    assertMalformed("axis com.example.Nothing\n", "Line 1: ");
+    assertMalformed(TABLE + "group Wine:BEER Bread:PITA\n", "Line 8: ");
+    assertMalformed(TABLE + "group Dessert:APPLE_PIE\n", "Line 8: ");
+    assertMalformed(TABLE + "group Wine:\n", "Line 8: ");
+    assertMalformed(TABLE + "grope Wine:PORT\n", "Line 8: ");
+    assertMalformed(TABLE + "axis " + ENUMS + "Dessert\n", "Line 8: ");
+  }
+
+  private static void assertMalformed(String file, String messagePrefix) 
+      throws Exception {
+    try {
+      TableFile.read(new StringReader(file));
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertTrue(expected.getMessage(), 
+          expected.getMessage().startsWith(messagePrefix));
+    }
+  }
+}